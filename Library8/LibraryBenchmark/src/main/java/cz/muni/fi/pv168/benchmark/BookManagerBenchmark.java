@@ -0,0 +1,122 @@
+package cz.muni.fi.pv168.benchmark;
+
+import cz.muni.fi.pv168.libraryloans.Book;
+import cz.muni.fi.pv168.libraryloans.BookManagerImpl;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Operations of {@link BookManagerImpl} against a preloaded database.
+ *
+ * @author L
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class BookManagerBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int rows;
+
+    private LibraryDatabase database;
+    private BookManagerImpl manager;
+    private List<Book> books;
+    /** books stored by {@link #createBook()}, deleted after each iteration */
+    private final Queue<Book> created = new ConcurrentLinkedQueue<>();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        database = new LibraryDatabase();
+        manager = new BookManagerImpl();
+        manager.setDataSource(database.getDataSource());
+        manager.setBatchSize(LibraryDatabase.LOAD_BATCH_SIZE);
+        books = LibraryDatabase.books(rows);
+        manager.createBooks(books);
+    }
+
+    /**
+     * Keeps the table at the size given by {@link #rows}.
+     */
+    @TearDown(Level.Iteration)
+    public void deleteCreated() {
+        List<Book> batch = new ArrayList<>(created);
+        created.clear();
+        if (!batch.isEmpty()) {
+            manager.deleteBooks(batch);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        database.close();
+    }
+
+    private Book randomBook() {
+        return books.get(ThreadLocalRandom.current().nextInt(books.size()));
+    }
+
+    @Benchmark
+    public Book createBook() {
+        Book book = LibraryDatabase.book(ThreadLocalRandom.current().nextInt(rows));
+        manager.createBook(book);
+        created.add(book);
+        return book;
+    }
+
+    @Benchmark
+    public Book getBookById() {
+        return manager.getBookById(randomBook().getId());
+    }
+
+    @Benchmark
+    public void updateBook() {
+        Book book = randomBook();
+        book.setPublished(book.getPublished() + 1);
+        manager.updateBook(book);
+    }
+
+    @Benchmark
+    public void deleteBook(Deleted deleted) {
+        manager.deleteBook(deleted.book);
+    }
+
+    @Benchmark
+    public List<Book> findAllBooks() {
+        return manager.findAllBooks();
+    }
+
+    /**
+     * Book stored before each call of {@link #deleteBook(Deleted)}.
+     */
+    @State(Scope.Thread)
+    public static class Deleted {
+
+        private Book book;
+
+        @Setup(Level.Invocation)
+        public void setUp(BookManagerBenchmark benchmark) {
+            book = LibraryDatabase.book(0);
+            benchmark.manager.createBook(book);
+        }
+    }
+}
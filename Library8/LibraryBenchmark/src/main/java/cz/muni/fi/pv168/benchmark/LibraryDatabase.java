@@ -0,0 +1,121 @@
+package cz.muni.fi.pv168.benchmark;
+
+import cz.muni.fi.pv168.libraryloans.Book;
+import cz.muni.fi.pv168.libraryloans.BookBuilder;
+import cz.muni.fi.pv168.libraryloans.DataSourceFactory;
+import cz.muni.fi.pv168.libraryloans.Loan;
+import cz.muni.fi.pv168.libraryloans.LoanBuilder;
+import cz.muni.fi.pv168.libraryloans.PooledDataSource;
+import cz.muni.fi.pv168.libraryloans.Reader;
+import cz.muni.fi.pv168.libraryloans.ReaderBuilder;
+import cz.muni.fi.pv168.libraryloans.SchemaMigrator;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Embedded in-memory database for benchmarks and generator of its data.
+ *
+ * @author L
+ */
+public class LibraryDatabase implements AutoCloseable {
+
+    /**
+     * Number of entities written in one transaction when preloading.
+     */
+    public static final int LOAD_BATCH_SIZE = 1000;
+
+    private static final AtomicInteger counter = new AtomicInteger();
+
+    private final String name;
+    private final PooledDataSource dataSource;
+
+    /**
+     * Creates new empty database with the current schema.
+     */
+    public LibraryDatabase() {
+        name = "librarybenchmark" + counter.incrementAndGet();
+        DataSourceFactory factory = new DataSourceFactory();
+        factory.setUrl("jdbc:derby:memory:" + name + ";create=true");
+        dataSource = factory.createDataSource();
+        new SchemaMigrator(dataSource).migrate();
+    }
+
+    public PooledDataSource getDataSource() {
+        return dataSource;
+    }
+
+    /**
+     * Closes the pool and drops the database.
+     */
+    @Override
+    public void close() {
+        dataSource.close();
+        try {
+            DriverManager.getConnection("jdbc:derby:memory:" + name + ";drop=true").close();
+        } catch (SQLException ex) {
+            //Derby reports successful drop by an exception with state 08006
+            if (!"08006".equals(ex.getSQLState())) {
+                throw new IllegalStateException("Cannot drop database " + name, ex);
+            }
+        }
+    }
+
+    public static Book book(int i) {
+        return new BookBuilder().title("Title " + i).author("Author " + letters(i))
+                .published(1500 + i % 500).note("note " + i).build();
+    }
+
+    public static List<Book> books(int count) {
+        List<Book> books = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            books.add(book(i));
+        }
+        return books;
+    }
+
+    public static Reader reader(int i) {
+        return new ReaderBuilder().name("Reader " + letters(i)).address("Brno " + i)
+                .eMail("reader" + i + "@mail.cz").build();
+    }
+
+    public static List<Reader> readers(int count) {
+        List<Reader> readers = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            readers.add(reader(i));
+        }
+        return readers;
+    }
+
+    public static Loan loan(int i, Reader reader, Book book) {
+        LocalDate start = LocalDate.of(2016, 1, 1).plusDays(i % 365);
+        return new LoanBuilder().reader(reader).book(book).startDate(start)
+                .expectedEndDate(start.plusDays(30)).build();
+    }
+
+    /**
+     * Creates loans of given readers and books, each used about equally.
+     */
+    public static List<Loan> loans(int count, List<Reader> readers, List<Book> books) {
+        List<Loan> loans = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            loans.add(loan(i, readers.get(i % readers.size()), books.get(i % books.size())));
+        }
+        return loans;
+    }
+
+    /**
+     * Converts a number to letters, as names must not contain digits.
+     */
+    private static String letters(int i) {
+        StringBuilder sb = new StringBuilder();
+        do {
+            sb.append((char) ('a' + i % 26));
+            i /= 26;
+        } while (i > 0);
+        return sb.toString();
+    }
+}
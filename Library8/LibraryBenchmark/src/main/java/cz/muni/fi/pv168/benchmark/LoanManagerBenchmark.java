@@ -0,0 +1,146 @@
+package cz.muni.fi.pv168.benchmark;
+
+import cz.muni.fi.pv168.libraryloans.Book;
+import cz.muni.fi.pv168.libraryloans.BookManagerImpl;
+import cz.muni.fi.pv168.libraryloans.Loan;
+import cz.muni.fi.pv168.libraryloans.LoanManagerImpl;
+import cz.muni.fi.pv168.libraryloans.Reader;
+import cz.muni.fi.pv168.libraryloans.ReaderManagerImpl;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Operations of {@link LoanManagerImpl} against a preloaded database.
+ * There is one reader and one book per ten loans.
+ *
+ * @author L
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class LoanManagerBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int rows;
+
+    private LibraryDatabase database;
+    private LoanManagerImpl manager;
+    private List<Reader> readers;
+    private List<Book> books;
+    private List<Loan> loans;
+    /** loans stored by {@link #createLoan()}, deleted after each iteration */
+    private final Queue<Loan> created = new ConcurrentLinkedQueue<>();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        database = new LibraryDatabase();
+        ReaderManagerImpl readerManager = new ReaderManagerImpl();
+        readerManager.setDataSource(database.getDataSource());
+        readerManager.setBatchSize(LibraryDatabase.LOAD_BATCH_SIZE);
+        BookManagerImpl bookManager = new BookManagerImpl();
+        bookManager.setDataSource(database.getDataSource());
+        bookManager.setBatchSize(LibraryDatabase.LOAD_BATCH_SIZE);
+        manager = new LoanManagerImpl(Clock.systemDefaultZone());
+        manager.setDataSource(database.getDataSource());
+        manager.setBatchSize(LibraryDatabase.LOAD_BATCH_SIZE);
+
+        readers = LibraryDatabase.readers(Math.max(1, rows / 10));
+        readerManager.createReaders(readers);
+        books = LibraryDatabase.books(Math.max(1, rows / 10));
+        bookManager.createBooks(books);
+        loans = LibraryDatabase.loans(rows, readers, books);
+        manager.createLoans(loans);
+    }
+
+    /**
+     * Keeps the table at the size given by {@link #rows}.
+     */
+    @TearDown(Level.Iteration)
+    public void deleteCreated() {
+        List<Loan> batch = new ArrayList<>(created);
+        created.clear();
+        if (!batch.isEmpty()) {
+            manager.deleteLoans(batch);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        database.close();
+    }
+
+    private Loan randomLoan() {
+        return loans.get(ThreadLocalRandom.current().nextInt(loans.size()));
+    }
+
+    private Loan newLoan() {
+        int i = ThreadLocalRandom.current().nextInt(rows);
+        return LibraryDatabase.loan(i, readers.get(i % readers.size()), books.get(i % books.size()));
+    }
+
+    @Benchmark
+    public Loan createLoan() {
+        Loan loan = newLoan();
+        manager.createLoan(loan);
+        created.add(loan);
+        return loan;
+    }
+
+    @Benchmark
+    public Loan getLoanById() {
+        return manager.getLoanById(randomLoan().getId());
+    }
+
+    @Benchmark
+    public void updateLoan() {
+        Loan loan = randomLoan();
+        loan.setExpectedEndDate(loan.getExpectedEndDate().plusDays(1));
+        manager.updateLoan(loan);
+    }
+
+    @Benchmark
+    public void deleteLoan(Deleted deleted) {
+        manager.deleteLoan(deleted.loan);
+    }
+
+    @Benchmark
+    public List<Loan> findAllLoans() {
+        return manager.findAllLoans();
+    }
+
+    /**
+     * Loan stored before each call of {@link #deleteLoan(Deleted)}.
+     */
+    @State(Scope.Thread)
+    public static class Deleted {
+
+        private Loan loan;
+
+        @Setup(Level.Invocation)
+        public void setUp(LoanManagerBenchmark benchmark) {
+            loan = benchmark.newLoan();
+            benchmark.manager.createLoan(loan);
+        }
+    }
+}
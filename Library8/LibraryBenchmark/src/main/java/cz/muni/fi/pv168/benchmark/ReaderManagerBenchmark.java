@@ -0,0 +1,122 @@
+package cz.muni.fi.pv168.benchmark;
+
+import cz.muni.fi.pv168.libraryloans.Reader;
+import cz.muni.fi.pv168.libraryloans.ReaderManagerImpl;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Operations of {@link ReaderManagerImpl} against a preloaded database.
+ *
+ * @author L
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class ReaderManagerBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int rows;
+
+    private LibraryDatabase database;
+    private ReaderManagerImpl manager;
+    private List<Reader> readers;
+    /** readers stored by {@link #createReader()}, deleted after each iteration */
+    private final Queue<Reader> created = new ConcurrentLinkedQueue<>();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        database = new LibraryDatabase();
+        manager = new ReaderManagerImpl();
+        manager.setDataSource(database.getDataSource());
+        manager.setBatchSize(LibraryDatabase.LOAD_BATCH_SIZE);
+        readers = LibraryDatabase.readers(rows);
+        manager.createReaders(readers);
+    }
+
+    /**
+     * Keeps the table at the size given by {@link #rows}.
+     */
+    @TearDown(Level.Iteration)
+    public void deleteCreated() {
+        List<Reader> batch = new ArrayList<>(created);
+        created.clear();
+        if (!batch.isEmpty()) {
+            manager.deleteReaders(batch);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        database.close();
+    }
+
+    private Reader randomReader() {
+        return readers.get(ThreadLocalRandom.current().nextInt(readers.size()));
+    }
+
+    @Benchmark
+    public Reader createReader() {
+        Reader reader = LibraryDatabase.reader(ThreadLocalRandom.current().nextInt(rows));
+        manager.createReader(reader);
+        created.add(reader);
+        return reader;
+    }
+
+    @Benchmark
+    public Reader getReaderById() {
+        return manager.getReaderById(randomReader().getId());
+    }
+
+    @Benchmark
+    public void updateReader() {
+        Reader reader = randomReader();
+        reader.setNote(String.valueOf(System.nanoTime()));
+        manager.updateReader(reader);
+    }
+
+    @Benchmark
+    public void deleteReader(Deleted deleted) {
+        manager.deleteReader(deleted.reader);
+    }
+
+    @Benchmark
+    public List<Reader> findAllReaders() {
+        return manager.findAllReaders();
+    }
+
+    /**
+     * Reader stored before each call of {@link #deleteReader(Deleted)}.
+     */
+    @State(Scope.Thread)
+    public static class Deleted {
+
+        private Reader reader;
+
+        @Setup(Level.Invocation)
+        public void setUp(ReaderManagerBenchmark benchmark) {
+            reader = LibraryDatabase.reader(0);
+            benchmark.manager.createReader(reader);
+        }
+    }
+}
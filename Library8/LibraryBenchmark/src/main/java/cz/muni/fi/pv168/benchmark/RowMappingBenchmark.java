@@ -0,0 +1,87 @@
+package cz.muni.fi.pv168.benchmark;
+
+import cz.muni.fi.pv168.libraryloans.Book;
+import cz.muni.fi.pv168.libraryloans.BookManagerImpl;
+import cz.muni.fi.pv168.libraryloans.DBUtils;
+import cz.muni.fi.pv168.libraryloans.RowMapper;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Per-row cost of a full scan of {@value #ROWS} books, mapping columns by
+ * name as the managers used to and by positions resolved once per query
+ * as {@link BookManagerImpl#streamAllBooks()} does.
+ *
+ * @author L
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class RowMappingBenchmark {
+
+    public static final int ROWS = 1_000_000;
+
+    private static final String SELECT_BOOKS = "SELECT id,title,author,published,note FROM Book";
+
+    private static final RowMapper<Book> BY_NAME = rs -> {
+        Book book = new Book();
+        book.setId(rs.getLong("id"));
+        book.setTitle(rs.getString("title"));
+        book.setAuthor(rs.getString("author"));
+        book.setPublished(rs.getInt("published"));
+        book.setNote(rs.getString("note"));
+        return book;
+    };
+
+    private LibraryDatabase database;
+    private BookManagerImpl manager;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        database = new LibraryDatabase();
+        manager = new BookManagerImpl();
+        manager.setDataSource(database.getDataSource());
+        manager.setBatchSize(LibraryDatabase.LOAD_BATCH_SIZE);
+        manager.createBooks(LibraryDatabase.books(ROWS));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        database.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void scanByName(Blackhole blackhole) throws SQLException {
+        try (Stream<Book> books = DBUtils.streamQuery(database.getDataSource(), SELECT_BOOKS,
+                DBUtils.DEFAULT_FETCH_SIZE, BY_NAME)) {
+            books.forEach(blackhole::consume);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void scanByIndex(Blackhole blackhole) {
+        try (Stream<Book> books = manager.streamAllBooks()) {
+            books.forEach(blackhole::consume);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package cz.muni.fi.pv168.libraryloans;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Asynchronous variant of {@link BookManager}. Operations run on the given
+ * {@link ManagerExecutor}, and their futures fail with the exceptions 
+ * thrown by the manager, or with 
+ * {@link java.util.concurrent.RejectedExecutionException} when the executor 
+ * is overloaded.
+ *
+ * @author L
+ */
+public class AsyncBookManager {
+
+    private final BookManager manager;
+    private final ManagerExecutor executor;
+
+    public AsyncBookManager(BookManager manager, ManagerExecutor executor) {
+        if (manager == null) {
+            throw new IllegalArgumentException("manager is null");
+        }
+        if (executor == null) {
+            throw new IllegalArgumentException("executor is null");
+        }
+        this.manager = manager;
+        this.executor = executor;
+    }
+
+    /**
+     * @param book book to store
+     * @return future completed with the stored book, with id assigned
+     */
+    public CompletableFuture<Book> createBook(Book book) {
+        return executor.submit("createBook", () -> {
+            manager.createBook(book);
+            return book;
+        });
+    }
+
+    public CompletableFuture<Void> updateBook(Book book) {
+        return executor.run("updateBook", () -> manager.updateBook(book));
+    }
+
+    public CompletableFuture<Void> deleteBook(Book book) {
+        return executor.run("deleteBook", () -> manager.deleteBook(book));
+    }
+
+    /**
+     * @param id book id
+     * @return future completed with the book, or with null when not found
+     */
+    public CompletableFuture<Book> getBookById(Long id) {
+        return executor.submit("getBookById", () -> manager.getBookById(id));
+    }
+
+    public CompletableFuture<List<Book>> findAllBooks() {
+        return executor.submit("findAllBooks", manager::findAllBooks);
+    }
+
+    /**
+     * @see BookManager#findBooks(Long, int)
+     */
+    public CompletableFuture<List<Book>> findBooks(Long afterId, int limit) {
+        return executor.submit("findBooks", () -> manager.findBooks(afterId, limit));
+    }
+
+    public CompletableFuture<Long> countBooks() {
+        return executor.submit("countBooks", manager::countBooks);
+    }
+
+    /**
+     * @see BookManager#searchBooks(String, int)
+     */
+    public CompletableFuture<List<Book>> searchBooks(String query, int limit) {
+        return executor.submit("searchBooks", () -> manager.searchBooks(query, limit));
+    }
+}
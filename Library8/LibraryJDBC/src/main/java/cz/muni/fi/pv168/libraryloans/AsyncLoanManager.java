@@ -0,0 +1,137 @@
+package cz.muni.fi.pv168.libraryloans;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Asynchronous variant of {@link LoanManager}. Operations run on the given
+ * {@link ManagerExecutor}, and their futures fail with the exceptions 
+ * thrown by the manager, or with 
+ * {@link java.util.concurrent.RejectedExecutionException} when the executor 
+ * is overloaded.
+ *
+ * @author L
+ */
+public class AsyncLoanManager {
+
+    private final LoanManager manager;
+    private final ManagerExecutor executor;
+
+    public AsyncLoanManager(LoanManager manager, ManagerExecutor executor) {
+        if (manager == null) {
+            throw new IllegalArgumentException("manager is null");
+        }
+        if (executor == null) {
+            throw new IllegalArgumentException("executor is null");
+        }
+        this.manager = manager;
+        this.executor = executor;
+    }
+
+    /**
+     * @param loan loan to store
+     * @return future completed with the stored loan, with id assigned
+     */
+    public CompletableFuture<Loan> createLoan(Loan loan) {
+        return executor.submit("createLoan", () -> {
+            manager.createLoan(loan);
+            return loan;
+        });
+    }
+
+    public CompletableFuture<Void> updateLoan(Loan loan) {
+        return executor.run("updateLoan", () -> manager.updateLoan(loan));
+    }
+
+    public CompletableFuture<Void> deleteLoan(Loan loan) {
+        return executor.run("deleteLoan", () -> manager.deleteLoan(loan));
+    }
+
+    /**
+     * @param id loan id
+     * @return future completed with the loan, or with null when not found
+     */
+    public CompletableFuture<Loan> getLoanById(Long id) {
+        return executor.submit("getLoanById", () -> manager.getLoanById(id));
+    }
+
+    public CompletableFuture<List<Loan>> findAllLoans() {
+        return executor.submit("findAllLoans", manager::findAllLoans);
+    }
+
+    /**
+     * @see LoanManager#findLoans(Long, int)
+     */
+    public CompletableFuture<List<Loan>> findLoans(Long afterId, int limit) {
+        return executor.submit("findLoans", () -> manager.findLoans(afterId, limit));
+    }
+
+    public CompletableFuture<Long> countLoans() {
+        return executor.submit("countLoans", manager::countLoans);
+    }
+
+    public CompletableFuture<List<Loan>> findAllLoansForReader(Reader reader) {
+        return executor.submit("findAllLoansForReader", () -> manager.findAllLoansForReader(reader));
+    }
+
+    public CompletableFuture<List<Loan>> findAllLoansForBook(Book book) {
+        return executor.submit("findAllLoansForBook", () -> manager.findAllLoansForBook(book));
+    }
+
+    public CompletableFuture<List<Loan>> findOverdueLoans() {
+        return executor.submit("findOverdueLoans", manager::findOverdueLoans);
+    }
+
+    /**
+     * @see LoanManager#findOverdueLoans(LocalDate)
+     */
+    public CompletableFuture<List<Loan>> findOverdueLoans(LocalDate asOf) {
+        return executor.submit("findOverdueLoans", () -> manager.findOverdueLoans(asOf));
+    }
+
+    /**
+     * @see LoanManager#findLoansDueBetween(LocalDate, LocalDate)
+     */
+    public CompletableFuture<List<Loan>> findLoansDueBetween(LocalDate from, LocalDate to) {
+        return executor.submit("findLoansDueBetween", () -> manager.findLoansDueBetween(from, to));
+    }
+
+    /**
+     * @see LoanManager#returnBooks(Collection, LocalDateTime)
+     */
+    public CompletableFuture<Set<Long>> returnBooks(Collection<Long> bookIds, LocalDateTime when) {
+        return executor.submit("returnBooks", () -> manager.returnBooks(bookIds, when));
+    }
+
+    /**
+     * @see LoanManager#checkoutLoans(Collection)
+     */
+    public CompletableFuture<Void> checkoutLoans(Collection<Loan> loans) {
+        return executor.run("checkoutLoans", () -> manager.checkoutLoans(loans));
+    }
+
+    /**
+     * @see LoanManager#isBookAvailable(Book)
+     */
+    public CompletableFuture<Boolean> isBookAvailable(Book book) {
+        return executor.submit("isBookAvailable", () -> manager.isBookAvailable(book));
+    }
+
+    /**
+     * @see LoanManager#getHolderId(Book)
+     */
+    public CompletableFuture<Long> getHolderId(Book book) {
+        return executor.submit("getHolderId", () -> manager.getHolderId(book));
+    }
+
+    /**
+     * @see LoanManager#checkoutBook(Reader, Book, LocalDate)
+     */
+    public CompletableFuture<Loan> checkoutBook(Reader reader, Book book, LocalDate dueDate) {
+        return executor.submit("checkoutBook", () -> manager.checkoutBook(reader, book, dueDate));
+    }
+}
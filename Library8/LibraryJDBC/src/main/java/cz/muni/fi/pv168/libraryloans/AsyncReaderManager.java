@@ -0,0 +1,79 @@
+package cz.muni.fi.pv168.libraryloans;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Asynchronous variant of {@link ReaderManager}. Operations run on the given
+ * {@link ManagerExecutor}, and their futures fail with the exceptions 
+ * thrown by the manager, or with 
+ * {@link java.util.concurrent.RejectedExecutionException} when the executor 
+ * is overloaded.
+ *
+ * @author L
+ */
+public class AsyncReaderManager {
+
+    private final ReaderManager manager;
+    private final ManagerExecutor executor;
+
+    public AsyncReaderManager(ReaderManager manager, ManagerExecutor executor) {
+        if (manager == null) {
+            throw new IllegalArgumentException("manager is null");
+        }
+        if (executor == null) {
+            throw new IllegalArgumentException("executor is null");
+        }
+        this.manager = manager;
+        this.executor = executor;
+    }
+
+    /**
+     * @param reader reader to store
+     * @return future completed with the stored reader, with id assigned
+     */
+    public CompletableFuture<Reader> createReader(Reader reader) {
+        return executor.submit("createReader", () -> {
+            manager.createReader(reader);
+            return reader;
+        });
+    }
+
+    public CompletableFuture<Void> updateReader(Reader reader) {
+        return executor.run("updateReader", () -> manager.updateReader(reader));
+    }
+
+    public CompletableFuture<Void> deleteReader(Reader reader) {
+        return executor.run("deleteReader", () -> manager.deleteReader(reader));
+    }
+
+    /**
+     * @param id reader id
+     * @return future completed with the reader, or with null when not found
+     */
+    public CompletableFuture<Reader> getReaderById(Long id) {
+        return executor.submit("getReaderById", () -> manager.getReaderById(id));
+    }
+
+    public CompletableFuture<List<Reader>> findAllReaders() {
+        return executor.submit("findAllReaders", manager::findAllReaders);
+    }
+
+    /**
+     * @see ReaderManager#findReaders(Long, int)
+     */
+    public CompletableFuture<List<Reader>> findReaders(Long afterId, int limit) {
+        return executor.submit("findReaders", () -> manager.findReaders(afterId, limit));
+    }
+
+    public CompletableFuture<Long> countReaders() {
+        return executor.submit("countReaders", manager::countReaders);
+    }
+
+    /**
+     * @see ReaderManager#searchReaders(String, int)
+     */
+    public CompletableFuture<List<Reader>> searchReaders(String query, int limit) {
+        return executor.submit("searchReaders", () -> manager.searchReaders(query, limit));
+    }
+}
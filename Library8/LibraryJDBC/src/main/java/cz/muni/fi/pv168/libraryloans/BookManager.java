@@ -1,6 +1,8 @@
 package cz.muni.fi.pv168.libraryloans;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.stream.Stream;
 import javax.sql.DataSource;
 
 /**
@@ -17,8 +19,77 @@ public interface BookManager {
     
     public void deleteBook(Book book);
     
+    /**
+     * Inserts all books and assigns their ids. Books are written in chunks, 
+     * each chunk in its own transaction. When a chunk fails, books from 
+     * previous chunks stay stored.
+     * 
+     * @param books books to insert
+     */
+    public void createBooks(Collection<Book> books);
+    
+    /**
+     * Updates all books, in chunks like {@link #createBooks(Collection)}.
+     * 
+     * @param books books to update
+     */
+    public void updateBooks(Collection<Book> books);
+    
+    /**
+     * Deletes all books, in chunks like {@link #createBooks(Collection)}.
+     * 
+     * @param books books to delete
+     */
+    public void deleteBooks(Collection<Book> books);
+    
     public Book getBookById(Long id);
     
+    /**
+     * Finds books having, for every word of the query, a word in title or author 
+     * starting with it. Case and diacritics are ignored, so "hudba veku" finds 
+     * "Hudba věku melancholie". Searched is an in-memory index loaded by the first search
+     * and updated by this manager, changes done by others are not visible.
+     * 
+     * @param query searched words
+     * @param limit maximal number of returned books
+     * @return matching books ordered by id
+     */
+    public List<Book> searchBooks(String query, int limit);
+    
+    /**
+     * Finds books like {@link #searchBooks(String, int)}, but tolerates typos, 
+     * e.g. "melanchloie" finds "Hudba věku melancholie".
+     * 
+     * @param query searched words
+     * @param limit maximal number of returned books
+     * @return matching books, the closest matches first
+     */
+    public List<Book> searchBooksFuzzy(String query, int limit);
+    
     public List<Book> findAllBooks();
     
+    /**
+     * Returns all books as a lazy stream, rows are read from the database 
+     * while the stream is consumed. The stream holds a connection, so it 
+     * must be closed, e.g. by try-with-resources.
+     * 
+     * @return stream of all books
+     */
+    public Stream<Book> streamAllBooks();
+    
+    /**
+     * Returns one page of books ordered by id. The next page starts after 
+     * the id of the last book of the previous page.
+     * 
+     * @param afterId id of the last book of the previous page, null for the first page
+     * @param limit maximal number of returned books
+     * @return books with id greater than afterId
+     */
+    public List<Book> findBooks(Long afterId, int limit);
+    
+    /**
+     * @return number of stored books
+     */
+    public long countBooks();
+    
 }
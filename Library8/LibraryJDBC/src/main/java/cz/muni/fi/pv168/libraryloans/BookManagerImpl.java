@@ -2,7 +2,11 @@ package cz.muni.fi.pv168.libraryloans;
 
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
 import java.util.logging.Logger;
 import javax.sql.DataSource;
 import java.util.logging.Level;
@@ -15,13 +19,92 @@ public class BookManagerImpl implements BookManager {
     private static final Logger logger = Logger.getLogger(
         BookManagerImpl.class.getName());
     
+    private static final String INSERT_BOOK =
+            "INSERT INTO Book (title,author,published,note) VALUES (?,?,?,?)";
+    private static final String UPDATE_BOOK =
+            "UPDATE Book SET title = ?, author = ?, published = ?, note = ? WHERE id = ?";
+    private static final String DELETE_BOOK =
+            "DELETE FROM Book WHERE id = ?";
+    
     private DataSource dataSource;
+    private DataSource readOnlyDataSource;
+    private ChangeTracker changeTracker;
+    private OpenLoansIndex openLoansIndex;
+    private int batchSize = DBUtils.DEFAULT_BATCH_SIZE;
+    private int fetchSize = DBUtils.DEFAULT_FETCH_SIZE;
+    private final SearchIndex<Book> searchIndex = new SearchIndex<>(Book::getId,
+            book -> book.getTitle() + " " + book.getAuthor(),
+            BookManagerImpl::copyOf, this::streamAllBooks);
 
     @Override
     public void setDataSource(DataSource dataSource) {
         this.dataSource = dataSource;
     }
     
+    /**
+     * @param batchSize number of books written in one transaction by bulk operations
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batch size must be positive");
+        }
+        this.batchSize = batchSize;
+    }
+    
+    /**
+     * @param fetchSize number of rows fetched at once by {@link #streamAllBooks()}
+     */
+    public void setFetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
+    }
+    
+    /**
+     * @param readOnlyDataSource data source used by finders, e.g. a read-only
+     * pool from {@link DataSourceFactory#createReadOnlyDataSource()}; when
+     * null, finders use the data source
+     */
+    public void setReadOnlyDataSource(DataSource readOnlyDataSource) {
+        this.readOnlyDataSource = readOnlyDataSource;
+    }
+    
+    /**
+     * @param changeTracker tracker notified about committed changes, may be null
+     */
+    public void setChangeTracker(ChangeTracker changeTracker) {
+        this.changeTracker = changeTracker;
+    }
+
+    /**
+     * @param openLoansIndex index, from which open loans of deleted books are
+     * removed, may be null
+     */
+    public void setOpenLoansIndex(OpenLoansIndex openLoansIndex) {
+        this.openLoansIndex = openLoansIndex;
+    }
+
+    private void booksChanged() {
+        if (changeTracker != null) {
+            changeTracker.changed(ChangeTracker.Table.BOOK);
+        }
+    }
+    
+    /**
+     * Loans of deleted books are deleted by ON DELETE CASCADE.
+     */
+    private void booksDeleted(Collection<Long> ids) {
+        if (changeTracker != null) {
+            changeTracker.changed(ChangeTracker.Table.BOOK);
+            changeTracker.changed(ChangeTracker.Table.LOAN);
+        }
+        if (openLoansIndex != null) {
+            openLoansIndex.booksDeleted(ids);
+        }
+    }
+    
+    private DataSource readDataSource() {
+        return readOnlyDataSource != null ? readOnlyDataSource : dataSource;
+    }
+    
     private void checkDataSource() {
         if (dataSource == null) {
             throw new IllegalStateException("DataSource is not set");
@@ -41,13 +124,8 @@ public class BookManagerImpl implements BookManager {
         try {
             conn = dataSource.getConnection();
             conn.setAutoCommit(false);
-            st = conn.prepareStatement(
-                    "INSERT INTO Book (title,author,published,note) VALUES (?,?,?,?)",
-                    Statement.RETURN_GENERATED_KEYS);        
-            st.setString(1, book.getTitle());
-            st.setString(2, book.getAuthor());
-            st.setInt(3, book.getPublished());
-            st.setString(4, book.getNote());
+            st = conn.prepareStatement(INSERT_BOOK, Statement.RETURN_GENERATED_KEYS);        
+            setBookParameters(st, book);
 
             int count = st.executeUpdate();
             DBUtils.checkUpdatesCount(count, book, true);
@@ -55,6 +133,11 @@ public class BookManagerImpl implements BookManager {
             Long id = DBUtils.getId(st.getGeneratedKeys());
             book.setId(id);
             conn.commit();        
+            TransactionManager.afterCommit(conn, () -> {
+                searchIndex.put(book);
+                booksChanged();
+            });
+            TransactionManager.afterRollback(conn, () -> book.setId(null));
         } catch (SQLException ex) {
             String msg = "Error when inserting book into db";
             logger.log(Level.SEVERE, msg, ex);
@@ -77,16 +160,16 @@ public class BookManagerImpl implements BookManager {
         try {
             conn = dataSource.getConnection();
             conn.setAutoCommit(false);
-            st = conn.prepareStatement(
-                    "UPDATE Book SET title = ?, author = ?, published = ?, note = ? WHERE id = ?");
-            st.setString(1, book.getTitle());
-            st.setString(2, book.getAuthor());
-            st.setInt(3, book.getPublished());
-            st.setString(4, book.getNote());
+            st = conn.prepareStatement(UPDATE_BOOK);
+            setBookParameters(st, book);
             st.setLong(5, book.getId());
             int count = st.executeUpdate();
             DBUtils.checkUpdatesCount(count, book, false);
             conn.commit();
+            TransactionManager.afterCommit(conn, () -> {
+                searchIndex.put(book);
+                booksChanged();
+            });
         } catch (SQLException ex) {
             String msg = "Error when updating book in the db";
             logger.log(Level.SEVERE, msg, ex);
@@ -111,13 +194,16 @@ public class BookManagerImpl implements BookManager {
         try {
             conn = dataSource.getConnection();
             conn.setAutoCommit(false);
-            st = conn.prepareStatement(
-                    "DELETE FROM Book WHERE id = ?");
+            st = conn.prepareStatement(DELETE_BOOK);
             st.setLong(1, book.getId());
 
             int count = st.executeUpdate();
             DBUtils.checkUpdatesCount(count, book, false);
             conn.commit();
+            TransactionManager.afterCommit(conn, () -> {
+                searchIndex.remove(book.getId());
+                booksDeleted(Collections.singletonList(book.getId()));
+            });
         } catch (SQLException ex) {
             String msg = "Error when deleting book from the db";
             logger.log(Level.SEVERE, msg, ex);
@@ -128,6 +214,112 @@ public class BookManagerImpl implements BookManager {
         }
     }
     
+    @Override
+    public void createBooks(Collection<Book> books) throws ServiceFailureException {
+        checkDataSource();
+        if (books == null) {
+            throw new IllegalArgumentException("books is null");
+        }
+        for (Book book : books) {
+            validate(book);
+            if (book.getId() != null) {
+                throw new IllegalEntityException("book id is already set");
+            }
+        }
+        try {
+            //Derby returns only the last generated key for a batch, so rows
+            //are inserted one by one, but with one statement per chunk
+            DBUtils.executeInChunks(dataSource, books, batchSize, (conn, chunk) -> {
+                try (PreparedStatement st = conn.prepareStatement(INSERT_BOOK, Statement.RETURN_GENERATED_KEYS)) {
+                    for (Book book : chunk) {
+                        setBookParameters(st, book);
+                        int count = st.executeUpdate();
+                        DBUtils.checkUpdatesCount(count, book, true);
+                        book.setId(DBUtils.getId(st.getGeneratedKeys()));
+                    }
+                }
+            }, chunk -> {
+                chunk.forEach(searchIndex::put);
+                booksChanged();
+            }, chunk -> chunk.forEach(book -> book.setId(null)));
+        } catch (SQLException ex) {
+            String msg = "Error when inserting books into db";
+            logger.log(Level.SEVERE, msg, ex);
+            throw new ServiceFailureException(msg, ex);
+        }
+    }
+    
+    @Override
+    public void updateBooks(Collection<Book> books) throws ServiceFailureException {
+        checkDataSource();
+        if (books == null) {
+            throw new IllegalArgumentException("books is null");
+        }
+        for (Book book : books) {
+            validate(book);
+            if (book.getId() == null) {
+                throw new IllegalEntityException("book id is null");
+            }
+        }
+        try {
+            DBUtils.executeInChunks(dataSource, books, batchSize, (conn, chunk) -> {
+                try (PreparedStatement st = conn.prepareStatement(UPDATE_BOOK)) {
+                    for (Book book : chunk) {
+                        setBookParameters(st, book);
+                        st.setLong(5, book.getId());
+                        st.addBatch();
+                    }
+                    DBUtils.checkBatchUpdatesCounts(st.executeBatch(), chunk, false);
+                }
+            }, chunk -> {
+                chunk.forEach(searchIndex::put);
+                booksChanged();
+            }, null);
+        } catch (SQLException ex) {
+            String msg = "Error when updating books in the db";
+            logger.log(Level.SEVERE, msg, ex);
+            throw new ServiceFailureException(msg, ex);
+        }
+    }
+    
+    @Override
+    public void deleteBooks(Collection<Book> books) throws ServiceFailureException {
+        checkDataSource();
+        if (books == null) {
+            throw new IllegalArgumentException("books is null");
+        }
+        for (Book book : books) {
+            if (book == null) {
+                throw new IllegalArgumentException("book is null");
+            }
+            if (book.getId() == null) {
+                throw new IllegalEntityException("book id is null");
+            }
+        }
+        try {
+            DBUtils.executeInChunks(dataSource, books, batchSize, (conn, chunk) -> {
+                try (PreparedStatement st = conn.prepareStatement(DELETE_BOOK)) {
+                    for (Book book : chunk) {
+                        st.setLong(1, book.getId());
+                        st.addBatch();
+                    }
+                    DBUtils.checkBatchUpdatesCounts(st.executeBatch(), chunk, false);
+                }
+            }, chunk -> {
+                List<Long> ids = new ArrayList<>(chunk.size());
+                for (Book book : chunk) {
+                    searchIndex.remove(book.getId());
+                    ids.add(book.getId());
+                }
+                booksDeleted(ids);
+            }, null);
+        } catch (SQLException ex) {
+            String msg = "Error when deleting books from the db";
+            logger.log(Level.SEVERE, msg, ex);
+            throw new ServiceFailureException(msg, ex);
+        }
+    }
+    
     @Override
     public Book getBookById(Long id) throws ServiceFailureException {
 
@@ -140,7 +332,7 @@ public class BookManagerImpl implements BookManager {
         Connection conn = null;
         PreparedStatement st = null;
         try {
-            conn = dataSource.getConnection();
+            conn = readDataSource().getConnection();
             st = conn.prepareStatement(
                     "SELECT id,title,author,published,note FROM Book WHERE id = ?");
             st.setLong(1, id);
@@ -154,13 +346,33 @@ public class BookManagerImpl implements BookManager {
         }
     }    
     
+    /**
+     * Loads the search index of books, so the first search does not wait for it.
+     */
+    public void warmUp() throws ServiceFailureException {
+        checkDataSource();
+        searchIndex.warmUp();
+    }
+    
+    @Override
+    public List<Book> searchBooks(String query, int limit) {
+        checkDataSource();
+        return searchIndex.search(query, limit);
+    }
+    
+    @Override
+    public List<Book> searchBooksFuzzy(String query, int limit) {
+        checkDataSource();
+        return searchIndex.searchFuzzy(query, limit);
+    }
+    
     @Override
     public List<Book> findAllBooks() throws ServiceFailureException {
         checkDataSource();
         Connection conn = null;
         PreparedStatement st = null;
         try {
-            conn = dataSource.getConnection();
+            conn = readDataSource().getConnection();
             st = conn.prepareStatement(
                     "SELECT id,title,author,published,note FROM Book");
             return executeQueryForMultipleBooks(st);
@@ -173,10 +385,65 @@ public class BookManagerImpl implements BookManager {
         }          
     }    
     
+    @Override
+    public Stream<Book> streamAllBooks() throws ServiceFailureException {
+        checkDataSource();
+        try {
+            return DBUtils.streamQuery(readDataSource(), "SELECT id,title,author,published,note FROM Book",
+                    fetchSize, bookRowMapper());
+        } catch (SQLException ex) {
+            String msg = "Error when streaming all books from DB";
+            logger.log(Level.SEVERE, msg, ex);
+            throw new ServiceFailureException(msg, ex);
+        }
+    }
+    
+    @Override
+    public List<Book> findBooks(Long afterId, int limit) throws ServiceFailureException {
+        checkDataSource();
+        if (limit <= 0) {
+            throw new IllegalArgumentException("limit must be positive");
+        }
+        Connection conn = null;
+        PreparedStatement st = null;
+        try {
+            conn = readDataSource().getConnection();
+            st = conn.prepareStatement(
+                    "SELECT id,title,author,published,note FROM Book WHERE id > ? ORDER BY id FETCH FIRST ? ROWS ONLY");
+            st.setLong(1, afterId == null ? Long.MIN_VALUE : afterId);
+            st.setInt(2, limit);
+            return executeQueryForMultipleBooks(st);
+        } catch (SQLException ex) {
+            String msg = "Error when getting books after id = " + afterId + " from DB";
+            logger.log(Level.SEVERE, msg, ex);
+            throw new ServiceFailureException(msg, ex);
+        } finally {
+            DBUtils.closeQuietly(conn, st);
+        }
+    }
+    
+    @Override
+    public long countBooks() throws ServiceFailureException {
+        checkDataSource();
+        Connection conn = null;
+        PreparedStatement st = null;
+        try {
+            conn = readDataSource().getConnection();
+            st = conn.prepareStatement("SELECT COUNT(*) FROM Book");
+            return DBUtils.executeQueryForLong(st);
+        } catch (SQLException ex) {
+            String msg = "Error when counting books in DB";
+            logger.log(Level.SEVERE, msg, ex);
+            throw new ServiceFailureException(msg, ex);
+        } finally {
+            DBUtils.closeQuietly(conn, st);
+        }
+    }
+    
     private static Book executeQueryForSingleBook(PreparedStatement st) throws SQLException, ServiceFailureException {
         ResultSet rs = st.executeQuery();
         if (rs.next()) {
-            Book result = resultSetToBook(rs);                
+            Book result = bookRowMapper().mapRow(rs);
             if (rs.next()) {
                 throw new ServiceFailureException(
                         "Internal integrity error: more books with the same id found!");
@@ -190,30 +457,62 @@ public class BookManagerImpl implements BookManager {
     private static List<Book> executeQueryForMultipleBooks(PreparedStatement st) throws SQLException {
         ResultSet rs = st.executeQuery();
         List<Book> result = new ArrayList<>();
+        RowMapper<Book> mapper = bookRowMapper();
         while (rs.next()) {
-            result.add(resultSetToBook(rs));
+            result.add(mapper.mapRow(rs));
         }
         return result;
     }
 
-    private static Book resultSetToBook(ResultSet rs) throws SQLException {
+    private static void setBookParameters(PreparedStatement st, Book book) throws SQLException {
+        st.setString(1, book.getTitle());
+        st.setString(2, book.getAuthor());
+        st.setInt(3, book.getPublished());
+        st.setString(4, book.getNote());
+    }
+
+    private static final String[] BOOK_COLUMNS = {"id", "title", "author", "published", "note"};
+
+    /**
+     * @return new mapper of rows with {@link #BOOK_COLUMNS}
+     */
+    private static RowMapper<Book> bookRowMapper() {
+        return new ColumnIndexRowMapper<>(BOOK_COLUMNS, BookManagerImpl::resultSetToBook);
+    }
+
+    private static Book resultSetToBook(ResultSet rs, int[] columns) throws SQLException {
         Book book = new Book();
-        book.setId(rs.getLong("id"));
-        book.setTitle(rs.getString("title"));
-        book.setAuthor(rs.getString("author"));
-        book.setPublished(rs.getInt("published"));
-        book.setNote(rs.getString("note"));
+        book.setId(rs.getLong(columns[0]));
+        book.setTitle(rs.getString(columns[1]));
+        book.setAuthor(rs.getString(columns[2]));
+        book.setPublished(rs.getInt(columns[3]));
+        book.setNote(rs.getString(columns[4]));
         return book;
     }
     
-    private void validate(Book book) throws IllegalArgumentException {
+    static Book copyOf(Book book) {
+        Book copy = new Book();
+        copy.setId(book.getId());
+        copy.setTitle(book.getTitle());
+        copy.setAuthor(book.getAuthor());
+        copy.setPublished(book.getPublished());
+        copy.setNote(book.getNote());
+        return copy;
+    }
+    
+    private static final Pattern AUTHOR = Pattern.compile("[a-žA-Ž]+[a-žA-Ž ]*");
+    
+    /**
+     * Checks rules for stored books, also used by {@link CatalogueImporter}.
+     */
+    static void validate(Book book) throws IllegalArgumentException {
         if (book == null) {
             throw new IllegalArgumentException("book is null");
         }
         if (book.getTitle().length() == 0) {
             throw new IllegalArgumentException("empty field - title");
         }
-        if(!book.getAuthor().matches("[a-žA-Ž]+[a-žA-Ž ]*")) {
+        if(!AUTHOR.matcher(book.getAuthor()).matches()) {
             throw new IllegalArgumentException("name must contain at least one word character and no digits");
         }
         if (book.getAuthor().length() == 0) {
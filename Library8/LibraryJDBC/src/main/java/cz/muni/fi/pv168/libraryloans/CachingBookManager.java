@@ -0,0 +1,177 @@
+package cz.muni.fi.pv168.libraryloans;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Stream;
+import javax.sql.DataSource;
+
+/**
+ * Book manager which caches books returned by {@link #getBookById(Long)}.
+ * Other queries go to the decorated manager. Cached books are invalidated
+ * by the updates and deletes done through this manager, changes done by 
+ * others are visible after the time to live.
+ * <p>
+ * When the decorated manager takes part in units of work of a
+ * {@link TransactionManager}, it has to be set by
+ * {@link #setTransactionManager(TransactionManager)}. Inside a unit of work
+ * the cache is bypassed and books are invalidated when the unit commits, so
+ * uncommitted state is never cached.
+ *
+ * @author L
+ */
+public class CachingBookManager implements BookManager {
+
+    public static final int DEFAULT_MAX_SIZE = 1000;
+    public static final Duration DEFAULT_TTL = Duration.ofMinutes(5);
+
+    private final BookManager delegate;
+    private final EntityCache<Book> cache;
+    private TransactionManager transactionManager;
+
+    public CachingBookManager(BookManager delegate) {
+        this(delegate, DEFAULT_MAX_SIZE, DEFAULT_TTL, Clock.systemUTC());
+    }
+
+    /**
+     * @param delegate manager doing the work
+     * @param maxSize maximal number of cached books
+     * @param ttl how long a book stays cached
+     * @param clock clock measuring the time to live
+     */
+    public CachingBookManager(BookManager delegate, int maxSize, Duration ttl, Clock clock) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("delegate is null");
+        }
+        this.delegate = delegate;
+        this.cache = new EntityCache<>(maxSize, ttl, clock, BookManagerImpl::copyOf);
+    }
+
+    /**
+     * @param transactionManager transaction manager of the decorated manager, may be null
+     */
+    public void setTransactionManager(TransactionManager transactionManager) {
+        this.transactionManager = transactionManager;
+    }
+
+    /**
+     * @return cache with its statistics
+     */
+    public EntityCache<Book> getCache() {
+        return cache;
+    }
+
+    @Override
+    public void setDataSource(DataSource dataSource) {
+        delegate.setDataSource(dataSource);
+        cache.invalidateAll();
+    }
+
+    @Override
+    public void createBook(Book book) {
+        delegate.createBook(book);
+    }
+
+    @Override
+    public void updateBook(Book book) {
+        try {
+            delegate.updateBook(book);
+        } finally {
+            invalidate(book);
+        }
+    }
+
+    @Override
+    public void deleteBook(Book book) {
+        try {
+            delegate.deleteBook(book);
+        } finally {
+            invalidate(book);
+        }
+    }
+
+    @Override
+    public void createBooks(Collection<Book> books) {
+        delegate.createBooks(books);
+    }
+
+    @Override
+    public void updateBooks(Collection<Book> books) {
+        try {
+            delegate.updateBooks(books);
+        } finally {
+            invalidateAll(books);
+        }
+    }
+
+    @Override
+    public void deleteBooks(Collection<Book> books) {
+        try {
+            delegate.deleteBooks(books);
+        } finally {
+            invalidateAll(books);
+        }
+    }
+
+    @Override
+    public Book getBookById(Long id) {
+        if (id == null || isInTransaction()) {
+            return delegate.getBookById(id);
+        }
+        return cache.get(id, delegate::getBookById);
+    }
+
+    @Override
+    public List<Book> searchBooks(String query, int limit) {
+        return delegate.searchBooks(query, limit);
+    }
+
+    @Override
+    public List<Book> searchBooksFuzzy(String query, int limit) {
+        return delegate.searchBooksFuzzy(query, limit);
+    }
+
+    @Override
+    public List<Book> findAllBooks() {
+        return delegate.findAllBooks();
+    }
+
+    @Override
+    public Stream<Book> streamAllBooks() {
+        return delegate.streamAllBooks();
+    }
+
+    @Override
+    public List<Book> findBooks(Long afterId, int limit) {
+        return delegate.findBooks(afterId, limit);
+    }
+
+    @Override
+    public long countBooks() {
+        return delegate.countBooks();
+    }
+
+    private boolean isInTransaction() {
+        return transactionManager != null && transactionManager.isInTransaction();
+    }
+
+    private void invalidate(Book book) {
+        if (book == null || book.getId() == null) {
+            return;
+        }
+        Long id = book.getId();
+        if (isInTransaction()) {
+            //others read the committed state until the unit commits
+            transactionManager.afterCommit(() -> cache.invalidate(id));
+        } else {
+            cache.invalidate(id);
+        }
+    }
+
+    private void invalidateAll(Collection<Book> books) {
+        if (books != null) {
+            books.forEach(this::invalidate);
+        }
+    }
+}
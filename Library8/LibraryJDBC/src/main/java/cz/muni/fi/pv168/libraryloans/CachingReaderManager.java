@@ -0,0 +1,175 @@
+package cz.muni.fi.pv168.libraryloans;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Reader manager which caches readers returned by {@link #getReaderById(Long)}.
+ * Other queries go to the decorated manager. Cached readers are invalidated
+ * by the updates and deletes done through this manager, changes done by 
+ * others are visible after the time to live.
+ * <p>
+ * When the decorated manager takes part in units of work of a
+ * {@link TransactionManager}, it has to be set by
+ * {@link #setTransactionManager(TransactionManager)}. Inside a unit of work
+ * the cache is bypassed and readers are invalidated when the unit commits, so
+ * uncommitted state is never cached.
+ *
+ * @author L
+ */
+public class CachingReaderManager implements ReaderManager {
+
+    public static final int DEFAULT_MAX_SIZE = 1000;
+    public static final Duration DEFAULT_TTL = Duration.ofMinutes(5);
+
+    private final ReaderManager delegate;
+    private final EntityCache<Reader> cache;
+    private TransactionManager transactionManager;
+
+    public CachingReaderManager(ReaderManager delegate) {
+        this(delegate, DEFAULT_MAX_SIZE, DEFAULT_TTL, Clock.systemUTC());
+    }
+
+    /**
+     * @param delegate manager doing the work
+     * @param maxSize maximal number of cached readers
+     * @param ttl how long a reader stays cached
+     * @param clock clock measuring the time to live
+     */
+    public CachingReaderManager(ReaderManager delegate, int maxSize, Duration ttl, Clock clock) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("delegate is null");
+        }
+        this.delegate = delegate;
+        this.cache = new EntityCache<>(maxSize, ttl, clock, ReaderManagerImpl::copyOf);
+    }
+
+    /**
+     * @param transactionManager transaction manager of the decorated manager, may be null
+     */
+    public void setTransactionManager(TransactionManager transactionManager) {
+        this.transactionManager = transactionManager;
+    }
+
+    /**
+     * @return cache with its statistics
+     */
+    public EntityCache<Reader> getCache() {
+        return cache;
+    }
+
+    @Override
+    public void createReader(Reader reader) {
+        delegate.createReader(reader);
+    }
+
+    @Override
+    public void updateReader(Reader reader) {
+        try {
+            delegate.updateReader(reader);
+        } finally {
+            invalidate(reader);
+        }
+    }
+
+    @Override
+    public void deleteReader(Reader reader) {
+        try {
+            delegate.deleteReader(reader);
+        } finally {
+            invalidate(reader);
+        }
+    }
+
+    @Override
+    public void createReaders(Collection<Reader> readers) {
+        delegate.createReaders(readers);
+    }
+
+    @Override
+    public void updateReaders(Collection<Reader> readers) {
+        try {
+            delegate.updateReaders(readers);
+        } finally {
+            invalidateAll(readers);
+        }
+    }
+
+    @Override
+    public void deleteReaders(Collection<Reader> readers) {
+        try {
+            delegate.deleteReaders(readers);
+        } finally {
+            invalidateAll(readers);
+        }
+    }
+
+    @Override
+    public Reader getReaderById(Long id) {
+        if (id == null || isInTransaction()) {
+            return delegate.getReaderById(id);
+        }
+        return cache.get(id, delegate::getReaderById);
+    }
+
+    @Override
+    public List<Reader> findReadersByName(String name) {
+        return delegate.findReadersByName(name);
+    }
+
+    @Override
+    public List<Reader> searchReaders(String query, int limit) {
+        return delegate.searchReaders(query, limit);
+    }
+
+    @Override
+    public List<Reader> searchReadersFuzzy(String query, int limit) {
+        return delegate.searchReadersFuzzy(query, limit);
+    }
+
+    @Override
+    public List<Reader> findAllReaders() {
+        return delegate.findAllReaders();
+    }
+
+    @Override
+    public Stream<Reader> streamAllReaders() {
+        return delegate.streamAllReaders();
+    }
+
+    @Override
+    public List<Reader> findReaders(Long afterId, int limit) {
+        return delegate.findReaders(afterId, limit);
+    }
+
+    @Override
+    public long countReaders() {
+        return delegate.countReaders();
+    }
+
+    private boolean isInTransaction() {
+        return transactionManager != null && transactionManager.isInTransaction();
+    }
+
+    private void invalidate(Reader reader) {
+        if (reader == null || reader.getId() == null) {
+            return;
+        }
+        Long id = reader.getId();
+        if (isInTransaction()) {
+            //others read the committed state until the unit commits
+            transactionManager.afterCommit(() -> cache.invalidate(id));
+        } else {
+            cache.invalidate(id);
+        }
+    }
+
+    private void invalidateAll(Collection<Reader> readers) {
+        if (readers != null) {
+            readers.forEach(this::invalidate);
+        }
+    }
+}
@@ -0,0 +1,545 @@
+package cz.muni.fi.pv168.libraryloans;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Imports books and readers from CSV or JSON Lines catalogues.
+ * <p>
+ * The input is read line by line and cut to chunks. Chunks are parsed,
+ * validated by the rules of the managers and inserted by the bulk
+ * operations of the managers on a pool of worker threads. At most
+ * {@code maxChunksInFlight} chunks wait or are processed at once, so the
+ * memory used does not depend on the size of the input.
+ * <p>
+ * CSV input starts with a header naming the columns, values may be quoted
+ * by {@code "}, but must not span more lines. A JSON Lines input has one
+ * flat object per line. Columns or properties of books are {@code title},
+ * {@code author}, {@code published} and {@code note}, of readers
+ * {@code name}, {@code address}, {@code email} and {@code note}, other
+ * ones are ignored. Rows, which cannot be parsed, do not pass validation
+ * or are refused by the database, are rejected and the import goes on.
+ *
+ * @author L
+ */
+public class CatalogueImporter {
+
+    private static final Logger logger = Logger.getLogger(
+            CatalogueImporter.class.getName());
+
+    /**
+     * Format of imported catalogue.
+     */
+    public enum Format {
+        CSV, JSON_LINES
+    }
+
+    public static final int DEFAULT_CHUNK_SIZE = 1000;
+
+    private static final int MAX_REPORTED_REJECTIONS = 100;
+
+    private BookManager bookManager;
+    private ReaderManager readerManager;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+    private int maxChunksInFlight;
+    private long progressInterval = 100_000;
+    private Consumer<ImportProgress> progressListener;
+
+    public void setBookManager(BookManager bookManager) {
+        this.bookManager = bookManager;
+    }
+
+    public void setReaderManager(ReaderManager readerManager) {
+        this.readerManager = readerManager;
+    }
+
+    /**
+     * @param threads number of worker threads parsing and inserting chunks
+     */
+    public void setThreads(int threads) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("threads must be positive");
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * @param chunkSize number of lines processed by one worker task
+     */
+    public void setChunkSize(int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunk size must be positive");
+        }
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * @param maxChunksInFlight maximal number of chunks read, but not
+     * inserted yet; 0 means twice the number of threads
+     */
+    public void setMaxChunksInFlight(int maxChunksInFlight) {
+        if (maxChunksInFlight < 0) {
+            throw new IllegalArgumentException("maxChunksInFlight must not be negative");
+        }
+        this.maxChunksInFlight = maxChunksInFlight;
+    }
+
+    /**
+     * @param progressInterval number of processed rows between progress
+     * messages in the log
+     */
+    public void setProgressInterval(long progressInterval) {
+        if (progressInterval <= 0) {
+            throw new IllegalArgumentException("progress interval must be positive");
+        }
+        this.progressInterval = progressInterval;
+    }
+
+    /**
+     * @param progressListener called by worker threads after each chunk, may be null
+     */
+    public void setProgressListener(Consumer<ImportProgress> progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * Imports books.
+     *
+     * @param in catalogue encoded in UTF-8, it is not closed
+     * @param format catalogue format
+     * @return final progress of the import
+     * @throws IOException when the input cannot be read
+     * @throws ServiceFailureException when the database fails
+     */
+    public ImportProgress importBooks(InputStream in, Format format) throws IOException {
+        if (bookManager == null) {
+            throw new IllegalStateException("BookManager is not set");
+        }
+        return importEntities(in, format, new String[]{"title", "author"}, CatalogueImporter::toBook,
+                BookManagerImpl::validate, bookManager::createBooks, bookManager::createBook, Book::getId);
+    }
+
+    /**
+     * Imports readers.
+     *
+     * @param in catalogue encoded in UTF-8, it is not closed
+     * @param format catalogue format
+     * @return final progress of the import
+     * @throws IOException when the input cannot be read
+     * @throws ServiceFailureException when the database fails
+     */
+    public ImportProgress importReaders(InputStream in, Format format) throws IOException {
+        if (readerManager == null) {
+            throw new IllegalStateException("ReaderManager is not set");
+        }
+        return importEntities(in, format, new String[]{"name", "email"}, CatalogueImporter::toReader,
+                ReaderManagerImpl::validate, readerManager::createReaders, readerManager::createReader,
+                Reader::getId);
+    }
+
+    private static Book toBook(Map<String, String> row) {
+        Book book = new Book();
+        book.setTitle(required(row, "title"));
+        book.setAuthor(required(row, "author"));
+        String published = row.get("published");
+        if (published != null && !published.isEmpty()) {
+            try {
+                book.setPublished(Integer.parseInt(published.trim()));
+            } catch (NumberFormatException ex) {
+                throw new IllegalArgumentException("published is not a number: " + published);
+            }
+        }
+        book.setNote(row.get("note"));
+        return book;
+    }
+
+    private static Reader toReader(Map<String, String> row) {
+        Reader reader = new Reader();
+        reader.setName(required(row, "name"));
+        reader.setAddress(row.get("address"));
+        reader.setEMail(required(row, "email"));
+        reader.setNote(row.get("note"));
+        return reader;
+    }
+
+    private static String required(Map<String, String> row, String column) {
+        String value = row.get(column);
+        if (value == null) {
+            throw new IllegalArgumentException("missing value - " + column);
+        }
+        return value;
+    }
+
+    private <T> ImportProgress importEntities(InputStream in, Format format, String[] required,
+            Function<Map<String, String>, T> mapper, Consumer<T> validator,
+            Consumer<List<T>> bulkInsert, Consumer<T> insert, Function<T, Long> idOf) throws IOException {
+        if (in == null) {
+            throw new IllegalArgumentException("in is null");
+        }
+        if (format == null) {
+            throw new IllegalArgumentException("format is null");
+        }
+        ImportProgress progress = new ImportProgress();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        Semaphore inFlight = new Semaphore(maxChunksInFlight > 0 ? maxChunksInFlight : 2 * threads);
+        AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        try {
+            BufferedReader lines = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            long lineNumber = 0;
+            String[] header = null;
+            if (format == Format.CSV) {
+                String headerLine = lines.readLine();
+                lineNumber++;
+                if (headerLine == null) {
+                    throw new IllegalArgumentException("CSV header is missing");
+                }
+                header = parseCsvHeader(headerLine, required);
+            }
+            String[] columns = header;
+            List<String> chunk = new ArrayList<>(chunkSize);
+            long firstLine = lineNumber + 1;
+            String line;
+            while (failure.get() == null && (line = lines.readLine()) != null) {
+                lineNumber++;
+                chunk.add(line);
+                if (chunk.size() == chunkSize) {
+                    submit(pool, inFlight, failure, chunk, firstLine, columns, mapper, validator,
+                            bulkInsert, insert, idOf, progress);
+                    chunk = new ArrayList<>(chunkSize);
+                    firstLine = lineNumber + 1;
+                }
+            }
+            if (!chunk.isEmpty() && failure.get() == null) {
+                submit(pool, inFlight, failure, chunk, firstLine, columns, mapper, validator,
+                        bulkInsert, insert, idOf, progress);
+            }
+        } finally {
+            pool.shutdown();
+            try {
+                pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException ex) {
+                pool.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+            progress.finish();
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        logger.log(Level.INFO, "Import finished: {0}", progress);
+        return progress;
+    }
+
+    private <T> void submit(ExecutorService pool, Semaphore inFlight, AtomicReference<RuntimeException> failure,
+            List<String> chunk, long firstLine, String[] header, Function<Map<String, String>, T> mapper,
+            Consumer<T> validator, Consumer<List<T>> bulkInsert, Consumer<T> insert,
+            Function<T, Long> idOf, ImportProgress progress) throws InterruptedIOException {
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Import was interrupted");
+        }
+        progress.rowsRead.add(chunk.size());
+        pool.execute(() -> {
+            try {
+                processChunk(chunk, firstLine, header, mapper, validator, bulkInsert, insert, idOf, progress);
+            } catch (RuntimeException ex) {
+                failure.compareAndSet(null, ex);
+            } finally {
+                inFlight.release();
+            }
+        });
+    }
+
+    private <T> void processChunk(List<String> chunk, long firstLine, String[] header,
+            Function<Map<String, String>, T> mapper, Consumer<T> validator,
+            Consumer<List<T>> bulkInsert, Consumer<T> insert, Function<T, Long> idOf,
+            ImportProgress progress) {
+        List<T> entities = new ArrayList<>(chunk.size());
+        List<Long> entityLines = new ArrayList<>(chunk.size());
+        for (int i = 0; i < chunk.size(); i++) {
+            String line = chunk.get(i);
+            long lineNumber = firstLine + i;
+            if (line.trim().isEmpty()) {
+                progress.rowsSkipped.increment();
+                continue;
+            }
+            try {
+                T entity = mapper.apply(header == null ? parseJsonObject(line) : parseCsvRow(line, header));
+                validator.accept(entity);
+                entities.add(entity);
+                entityLines.add(lineNumber);
+            } catch (IllegalArgumentException ex) {
+                progress.reject(lineNumber, ex.getMessage());
+            }
+        }
+        try {
+            bulkInsert.accept(entities);
+            progress.rowsImported.add(entities.size());
+        } catch (ServiceFailureException ex) {
+            //part of the chunk may be committed, the rest is inserted one by one
+            for (int i = 0; i < entities.size(); i++) {
+                T entity = entities.get(i);
+                if (idOf.apply(entity) != null) {
+                    progress.rowsImported.increment();
+                    continue;
+                }
+                try {
+                    insert.accept(entity);
+                    progress.rowsImported.increment();
+                } catch (ServiceFailureException rowEx) {
+                    if (!isDataError(rowEx)) {
+                        throw rowEx;
+                    }
+                    progress.reject(entityLines.get(i), rowEx.getCause().getMessage());
+                }
+            }
+        }
+        progress.chunkDone(progressInterval);
+        if (progressListener != null) {
+            progressListener.accept(progress);
+        }
+    }
+
+    /**
+     * @return true when the database refused the values, not when it failed
+     */
+    private static boolean isDataError(ServiceFailureException ex) {
+        if (!(ex.getCause() instanceof SQLException)) {
+            return false;
+        }
+        String state = ((SQLException) ex.getCause()).getSQLState();
+        //class 22 is data exception, class 23 integrity constraint violation
+        return state != null && (state.startsWith("22") || state.startsWith("23"));
+    }
+
+    private static String[] parseCsvHeader(String line, String[] required) {
+        List<String> names = splitCsv(line.startsWith("﻿") ? line.substring(1) : line);
+        String[] header = new String[names.size()];
+        for (int i = 0; i < header.length; i++) {
+            header[i] = names.get(i).trim().toLowerCase(Locale.ROOT);
+        }
+        for (String column : required) {
+            boolean found = false;
+            for (String name : header) {
+                found |= name.equals(column);
+            }
+            if (!found) {
+                throw new IllegalArgumentException("CSV header does not contain column " + column);
+            }
+        }
+        return header;
+    }
+
+    static Map<String, String> parseCsvRow(String line, String[] header) {
+        List<String> values = splitCsv(line);
+        if (values.size() != header.length) {
+            throw new IllegalArgumentException("expected " + header.length + " values, found " + values.size());
+        }
+        Map<String, String> row = new HashMap<>(2 * header.length);
+        for (int i = 0; i < header.length; i++) {
+            row.put(header[i], values.get(i));
+        }
+        return row;
+    }
+
+    private static List<String> splitCsv(String line) {
+        List<String> values = new ArrayList<>();
+        StringBuilder value = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c != '"') {
+                    value.append(c);
+                } else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    value.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                values.add(value.toString());
+                value.setLength(0);
+            } else {
+                value.append(c);
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("unterminated quoted value");
+        }
+        values.add(value.toString());
+        return values;
+    }
+
+    /**
+     * Parses flat JSON object. Property names are converted to lower case,
+     * numbers and booleans are returned as text and null values are left out.
+     */
+    @SuppressWarnings("unchecked")
+    static Map<String, String> parseJsonObject(String line) {
+        Object parsed = JsonParser.parse(line);
+        if (!(parsed instanceof Map)) {
+            throw new IllegalArgumentException("object expected");
+        }
+        Map<String, String> row = new HashMap<>();
+        for (Map.Entry<String, Object> property : ((Map<String, Object>) parsed).entrySet()) {
+            Object value = property.getValue();
+            if (value instanceof Map || value instanceof List) {
+                throw new IllegalArgumentException("nested values are not supported");
+            }
+            if (value != null) {
+                row.put(property.getKey().toLowerCase(Locale.ROOT), value.toString());
+            }
+        }
+        return row;
+    }
+
+    /**
+     * Progress of an import. Counters are updated while the import runs.
+     */
+    public static final class ImportProgress {
+
+        private final long start = System.nanoTime();
+        private volatile long end;
+        private final LongAdder rowsRead = new LongAdder();
+        private final LongAdder rowsImported = new LongAdder();
+        private final LongAdder rowsRejected = new LongAdder();
+        private final LongAdder rowsSkipped = new LongAdder();
+        private final List<Rejection> rejections = new ArrayList<>();
+        private long nextReport;
+
+        private void reject(long line, String message) {
+            rowsRejected.increment();
+            synchronized (rejections) {
+                if (rejections.size() < MAX_REPORTED_REJECTIONS) {
+                    rejections.add(new Rejection(line, message));
+                }
+            }
+        }
+
+        private synchronized void chunkDone(long interval) {
+            long processed = getRowsImported() + getRowsRejected();
+            if (processed >= nextReport) {
+                nextReport = (processed / interval + 1) * interval;
+                if (processed > 0) {
+                    logger.log(Level.INFO, "Import progress: {0}", this);
+                }
+            }
+        }
+
+        private void finish() {
+            end = System.nanoTime();
+        }
+
+        /**
+         * @return number of lines passed to workers, without the CSV header
+         */
+        public long getRowsRead() {
+            return rowsRead.sum();
+        }
+
+        public long getRowsImported() {
+            return rowsImported.sum();
+        }
+
+        public long getRowsRejected() {
+            return rowsRejected.sum();
+        }
+
+        /**
+         * @return number of empty lines
+         */
+        public long getRowsSkipped() {
+            return rowsSkipped.sum();
+        }
+
+        /**
+         * @return first {@value #MAX_REPORTED_REJECTIONS} rejected rows,
+         * not necessarily in the order of lines
+         */
+        public List<Rejection> getRejections() {
+            synchronized (rejections) {
+                return Collections.unmodifiableList(new ArrayList<>(rejections));
+            }
+        }
+
+        public boolean isFinished() {
+            return end != 0;
+        }
+
+        public long getElapsedMillis() {
+            return TimeUnit.NANOSECONDS.toMillis((isFinished() ? end : System.nanoTime()) - start);
+        }
+
+        /**
+         * @return number of imported rows per second of elapsed time
+         */
+        public double getRowsPerSecond() {
+            long nanos = (isFinished() ? end : System.nanoTime()) - start;
+            return nanos <= 0 ? 0 : getRowsImported() * 1e9 / nanos;
+        }
+
+        @Override
+        public String toString() {
+            return "ImportProgress{" + "read=" + getRowsRead() + ", imported=" + getRowsImported()
+                    + ", rejected=" + getRowsRejected() + ", elapsedMillis=" + getElapsedMillis()
+                    + ", rowsPerSecond=" + Math.round(getRowsPerSecond()) + '}';
+        }
+    }
+
+    /**
+     * Row which was not imported.
+     */
+    public static final class Rejection {
+
+        private final long line;
+        private final String message;
+
+        Rejection(long line, String message) {
+            this.line = line;
+            this.message = message;
+        }
+
+        /**
+         * @return number of the line in the input, starting with 1
+         */
+        public long getLine() {
+            return line;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        @Override
+        public String toString() {
+            return "line " + line + ": " + message;
+        }
+    }
+}
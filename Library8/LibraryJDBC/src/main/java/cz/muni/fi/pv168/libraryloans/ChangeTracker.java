@@ -0,0 +1,97 @@
+package cz.muni.fi.pv168.libraryloans;
+
+import java.time.Clock;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Keeps a version of each table, which is increased whenever a manager
+ * commits a change of the table. Web clients can use it to find out that
+ * nothing changed without querying the database.
+ * <p>
+ * Versions start again from zero with each instance, so the ETags contain
+ * the time the tracker was created. Changes done around the managers, e.g.
+ * by SQL scripts, are not tracked, such code has to call
+ * {@link #changed(Table)} itself.
+ *
+ * @author L
+ */
+public class ChangeTracker {
+
+    /**
+     * Tracked table.
+     */
+    public enum Table {
+        BOOK, READER, LOAN
+    }
+
+    private final Clock clock;
+    private final String generation;
+    private final AtomicLongArray versions = new AtomicLongArray(Table.values().length);
+    private final AtomicLongArray lastModified = new AtomicLongArray(Table.values().length);
+
+    public ChangeTracker() {
+        this(Clock.systemUTC());
+    }
+
+    /**
+     * @param clock source of the times of changes
+     */
+    public ChangeTracker(Clock clock) {
+        this.clock = clock;
+        long now = clock.millis();
+        generation = Long.toString(now, 36);
+        for (Table table : Table.values()) {
+            lastModified.set(table.ordinal(), now);
+        }
+    }
+
+    /**
+     * Records committed change of the table.
+     *
+     * @param table changed table
+     */
+    public void changed(Table table) {
+        lastModified.set(table.ordinal(), clock.millis());
+        versions.incrementAndGet(table.ordinal());
+    }
+
+    /**
+     * @param table tracked table
+     * @return number of changes of the table since the tracker was created
+     */
+    public long getVersion(Table table) {
+        return versions.get(table.ordinal());
+    }
+
+    /**
+     * @param table tracked table
+     * @return time of the last change of the table in milliseconds, or the
+     * time the tracker was created
+     */
+    public long getLastModified(Table table) {
+        return lastModified.get(table.ordinal());
+    }
+
+    /**
+     * Returns strong entity tag of the current version of the table. It has
+     * to be read before the data it describes.
+     *
+     * @param table tracked table
+     * @return quoted entity tag
+     */
+    public String getETag(Table table) {
+        return "\"" + table.name().toLowerCase() + "-" + generation + "-" + getVersion(table) + "\"";
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("ChangeTracker{");
+        for (Table table : Table.values()) {
+            if (table.ordinal() > 0) {
+                sb.append(", ");
+            }
+            sb.append(table).append('=').append(getVersion(table));
+        }
+        return sb.append('}').toString();
+    }
+}
@@ -0,0 +1,59 @@
+package cz.muni.fi.pv168.libraryloans;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Row mapper reading columns by position. Positions of the named columns
+ * are resolved once per result set, so that the driver does not look the
+ * names up for every row. An instance is meant to be used by one query
+ * at a time.
+ *
+ * @param <T> entity type
+ * @author L
+ */
+public final class ColumnIndexRowMapper<T> implements RowMapper<T> {
+
+    /**
+     * Maps the current row using resolved column positions.
+     *
+     * @param <T> entity type
+     */
+    @FunctionalInterface
+    public interface IndexedMapping<T> {
+
+        /**
+         * @param rs result set on the mapped row
+         * @param columns positions of the columns, in the order of their names
+         * @return mapped entity
+         * @throws SQLException when a column cannot be read
+         */
+        T mapRow(ResultSet rs, int[] columns) throws SQLException;
+    }
+
+    private final String[] names;
+    private final IndexedMapping<T> mapping;
+    private ResultSet resolvedFor;
+    private int[] columns;
+
+    /**
+     * @param names names or labels of the read columns
+     * @param mapping maps a row using positions of the columns
+     */
+    public ColumnIndexRowMapper(String[] names, IndexedMapping<T> mapping) {
+        this.names = names.clone();
+        this.mapping = mapping;
+    }
+
+    @Override
+    public T mapRow(ResultSet rs) throws SQLException {
+        if (rs != resolvedFor) {
+            columns = new int[names.length];
+            for (int i = 0; i < names.length; i++) {
+                columns[i] = rs.findColumn(names[i]);
+            }
+            resolvedFor = rs;
+        }
+        return mapping.mapRow(rs, columns);
+    }
+}
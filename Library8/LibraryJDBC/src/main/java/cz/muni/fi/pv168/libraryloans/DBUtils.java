@@ -4,9 +4,19 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.URL;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.sql.DataSource;
@@ -20,9 +30,21 @@ public class DBUtils {
 
     private static final Logger logger = Logger.getLogger(
             DBUtils.class.getName());
+    
+    /**
+     * Default number of entities written in one transaction by bulk operations.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 100;
+    
+    /**
+     * Default number of rows fetched at once by streaming queries.
+     */
+    public static final int DEFAULT_FETCH_SIZE = 1000;
 
     /**
-     * Closes connection and logs possible error.
+     * Closes connection and logs possible error. Connection left in manual
+     * commit mode is switched back to autocommit, connections of finders
+     * are closed without touching the mode.
      * 
      * @param conn connection to close
      * @param statements  statements to close
@@ -39,7 +61,9 @@ public class DBUtils {
         }        
         if (conn != null) {
             try {
-                conn.setAutoCommit(true);
+                if (!conn.getAutoCommit()) {
+                    conn.setAutoCommit(true);
+                }
             } catch (SQLException ex) {
                 logger.log(Level.SEVERE, "Error when switching autocommit mode back to true", ex);
             }
@@ -123,7 +147,10 @@ public class DBUtils {
      * @param ds dataSource 
      * @param scriptUrl url of script for creating tables
      * @throws SQLException when operation fails
+     * @deprecated Derby specific and unable to upgrade existing tables,
+     * use {@link SchemaMigrator} instead
      */
+    @Deprecated
     public static void tryCreateTables(DataSource ds, URL scriptUrl) throws SQLException {
         try {
             executeSqlScript(ds, scriptUrl);
@@ -150,16 +177,214 @@ public class DBUtils {
         Connection conn = null;
         try {
             conn = ds.getConnection();
-            for (String sqlStatement : readSqlStatements(scriptUrl)) {
-                if (!sqlStatement.trim().isEmpty()) {
-                    conn.prepareStatement(sqlStatement).executeUpdate();
+            executeSqlScript(conn, scriptUrl);
+        } finally {
+            closeQuietly(conn);
+        }
+    }
+    
+    /**
+     * Executes SQL script using given connection. Transactions are left 
+     * to the caller.
+     * 
+     * @param conn connection
+     * @param scriptUrl url of sql script to be executed
+     * @throws SQLException when operation fails
+     */
+    public static void executeSqlScript(Connection conn, URL scriptUrl) throws SQLException {
+        for (String sqlStatement : readSqlStatements(scriptUrl)) {
+            if (!sqlStatement.trim().isEmpty()) {
+                try (Statement st = conn.createStatement()) {
+                    st.executeUpdate(sqlStatement);
+                }
+            }
+        }
+    }
+
+    /**
+     * Work done with one chunk of entities inside a transaction.
+     * 
+     * @param <T> entity type
+     */
+    @FunctionalInterface
+    public interface ChunkWork<T> {
+        
+        void execute(Connection conn, List<T> chunk) throws SQLException;
+    }
+    
+    /**
+     * Splits given entities into chunks and executes the work for each chunk 
+     * in its own transaction. All chunks share one connection. When a chunk 
+     * fails, its transaction is rolled back, the rollback handler is called 
+     * for it and the exception is propagated; previous chunks stay committed.
+     * 
+     * @param <T> entity type
+     * @param ds datasource
+     * @param entities entities to process
+     * @param chunkSize maximal number of entities in one transaction
+     * @param work work to be done with each chunk
+     * @param onRollback called with the chunk which was rolled back, may be null
+     * @throws SQLException when operation fails
+     */
+    public static <T> void executeInChunks(DataSource ds, Collection<T> entities, int chunkSize,
+            ChunkWork<T> work, Consumer<List<T>> onRollback) throws SQLException {
+        executeInChunks(ds, entities, chunkSize, work, null, onRollback);
+    }
+    
+    /**
+     * Like {@link #executeInChunks(DataSource, Collection, int, ChunkWork, Consumer)},
+     * and calls the commit handler for each committed chunk.
+     * 
+     * @param <T> entity type
+     * @param ds datasource
+     * @param entities entities to process
+     * @param chunkSize maximal number of entities in one transaction
+     * @param work work to be done with each chunk
+     * @param onCommit called with the chunk which was committed, may be null;
+     * inside a unit of work of {@link TransactionManager} it is called when
+     * the unit commits
+     * @param onRollback called with the chunk which was rolled back, may be null;
+     * inside a unit of work it is called for committed chunks too, when the
+     * unit is rolled back
+     * @throws SQLException when operation fails
+     */
+    public static <T> void executeInChunks(DataSource ds, Collection<T> entities, int chunkSize,
+            ChunkWork<T> work, Consumer<List<T>> onCommit, Consumer<List<T>> onRollback) 
+            throws SQLException {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunk size must be positive");
+        }
+        if (entities.isEmpty()) {
+            return;
+        }
+        Connection conn = null;
+        try {
+            conn = ds.getConnection();
+            conn.setAutoCommit(false);
+            List<T> chunk = new ArrayList<>(Math.min(chunkSize, entities.size()));
+            Iterator<T> it = entities.iterator();
+            while (it.hasNext()) {
+                chunk.add(it.next());
+                if (chunk.size() == chunkSize || !it.hasNext()) {
+                    boolean committed = false;
+                    try {
+                        work.execute(conn, chunk);
+                        conn.commit();
+                        committed = true;
+                    } finally {
+                        if (!committed) {
+                            doRollbackQuietly(conn);
+                            if (onRollback != null) {
+                                onRollback.accept(chunk);
+                            }
+                        }
+                    }
+                    List<T> committedChunk = new ArrayList<>(chunk);
+                    if (onCommit != null) {
+                        TransactionManager.afterCommit(conn, () -> onCommit.accept(committedChunk));
+                    }
+                    if (onRollback != null) {
+                        TransactionManager.afterRollback(conn, () -> onRollback.accept(committedChunk));
+                    }
+                    chunk.clear();
                 }
             }
         } finally {
             closeQuietly(conn);
         }
     }
+    
+    /**
+     * Checks that each count returned by {@link Statement#executeBatch()} 
+     * is one, see {@link #checkUpdatesCount(int, Object, boolean)}.
+     * 
+     * @param counts counts returned by executeBatch
+     * @param entities entities in the same order as the batched commands
+     * @param insert flag if performed operation was insert
+     */
+    public static void checkBatchUpdatesCounts(int[] counts, List<?> entities, boolean insert) {
+        if (counts.length != entities.size()) {
+            throw new ServiceFailureException("Internal integrity error: batch returned " 
+                    + counts.length + " counts for " + entities.size() + " entities");
+        }
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] != Statement.SUCCESS_NO_INFO) {
+                checkUpdatesCount(counts[i], entities.get(i), insert);
+            }
+        }
+    }
 
+    /**
+     * Executes query returning single number, e.g. {@code SELECT COUNT(*)}.
+     * 
+     * @param st prepared query
+     * @return the number
+     * @throws SQLException when operation fails
+     */
+    public static long executeQueryForLong(PreparedStatement st) throws SQLException {
+        try (ResultSet rs = st.executeQuery()) {
+            if (!rs.next()) {
+                throw new ServiceFailureException("Internal integrity error: query returned no rows");
+            }
+            return rs.getLong(1);
+        }
+    }
+    
+    /**
+     * Executes query and returns its rows as a lazy stream backed by 
+     * a forward only result set. The connection is held until the stream 
+     * is closed, so the stream must be closed, e.g. by try-with-resources.
+     * Errors when reading rows are thrown as {@link ServiceFailureException}.
+     * 
+     * @param <T> entity type
+     * @param ds datasource
+     * @param sql query
+     * @param fetchSize number of rows fetched at once
+     * @param mapper maps rows to entities
+     * @return stream of entities
+     * @throws SQLException when the query cannot be executed
+     */
+    public static <T> Stream<T> streamQuery(DataSource ds, String sql, int fetchSize, 
+            RowMapper<T> mapper) throws SQLException {
+        Connection conn = ds.getConnection();
+        PreparedStatement st = null;
+        ResultSet rs;
+        try {
+            st = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            st.setFetchSize(fetchSize);
+            rs = st.executeQuery();
+        } catch (SQLException | RuntimeException ex) {
+            closeQuietly(conn, st);
+            throw ex;
+        }
+        PreparedStatement statement = st;
+        Spliterator<T> rows = new Spliterators.AbstractSpliterator<T>(
+                Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+            @Override
+            public boolean tryAdvance(Consumer<? super T> action) {
+                try {
+                    if (!rs.next()) {
+                        return false;
+                    }
+                    action.accept(mapper.mapRow(rs));
+                    return true;
+                } catch (SQLException ex) {
+                    String msg = "Error when reading rows of " + sql;
+                    logger.log(Level.SEVERE, msg, ex);
+                    throw new ServiceFailureException(msg, ex);
+                }
+            }
+        };
+        return StreamSupport.stream(rows, false).onClose(() -> {
+            try {
+                rs.close();
+            } catch (SQLException ex) {
+                logger.log(Level.SEVERE, "Error when closing result set", ex);
+            }
+            closeQuietly(conn, statement);
+        });
+    }
+    
     /**
      * Check if updates count is one. Otherwise appropriate exception is thrown.
      * 
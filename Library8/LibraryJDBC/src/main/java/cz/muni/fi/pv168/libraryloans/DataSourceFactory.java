@@ -0,0 +1,221 @@
+package cz.muni.fi.pv168.libraryloans;
+
+import java.sql.Connection;
+import java.util.Properties;
+import org.apache.commons.dbcp2.ConnectionFactory;
+import org.apache.commons.dbcp2.DriverManagerConnectionFactory;
+import org.apache.commons.dbcp2.PoolableConnection;
+import org.apache.commons.dbcp2.PoolableConnectionFactory;
+import org.apache.commons.pool2.impl.GenericObjectPool;
+
+/**
+ * Creates pooled data sources. All settings have defaults suitable for
+ * the embedded Derby database used by the application, so only the settings
+ * that differ need to be set before calling {@link #createDataSource()}.
+ * <p>
+ * {@link #createReadOnlyDataSource()} creates a separate pool for finders.
+ * Its connections are read-only, use the read-only isolation level and
+ * stay in autocommit mode, so they are returned to the pool without
+ * rollback and autocommit reset.
+ *
+ * @author L
+ */
+public class DataSourceFactory {
+
+    public static final String DEFAULT_URL = "jdbc:derby:memory:librarymanager;create=true";
+
+    private String driverClassName = "org.apache.derby.jdbc.EmbeddedDriver";
+    private String url = DEFAULT_URL;
+    private String username;
+    private String password;
+
+    private int maxTotal = 8;
+    private int maxIdle = 8;
+    private int minIdle = 0;
+    private long maxWaitMillis = 10_000;
+
+    private String validationQuery = "VALUES 1";
+    private int validationQueryTimeout = -1;
+    private boolean testOnBorrow = false;
+    private boolean testWhileIdle = true;
+    private long timeBetweenEvictionRunsMillis = 60_000;
+
+    private boolean poolPreparedStatements = true;
+    private int maxOpenPreparedStatements = 50;
+
+    private int readOnlyTransactionIsolation = Connection.TRANSACTION_READ_COMMITTED;
+
+    public void setDriverClassName(String driverClassName) {
+        this.driverClassName = driverClassName;
+    }
+
+    public void setUrl(String url) {
+        this.url = url;
+    }
+
+    public void setUsername(String username) {
+        this.username = username;
+    }
+
+    public void setPassword(String password) {
+        this.password = password;
+    }
+
+    /**
+     * @param maxTotal maximal number of connections opened at the same time
+     */
+    public void setMaxTotal(int maxTotal) {
+        this.maxTotal = maxTotal;
+    }
+
+    /**
+     * @param maxIdle maximal number of connections kept open while unused
+     */
+    public void setMaxIdle(int maxIdle) {
+        this.maxIdle = maxIdle;
+    }
+
+    /**
+     * @param minIdle number of connections the evictor keeps open while unused
+     */
+    public void setMinIdle(int minIdle) {
+        this.minIdle = minIdle;
+    }
+
+    /**
+     * @param maxWaitMillis how long to wait for a free connection, negative
+     * value means forever
+     */
+    public void setMaxWaitMillis(long maxWaitMillis) {
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    /**
+     * @param validationQuery query used to validate connections, {@code null}
+     * means validation by {@link java.sql.Connection#isValid(int)}
+     */
+    public void setValidationQuery(String validationQuery) {
+        this.validationQuery = validationQuery;
+    }
+
+    public void setValidationQueryTimeout(int validationQueryTimeout) {
+        this.validationQueryTimeout = validationQueryTimeout;
+    }
+
+    public void setTestOnBorrow(boolean testOnBorrow) {
+        this.testOnBorrow = testOnBorrow;
+    }
+
+    public void setTestWhileIdle(boolean testWhileIdle) {
+        this.testWhileIdle = testWhileIdle;
+    }
+
+    public void setTimeBetweenEvictionRunsMillis(long timeBetweenEvictionRunsMillis) {
+        this.timeBetweenEvictionRunsMillis = timeBetweenEvictionRunsMillis;
+    }
+
+    /**
+     * @param poolPreparedStatements whether prepared statements are cached
+     * per connection, see {@link StatementCache}
+     */
+    public void setPoolPreparedStatements(boolean poolPreparedStatements) {
+        this.poolPreparedStatements = poolPreparedStatements;
+    }
+
+    /**
+     * @param maxOpenPreparedStatements maximal number of idle statements
+     * cached per connection, least recently used ones are closed first
+     */
+    public void setMaxOpenPreparedStatements(int maxOpenPreparedStatements) {
+        this.maxOpenPreparedStatements = maxOpenPreparedStatements;
+    }
+
+    /**
+     * @param readOnlyTransactionIsolation isolation level of connections of
+     * read-only pools, one of the {@code TRANSACTION_*} constants of
+     * {@link Connection}
+     */
+    public void setReadOnlyTransactionIsolation(int readOnlyTransactionIsolation) {
+        this.readOnlyTransactionIsolation = readOnlyTransactionIsolation;
+    }
+
+    /**
+     * Creates new pool with current settings.
+     *
+     * @return pooled data source, it should be closed when no longer used
+     */
+    public PooledDataSource createDataSource() {
+        return createDataSource(false);
+    }
+
+    /**
+     * Creates new pool of read-only connections with current settings.
+     *
+     * @return pooled data source, it should be closed when no longer used
+     */
+    public PooledDataSource createReadOnlyDataSource() {
+        return createDataSource(true);
+    }
+
+    private PooledDataSource createDataSource(boolean readOnly) {
+        if (url == null) {
+            throw new IllegalStateException("url is not set");
+        }
+        if (maxTotal <= 0) {
+            throw new IllegalStateException("maxTotal must be positive");
+        }
+        loadDriver();
+
+        Properties properties = new Properties();
+        if (username != null) {
+            properties.setProperty("user", username);
+        }
+        if (password != null) {
+            properties.setProperty("password", password);
+        }
+        ConnectionFactory driverConnectionFactory = new DriverManagerConnectionFactory(url, properties);
+        StatementCacheStats statementCacheStats = new StatementCacheStats();
+        ConnectionFactory connectionFactory = driverConnectionFactory;
+        if (poolPreparedStatements) {
+            int cacheSize = maxOpenPreparedStatements;
+            connectionFactory = () -> StatementCache.wrap(
+                    driverConnectionFactory.createConnection(), cacheSize, statementCacheStats);
+        }
+
+        PoolableConnectionFactory poolableConnectionFactory
+                = new PoolableConnectionFactory(connectionFactory, null);
+        poolableConnectionFactory.setValidationQuery(validationQuery);
+        poolableConnectionFactory.setValidationQueryTimeout(validationQueryTimeout);
+        if (readOnly) {
+            poolableConnectionFactory.setDefaultReadOnly(true);
+            poolableConnectionFactory.setDefaultAutoCommit(true);
+            poolableConnectionFactory.setDefaultTransactionIsolation(readOnlyTransactionIsolation);
+            //nothing is written, so there is nothing to roll back or reset
+            poolableConnectionFactory.setRollbackOnReturn(false);
+            poolableConnectionFactory.setEnableAutoCommitOnReturn(false);
+        }
+
+        GenericObjectPool<PoolableConnection> pool = new GenericObjectPool<>(poolableConnectionFactory);
+        pool.setMaxTotal(maxTotal);
+        pool.setMaxIdle(maxIdle);
+        pool.setMinIdle(minIdle);
+        pool.setMaxWaitMillis(maxWaitMillis);
+        pool.setTestOnBorrow(testOnBorrow);
+        pool.setTestWhileIdle(testWhileIdle);
+        pool.setTimeBetweenEvictionRunsMillis(timeBetweenEvictionRunsMillis);
+        poolableConnectionFactory.setPool(pool);
+
+        return new PooledDataSource(pool, statementCacheStats);
+    }
+
+    private void loadDriver() {
+        if (driverClassName == null) {
+            return;
+        }
+        try {
+            Class.forName(driverClassName);
+        } catch (ClassNotFoundException ex) {
+            throw new IllegalStateException("Cannot load JDBC driver " + driverClassName, ex);
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package cz.muni.fi.pv168.libraryloans;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+/**
+ * Bounded cache of entities by id with least recently used eviction and
+ * time to live.
+ * <p>
+ * The cache holds copies of the entities, so returned entities may be
+ * changed freely. An entity loaded while it was invalidated is not cached,
+ * so a load racing with an update cannot put the old state back. The cache
+ * is thread safe.
+ * <p>
+ * Entries are kept in a map with primitive keys and linked from the least
+ * to the most recently used, so a hit allocates nothing but the copy.
+ *
+ * @param <T> entity type
+ * @author L
+ */
+public class EntityCache<T> {
+
+    private final int maxSize;
+    private final long ttlMillis;
+    private final Clock clock;
+    private final UnaryOperator<T> copier;
+    private final LongObjectHashMap<Entry<T>> entries = new LongObjectHashMap<>();
+    /** least recently used entry */
+    private Entry<T> eldest;
+    /** most recently used entry */
+    private Entry<T> youngest;
+    private long invalidations;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    /**
+     * @param maxSize maximal number of cached entities
+     * @param ttl how long an entity stays cached
+     * @param clock clock measuring the time to live
+     * @param copier creates copy of an entity
+     */
+    public EntityCache(int maxSize, Duration ttl, Clock clock, UnaryOperator<T> copier) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be positive");
+        }
+        if (ttl.isNegative() || ttl.isZero()) {
+            throw new IllegalArgumentException("ttl must be positive");
+        }
+        this.maxSize = maxSize;
+        this.ttlMillis = ttl.toMillis();
+        this.clock = clock;
+        this.copier = copier;
+    }
+
+    /**
+     * Returns cached entity, or loads and caches it when it is not cached
+     * or expired. Entities not found by the loader are not cached.
+     *
+     * @param id entity id
+     * @param loader loads entity from the database, returns null when not found
+     * @return copy of the entity or null
+     */
+    public T get(Long id, Function<Long, T> loader) {
+        if (id == null) {
+            throw new IllegalArgumentException("id is null");
+        }
+        long invalidationsBefore;
+        synchronized (this) {
+            Entry<T> entry = entries.get(id);
+            if (entry != null) {
+                if (clock.millis() < entry.expires) {
+                    hits.increment();
+                    unlink(entry);
+                    link(entry);
+                    return copier.apply(entry.entity);
+                }
+                remove(id);
+                expirations.increment();
+            }
+            misses.increment();
+            invalidationsBefore = invalidations;
+        }
+        T entity = loader.apply(id);
+        if (entity != null) {
+            synchronized (this) {
+                if (invalidations == invalidationsBefore) {
+                    put(id, entity);
+                }
+            }
+        }
+        return entity;
+    }
+
+    private void put(long id, T entity) {
+        remove(id);
+        Entry<T> entry = new Entry<>(id, copier.apply(entity), clock.millis() + ttlMillis);
+        entries.put(id, entry);
+        link(entry);
+        if (entries.size() > maxSize) {
+            remove(eldest.id);
+            evictions.increment();
+        }
+    }
+
+    private void remove(long id) {
+        Entry<T> entry = entries.remove(id);
+        if (entry != null) {
+            unlink(entry);
+        }
+    }
+
+    /**
+     * Appends the entry as the most recently used one.
+     */
+    private void link(Entry<T> entry) {
+        entry.previous = youngest;
+        entry.next = null;
+        if (youngest == null) {
+            eldest = entry;
+        } else {
+            youngest.next = entry;
+        }
+        youngest = entry;
+    }
+
+    private void unlink(Entry<T> entry) {
+        if (entry.previous == null) {
+            eldest = entry.next;
+        } else {
+            entry.previous.next = entry.next;
+        }
+        if (entry.next == null) {
+            youngest = entry.previous;
+        } else {
+            entry.next.previous = entry.previous;
+        }
+    }
+
+    /**
+     * Removes an entity, it is loaded again by the next call of
+     * {@link #get(Long, Function)}.
+     *
+     * @param id entity id
+     */
+    public synchronized void invalidate(Long id) {
+        invalidations++;
+        remove(id);
+    }
+
+    /**
+     * Removes all entities.
+     */
+    public synchronized void invalidateAll() {
+        invalidations++;
+        entries.clear();
+        eldest = null;
+        youngest = null;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return number of entities returned from the cache
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return number of entities which had to be loaded
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return number of entities removed because the cache was full
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return number of entities removed because their time to live passed
+     */
+    public long getExpirations() {
+        return expirations.sum();
+    }
+
+    public double getHitRatio() {
+        long h = getHits();
+        long total = h + getMisses();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    @Override
+    public String toString() {
+        return "EntityCache{" + "size=" + size() + ", maxSize=" + maxSize + ", hits=" + getHits()
+                + ", misses=" + getMisses() + ", evictions=" + getEvictions()
+                + ", expirations=" + getExpirations() + '}';
+    }
+
+    private static final class Entry<T> {
+
+        private final long id;
+        private final T entity;
+        private final long expires;
+        private Entry<T> previous;
+        private Entry<T> next;
+
+        Entry(long id, T entity, long expires) {
+            this.id = id;
+            this.entity = entity;
+            this.expires = expires;
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package cz.muni.fi.pv168.libraryloans;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parses JSON of request bodies and imported lines. Objects are returned as
+ * {@link Map}, arrays as {@link List}, numbers as {@link Long} or
+ * {@link Double}, strings, booleans and null as they are.
+ * <p>
+ * Objects and arrays may be nested at most {@value #MAX_DEPTH} levels deep,
+ * so that the recursion of the parser cannot overflow the stack, and the
+ * length of arrays may be limited, so that a too large document is rejected
+ * before all of it is parsed.
+ *
+ * @author L
+ */
+public final class JsonParser {
+
+    public static final int MAX_DEPTH = 64;
+
+    private final String text;
+    private final int maxArrayLength;
+    private int position;
+    private int depth;
+
+    private JsonParser(String text, int maxArrayLength) {
+        this.text = text;
+        this.maxArrayLength = maxArrayLength;
+    }
+
+    /**
+     * @param text JSON document
+     * @return parsed value
+     * @throws IllegalArgumentException when the text is not valid JSON or
+     * when it is nested too deep
+     */
+    public static Object parse(String text) {
+        return parse(text, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param text JSON document
+     * @param maxArrayLength maximal number of elements of each array
+     * @return parsed value
+     * @throws IllegalArgumentException when the text is not valid JSON, when
+     * it is nested too deep or when an array is longer than allowed
+     */
+    public static Object parse(String text, int maxArrayLength) {
+        if (text == null) {
+            throw new IllegalArgumentException("text is null");
+        }
+        if (maxArrayLength < 0) {
+            throw new IllegalArgumentException("maxArrayLength is negative");
+        }
+        JsonParser parser = new JsonParser(text, maxArrayLength);
+        Object value = parser.value();
+        parser.skipWhitespace();
+        if (parser.position < text.length()) {
+            throw parser.error("unexpected text");
+        }
+        return value;
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " at position " + position);
+    }
+
+    private void skipWhitespace() {
+        while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+            position++;
+        }
+    }
+
+    private boolean consume(char c) {
+        skipWhitespace();
+        if (position < text.length() && text.charAt(position) == c) {
+            position++;
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(char c) {
+        if (!consume(c)) {
+            throw error("'" + c + "' expected");
+        }
+    }
+
+    private Object value() {
+        skipWhitespace();
+        if (position >= text.length()) {
+            throw error("value expected");
+        }
+        char c = text.charAt(position);
+        switch (c) {
+            case '{':
+                return object();
+            case '[':
+                return array();
+            case '"':
+                return string();
+            default:
+                return literal();
+        }
+    }
+
+    private void enter() {
+        if (++depth > MAX_DEPTH) {
+            throw error("values nested deeper than " + MAX_DEPTH + " levels");
+        }
+    }
+
+    private Map<String, Object> object() {
+        expect('{');
+        enter();
+        Map<String, Object> object = new LinkedHashMap<>();
+        if (!consume('}')) {
+            do {
+                skipWhitespace();
+                String name = string();
+                expect(':');
+                object.put(name, value());
+            } while (consume(','));
+            expect('}');
+        }
+        depth--;
+        return object;
+    }
+
+    private List<Object> array() {
+        expect('[');
+        enter();
+        List<Object> array = new ArrayList<>();
+        if (!consume(']')) {
+            do {
+                if (array.size() == maxArrayLength) {
+                    throw error("array longer than " + maxArrayLength + " elements");
+                }
+                array.add(value());
+            } while (consume(','));
+            expect(']');
+        }
+        depth--;
+        return array;
+    }
+
+    private String string() {
+        if (position >= text.length() || text.charAt(position) != '"') {
+            throw error("string expected");
+        }
+        position++;
+        StringBuilder value = new StringBuilder();
+        while (position < text.length()) {
+            char c = text.charAt(position++);
+            if (c == '"') {
+                return value.toString();
+            }
+            if (c != '\\') {
+                value.append(c);
+                continue;
+            }
+            if (position >= text.length()) {
+                break;
+            }
+            char escaped = text.charAt(position++);
+            switch (escaped) {
+                case 'b':
+                    value.append('\b');
+                    break;
+                case 'f':
+                    value.append('\f');
+                    break;
+                case 'n':
+                    value.append('\n');
+                    break;
+                case 'r':
+                    value.append('\r');
+                    break;
+                case 't':
+                    value.append('\t');
+                    break;
+                case 'u':
+                    if (position + 4 > text.length()) {
+                        throw error("invalid unicode escape");
+                    }
+                    try {
+                        value.append((char) Integer.parseInt(text.substring(position, position + 4), 16));
+                    } catch (NumberFormatException ex) {
+                        throw error("invalid unicode escape");
+                    }
+                    position += 4;
+                    break;
+                default:
+                    value.append(escaped);
+            }
+        }
+        throw error("unterminated string");
+    }
+
+    private Object literal() {
+        int start = position;
+        while (position < text.length() && ",:]}".indexOf(text.charAt(position)) < 0
+                && !Character.isWhitespace(text.charAt(position))) {
+            position++;
+        }
+        String literal = text.substring(start, position);
+        switch (literal) {
+            case "null":
+                return null;
+            case "true":
+                return Boolean.TRUE;
+            case "false":
+                return Boolean.FALSE;
+            default:
+                try {
+                    if (literal.indexOf('.') < 0 && literal.indexOf('e') < 0 && literal.indexOf('E') < 0) {
+                        return Long.valueOf(literal);
+                    }
+                    return Double.valueOf(literal);
+                } catch (NumberFormatException ex) {
+                    position = start;
+                    throw error("value expected");
+                }
+        }
+    }
+}
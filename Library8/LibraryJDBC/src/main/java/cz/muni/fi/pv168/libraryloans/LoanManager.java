@@ -1,6 +1,11 @@
 package cz.muni.fi.pv168.libraryloans;
 
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
 
 /**
  *
@@ -14,12 +19,141 @@ public interface LoanManager {
     
     public void deleteLoan(Loan loan);
     
+    /**
+     * Inserts all loans and assigns their ids. Loans are written in chunks, 
+     * each chunk in its own transaction. When a chunk fails, loans from 
+     * previous chunks stay stored.
+     * 
+     * @param loans loans to insert
+     */
+    public void createLoans(Collection<Loan> loans);
+    
+    /**
+     * Updates all loans, in chunks like {@link #createLoans(Collection)}.
+     * 
+     * @param loans loans to update
+     */
+    public void updateLoans(Collection<Loan> loans);
+    
+    /**
+     * Deletes all loans, in chunks like {@link #createLoans(Collection)}.
+     * 
+     * @param loans loans to delete
+     */
+    public void deleteLoans(Collection<Loan> loans);
+    
     public Loan getLoanById(Long id);
     
     public List<Loan> findAllLoans();
     
+    /**
+     * Returns all loans as a lazy stream, rows are read from the database 
+     * while the stream is consumed. The stream holds a connection, so it 
+     * must be closed, e.g. by try-with-resources.
+     * 
+     * @return stream of all loans
+     */
+    public Stream<Loan> streamAllLoans();
+    
+    /**
+     * Returns one page of loans ordered by id. The next page starts after 
+     * the id of the last loan of the previous page.
+     * 
+     * @param afterId id of the last loan of the previous page, null for the first page
+     * @param limit maximal number of returned loans
+     * @return loans with id greater than afterId
+     */
+    public List<Loan> findLoans(Long afterId, int limit);
+    
+    /**
+     * @return number of stored loans
+     */
+    public long countLoans();
+    
     public List<Loan> findAllLoansForReader(Reader reader);
     
     public List<Loan> findAllLoansForBook(Book book);
     
+    /**
+     * Lends the book to the reader from today, if the book is not lent 
+     * already. The check and the insert are done in one transaction holding 
+     * a lock on the book, so one book cannot be lent twice at the same time.
+     * 
+     * @param reader stored reader
+     * @param book stored book
+     * @param dueDate expected end date of the loan
+     * @return stored loan
+     * @throws IllegalEntityException when the book does not exist or it is 
+     * already lent
+     */
+    public Loan checkoutBook(Reader reader, Book book, LocalDate dueDate);
+    
+    /**
+     * Stores loans of existing readers and books, in chunks like 
+     * {@link #createLoans(Collection)}. Each chunk locks its books like 
+     * {@link #checkoutBook(Reader, Book, LocalDate)} and checks its readers 
+     * and books by one query each. An open loan, without real end time, is 
+     * rejected when its book is lent already, in the database or by an 
+     * earlier loan of the collection.
+     * 
+     * @param loans loans of stored readers and books, only their ids are used
+     * @throws IllegalEntityException when a reader or book does not exist or 
+     * a book is already lent; the failing chunk is rolled back
+     */
+    public void checkoutLoans(Collection<Loan> loans);
+    
+    /**
+     * Tells whether the book can be lent now. When the manager has an index 
+     * of open loans, it is answered from memory without a query.
+     * 
+     * @param book stored book
+     * @return true when the book has no open loan
+     */
+    public boolean isBookAvailable(Book book);
+    
+    /**
+     * Returns the reader holding the book now, like 
+     * {@link #isBookAvailable(Book)}.
+     * 
+     * @param book stored book
+     * @return id of the reader of the open loan of the book, or null when 
+     * the book is available
+     */
+    public Long getHolderId(Book book);
+    
+    /**
+     * Returns open loans whose expected end date is before the given date.
+     * 
+     * @param asOf date to check against
+     * @return overdue loans ordered by expected end date
+     */
+    public List<Loan> findOverdueLoans(LocalDate asOf);
+    
+    /**
+     * Returns loans overdue today, according to the manager's clock.
+     * 
+     * @return overdue loans ordered by expected end date
+     */
+    public List<Loan> findOverdueLoans();
+    
+    /**
+     * Returns open loans whose expected end date is between the given dates.
+     * 
+     * @param from first day, inclusive
+     * @param to last day, inclusive
+     * @return loans ordered by expected end date
+     */
+    public List<Loan> findLoansDueBetween(LocalDate from, LocalDate to);
+    
+    /**
+     * Ends open loans of all given books. Books are processed in chunks, 
+     * each chunk by one UPDATE in its own transaction. When a chunk fails, 
+     * loans from previous chunks stay returned.
+     * 
+     * @param bookIds ids of returned books
+     * @param when real end time of the loans
+     * @return ids of books which had no open loan, in the given order
+     */
+    public Set<Long> returnBooks(Collection<Long> bookIds, LocalDateTime when);
+    
 }
@@ -13,6 +13,12 @@ import java.sql.Date;
 import java.sql.ResultSet;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  *
@@ -20,11 +26,33 @@ import java.util.ArrayList;
  */
 public class LoanManagerImpl implements LoanManager {
 
+    private static final String INSERT_LOAN =
+            "INSERT INTO LOAN (readerid,bookid,starttime,endtime,realend) VALUES (?,?,?,?,?)";
+    private static final String UPDATE_LOAN =
+            "UPDATE loan SET readerid = ?, bookid = ?, starttime = ?, endtime = ?, realend = ? WHERE id = ?";
+    private static final String DELETE_LOAN =
+            "DELETE FROM loan WHERE id = ?";
+    /**
+     * Updates nothing, but takes a write lock on the book row until 
+     * the end of transaction.
+     */
+    private static final String LOCK_BOOK =
+            "UPDATE book SET published = published WHERE id = ?";
+    private static final String SELECT_HOLDER =
+            "SELECT readerid FROM loan WHERE bookid = ? AND realend IS NULL";
+    private static final String COUNT_OPEN_LOANS_FOR_BOOK =
+            "SELECT COUNT(*) FROM loan WHERE bookid = ? AND realend IS NULL";
+    
     private DataSource dataSource;
+    private DataSource readOnlyDataSource;
     private final Clock clock;
+    private int batchSize = DBUtils.DEFAULT_BATCH_SIZE;
+    private int fetchSize = DBUtils.DEFAULT_FETCH_SIZE;
     
     private ReaderManager readerManager;
     private BookManager bookManager;
+    private OpenLoansIndex openLoansIndex;
+    private ChangeTracker changeTracker;
 
     public void setReaderManager(ReaderManager readerManager) {
         this.readerManager = readerManager;
@@ -42,6 +70,26 @@ public class LoanManagerImpl implements LoanManager {
         return bookManager;
     }
 
+    /**
+     * @param openLoansIndex index kept in sync with stored loans, which
+     * answers {@link #isBookAvailable(Book)} and {@link #getHolderId(Book)};
+     * may be null
+     */
+    public void setOpenLoansIndex(OpenLoansIndex openLoansIndex) {
+        this.openLoansIndex = openLoansIndex;
+    }
+
+    public OpenLoansIndex getOpenLoansIndex() {
+        return openLoansIndex;
+    }
+
+    /**
+     * @param changeTracker tracker notified about committed changes, may be null
+     */
+    public void setChangeTracker(ChangeTracker changeTracker) {
+        this.changeTracker = changeTracker;
+    }
+
     public LoanManagerImpl(Clock clock) {
         this.clock = clock;
     }
@@ -50,9 +98,51 @@ public class LoanManagerImpl implements LoanManager {
         this.dataSource = dataSource;
     }
     
+    /**
+     * @param batchSize number of loans written in one transaction by bulk operations
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batch size must be positive");
+        }
+        this.batchSize = batchSize;
+    }
+    
+    /**
+     * @param fetchSize number of rows fetched at once by {@link #streamAllLoans()}
+     */
+    public void setFetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
+    }
+    
     private static final Logger logger = Logger.getLogger(
             ReaderManagerImpl.class.getName());
     
+    /**
+     * Loans are always loaded together with their reader and book, so that
+     * mapping a row does not need any further query.
+     */
+    private static final String SELECT_LOANS =
+            "SELECT l.id, l.readerid, l.bookid, l.starttime, l.endtime, l.realend, " +
+            "r.name, r.address, r.email, r.note AS readernote, " +
+            "b.title, b.author, b.published, b.note AS booknote " +
+            "FROM Loan l " +
+            "JOIN Reader r ON l.readerid = r.id " +
+            "JOIN Book b ON l.bookid = b.id";
+    
+    /**
+     * @param readOnlyDataSource data source used by finders, e.g. a read-only
+     * pool from {@link DataSourceFactory#createReadOnlyDataSource()}; when
+     * null, finders use the data source
+     */
+    public void setReadOnlyDataSource(DataSource readOnlyDataSource) {
+        this.readOnlyDataSource = readOnlyDataSource;
+    }
+    
+    private DataSource readDataSource() {
+        return readOnlyDataSource != null ? readOnlyDataSource : dataSource;
+    }
+    
     private void checkDataSource() {
         if (dataSource == null) {
             throw new IllegalStateException("DataSource is not set");
@@ -75,15 +165,8 @@ public class LoanManagerImpl implements LoanManager {
             connection = dataSource.getConnection();
             //Manual transaction control.
             connection.setAutoCommit(false);
-            st = connection.prepareStatement(
-                    "INSERT INTO LOAN (readerid,bookid,starttime,endtime,realend) VALUES (?,?,?,?,?)",
-                    Statement.RETURN_GENERATED_KEYS);
-            
-            st.setLong(1, loan.getReader().getId());
-            st.setLong(2, loan.getBook().getId());
-            st.setDate(3, toSqlDate(loan.getStartDate()));
-            st.setDate(4, toSqlDate(loan.getExpectedEndDate()));
-            st.setTimestamp(5, toSqlTimestamp(loan.getRealEndTime()));
+            st = connection.prepareStatement(INSERT_LOAN, Statement.RETURN_GENERATED_KEYS);
+            setLoanParameters(st, loan);
             
             int addedRows = st.executeUpdate();
             DBUtils.checkUpdatesCount(addedRows, loan, true);
@@ -91,6 +174,8 @@ public class LoanManagerImpl implements LoanManager {
             Long id = DBUtils.getId(st.getGeneratedKeys());
             loan.setId(id);
             connection.commit();        
+            TransactionManager.afterCommit(connection, () -> loansStored(Collections.singletonList(loan)));
+            TransactionManager.afterRollback(connection, () -> loan.setId(null));
          } 
          catch (SQLException ex) {
             String msg = "Error when inserting loan " + loan;
@@ -119,19 +204,14 @@ public class LoanManagerImpl implements LoanManager {
             connection = dataSource.getConnection();
             //Manual transaction control.
             connection.setAutoCommit(false);
-            st = connection.prepareStatement(
-                    "UPDATE loan SET readerid = ?, bookid = ?, starttime = ?, endtime = ?, realend = ? WHERE id = ?");
-            
-            st.setLong(1, loan.getReader().getId());
-            st.setLong(2, loan.getBook().getId());
-            st.setDate(3, toSqlDate(loan.getStartDate()));
-            st.setDate(4, toSqlDate(loan.getExpectedEndDate()));
-            st.setTimestamp(5, toSqlTimestamp(loan.getRealEndTime()));
+            st = connection.prepareStatement(UPDATE_LOAN);
+            setLoanParameters(st, loan);
             st.setLong(6, loan.getId());
             
             int addedRows = st.executeUpdate();
             DBUtils.checkUpdatesCount(addedRows, loan, false);
             connection.commit();        
+            TransactionManager.afterCommit(connection, () -> loansStored(Collections.singletonList(loan)));
          } 
          catch (SQLException ex) {
             String msg = "Error when updating loan " + loan;
@@ -159,14 +239,14 @@ public class LoanManagerImpl implements LoanManager {
             connection = dataSource.getConnection();
             //Manual transaction control.
             connection.setAutoCommit(false);
-            st = connection.prepareStatement(
-                    "DELETE FROM loan WHERE id = ?");
+            st = connection.prepareStatement(DELETE_LOAN);
             
             st.setLong(1, loan.getId());
             
             int count = st.executeUpdate();
             DBUtils.checkUpdatesCount(count, loan, false);
             connection.commit();
+            TransactionManager.afterCommit(connection, () -> loansDeleted(Collections.singletonList(loan)));
         } catch (SQLException ex) {
             String msg = "Error when deleting loan" + loan;
             logger.log(Level.SEVERE, msg, ex);
@@ -177,6 +257,211 @@ public class LoanManagerImpl implements LoanManager {
         }
     }
 
+    @Override
+    public void createLoans(Collection<Loan> loans) throws ServiceFailureException {
+        checkDataSource();
+        if (loans == null) {
+            throw new IllegalArgumentException("loans is null");
+        }
+        for (Loan loan : loans) {
+            validate(loan);
+            if (loan.getId() != null) {
+                throw new IllegalEntityException("loan id should not be assigned prior saving");
+            }
+        }
+        try {
+            //Derby returns only the last generated key for a batch, so rows
+            //are inserted one by one, but with one statement per chunk
+            DBUtils.executeInChunks(dataSource, loans, batchSize, (connection, chunk) -> {
+                try (PreparedStatement st = connection.prepareStatement(INSERT_LOAN, Statement.RETURN_GENERATED_KEYS)) {
+                    for (Loan loan : chunk) {
+                        setLoanParameters(st, loan);
+                        int addedRows = st.executeUpdate();
+                        DBUtils.checkUpdatesCount(addedRows, loan, true);
+                        loan.setId(DBUtils.getId(st.getGeneratedKeys()));
+                    }
+                }
+            }, this::loansStored, chunk -> chunk.forEach(loan -> loan.setId(null)));
+        } catch (SQLException ex) {
+            String msg = "Error when inserting loans";
+            logger.log(Level.SEVERE, msg, ex);
+            throw new ServiceFailureException(msg, ex);
+        }
+    }
+    
+    @Override
+    public void checkoutLoans(Collection<Loan> loans) throws ServiceFailureException {
+        checkDataSource();
+        if (loans == null) {
+            throw new IllegalArgumentException("loans is null");
+        }
+        for (Loan loan : loans) {
+            validate(loan);
+            if (loan.getId() != null) {
+                throw new IllegalEntityException("loan id should not be assigned prior saving");
+            }
+            if (loan.getReader().getId() == null || loan.getBook().getId() == null) {
+                throw new IllegalEntityException("reader or book of loan " + loan + " is not stored");
+            }
+        }
+        //books lent by stored chunks
+        LongHashSet lent = new LongHashSet(loans.size());
+        try {
+            DBUtils.executeInChunks(dataSource, loans, batchSize, (connection, chunk) -> {
+                LongHashSet chunkLent = checkLoansOfChunk(connection, chunk, lent);
+                try (PreparedStatement st = connection.prepareStatement(INSERT_LOAN, Statement.RETURN_GENERATED_KEYS)) {
+                    for (Loan loan : chunk) {
+                        setLoanParameters(st, loan);
+                        DBUtils.checkUpdatesCount(st.executeUpdate(), loan, true);
+                        loan.setId(DBUtils.getId(st.getGeneratedKeys()));
+                    }
+                }
+                chunkLent.forEach(lent::add);
+            }, this::loansStored, chunk -> chunk.forEach(loan -> loan.setId(null)));
+        } catch (SQLException ex) {
+            String msg = "Error when lending books";
+            logger.log(Level.SEVERE, msg, ex);
+            throw new ServiceFailureException(msg, ex);
+        }
+    }
+
+    /**
+     * Locks the books of the chunk and checks that its readers and books
+     * exist and that books of its open loans are not lent.
+     *
+     * @return books lent by open loans of the chunk
+     */
+    private static LongHashSet checkLoansOfChunk(Connection connection, List<Loan> chunk, LongHashSet lent)
+            throws SQLException {
+        //sorted, so concurrent chunks lock books in the same order
+        List<Long> bookIds = chunk.stream().map(loan -> loan.getBook().getId())
+                .distinct().sorted().collect(Collectors.toList());
+        List<Long> readerIds = chunk.stream().map(loan -> loan.getReader().getId())
+                .distinct().collect(Collectors.toList());
+        try (PreparedStatement st = connection.prepareStatement(
+                "UPDATE book SET published = published WHERE id" + inList(bookIds.size()))) {
+            setIds(st, 1, bookIds);
+            if (st.executeUpdate() < bookIds.size()) {
+                Long missing = firstMissing(connection, "book", bookIds);
+                throw new IllegalEntityException("book " + missing + " does not exist in the database");
+            }
+        }
+        Long missingReader = firstMissing(connection, "reader", readerIds);
+        if (missingReader != null) {
+            throw new IllegalEntityException("reader " + missingReader + " does not exist in the database");
+        }
+        LongHashSet chunkLent = new LongHashSet(chunk.size());
+        for (Loan loan : chunk) {
+            if (loan.getRealEndTime() == null) {
+                long bookId = loan.getBook().getId();
+                if (lent.contains(bookId) || !chunkLent.add(bookId)) {
+                    throw new IllegalEntityException("book " + bookId + " is already lent");
+                }
+            }
+        }
+        if (!chunkLent.isEmpty()) {
+            List<Long> openBookIds = new ArrayList<>(chunkLent.size());
+            chunkLent.forEach(openBookIds::add);
+            try (PreparedStatement st = connection.prepareStatement(
+                    "SELECT bookid FROM loan WHERE realend IS NULL AND bookid" + inList(openBookIds.size()))) {
+                setIds(st, 1, openBookIds);
+                try (ResultSet rs = st.executeQuery()) {
+                    if (rs.next()) {
+                        throw new IllegalEntityException("book " + rs.getLong(1) + " is already lent");
+                    }
+                }
+            }
+        }
+        return chunkLent;
+    }
+
+    /**
+     * @return first of the ids, which is not in the table, or null
+     */
+    private static Long firstMissing(Connection connection, String table, List<Long> ids) throws SQLException {
+        LongHashSet found = new LongHashSet(ids.size());
+        try (PreparedStatement st = connection.prepareStatement(
+                "SELECT id FROM " + table + " WHERE id" + inList(ids.size()))) {
+            setIds(st, 1, ids);
+            try (ResultSet rs = st.executeQuery()) {
+                while (rs.next()) {
+                    found.add(rs.getLong(1));
+                }
+            }
+        }
+        for (Long id : ids) {
+            if (!found.contains(id)) {
+                return id;
+            }
+        }
+        return null;
+    }
+
+    private static String inList(int size) {
+        return " IN (" + String.join(",", Collections.nCopies(size, "?")) + ")";
+    }
+
+    @Override
+    public void updateLoans(Collection<Loan> loans) throws ServiceFailureException {
+        checkDataSource();
+        if (loans == null) {
+            throw new IllegalArgumentException("loans is null");
+        }
+        for (Loan loan : loans) {
+            validate(loan);
+            if (loan.getId() == null) {
+                throw new IllegalEntityException("loan id is null");
+            }
+        }
+        try {
+            DBUtils.executeInChunks(dataSource, loans, batchSize, (connection, chunk) -> {
+                try (PreparedStatement st = connection.prepareStatement(UPDATE_LOAN)) {
+                    for (Loan loan : chunk) {
+                        setLoanParameters(st, loan);
+                        st.setLong(6, loan.getId());
+                        st.addBatch();
+                    }
+                    DBUtils.checkBatchUpdatesCounts(st.executeBatch(), chunk, false);
+                }
+            }, this::loansStored, null);
+        } catch (SQLException ex) {
+            String msg = "Error when updating loans";
+            logger.log(Level.SEVERE, msg, ex);
+            throw new ServiceFailureException(msg, ex);
+        }
+    }
+    
+    @Override
+    public void deleteLoans(Collection<Loan> loans) throws ServiceFailureException {
+        checkDataSource();
+        if (loans == null) {
+            throw new IllegalArgumentException("loans is null");
+        }
+        for (Loan loan : loans) {
+            if (loan == null) {
+                throw new IllegalArgumentException("loan is null");
+            }
+            if (loan.getId() == null) {
+                throw new IllegalEntityException("loan id is null");
+            }
+        }
+        try {
+            DBUtils.executeInChunks(dataSource, loans, batchSize, (connection, chunk) -> {
+                try (PreparedStatement st = connection.prepareStatement(DELETE_LOAN)) {
+                    for (Loan loan : chunk) {
+                        st.setLong(1, loan.getId());
+                        st.addBatch();
+                    }
+                    DBUtils.checkBatchUpdatesCounts(st.executeBatch(), chunk, false);
+                }
+            }, this::loansDeleted, null);
+        } catch (SQLException ex) {
+            String msg = "Error when deleting loans";
+            logger.log(Level.SEVERE, msg, ex);
+            throw new ServiceFailureException(msg, ex);
+        }
+    }
+
     @Override
     public Loan getLoanById(Long id) throws ServiceFailureException {
         checkDataSource();
@@ -188,10 +473,9 @@ public class LoanManagerImpl implements LoanManager {
         PreparedStatement st = null;
         
         try {
-            connection = dataSource.getConnection();
+            connection = readDataSource().getConnection();
             st = connection.prepareStatement(
-                    "SELECT id, readerid, bookid, starttime, endtime, realend " +
-                    "FROM Loan WHERE id = ?");
+                    SELECT_LOANS + " WHERE l.id = ?");
             st.setLong(1, id);
             return executeQueryForSingleLoan(st);
         } catch (SQLException ex) {
@@ -209,10 +493,9 @@ public class LoanManagerImpl implements LoanManager {
         Connection connection = null;
         PreparedStatement st = null;
         try {
-            connection = dataSource.getConnection();
+            connection = readDataSource().getConnection();
             st = connection.prepareStatement(
-                    "SELECT id, readerid, bookid, starttime, endtime, realend " +
-                    "FROM Loan");
+                    SELECT_LOANS);
             return executeQueryForMultipleLoans(st);
         } catch (SQLException ex) {
             String msg = "Error when retrieving all loans";
@@ -223,16 +506,71 @@ public class LoanManagerImpl implements LoanManager {
         }
     }
 
+    @Override
+    public Stream<Loan> streamAllLoans() {
+        checkDataSource();
+        try {
+            //no deduplication of readers and books, memory stays constant
+            return DBUtils.streamQuery(readDataSource(), SELECT_LOANS, fetchSize,
+                    loanRowMapper(null, null));
+        } catch (SQLException ex) {
+            String msg = "Error when streaming all loans";
+            logger.log(Level.SEVERE, msg, ex);
+            throw new ServiceFailureException(msg, ex);
+        }
+    }
+    
+    @Override
+    public List<Loan> findLoans(Long afterId, int limit) {
+        checkDataSource();
+        if (limit <= 0) {
+            throw new IllegalArgumentException("limit must be positive");
+        }
+        Connection connection = null;
+        PreparedStatement st = null;
+        try {
+            connection = readDataSource().getConnection();
+            st = connection.prepareStatement(
+                    SELECT_LOANS + " WHERE l.id > ? ORDER BY l.id FETCH FIRST ? ROWS ONLY");
+            st.setLong(1, afterId == null ? Long.MIN_VALUE : afterId);
+            st.setInt(2, limit);
+            return executeQueryForMultipleLoans(st);
+        } catch (SQLException ex) {
+            String msg = "Error when retrieving loans after id = " + afterId;
+            logger.log(Level.SEVERE, msg, ex);
+            throw new ServiceFailureException(msg, ex);     
+        } finally {
+            DBUtils.closeQuietly(connection, st);
+        }
+    }
+    
+    @Override
+    public long countLoans() {
+        checkDataSource();
+        Connection connection = null;
+        PreparedStatement st = null;
+        try {
+            connection = readDataSource().getConnection();
+            st = connection.prepareStatement("SELECT COUNT(*) FROM Loan");
+            return DBUtils.executeQueryForLong(st);
+        } catch (SQLException ex) {
+            String msg = "Error when counting loans";
+            logger.log(Level.SEVERE, msg, ex);
+            throw new ServiceFailureException(msg, ex);     
+        } finally {
+            DBUtils.closeQuietly(connection, st);
+        }
+    }
+
     @Override
     public List<Loan> findAllLoansForReader(Reader reader) {
         checkDataSource();
         Connection connection = null;
         PreparedStatement st = null;
         try {
-            connection = dataSource.getConnection();
+            connection = readDataSource().getConnection();
             st = connection.prepareStatement(
-                    "SELECT id, readerid, bookid, starttime, endtime, realend " +
-                    "FROM Loan WHERE readerid = ?");
+                    SELECT_LOANS + " WHERE l.readerid = ?");
             st.setLong(1, reader.getId());
             return executeQueryForMultipleLoans(st);
         } catch (SQLException ex) {
@@ -250,10 +588,9 @@ public class LoanManagerImpl implements LoanManager {
         Connection connection = null;
         PreparedStatement st = null;
         try {
-            connection = dataSource.getConnection();
+            connection = readDataSource().getConnection();
             st = connection.prepareStatement(
-                    "SELECT id, readerid, bookid, starttime, endtime, realend " +
-                    "FROM Loan WHERE bookid = ?");
+                    SELECT_LOANS + " WHERE l.bookid = ?");
             st.setLong(1, book.getId());
             return executeQueryForMultipleLoans(st);
         } catch (SQLException ex) {
@@ -265,6 +602,241 @@ public class LoanManagerImpl implements LoanManager {
         }
     }
     
+    @Override
+    public List<Loan> findOverdueLoans(LocalDate asOf) throws ServiceFailureException {
+        checkDataSource();
+        if (asOf == null) {
+            throw new IllegalArgumentException("asOf is null");
+        }
+        Connection connection = null;
+        PreparedStatement st = null;
+        try {
+            connection = readDataSource().getConnection();
+            //uses index on (realend, endtime)
+            st = connection.prepareStatement(SELECT_LOANS
+                    + " WHERE l.realend IS NULL AND l.endtime < ? ORDER BY l.endtime, l.id");
+            st.setDate(1, toSqlDate(asOf));
+            return executeQueryForMultipleLoans(st);
+        } catch (SQLException ex) {
+            String msg = "Error when retrieving loans overdue as of " + asOf;
+            logger.log(Level.SEVERE, msg, ex);
+            throw new ServiceFailureException(msg, ex);
+        } finally {
+            DBUtils.closeQuietly(connection, st);
+        }
+    }
+    
+    @Override
+    public List<Loan> findOverdueLoans() throws ServiceFailureException {
+        return findOverdueLoans(LocalDate.now(clock));
+    }
+    
+    @Override
+    public List<Loan> findLoansDueBetween(LocalDate from, LocalDate to) throws ServiceFailureException {
+        checkDataSource();
+        if (from == null || to == null) {
+            throw new IllegalArgumentException("from or to is null");
+        }
+        Connection connection = null;
+        PreparedStatement st = null;
+        try {
+            connection = readDataSource().getConnection();
+            st = connection.prepareStatement(SELECT_LOANS
+                    + " WHERE l.realend IS NULL AND l.endtime BETWEEN ? AND ? ORDER BY l.endtime, l.id");
+            st.setDate(1, toSqlDate(from));
+            st.setDate(2, toSqlDate(to));
+            return executeQueryForMultipleLoans(st);
+        } catch (SQLException ex) {
+            String msg = "Error when retrieving loans due between " + from + " and " + to;
+            logger.log(Level.SEVERE, msg, ex);
+            throw new ServiceFailureException(msg, ex);
+        } finally {
+            DBUtils.closeQuietly(connection, st);
+        }
+    }
+    
+    @Override
+    public boolean isBookAvailable(Book book) throws ServiceFailureException {
+        return getHolderId(book) == null;
+    }
+
+    @Override
+    public Long getHolderId(Book book) throws ServiceFailureException {
+        checkDataSource();
+        if (book == null) {
+            throw new IllegalArgumentException("book is null");
+        }
+        if (book.getId() == null) {
+            throw new IllegalEntityException("book id is null");
+        }
+        if (openLoansIndex != null) {
+            return openLoansIndex.getHolderId(book.getId());
+        }
+        Connection connection = null;
+        PreparedStatement st = null;
+        try {
+            connection = readDataSource().getConnection();
+            st = connection.prepareStatement(SELECT_HOLDER);
+            st.setLong(1, book.getId());
+            try (ResultSet rs = st.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : null;
+            }
+        } catch (SQLException ex) {
+            String msg = "Error when retrieving holder of book " + book;
+            logger.log(Level.SEVERE, msg, ex);
+            throw new ServiceFailureException(msg, ex);
+        } finally {
+            DBUtils.closeQuietly(connection, st);
+        }
+    }
+
+    @Override
+    public Loan checkoutBook(Reader reader, Book book, LocalDate dueDate) throws ServiceFailureException {
+        checkDataSource();
+        if (reader == null || reader.getId() == null) {
+            throw new IllegalEntityException("reader is null or not stored");
+        }
+        if (book == null || book.getId() == null) {
+            throw new IllegalEntityException("book is null or not stored");
+        }
+        if (dueDate == null) {
+            throw new ValidationException("due date is null");
+        }
+        Loan loan = new Loan();
+        loan.setReader(reader);
+        loan.setBook(book);
+        loan.setStartDate(LocalDate.now(clock));
+        loan.setExpectedEndDate(dueDate);
+        validate(loan);
+        
+        Connection connection = null;
+        PreparedStatement lockSt = null;
+        PreparedStatement countSt = null;
+        PreparedStatement insertSt = null;
+        try {
+            connection = dataSource.getConnection();
+            connection.setAutoCommit(false);
+            lockSt = connection.prepareStatement(LOCK_BOOK);
+            lockSt.setLong(1, book.getId());
+            if (lockSt.executeUpdate() == 0) {
+                throw new IllegalEntityException("book " + book + " does not exist in the database");
+            }
+            countSt = connection.prepareStatement(COUNT_OPEN_LOANS_FOR_BOOK);
+            countSt.setLong(1, book.getId());
+            if (DBUtils.executeQueryForLong(countSt) > 0) {
+                throw new IllegalEntityException("book " + book + " is already lent");
+            }
+            insertSt = connection.prepareStatement(INSERT_LOAN, Statement.RETURN_GENERATED_KEYS);
+            setLoanParameters(insertSt, loan);
+            DBUtils.checkUpdatesCount(insertSt.executeUpdate(), loan, true);
+            Long id = DBUtils.getId(insertSt.getGeneratedKeys());
+            connection.commit();
+            loan.setId(id);
+            TransactionManager.afterCommit(connection, () -> loansStored(Collections.singletonList(loan)));
+            TransactionManager.afterRollback(connection, () -> loan.setId(null));
+            return loan;
+        } catch (SQLException ex) {
+            String msg = "Error when lending book " + book + " to reader " + reader;
+            logger.log(Level.SEVERE, msg, ex);
+            throw new ServiceFailureException(msg, ex);
+        } finally {
+            DBUtils.doRollbackQuietly(connection);
+            DBUtils.closeQuietly(connection, lockSt, countSt, insertSt);
+        }
+    }
+    
+    @Override
+    public Set<Long> returnBooks(Collection<Long> bookIds, LocalDateTime when) throws ServiceFailureException {
+        checkDataSource();
+        if (bookIds == null) {
+            throw new IllegalArgumentException("bookIds is null");
+        }
+        if (when == null) {
+            throw new IllegalArgumentException("when is null");
+        }
+        Set<Long> ids = new LinkedHashSet<>(bookIds);
+        if (ids.contains(null)) {
+            throw new IllegalArgumentException("book id is null");
+        }
+        Set<Long> notLent = new LinkedHashSet<>();
+        try {
+            DBUtils.executeInChunks(dataSource, ids, batchSize, (connection, chunk) -> {
+                String in = inList(chunk.size());
+                LongHashSet lent = new LongHashSet(chunk.size());
+                //books are locked as by checkoutBook, so no loan can be opened between the select and the update
+                try (PreparedStatement st = connection.prepareStatement(
+                        "UPDATE book SET published = published WHERE id" + in)) {
+                    setIds(st, 1, chunk);
+                    st.executeUpdate();
+                }
+                try (PreparedStatement st = connection.prepareStatement(
+                        "SELECT DISTINCT bookid FROM loan WHERE realend IS NULL AND bookid" + in)) {
+                    setIds(st, 1, chunk);
+                    try (ResultSet rs = st.executeQuery()) {
+                        while (rs.next()) {
+                            lent.add(rs.getLong(1));
+                        }
+                    }
+                }
+                try (PreparedStatement st = connection.prepareStatement(
+                        "UPDATE loan SET realend = ? WHERE realend IS NULL AND bookid" + in)) {
+                    st.setTimestamp(1, toSqlTimestamp(when));
+                    setIds(st, 2, chunk);
+                    st.executeUpdate();
+                }
+                for (Long id : chunk) {
+                    if (!lent.contains(id)) {
+                        notLent.add(id);
+                    }
+                }
+            }, chunk -> {
+                if (openLoansIndex != null) {
+                    openLoansIndex.booksReturned(chunk);
+                }
+                loansChanged();
+            }, null);
+            return notLent;
+        } catch (SQLException ex) {
+            String msg = "Error when returning books";
+            logger.log(Level.SEVERE, msg, ex);
+            throw new ServiceFailureException(msg, ex);
+        }
+    }
+    
+    private void loansStored(List<Loan> loans) {
+        if (openLoansIndex != null) {
+            loans.forEach(openLoansIndex::loanStored);
+        }
+        loansChanged();
+    }
+    
+    private void loansDeleted(List<Loan> loans) {
+        if (openLoansIndex != null) {
+            loans.forEach(loan -> openLoansIndex.loanDeleted(loan.getId()));
+        }
+        loansChanged();
+    }
+    
+    private void loansChanged() {
+        if (changeTracker != null) {
+            changeTracker.changed(ChangeTracker.Table.LOAN);
+        }
+    }
+    
+    private static void setIds(PreparedStatement st, int firstIndex, List<Long> ids) throws SQLException {
+        for (int i = 0; i < ids.size(); i++) {
+            st.setLong(firstIndex + i, ids.get(i));
+        }
+    }
+    
+    private static void setLoanParameters(PreparedStatement st, Loan loan) throws SQLException {
+        st.setLong(1, loan.getReader().getId());
+        st.setLong(2, loan.getBook().getId());
+        st.setDate(3, toSqlDate(loan.getStartDate()));
+        st.setDate(4, toSqlDate(loan.getExpectedEndDate()));
+        st.setTimestamp(5, toSqlTimestamp(loan.getRealEndTime()));
+    }
+    
     private static Date toSqlDate(LocalDate localDate) {
         return localDate == null ? null : Date.valueOf(localDate);
     }
@@ -284,7 +856,7 @@ public class LoanManagerImpl implements LoanManager {
     private Loan executeQueryForSingleLoan(PreparedStatement st) throws SQLException, ServiceFailureException {
         ResultSet rs = st.executeQuery();
         if (rs.next()) {
-            Loan result = resultSetToLoan(rs);                
+            Loan result = loanRowMapper(null, null).mapRow(rs);
             if (rs.next()) {
                 throw new ServiceFailureException(
                         "Internal integrity error: more loans with the same id found");
@@ -298,26 +870,90 @@ public class LoanManagerImpl implements LoanManager {
     private List<Loan> executeQueryForMultipleLoans(PreparedStatement st) throws SQLException {
         ResultSet rs = st.executeQuery();
         List<Loan> result = new ArrayList<>();
+        //readers and books shared by more loans are materialized only once
+        LongObjectHashMap<Reader> readers = new LongObjectHashMap<>();
+        LongObjectHashMap<Book> books = new LongObjectHashMap<>();
+        RowMapper<Loan> mapper = loanRowMapper(readers, books);
         while (rs.next()) {
-            result.add(resultSetToLoan(rs));
+            result.add(mapper.mapRow(rs));
         }
         return result;
     }
     
-    private Loan resultSetToLoan(ResultSet rs) throws SQLException { 
-        
-               
+    /**
+     * Columns of {@link #SELECT_LOANS}, in the order of the positions used by
+     * {@link #resultSetToLoan}.
+     */
+    private static final String[] LOAN_COLUMNS = {"id", "readerid", "bookid", "starttime", "endtime",
+        "realend", "name", "address", "email", "readernote", "title", "author", "published", "booknote"};
+    
+    /**
+     * @return new mapper of rows with {@link #LOAN_COLUMNS}, using the maps
+     * like {@link #resultSetToLoan}
+     */
+    private static RowMapper<Loan> loanRowMapper(LongObjectHashMap<Reader> readers,
+            LongObjectHashMap<Book> books) {
+        return new ColumnIndexRowMapper<>(LOAN_COLUMNS,
+                (rs, columns) -> resultSetToLoan(rs, columns, readers, books));
+    }
+    
+    /**
+     * Maps a row of {@link #SELECT_LOANS}. Readers and books are looked up 
+     * in and added to given maps, when the maps are not null. Ids are read
+     * as primitives, so that a row of an already seen reader and book
+     * boxes only the loan id.
+     */
+    private static Loan resultSetToLoan(ResultSet rs, int[] columns, LongObjectHashMap<Reader> readers,
+            LongObjectHashMap<Book> books) throws SQLException {
        Loan loan = new Loan();
-       loan.setId(rs.getLong("id"));
-       loan.setReader(readerManager.getReaderById(rs.getLong("readerid")));
-       loan.setBook(bookManager.getBookById(rs.getLong("bookid")));
-       loan.setStartDate(toLocalDate(rs.getDate("starttime")));
-       loan.setExpectedEndDate(toLocalDate(rs.getDate("endtime")));
-       loan.setRealEndTime(toLocalDateTime(rs.getTimestamp("realend")));
+       loan.setId(rs.getLong(columns[0]));
+       
+       long readerId = rs.getLong(columns[1]);
+       Reader reader = readers == null ? null : readers.get(readerId);
+       if (reader == null) {
+           reader = resultSetToReader(rs, columns, readerId);
+           if (readers != null) {
+               readers.put(readerId, reader);
+           }
+       }
+       loan.setReader(reader);
        
+       long bookId = rs.getLong(columns[2]);
+       Book book = books == null ? null : books.get(bookId);
+       if (book == null) {
+           book = resultSetToBook(rs, columns, bookId);
+           if (books != null) {
+               books.put(bookId, book);
+           }
+       }
+       loan.setBook(book);
+       
+       loan.setStartDate(toLocalDate(rs.getDate(columns[3])));
+       loan.setExpectedEndDate(toLocalDate(rs.getDate(columns[4])));
+       loan.setRealEndTime(toLocalDateTime(rs.getTimestamp(columns[5])));
        return loan;
     }
     
+    private static Reader resultSetToReader(ResultSet rs, int[] columns, long id) throws SQLException {
+       Reader reader = new Reader();
+       reader.setId(id);
+       reader.setName(rs.getString(columns[6]));
+       reader.setAddress(rs.getString(columns[7]));
+       reader.setEMail(rs.getString(columns[8]));
+       reader.setNote(rs.getString(columns[9]));
+       return reader;
+    }
+    
+    private static Book resultSetToBook(ResultSet rs, int[] columns, long id) throws SQLException {
+        Book book = new Book();
+        book.setId(id);
+        book.setTitle(rs.getString(columns[10]));
+        book.setAuthor(rs.getString(columns[11]));
+        book.setPublished(rs.getInt(columns[12]));
+        book.setNote(rs.getString(columns[13]));
+        return book;
+    }
+    
     private void validate(Loan loan) {
         if (loan == null) {
             throw new IllegalArgumentException("loan is null");
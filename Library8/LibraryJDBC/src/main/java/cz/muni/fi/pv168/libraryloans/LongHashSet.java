@@ -0,0 +1,148 @@
+package cz.muni.fi.pv168.libraryloans;
+
+import java.util.function.LongConsumer;
+
+/**
+ * Hash set of primitive {@code long} values, so values are not boxed.
+ * Open addressing with linear probing, 0 marks an empty slot and is
+ * tracked separately. Not thread safe.
+ *
+ * @author L
+ */
+final class LongHashSet {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] values;
+    private boolean containsZero;
+    private int size;
+    private int mask;
+
+    LongHashSet() {
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     * @param expectedSize number of values stored without resizing
+     */
+    LongHashSet(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        //load factor is at most 0.5
+        while (capacity < 2L * expectedSize) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        values = new long[capacity];
+        mask = capacity - 1;
+    }
+
+    private int slot(long value) {
+        long h = value * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    private int find(long value) {
+        int i = slot(value);
+        while (values[i] != 0) {
+            if (values[i] == value) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1 - i;
+    }
+
+    boolean contains(long value) {
+        return value == 0 ? containsZero : find(value) >= 0;
+    }
+
+    /**
+     * @return true when the value was not in the set
+     */
+    boolean add(long value) {
+        if (value == 0) {
+            if (containsZero) {
+                return false;
+            }
+            containsZero = true;
+            size++;
+            return true;
+        }
+        int i = find(value);
+        if (i >= 0) {
+            return false;
+        }
+        if (2 * (size + 1) > values.length) {
+            resize(values.length << 1);
+            i = find(value);
+        }
+        values[-1 - i] = value;
+        size++;
+        return true;
+    }
+
+    /**
+     * @return true when the value was in the set
+     */
+    boolean remove(long value) {
+        if (value == 0) {
+            if (!containsZero) {
+                return false;
+            }
+            containsZero = false;
+            size--;
+            return true;
+        }
+        int i = find(value);
+        if (i < 0) {
+            return false;
+        }
+        values[i] = 0;
+        size--;
+        //shift back following values of the probe sequence to close the gap
+        int gap = i;
+        int j = (i + 1) & mask;
+        while (values[j] != 0) {
+            int home = slot(values[j]);
+            if (((j - home) & mask) >= ((j - gap) & mask)) {
+                values[gap] = values[j];
+                values[j] = 0;
+                gap = j;
+            }
+            j = (j + 1) & mask;
+        }
+        return true;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    void forEach(LongConsumer consumer) {
+        if (containsZero) {
+            consumer.accept(0);
+        }
+        for (long value : values) {
+            if (value != 0) {
+                consumer.accept(value);
+            }
+        }
+    }
+
+    private void resize(int capacity) {
+        long[] oldValues = values;
+        allocate(capacity);
+        for (long value : oldValues) {
+            if (value != 0) {
+                values[-1 - find(value)] = value;
+            }
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package cz.muni.fi.pv168.libraryloans;
+
+import java.util.Arrays;
+
+/**
+ * Hash map from primitive {@code long} keys to objects, so keys are not
+ * boxed and entries are not allocated. Open addressing with linear probing,
+ * null values are not allowed. Not thread safe.
+ *
+ * @param <V> value type
+ * @author L
+ */
+final class LongObjectHashMap<V> {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] keys;
+    private Object[] values;
+    private int size;
+    private int mask;
+
+    LongObjectHashMap() {
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     * @param expectedSize number of entries stored without resizing
+     */
+    LongObjectHashMap(int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    /**
+     * Consumer of map entries.
+     */
+    @FunctionalInterface
+    interface EntryConsumer<V> {
+
+        void accept(long key, V value);
+    }
+
+    private static int capacityFor(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        //load factor is at most 0.5
+        while (capacity < 2L * expectedSize) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+    }
+
+    private int slot(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    private int find(long key) {
+        int i = slot(key);
+        while (values[i] != null) {
+            if (keys[i] == key) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1 - i;
+    }
+
+    @SuppressWarnings("unchecked")
+    V get(long key) {
+        int i = find(key);
+        return i >= 0 ? (V) values[i] : null;
+    }
+
+    boolean containsKey(long key) {
+        return find(key) >= 0;
+    }
+
+    /**
+     * @return previous value or null
+     */
+    @SuppressWarnings("unchecked")
+    V put(long key, V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("value is null");
+        }
+        int i = find(key);
+        if (i >= 0) {
+            V old = (V) values[i];
+            values[i] = value;
+            return old;
+        }
+        if (2 * (size + 1) > keys.length) {
+            resize(keys.length << 1);
+            i = find(key);
+        }
+        i = -1 - i;
+        keys[i] = key;
+        values[i] = value;
+        size++;
+        return null;
+    }
+
+    /**
+     * @return removed value or null
+     */
+    @SuppressWarnings("unchecked")
+    V remove(long key) {
+        int i = find(key);
+        if (i < 0) {
+            return null;
+        }
+        V old = (V) values[i];
+        values[i] = null;
+        size--;
+        //shift back following entries of the probe sequence to close the gap
+        int gap = i;
+        int j = (i + 1) & mask;
+        while (values[j] != null) {
+            int home = slot(keys[j]);
+            if (((j - home) & mask) >= ((j - gap) & mask)) {
+                keys[gap] = keys[j];
+                values[gap] = values[j];
+                values[j] = null;
+                gap = j;
+            }
+            j = (j + 1) & mask;
+        }
+        return old;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    void clear() {
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    void forEach(EntryConsumer<? super V> consumer) {
+        for (int i = 0; i < keys.length; i++) {
+            if (values[i] != null) {
+                consumer.accept(keys[i], (V) values[i]);
+            }
+        }
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != null) {
+                int j = -1 - find(oldKeys[i]);
+                keys[j] = oldKeys[i];
+                values[j] = oldValues[i];
+            }
+        }
+    }
+}
@@ -6,7 +6,6 @@ import java.util.logging.Logger;
 
 import javax.sql.DataSource;
 import java.util.List;
-import org.apache.derby.jdbc.EmbeddedDataSource;
 
 /**
  *
@@ -18,25 +17,59 @@ public class Main {
     private static BookManagerImpl bookManager;
     private static ReaderManagerImpl readerManager;
     private static LoanManagerImpl loanManager;
-    private static DataSource dataSource;
+    private static PooledDataSource dataSource;
+    private static boolean databaseCreated;
     
-
-    public static DataSource prepareDataSource() {
-        EmbeddedDataSource ds = new EmbeddedDataSource();
-        ds.setDatabaseName("memory:librarymanager");
-        ds.setCreateDatabase("create");
-        return ds;
+    /**
+     * Returns the connection pool shared by the whole application. The pool
+     * is created on the first call.
+     * 
+     * @return shared pooled data source
+     */
+    public static synchronized DataSource prepareDataSource() {
+        if (dataSource == null || dataSource.isClosed()) {
+            dataSource = new DataSourceFactory().createDataSource();
+            databaseCreated = false;
+        }
+        return dataSource;
     }
     
-    public static DataSource createDatabase() throws SQLException {
-        dataSource = prepareDataSource();
-        DBUtils.executeSqlScript(dataSource, Main.class.getResource("createTables.sql"));
-        DBUtils.executeSqlScript(dataSource, Main.class.getResource("testData.sql"));
-        return dataSource;
+    /**
+     * Migrates the schema to the latest version and fills a new database 
+     * with test data. This is done only once, so all frames and the web 
+     * application can share the database.
+     * 
+     * @return shared pooled data source
+     * @throws SQLException when operation fails
+     */
+    public static synchronized DataSource createDatabase() throws SQLException {
+        DataSource ds = prepareDataSource();
+        if (!databaseCreated) {
+            SchemaMigrator migrator = new SchemaMigrator(ds);
+            boolean empty = migrator.getVersion() == 0;
+            migrator.migrate();
+            if (empty) {
+                DBUtils.executeSqlScript(ds, Main.class.getResource("testData.sql"));
+            }
+            databaseCreated = true;
+        }
+        return ds;
     }
     
-    public static void dropDatabase() throws SQLException {
+    public static synchronized void dropDatabase() throws SQLException {
         DBUtils.executeSqlScript(dataSource, Reader.class.getResource("dropTables.sql"));
+        databaseCreated = false;
+    }
+    
+    /**
+     * Closes the shared connection pool.
+     */
+    public static synchronized void closeDataSource() {
+        if (dataSource != null) {
+            log.info("closing " + dataSource);
+            dataSource.close();
+            dataSource = null;
+        }
     }
     
     public static void main(String[] args) throws SQLException {
@@ -65,5 +98,6 @@ public class Main {
         System.out.println("Reader with id 1: " + readerManager.getReaderById(1L));
         
         dropDatabase();
+        closeDataSource();
     }
 }
@@ -0,0 +1,192 @@
+package cz.muni.fi.pv168.libraryloans;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bounded executor running manager operations for the async managers.
+ * <p>
+ * At most {@code threads} operations run at once, which should not exceed
+ * the number of pooled connections, and at most {@code queueCapacity}
+ * operations wait. Further operations are rejected: their futures fail
+ * with {@link RejectedExecutionException}, so callers get back-pressure
+ * instead of an unbounded backlog. Virtual threads are used when the
+ * runtime supports them. Latency of every operation, including the time
+ * spent in the queue, is recorded per operation name.
+ *
+ * @author L
+ */
+public class ManagerExecutor implements AutoCloseable {
+
+    private static final Logger logger = Logger.getLogger(
+            ManagerExecutor.class.getName());
+
+    private final ThreadPoolExecutor executor;
+    private final boolean virtualThreads;
+    private final ConcurrentMap<String, LatencyHistogram> latencies = new ConcurrentHashMap<>();
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * @param threads maximal number of operations running at once
+     * @param queueCapacity maximal number of waiting operations
+     */
+    public ManagerExecutor(int threads, int queueCapacity) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("threads must be positive");
+        }
+        if (queueCapacity <= 0) {
+            throw new IllegalArgumentException("queueCapacity must be positive");
+        }
+        ThreadFactory virtual = virtualThreadFactory();
+        virtualThreads = virtual != null;
+        ThreadFactory factory = virtualThreads ? virtual : daemonThreadFactory();
+        executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), factory, new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Runs the work asynchronously.
+     *
+     * @param <T> result type
+     * @param operation name of the operation for latency metrics
+     * @param work work to run
+     * @return future completed with the result of the work, or failed with
+     * its exception or with {@link RejectedExecutionException} when the
+     * queue is full or the executor is closed
+     */
+    public <T> CompletableFuture<T> submit(String operation, Supplier<T> work) {
+        LatencyHistogram latency = latencies.computeIfAbsent(operation, o -> new LatencyHistogram());
+        CompletableFuture<T> future = new CompletableFuture<>();
+        long start = System.nanoTime();
+        try {
+            executor.execute(() -> {
+                //latency is recorded before completion, so it is visible to callers
+                T result;
+                try {
+                    result = work.get();
+                } catch (RuntimeException | Error ex) {
+                    latency.recordSince(start);
+                    future.completeExceptionally(ex);
+                    return;
+                }
+                latency.recordSince(start);
+                future.complete(result);
+            });
+        } catch (RejectedExecutionException ex) {
+            rejected.increment();
+            future.completeExceptionally(ex);
+        }
+        return future;
+    }
+
+    /**
+     * Runs the work asynchronously, like {@link #submit(String, Supplier)}.
+     *
+     * @param operation name of the operation for latency metrics
+     * @param work work to run
+     * @return future completed when the work is done
+     */
+    public CompletableFuture<Void> run(String operation, Runnable work) {
+        return submit(operation, () -> {
+            work.run();
+            return null;
+        });
+    }
+
+    /**
+     * @return latency histograms by operation name
+     */
+    public Map<String, LatencyHistogram> getLatencies() {
+        return Collections.unmodifiableMap(new TreeMap<>(latencies));
+    }
+
+    /**
+     * @return number of operations rejected because the queue was full
+     */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    public int getQueueSize() {
+        return executor.getQueue().size();
+    }
+
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * Stops accepting operations and waits for the running and queued ones.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+                logger.warning("Manager operations did not finish in time");
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException ex) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ManagerExecutor{" + "active=" + getActiveCount() + ", queued=" + getQueueSize()
+                + ", rejected=" + getRejectedCount() + ", virtualThreads=" + virtualThreads + '}';
+    }
+
+    /**
+     * Returns {@code Thread.ofVirtual().factory()} when the runtime has
+     * virtual threads. Called by reflection, as the code is compiled for Java 8.
+     */
+    private static ThreadFactory virtualThreadFactory() {
+        try {
+            Method ofVirtual = Thread.class.getMethod("ofVirtual");
+            //methods are looked up on the public interface, the builder class is internal
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            Object builder = ofVirtual.invoke(null);
+            builder = builderType.getMethod("name", String.class, long.class).invoke(builder, "manager-", 0L);
+            return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+        } catch (NoSuchMethodException ex) {
+            return null;
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            logger.log(Level.WARNING, "Cannot create virtual threads", ex);
+            return null;
+        }
+    }
+
+    private static ThreadFactory daemonThreadFactory() {
+        ThreadFactory defaultFactory = Executors.defaultThreadFactory();
+        AtomicLong counter = new AtomicLong();
+        return runnable -> {
+            Thread thread = defaultFactory.newThread(runnable);
+            thread.setName("manager-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,424 @@
+package cz.muni.fi.pv168.libraryloans;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.sql.DataSource;
+
+/**
+ * In-memory index of open loans by book, answering whether a book is
+ * available and who holds it without a database query.
+ * <p>
+ * The index is loaded from the database by {@link #warmUp()} or by the first
+ * query and then kept in sync by {@link LoanManagerImpl}, and by
+ * {@link BookManagerImpl} and {@link ReaderManagerImpl}, whose deletes remove
+ * loans by ON DELETE CASCADE. Changes made around the managers, e.g. by SQL
+ * scripts, are not seen until the next {@link #warmUp()} or
+ * {@link #invalidate()}; {@link #verify()} reports them.
+ * The index is thread safe.
+ *
+ * @author L
+ */
+public class OpenLoansIndex {
+
+    private static final Logger logger = Logger.getLogger(
+            OpenLoansIndex.class.getName());
+
+    private static final String SELECT_OPEN_LOANS =
+            "SELECT id, readerid, bookid FROM loan WHERE realend IS NULL";
+
+    private final DataSource dataSource;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    /** open loans of a book, normally there is at most one */
+    private LongObjectHashMap<Node> byBook = new LongObjectHashMap<>();
+    private LongObjectHashMap<OpenLoan> byLoan = new LongObjectHashMap<>();
+    private boolean loaded;
+
+    public OpenLoansIndex(DataSource dataSource) {
+        if (dataSource == null) {
+            throw new IllegalArgumentException("dataSource is null");
+        }
+        this.dataSource = dataSource;
+    }
+
+    /**
+     * Loads the open loans from the database, replacing the index content.
+     */
+    public void warmUp() throws ServiceFailureException {
+        //loaded under the lock, so loans stored meanwhile are applied afterwards
+        lock.writeLock().lock();
+        try {
+            LongObjectHashMap<OpenLoan> loans = loadOpenLoans();
+            LongObjectHashMap<Node> books = new LongObjectHashMap<>(loans.size());
+            loans.forEach((loanId, loan) -> books.put(loan.getBookId(),
+                    new Node(loan, books.get(loan.getBookId()))));
+            byLoan = loans;
+            byBook = books;
+            loaded = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @param bookId book id
+     * @return true when the book has no open loan
+     */
+    public boolean isAvailable(long bookId) throws ServiceFailureException {
+        return getOpenLoan(bookId) == null;
+    }
+
+    /**
+     * @param bookId book id
+     * @return open loan of the book or null when the book is available
+     */
+    public OpenLoan getOpenLoan(long bookId) throws ServiceFailureException {
+        ensureLoaded();
+        lock.readLock().lock();
+        try {
+            Node node = byBook.get(bookId);
+            return node == null ? null : node.loan;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param bookId book id
+     * @return id of the reader holding the book or null when the book is available
+     */
+    public Long getHolderId(long bookId) throws ServiceFailureException {
+        OpenLoan loan = getOpenLoan(bookId);
+        return loan == null ? null : loan.getReaderId();
+    }
+
+    /**
+     * @return number of open loans, 0 until the index is loaded
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return byLoan.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Drops the index content, it is loaded again by the next query.
+     */
+    public void invalidate() {
+        lock.writeLock().lock();
+        try {
+            loaded = false;
+            byBook = new LongObjectHashMap<>();
+            byLoan = new LongObjectHashMap<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Compares the index with the database. Loans changed concurrently with
+     * the check may be reported as differences.
+     *
+     * @return differences, empty when the index is consistent or not loaded
+     */
+    public Difference verify() throws ServiceFailureException {
+        LongObjectHashMap<OpenLoan> stored = loadOpenLoans();
+        List<OpenLoan> missing = new ArrayList<>();
+        List<OpenLoan> stale = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            if (!loaded) {
+                return new Difference(missing, stale);
+            }
+            stored.forEach((loanId, loan) -> {
+                OpenLoan indexed = byLoan.get(loanId);
+                if (!loan.equals(indexed)) {
+                    missing.add(loan);
+                    if (indexed != null) {
+                        stale.add(indexed);
+                    }
+                }
+            });
+            byLoan.forEach((loanId, loan) -> {
+                if (!stored.containsKey(loanId)) {
+                    stale.add(loan);
+                }
+            });
+        } finally {
+            lock.readLock().unlock();
+        }
+        Difference difference = new Difference(missing, stale);
+        if (!difference.isEmpty()) {
+            logger.log(Level.WARNING, "Open loans index differs from the database: {0}", difference);
+        }
+        return difference;
+    }
+
+    /**
+     * Records a stored loan: it is added when it is open and removed
+     * otherwise. Ignored until the index is loaded.
+     */
+    void loanStored(Loan loan) {
+        lock.writeLock().lock();
+        try {
+            if (!loaded) {
+                return;
+            }
+            remove(loan.getId());
+            if (loan.getRealEndTime() == null) {
+                OpenLoan openLoan = new OpenLoan(loan.getId(), loan.getReader().getId(),
+                        loan.getBook().getId());
+                byLoan.put(openLoan.getLoanId(), openLoan);
+                byBook.put(openLoan.getBookId(), new Node(openLoan, byBook.get(openLoan.getBookId())));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Records a deleted loan. Ignored until the index is loaded.
+     */
+    void loanDeleted(Long loanId) {
+        lock.writeLock().lock();
+        try {
+            if (loaded) {
+                remove(loanId);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Records that all open loans of the books were closed. Ignored until
+     * the index is loaded.
+     */
+    void booksReturned(Collection<Long> bookIds) {
+        lock.writeLock().lock();
+        try {
+            if (loaded) {
+                removeBooks(bookIds);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Records that the books were deleted together with their loans.
+     * Ignored until the index is loaded.
+     */
+    void booksDeleted(Collection<Long> bookIds) {
+        booksReturned(bookIds);
+    }
+
+    /**
+     * Records that the readers were deleted together with their loans.
+     * Ignored until the index is loaded.
+     */
+    void readersDeleted(Collection<Long> readerIds) {
+        lock.writeLock().lock();
+        try {
+            if (!loaded) {
+                return;
+            }
+            LongHashSet readers = new LongHashSet(readerIds.size());
+            readerIds.forEach(readers::add);
+            List<Long> loans = new ArrayList<>();
+            byLoan.forEach((loanId, loan) -> {
+                if (readers.contains(loan.getReaderId())) {
+                    loans.add(loanId);
+                }
+            });
+            loans.forEach(this::remove);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void removeBooks(Collection<Long> bookIds) {
+        for (Long bookId : bookIds) {
+            for (Node node = byBook.remove(bookId); node != null; node = node.next) {
+                byLoan.remove(node.loan.getLoanId());
+            }
+        }
+    }
+
+    private void remove(long loanId) {
+        OpenLoan loan = byLoan.remove(loanId);
+        if (loan == null) {
+            return;
+        }
+        Node head = byBook.get(loan.getBookId());
+        Node rest = null;
+        //rebuilds the usually one element list without the loan
+        for (Node node = head; node != null; node = node.next) {
+            if (node.loan.getLoanId() != loanId) {
+                rest = new Node(node.loan, rest);
+            }
+        }
+        if (rest == null) {
+            byBook.remove(loan.getBookId());
+        } else {
+            byBook.put(loan.getBookId(), rest);
+        }
+    }
+
+    private void ensureLoaded() throws ServiceFailureException {
+        lock.readLock().lock();
+        try {
+            if (loaded) {
+                return;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        lock.writeLock().lock();
+        try {
+            if (!loaded) {
+                warmUp();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private LongObjectHashMap<OpenLoan> loadOpenLoans() throws ServiceFailureException {
+        Connection connection = null;
+        PreparedStatement st = null;
+        try {
+            connection = dataSource.getConnection();
+            st = connection.prepareStatement(SELECT_OPEN_LOANS);
+            LongObjectHashMap<OpenLoan> loans = new LongObjectHashMap<>();
+            try (ResultSet rs = st.executeQuery()) {
+                while (rs.next()) {
+                    OpenLoan loan = new OpenLoan(rs.getLong(1), rs.getLong(2), rs.getLong(3));
+                    loans.put(loan.getLoanId(), loan);
+                }
+            }
+            return loans;
+        } catch (SQLException ex) {
+            String msg = "Error when loading open loans";
+            logger.log(Level.SEVERE, msg, ex);
+            throw new ServiceFailureException(msg, ex);
+        } finally {
+            DBUtils.closeQuietly(connection, st);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "OpenLoansIndex{" + "size=" + size() + '}';
+    }
+
+    private static final class Node {
+
+        private final OpenLoan loan;
+        private final Node next;
+
+        Node(OpenLoan loan, Node next) {
+            this.loan = loan;
+            this.next = next;
+        }
+    }
+
+    /**
+     * Loan which was not returned yet.
+     */
+    public static final class OpenLoan {
+
+        private final long loanId;
+        private final long readerId;
+        private final long bookId;
+
+        public OpenLoan(long loanId, long readerId, long bookId) {
+            this.loanId = loanId;
+            this.readerId = readerId;
+            this.bookId = bookId;
+        }
+
+        public long getLoanId() {
+            return loanId;
+        }
+
+        public long getReaderId() {
+            return readerId;
+        }
+
+        public long getBookId() {
+            return bookId;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof OpenLoan)) {
+                return false;
+            }
+            OpenLoan other = (OpenLoan) obj;
+            return loanId == other.loanId && readerId == other.readerId && bookId == other.bookId;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(loanId);
+        }
+
+        @Override
+        public String toString() {
+            return "OpenLoan{" + "loanId=" + loanId + ", readerId=" + readerId + ", bookId=" + bookId + '}';
+        }
+    }
+
+    /**
+     * Result of {@link #verify()}.
+     */
+    public static final class Difference {
+
+        private final List<OpenLoan> missing;
+        private final List<OpenLoan> stale;
+
+        Difference(List<OpenLoan> missing, List<OpenLoan> stale) {
+            this.missing = Collections.unmodifiableList(missing);
+            this.stale = Collections.unmodifiableList(stale);
+        }
+
+        /**
+         * @return open loans stored in the database, but not in the index
+         */
+        public List<OpenLoan> getMissing() {
+            return missing;
+        }
+
+        /**
+         * @return loans in the index, which are not open in the database
+         */
+        public List<OpenLoan> getStale() {
+            return stale;
+        }
+
+        public boolean isEmpty() {
+            return missing.isEmpty() && stale.isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            return "Difference{" + "missing=" + missing + ", stale=" + stale + '}';
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package cz.muni.fi.pv168.libraryloans;
+
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.sql.DataSource;
+import org.apache.commons.dbcp2.PoolableConnection;
+import org.apache.commons.dbcp2.PoolingDataSource;
+import org.apache.commons.pool2.impl.GenericObjectPool;
+
+/**
+ * Connection pool created by {@link DataSourceFactory}. Besides handing out
+ * pooled connections it collects pool metrics.
+ *
+ * @author L
+ */
+public class PooledDataSource implements DataSource, AutoCloseable {
+
+    private static final Logger logger = Logger.getLogger(
+            PooledDataSource.class.getName());
+
+    private final GenericObjectPool<PoolableConnection> pool;
+    private final PoolingDataSource<PoolableConnection> dataSource;
+    private final LatencyHistogram borrowLatency = new LatencyHistogram();
+    private final StatementCacheStats statementCacheStats;
+
+    PooledDataSource(GenericObjectPool<PoolableConnection> pool, StatementCacheStats statementCacheStats) {
+        this.pool = pool;
+        this.statementCacheStats = statementCacheStats;
+        this.dataSource = new PoolingDataSource<>(pool);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return dataSource.getConnection();
+        } finally {
+            borrowLatency.recordSince(start);
+        }
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return dataSource.getConnection(username, password);
+    }
+
+    /**
+     * @return number of connections currently borrowed from the pool
+     */
+    public int getNumActive() {
+        return pool.getNumActive();
+    }
+
+    /**
+     * @return number of connections waiting in the pool
+     */
+    public int getNumIdle() {
+        return pool.getNumIdle();
+    }
+
+    /**
+     * @return number of threads currently blocked waiting for a connection
+     */
+    public int getNumWaiters() {
+        return pool.getNumWaiters();
+    }
+
+    /**
+     * @return mean time threads waited for a connection during recent borrows
+     */
+    public long getMeanBorrowWaitTimeMillis() {
+        return pool.getMeanBorrowWaitTimeMillis();
+    }
+
+    /**
+     * @return longest time a thread waited for a connection
+     */
+    public long getMaxBorrowWaitTimeMillis() {
+        return pool.getMaxBorrowWaitTimeMillis();
+    }
+
+    public int getMaxTotal() {
+        return pool.getMaxTotal();
+    }
+
+    /**
+     * @return histogram of complete {@link #getConnection()} durations
+     */
+    public LatencyHistogram getBorrowLatency() {
+        return borrowLatency;
+    }
+
+    /**
+     * @return hit and miss counters of the prepared statement caches of all
+     * pooled connections
+     */
+    public StatementCacheStats getStatementCacheStats() {
+        return statementCacheStats;
+    }
+
+    /**
+     * Closes all idle connections and the pool itself. Borrowed connections
+     * are closed when they are returned.
+     */
+    @Override
+    public void close() {
+        try {
+            dataSource.close();
+        } catch (Exception ex) {
+            logger.log(Level.SEVERE, "Error when closing connection pool", ex);
+        }
+    }
+
+    public boolean isClosed() {
+        return pool.isClosed();
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return dataSource.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        dataSource.setLogWriter(out);
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+        dataSource.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return dataSource.getLoginTimeout();
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        return dataSource.getParentLogger();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        return dataSource.unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this) || dataSource.isWrapperFor(iface);
+    }
+
+    @Override
+    public String toString() {
+        return "PooledDataSource{" + "active=" + getNumActive() + ", idle=" + getNumIdle()
+                + ", waiters=" + getNumWaiters() + ", meanWaitMillis=" + getMeanBorrowWaitTimeMillis()
+                + ", maxWaitMillis=" + getMaxBorrowWaitTimeMillis() + ", borrowLatency=" + borrowLatency + ", statementCache=" + statementCacheStats + '}';
+    }
+}
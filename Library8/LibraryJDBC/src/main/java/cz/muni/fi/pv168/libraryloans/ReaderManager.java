@@ -1,6 +1,8 @@
 package cz.muni.fi.pv168.libraryloans;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.stream.Stream;
 
 /**
  *
@@ -14,10 +16,79 @@ public interface ReaderManager {
     
     public void deleteReader (Reader reader);
     
+    /**
+     * Inserts all readers and assigns their ids. Readers are written in chunks, 
+     * each chunk in its own transaction. When a chunk fails, readers from 
+     * previous chunks stay stored.
+     * 
+     * @param readers readers to insert
+     */
+    public void createReaders(Collection<Reader> readers);
+    
+    /**
+     * Updates all readers, in chunks like {@link #createReaders(Collection)}.
+     * 
+     * @param readers readers to update
+     */
+    public void updateReaders(Collection<Reader> readers);
+    
+    /**
+     * Deletes all readers, in chunks like {@link #createReaders(Collection)}.
+     * 
+     * @param readers readers to delete
+     */
+    public void deleteReaders(Collection<Reader> readers);
+    
     public Reader getReaderById(Long id);
     
     public List<Reader> findReadersByName(String name);
     
+    /**
+     * Finds readers having, for every word of the query, a word in name or e-mail 
+     * starting with it. Case and diacritics are ignored, so "jac gal" finds 
+     * "Jacob Gallus". Searched is an in-memory index loaded by the first search
+     * and updated by this manager, changes done by others are not visible.
+     * 
+     * @param query searched words
+     * @param limit maximal number of returned readers
+     * @return matching readers ordered by id
+     */
+    public List<Reader> searchReaders(String query, int limit);
+    
+    /**
+     * Finds readers like {@link #searchReaders(String, int)}, but tolerates typos, 
+     * e.g. "glareanis" finds "Henrich Glareanus".
+     * 
+     * @param query searched words
+     * @param limit maximal number of returned readers
+     * @return matching readers, the closest matches first
+     */
+    public List<Reader> searchReadersFuzzy(String query, int limit);
+    
     public List<Reader> findAllReaders();
     
+    /**
+     * Returns all readers as a lazy stream, rows are read from the database 
+     * while the stream is consumed. The stream holds a connection, so it 
+     * must be closed, e.g. by try-with-resources.
+     * 
+     * @return stream of all readers
+     */
+    public Stream<Reader> streamAllReaders();
+    
+    /**
+     * Returns one page of readers ordered by id. The next page starts after 
+     * the id of the last reader of the previous page.
+     * 
+     * @param afterId id of the last reader of the previous page, null for the first page
+     * @param limit maximal number of returned readers
+     * @return readers with id greater than afterId
+     */
+    public List<Reader> findReaders(Long afterId, int limit);
+    
+    /**
+     * @return number of stored readers
+     */
+    public long countReaders();
+    
 }
@@ -1,6 +1,10 @@
 package cz.muni.fi.pv168.libraryloans;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.sql.DataSource;
@@ -13,15 +17,94 @@ import java.util.ArrayList;
  */
 public class ReaderManagerImpl implements ReaderManager {
     
+    private static final String INSERT_READER =
+            "INSERT INTO reader (name,address,email,note) VALUES (?,?,?,?)";
+    private static final String UPDATE_READER =
+            "UPDATE reader SET name = ?, address = ?, email = ?, note = ? WHERE id = ?";
+    private static final String DELETE_READER =
+            "DELETE FROM reader WHERE id = ?";
+    
     private DataSource dataSource;
+    private DataSource readOnlyDataSource;
+    private ChangeTracker changeTracker;
+    private OpenLoansIndex openLoansIndex;
+    private int batchSize = DBUtils.DEFAULT_BATCH_SIZE;
+    private int fetchSize = DBUtils.DEFAULT_FETCH_SIZE;
+    private final SearchIndex<Reader> searchIndex = new SearchIndex<>(Reader::getId,
+            reader -> reader.getName() + " " + reader.getEMail(),
+            ReaderManagerImpl::copyOf, this::streamAllReaders);
     
     public void setDataSource(DataSource dataSource) {
         this.dataSource = dataSource;
     }
     
+    /**
+     * @param batchSize number of readers written in one transaction by bulk operations
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batch size must be positive");
+        }
+        this.batchSize = batchSize;
+    }
+    
+    /**
+     * @param fetchSize number of rows fetched at once by {@link #streamAllReaders()}
+     */
+    public void setFetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
+    }
+    
     private static final Logger logger = Logger.getLogger(
             ReaderManagerImpl.class.getName());
     
+    /**
+     * @param readOnlyDataSource data source used by finders, e.g. a read-only
+     * pool from {@link DataSourceFactory#createReadOnlyDataSource()}; when
+     * null, finders use the data source
+     */
+    public void setReadOnlyDataSource(DataSource readOnlyDataSource) {
+        this.readOnlyDataSource = readOnlyDataSource;
+    }
+    
+    /**
+     * @param changeTracker tracker notified about committed changes, may be null
+     */
+    public void setChangeTracker(ChangeTracker changeTracker) {
+        this.changeTracker = changeTracker;
+    }
+
+    /**
+     * @param openLoansIndex index, from which open loans of deleted readers are
+     * removed, may be null
+     */
+    public void setOpenLoansIndex(OpenLoansIndex openLoansIndex) {
+        this.openLoansIndex = openLoansIndex;
+    }
+
+    private void readersChanged() {
+        if (changeTracker != null) {
+            changeTracker.changed(ChangeTracker.Table.READER);
+        }
+    }
+    
+    /**
+     * Loans of deleted readers are deleted by ON DELETE CASCADE.
+     */
+    private void readersDeleted(Collection<Long> ids) {
+        if (changeTracker != null) {
+            changeTracker.changed(ChangeTracker.Table.READER);
+            changeTracker.changed(ChangeTracker.Table.LOAN);
+        }
+        if (openLoansIndex != null) {
+            openLoansIndex.readersDeleted(ids);
+        }
+    }
+    
+    private DataSource readDataSource() {
+        return readOnlyDataSource != null ? readOnlyDataSource : dataSource;
+    }
+    
     private void checkDataSource() {
         if (dataSource == null) {
             throw new IllegalStateException("DataSource is not set");
@@ -45,14 +128,8 @@ public class ReaderManagerImpl implements ReaderManager {
             connection = dataSource.getConnection();
             //Manual transaction control.
             connection.setAutoCommit(false);
-            st = connection.prepareStatement(
-                    "INSERT INTO reader (name,address,email,note) VALUES (?,?,?,?)",
-                    Statement.RETURN_GENERATED_KEYS);
-            
-            st.setString(1, reader.getName());
-            st.setString(2, reader.getAddress());
-            st.setString(3, reader.getEMail());
-            st.setString(4, reader.getNote());
+            st = connection.prepareStatement(INSERT_READER, Statement.RETURN_GENERATED_KEYS);
+            setReaderParameters(st, reader);
             
             int addedRows = st.executeUpdate();
             DBUtils.checkUpdatesCount(addedRows, reader, true);
@@ -60,6 +137,11 @@ public class ReaderManagerImpl implements ReaderManager {
             Long id = DBUtils.getId(st.getGeneratedKeys());
             reader.setId(id);
             connection.commit();                        
+            TransactionManager.afterCommit(connection, () -> {
+                searchIndex.put(reader);
+                readersChanged();
+            });
+            TransactionManager.afterRollback(connection, () -> reader.setId(null));
         }
         catch (SQLException ex) {
             String msg = "Error when inserting reader " + reader;
@@ -86,18 +168,17 @@ public class ReaderManagerImpl implements ReaderManager {
             connection = dataSource.getConnection();
             //Manual transaction control.
             connection.setAutoCommit(false);
-            st = connection.prepareStatement(
-                    "UPDATE reader SET name = ?, address = ?, email = ?, note = ? WHERE id = ?");
-            
-            st.setString(1, reader.getName());
-            st.setString(2, reader.getAddress());
-            st.setString(3, reader.getEMail());
-            st.setString(4, reader.getNote());
+            st = connection.prepareStatement(UPDATE_READER);
+            setReaderParameters(st, reader);
             st.setLong(5, reader.getId());
             
             int addedRows = st.executeUpdate();
             DBUtils.checkUpdatesCount(addedRows, reader, false);
             connection.commit();
+            TransactionManager.afterCommit(connection, () -> {
+                searchIndex.put(reader);
+                readersChanged();
+            });
         } catch (SQLException ex) {
             String msg = "Error when updating reader " + reader;
             logger.log(Level.SEVERE, msg, ex);
@@ -124,14 +205,17 @@ public class ReaderManagerImpl implements ReaderManager {
             connection = dataSource.getConnection();
             //Manual transaction control.
             connection.setAutoCommit(false);
-            st = connection.prepareStatement(
-                    "DELETE FROM reader WHERE id = ?");
+            st = connection.prepareStatement(DELETE_READER);
             
             st.setLong(1, reader.getId());
             
             int count = st.executeUpdate();
             DBUtils.checkUpdatesCount(count, reader, false);
             connection.commit();
+            TransactionManager.afterCommit(connection, () -> {
+                searchIndex.remove(reader.getId());
+                readersDeleted(Collections.singletonList(reader.getId()));
+            });
         } catch (SQLException ex) {
             String msg = "Error when deleting reader" + reader;
             logger.log(Level.SEVERE, msg, ex);
@@ -142,6 +226,112 @@ public class ReaderManagerImpl implements ReaderManager {
         }
     }
 
+    @Override
+    public void createReaders(Collection<Reader> readers) throws ServiceFailureException {
+        checkDataSource();
+        if (readers == null) {
+            throw new IllegalArgumentException("readers is null");
+        }
+        for (Reader reader : readers) {
+            validate(reader);
+            if (reader.getId() != null) {
+                throw new IllegalEntityException("reader id should not be assigned prior saving");
+            }
+        }
+        try {
+            //Derby returns only the last generated key for a batch, so rows
+            //are inserted one by one, but with one statement per chunk
+            DBUtils.executeInChunks(dataSource, readers, batchSize, (connection, chunk) -> {
+                try (PreparedStatement st = connection.prepareStatement(INSERT_READER, Statement.RETURN_GENERATED_KEYS)) {
+                    for (Reader reader : chunk) {
+                        setReaderParameters(st, reader);
+                        int addedRows = st.executeUpdate();
+                        DBUtils.checkUpdatesCount(addedRows, reader, true);
+                        reader.setId(DBUtils.getId(st.getGeneratedKeys()));
+                    }
+                }
+            }, chunk -> {
+                chunk.forEach(searchIndex::put);
+                readersChanged();
+            }, chunk -> chunk.forEach(reader -> reader.setId(null)));
+        } catch (SQLException ex) {
+            String msg = "Error when inserting readers";
+            logger.log(Level.SEVERE, msg, ex);
+            throw new ServiceFailureException(msg, ex);
+        }
+    }
+    
+    @Override
+    public void updateReaders(Collection<Reader> readers) throws ServiceFailureException {
+        checkDataSource();
+        if (readers == null) {
+            throw new IllegalArgumentException("readers is null");
+        }
+        for (Reader reader : readers) {
+            validate(reader);
+            if (reader.getId() == null) {
+                throw new IllegalEntityException("reader id is null");
+            }
+        }
+        try {
+            DBUtils.executeInChunks(dataSource, readers, batchSize, (connection, chunk) -> {
+                try (PreparedStatement st = connection.prepareStatement(UPDATE_READER)) {
+                    for (Reader reader : chunk) {
+                        setReaderParameters(st, reader);
+                        st.setLong(5, reader.getId());
+                        st.addBatch();
+                    }
+                    DBUtils.checkBatchUpdatesCounts(st.executeBatch(), chunk, false);
+                }
+            }, chunk -> {
+                chunk.forEach(searchIndex::put);
+                readersChanged();
+            }, null);
+        } catch (SQLException ex) {
+            String msg = "Error when updating readers";
+            logger.log(Level.SEVERE, msg, ex);
+            throw new ServiceFailureException(msg, ex);
+        }
+    }
+    
+    @Override
+    public void deleteReaders(Collection<Reader> readers) throws ServiceFailureException {
+        checkDataSource();
+        if (readers == null) {
+            throw new IllegalArgumentException("readers is null");
+        }
+        for (Reader reader : readers) {
+            if (reader == null) {
+                throw new IllegalArgumentException("reader is null");
+            }
+            if (reader.getId() == null) {
+                throw new IllegalEntityException("reader id is null");
+            }
+        }
+        try {
+            DBUtils.executeInChunks(dataSource, readers, batchSize, (connection, chunk) -> {
+                try (PreparedStatement st = connection.prepareStatement(DELETE_READER)) {
+                    for (Reader reader : chunk) {
+                        st.setLong(1, reader.getId());
+                        st.addBatch();
+                    }
+                    DBUtils.checkBatchUpdatesCounts(st.executeBatch(), chunk, false);
+                }
+            }, chunk -> {
+                List<Long> ids = new ArrayList<>(chunk.size());
+                for (Reader reader : chunk) {
+                    searchIndex.remove(reader.getId());
+                    ids.add(reader.getId());
+                }
+                readersDeleted(ids);
+            }, null);
+        } catch (SQLException ex) {
+            String msg = "Error when deleting readers";
+            logger.log(Level.SEVERE, msg, ex);
+            throw new ServiceFailureException(msg, ex);
+        }
+    }
+
     @Override
     public Reader getReaderById(Long id) throws ServiceFailureException {
         checkDataSource();
@@ -153,7 +343,7 @@ public class ReaderManagerImpl implements ReaderManager {
         PreparedStatement st = null;
         
         try {
-            connection = dataSource.getConnection();
+            connection = readDataSource().getConnection();
             st = connection.prepareStatement(
                     "SELECT id,name,address,email,note FROM reader WHERE id = ?");
             
@@ -175,7 +365,7 @@ public class ReaderManagerImpl implements ReaderManager {
         Connection connection = null;
         PreparedStatement st = null;
         try {
-            connection = dataSource.getConnection();
+            connection = readDataSource().getConnection();
             st = connection.prepareStatement(
                     "SELECT id,name,address,email,note FROM reader WHERE name = ?");
             st.setString(1, name);
@@ -189,13 +379,33 @@ public class ReaderManagerImpl implements ReaderManager {
         }
     }
 
+    /**
+     * Loads the search index of readers, so the first search does not wait for it.
+     */
+    public void warmUp() throws ServiceFailureException {
+        checkDataSource();
+        searchIndex.warmUp();
+    }
+    
+    @Override
+    public List<Reader> searchReaders(String query, int limit) {
+        checkDataSource();
+        return searchIndex.search(query, limit);
+    }
+    
+    @Override
+    public List<Reader> searchReadersFuzzy(String query, int limit) {
+        checkDataSource();
+        return searchIndex.searchFuzzy(query, limit);
+    }
+    
     @Override
     public List<Reader> findAllReaders() throws ServiceFailureException {
         checkDataSource();
         Connection connection = null;
         PreparedStatement st = null;
         try {
-            connection = dataSource.getConnection();
+            connection = readDataSource().getConnection();
             st = connection.prepareStatement(
                     "SELECT id,name,address,email,note FROM reader");
             
@@ -209,11 +419,71 @@ public class ReaderManagerImpl implements ReaderManager {
         }
     }
     
-    private void validate(Reader reader) throws IllegalArgumentException {
+    @Override
+    public Stream<Reader> streamAllReaders() throws ServiceFailureException {
+        checkDataSource();
+        try {
+            return DBUtils.streamQuery(readDataSource(), "SELECT id,name,address,email,note FROM reader",
+                    fetchSize, readerRowMapper());
+        } catch (SQLException ex) {
+            String msg =  "Error when streaming all readers";
+            logger.log(Level.SEVERE, msg, ex);
+            throw new ServiceFailureException(msg, ex);
+        }
+    }
+    
+    @Override
+    public List<Reader> findReaders(Long afterId, int limit) throws ServiceFailureException {
+        checkDataSource();
+        if (limit <= 0) {
+            throw new IllegalArgumentException("limit must be positive");
+        }
+        Connection connection = null;
+        PreparedStatement st = null;
+        try {
+            connection = readDataSource().getConnection();
+            st = connection.prepareStatement(
+                    "SELECT id,name,address,email,note FROM reader WHERE id > ? ORDER BY id FETCH FIRST ? ROWS ONLY");
+            st.setLong(1, afterId == null ? Long.MIN_VALUE : afterId);
+            st.setInt(2, limit);
+            return executeQueryForMultipleReaders(st);
+        } catch (SQLException ex) {
+            String msg =  "Error when retrieving readers after id = " + afterId;
+            logger.log(Level.SEVERE, msg, ex);
+            throw new ServiceFailureException(msg, ex);
+        } finally {
+            DBUtils.closeQuietly(connection, st);
+        }
+    }
+    
+    @Override
+    public long countReaders() throws ServiceFailureException {
+        checkDataSource();
+        Connection connection = null;
+        PreparedStatement st = null;
+        try {
+            connection = readDataSource().getConnection();
+            st = connection.prepareStatement("SELECT COUNT(*) FROM reader");
+            return DBUtils.executeQueryForLong(st);
+        } catch (SQLException ex) {
+            String msg =  "Error when counting readers";
+            logger.log(Level.SEVERE, msg, ex);
+            throw new ServiceFailureException(msg, ex);
+        } finally {
+            DBUtils.closeQuietly(connection, st);
+        }
+    }
+    
+    private static final Pattern NAME = Pattern.compile("[a-žA-Ž]+[a-žA-Ž ]*");
+    
+    /**
+     * Checks rules for stored readers, also used by {@link CatalogueImporter}.
+     */
+    static void validate(Reader reader) throws IllegalArgumentException {
         if(reader==null) {
             throw new IllegalArgumentException("reader should not be null");
         }
-        if(!reader.getName().matches("[a-žA-Ž]+[a-žA-Ž ]*")) {
+        if(!NAME.matcher(reader.getName()).matches()) {
             throw new IllegalArgumentException("name must contain at least one word character and no digits");
         }
         if (!reader.getEMail().contains("@")) {
@@ -224,7 +494,7 @@ public class ReaderManagerImpl implements ReaderManager {
     private static Reader executeQueryForSingleReader(PreparedStatement st) throws SQLException, ServiceFailureException {
         ResultSet rs = st.executeQuery();
         if (rs.next()) {
-            Reader result = resultSetToReader(rs);                
+            Reader result = readerRowMapper().mapRow(rs);
             if (rs.next()) {
                 throw new ServiceFailureException(
                         "Internal integrity error: more readers with the same id found");
@@ -238,19 +508,46 @@ public class ReaderManagerImpl implements ReaderManager {
     private static List<Reader> executeQueryForMultipleReaders(PreparedStatement st) throws SQLException {
         ResultSet rs = st.executeQuery();
         List<Reader> result = new ArrayList<>();
+        RowMapper<Reader> mapper = readerRowMapper();
         while (rs.next()) {
-            result.add(resultSetToReader(rs));
+            result.add(mapper.mapRow(rs));
         }
         return result;
     }
     
-    private static Reader resultSetToReader(ResultSet rs) throws SQLException {
+    private static void setReaderParameters(PreparedStatement st, Reader reader) throws SQLException {
+        st.setString(1, reader.getName());
+        st.setString(2, reader.getAddress());
+        st.setString(3, reader.getEMail());
+        st.setString(4, reader.getNote());
+    }
+    
+    private static final String[] READER_COLUMNS = {"id", "name", "address", "email", "note"};
+    
+    /**
+     * @return new mapper of rows with {@link #READER_COLUMNS}
+     */
+    private static RowMapper<Reader> readerRowMapper() {
+        return new ColumnIndexRowMapper<>(READER_COLUMNS, ReaderManagerImpl::resultSetToReader);
+    }
+    
+    private static Reader resultSetToReader(ResultSet rs, int[] columns) throws SQLException {
        Reader reader = new Reader();
-       reader.setId(rs.getLong("id"));
-       reader.setName(rs.getString("name"));
-       reader.setAddress(rs.getString("address"));
-       reader.setEMail(rs.getString("email"));
-       reader.setNote(rs.getString("note"));
+       reader.setId(rs.getLong(columns[0]));
+       reader.setName(rs.getString(columns[1]));
+       reader.setAddress(rs.getString(columns[2]));
+       reader.setEMail(rs.getString(columns[3]));
+       reader.setNote(rs.getString(columns[4]));
        return reader;
     }
+    
+    static Reader copyOf(Reader reader) {
+        Reader copy = new Reader();
+        copy.setId(reader.getId());
+        copy.setName(reader.getName());
+        copy.setAddress(reader.getAddress());
+        copy.setEMail(reader.getEMail());
+        copy.setNote(reader.getNote());
+        return copy;
+    }
 }
\ No newline at end of file
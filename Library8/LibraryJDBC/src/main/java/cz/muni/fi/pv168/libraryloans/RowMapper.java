@@ -0,0 +1,16 @@
+package cz.muni.fi.pv168.libraryloans;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Maps the current row of a result set to an entity.
+ *
+ * @param <T> entity type
+ * @author L
+ */
+@FunctionalInterface
+public interface RowMapper<T> {
+
+    T mapRow(ResultSet rs) throws SQLException;
+}
@@ -0,0 +1,159 @@
+package cz.muni.fi.pv168.libraryloans;
+
+import java.net.URL;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.sql.DataSource;
+
+/**
+ * Brings the database schema to the latest version.
+ * <p>
+ * Migrations are SQL scripts in the {@code schema} resource folder named
+ * {@code V<version>__<description>.sql}. Applied versions are recorded
+ * in the {@code SCHEMA_VERSION} table and every migration runs in its own
+ * transaction, so an upgrade keeps existing data. A database created
+ * before the versions were recorded is taken as version 1.
+ *
+ * @author L
+ */
+public class SchemaMigrator {
+
+    private static final Logger logger = Logger.getLogger(
+            SchemaMigrator.class.getName());
+
+    /**
+     * Migration scripts, the n-th script upgrades the schema to version n.
+     */
+    private static final String[] MIGRATIONS = {
+        "V1__create_tables.sql",
+        "V2__add_indexes.sql"
+    };
+
+    private static final String VERSION_TABLE = "SCHEMA_VERSION";
+
+    private final DataSource dataSource;
+
+    public SchemaMigrator(DataSource dataSource) {
+        if (dataSource == null) {
+            throw new IllegalArgumentException("dataSource is null");
+        }
+        this.dataSource = dataSource;
+    }
+
+    /**
+     * @return version of the schema this application needs
+     */
+    public static int getLatestVersion() {
+        return MIGRATIONS.length;
+    }
+
+    /**
+     * Returns version of the current schema.
+     *
+     * @return applied version, 0 for an empty database
+     * @throws ServiceFailureException when db operation fails
+     */
+    public int getVersion() {
+        try (Connection conn = dataSource.getConnection()) {
+            return readVersion(conn);
+        } catch (SQLException ex) {
+            String msg = "Error when reading schema version";
+            logger.log(Level.SEVERE, msg, ex);
+            throw new ServiceFailureException(msg, ex);
+        }
+    }
+
+    /**
+     * Applies all migrations newer than the current schema version.
+     *
+     * @return schema version after migration
+     * @throws ServiceFailureException when a migration fails, the schema
+     * then stays at the last successfully applied version
+     */
+    public int migrate() {
+        Connection conn = null;
+        try {
+            conn = dataSource.getConnection();
+            int version = readVersion(conn);
+            if (!tableExists(conn, VERSION_TABLE)) {
+                createVersionTable(conn, version);
+            }
+            for (int next = version + 1; next <= MIGRATIONS.length; next++) {
+                apply(conn, next);
+            }
+            return MIGRATIONS.length;
+        } catch (SQLException ex) {
+            String msg = "Error when migrating schema";
+            logger.log(Level.SEVERE, msg, ex);
+            throw new ServiceFailureException(msg, ex);
+        } finally {
+            DBUtils.closeQuietly(conn);
+        }
+    }
+
+    private static int readVersion(Connection conn) throws SQLException {
+        if (!tableExists(conn, VERSION_TABLE)) {
+            return tableExists(conn, "BOOK") ? 1 : 0;
+        }
+        try (Statement st = conn.createStatement();
+                ResultSet rs = st.executeQuery("SELECT MAX(VERSION) FROM " + VERSION_TABLE)) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+
+    private static void createVersionTable(Connection conn, int baseline) throws SQLException {
+        try (Statement st = conn.createStatement()) {
+            st.executeUpdate("CREATE TABLE " + VERSION_TABLE + " ("
+                    + "VERSION INT PRIMARY KEY, "
+                    + "SCRIPT VARCHAR(100), "
+                    + "INSTALLED TIMESTAMP)");
+        }
+        if (baseline > 0) {
+            logger.log(Level.INFO, "Existing schema taken as version {0}", baseline);
+            for (int version = 1; version <= baseline; version++) {
+                recordVersion(conn, version);
+            }
+        }
+    }
+
+    private static void apply(Connection conn, int version) throws SQLException {
+        String script = MIGRATIONS[version - 1];
+        URL url = SchemaMigrator.class.getResource("schema/" + script);
+        if (url == null) {
+            throw new IllegalStateException("Missing migration script " + script);
+        }
+        conn.setAutoCommit(false);
+        try {
+            DBUtils.executeSqlScript(conn, url);
+            recordVersion(conn, version);
+            conn.commit();
+            logger.log(Level.INFO, "Schema migrated to version {0}", version);
+        } finally {
+            DBUtils.doRollbackQuietly(conn);
+            conn.setAutoCommit(true);
+        }
+    }
+
+    private static void recordVersion(Connection conn, int version) throws SQLException {
+        try (PreparedStatement st = conn.prepareStatement(
+                "INSERT INTO " + VERSION_TABLE + " (VERSION, SCRIPT, INSTALLED) VALUES (?,?,?)")) {
+            st.setInt(1, version);
+            st.setString(2, MIGRATIONS[version - 1]);
+            st.setTimestamp(3, new Timestamp(System.currentTimeMillis()));
+            st.executeUpdate();
+        }
+    }
+
+    private static boolean tableExists(Connection conn, String table) throws SQLException {
+        try (ResultSet rs = conn.getMetaData().getTables(null, conn.getSchema(), table, null)) {
+            return rs.next();
+        }
+    }
+}
@@ -0,0 +1,361 @@
+package cz.muni.fi.pv168.libraryloans;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * In-memory full-text index of entities for type-ahead search.
+ * <p>
+ * Indexed text is normalized to lower case without diacritics, so
+ * "věku" is found by "veku" and the other way round, and split to words.
+ * Words are kept in a sorted map for prefix queries and their trigrams
+ * in a hash map for fuzzy queries. Every query word has to match a word
+ * of the entity.
+ * <p>
+ * The index is loaded from the database by the first query and then kept
+ * in sync by the manager. It holds copies of the entities, so returned
+ * entities may be changed freely. The index is thread safe.
+ *
+ * @param <T> entity type
+ * @author L
+ */
+public class SearchIndex<T> {
+
+    private static final Pattern DIACRITICS = Pattern.compile("\\p{M}+");
+    private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    private final Function<T, Long> idOf;
+    private final Function<T, String> textOf;
+    private final UnaryOperator<T> copier;
+    private final Supplier<Stream<T>> loader;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<Long, T> entities = new HashMap<>();
+    private final Map<Long, Set<String>> wordsById = new HashMap<>();
+    private final TreeMap<String, Set<Long>> words = new TreeMap<>();
+    private final Map<String, Set<String>> trigrams = new HashMap<>();
+    private boolean loaded;
+
+    /**
+     * @param idOf returns id of an entity
+     * @param textOf returns indexed text of an entity
+     * @param copier creates copy of an entity
+     * @param loader returns stream of all stored entities, it is closed after loading
+     */
+    public SearchIndex(Function<T, Long> idOf, Function<T, String> textOf,
+            UnaryOperator<T> copier, Supplier<Stream<T>> loader) {
+        this.idOf = idOf;
+        this.textOf = textOf;
+        this.copier = copier;
+        this.loader = loader;
+    }
+
+    /**
+     * Converts text to lower case words without diacritics.
+     *
+     * @param text text to normalize, may be null
+     * @return normalized words, separated by one space
+     */
+    public static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        String folded = DIACRITICS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("");
+        return SEPARATORS.matcher(folded.toLowerCase(Locale.ROOT)).replaceAll(" ").trim();
+    }
+
+    /**
+     * Adds or replaces an entity. Ignored until the index is loaded.
+     *
+     * @param entity stored entity
+     */
+    public void put(T entity) {
+        lock.writeLock().lock();
+        try {
+            if (loaded) {
+                add(entity);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes an entity. Ignored until the index is loaded.
+     *
+     * @param id id of deleted entity
+     */
+    public void remove(Long id) {
+        lock.writeLock().lock();
+        try {
+            if (loaded) {
+                delete(id);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Loads the index now instead of on the first query.
+     */
+    public void warmUp() {
+        ensureLoaded();
+    }
+
+    /**
+     * Drops the index content, it is loaded again by the next query. Used
+     * when it is not known which changes were stored.
+     */
+    public void invalidate() {
+        lock.writeLock().lock();
+        try {
+            loaded = false;
+            entities.clear();
+            wordsById.clear();
+            words.clear();
+            trigrams.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Finds entities having, for every word of the query, a word starting
+     * with it.
+     *
+     * @param query searched text
+     * @param limit maximal number of returned entities
+     * @return matching entities ordered by id
+     */
+    public List<T> search(String query, int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("limit must be positive");
+        }
+        String[] queryWords = split(query);
+        if (queryWords.length == 0) {
+            return Collections.emptyList();
+        }
+        ensureLoaded();
+        lock.readLock().lock();
+        try {
+            Set<Long> result = null;
+            for (String word : queryWords) {
+                Set<Long> matching = new HashSet<>();
+                for (Set<Long> ids : words.subMap(word, word + Character.MAX_VALUE).values()) {
+                    matching.addAll(ids);
+                }
+                result = intersect(result, matching);
+            }
+            return toEntities(result, Collections.emptyMap(), limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Finds entities like {@link #search(String, int)}, but tolerates typos.
+     * A query word matches a word or a word prefix differing by at most one
+     * edit, or two edits for words longer than six characters. Words shorter
+     * than four characters must match exactly.
+     *
+     * @param query searched text
+     * @param limit maximal number of returned entities
+     * @return matching entities, the closest matches first
+     */
+    public List<T> searchFuzzy(String query, int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("limit must be positive");
+        }
+        String[] queryWords = split(query);
+        if (queryWords.length == 0) {
+            return Collections.emptyList();
+        }
+        ensureLoaded();
+        lock.readLock().lock();
+        try {
+            Set<Long> result = null;
+            Map<Long, Integer> distances = new HashMap<>();
+            for (String queryWord : queryWords) {
+                int maxEdits = queryWord.length() < 4 ? 0 : queryWord.length() <= 6 ? 1 : 2;
+                Map<Long, Integer> matching = new HashMap<>();
+                for (String word : candidates(queryWord, maxEdits)) {
+                    int distance = Math.min(editDistance(queryWord, word), editDistance(queryWord,
+                            word.substring(0, Math.min(word.length(), queryWord.length()))));
+                    if (distance <= maxEdits) {
+                        for (Long id : words.get(word)) {
+                            matching.merge(id, distance, Math::min);
+                        }
+                    }
+                }
+                result = intersect(result, matching.keySet());
+                for (Long id : result) {
+                    distances.merge(id, matching.get(id), Integer::sum);
+                }
+            }
+            return toEntities(result, distances, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return number of indexed entities, 0 until the index is loaded
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return entities.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void ensureLoaded() {
+        lock.readLock().lock();
+        try {
+            if (loaded) {
+                return;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        lock.writeLock().lock();
+        try {
+            if (!loaded) {
+                try (Stream<T> all = loader.get()) {
+                    all.forEach(this::add);
+                }
+                loaded = true;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void add(T entity) {
+        Long id = idOf.apply(entity);
+        delete(id);
+        Set<String> entityWords = new LinkedHashSet<>(Arrays.asList(split(textOf.apply(entity))));
+        entities.put(id, copier.apply(entity));
+        wordsById.put(id, entityWords);
+        for (String word : entityWords) {
+            Set<Long> ids = words.get(word);
+            if (ids == null) {
+                ids = new HashSet<>();
+                words.put(word, ids);
+                for (String trigram : trigramsOf(word)) {
+                    trigrams.computeIfAbsent(trigram, t -> new HashSet<>()).add(word);
+                }
+            }
+            ids.add(id);
+        }
+    }
+
+    private void delete(Long id) {
+        entities.remove(id);
+        Set<String> entityWords = wordsById.remove(id);
+        if (entityWords == null) {
+            return;
+        }
+        for (String word : entityWords) {
+            Set<Long> ids = words.get(word);
+            ids.remove(id);
+            if (ids.isEmpty()) {
+                words.remove(word);
+                for (String trigram : trigramsOf(word)) {
+                    Set<String> trigramWords = trigrams.get(trigram);
+                    trigramWords.remove(word);
+                    if (trigramWords.isEmpty()) {
+                        trigrams.remove(trigram);
+                    }
+                }
+            }
+        }
+    }
+
+    private Set<String> candidates(String queryWord, int maxEdits) {
+        Set<String> result = new HashSet<>(
+                words.subMap(queryWord, queryWord + Character.MAX_VALUE).keySet());
+        if (maxEdits > 0) {
+            for (String trigram : trigramsOf(queryWord)) {
+                Set<String> trigramWords = trigrams.get(trigram);
+                if (trigramWords != null) {
+                    result.addAll(trigramWords);
+                }
+            }
+        }
+        return result;
+    }
+
+    private List<T> toEntities(Set<Long> ids, Map<Long, Integer> distances, int limit) {
+        List<Long> sorted = new ArrayList<>(ids);
+        sorted.sort((id1, id2) -> {
+            int result = Integer.compare(distances.getOrDefault(id1, 0), distances.getOrDefault(id2, 0));
+            return result != 0 ? result : id1.compareTo(id2);
+        });
+        List<T> result = new ArrayList<>();
+        for (Long id : sorted.subList(0, Math.min(limit, sorted.size()))) {
+            result.add(copier.apply(entities.get(id)));
+        }
+        return result;
+    }
+
+    private static Set<Long> intersect(Set<Long> result, Set<Long> ids) {
+        if (result == null) {
+            return ids;
+        }
+        result.retainAll(ids);
+        return result;
+    }
+
+    private static String[] split(String text) {
+        String normalized = normalize(text);
+        return normalized.isEmpty() ? new String[0] : normalized.split(" ");
+    }
+
+    private static List<String> trigramsOf(String word) {
+        String padded = "  " + word + " ";
+        List<String> result = new ArrayList<>(padded.length() - 2);
+        for (int i = 0; i + 3 <= padded.length(); i++) {
+            result.add(padded.substring(i, i + 3));
+        }
+        return result;
+    }
+
+    static int editDistance(String a, String b) {
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            for (int j = 1; j <= b.length(); j++) {
+                int substitution = previous[j - 1] + (a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1);
+                current[j] = Math.min(substitution, Math.min(previous[j], current[j - 1]) + 1);
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return previous[b.length()];
+    }
+}
@@ -0,0 +1,231 @@
+package cz.muni.fi.pv168.libraryloans;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Cache of prepared statements of one physical connection, keyed by SQL text.
+ * <p>
+ * {@link #wrap} returns a connection whose {@code prepareStatement(sql)} and
+ * {@code prepareStatement(sql, autoGeneratedKeys)} reuse statements compiled
+ * before. Closing such a statement closes its result sets and returns it
+ * to the cache; the least recently used statements are really closed when
+ * the cache is full. A statement is never handed out twice at the same time.
+ * Connections are not thread safe, so neither is the cache.
+ *
+ * @author L
+ */
+final class StatementCache {
+
+    private static final Logger logger = Logger.getLogger(
+            StatementCache.class.getName());
+
+    private final Connection connection;
+    private final int maxSize;
+    private final StatementCacheStats stats;
+    private final Map<Key, PreparedStatement> idle = new LinkedHashMap<>();
+    private Connection proxy;
+    private boolean closed;
+
+    private StatementCache(Connection connection, int maxSize, StatementCacheStats stats) {
+        this.connection = connection;
+        this.maxSize = maxSize;
+        this.stats = stats;
+    }
+
+    /**
+     * Wraps given connection with a statement cache.
+     *
+     * @param connection physical connection
+     * @param maxSize maximal number of idle statements kept open
+     * @param stats counters to update
+     * @return connection with statement cache
+     */
+    static Connection wrap(Connection connection, int maxSize, StatementCacheStats stats) {
+        StatementCache cache = new StatementCache(connection, maxSize, stats);
+        cache.proxy = (Connection) Proxy.newProxyInstance(StatementCache.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, cache.new ConnectionHandler());
+        return cache.proxy;
+    }
+
+    private PreparedStatement prepare(String sql, int autoGeneratedKeys) throws SQLException {
+        Key key = new Key(sql, autoGeneratedKeys);
+        PreparedStatement st = idle.remove(key);
+        if (st != null) {
+            stats.hit();
+        } else {
+            stats.miss();
+            st = connection.prepareStatement(sql, autoGeneratedKeys);
+        }
+        return (PreparedStatement) Proxy.newProxyInstance(StatementCache.class.getClassLoader(),
+                new Class<?>[]{PreparedStatement.class}, new StatementHandler(key, st));
+    }
+
+    private void release(Key key, PreparedStatement st) {
+        if (closed || idle.containsKey(key)) {
+            closeQuietly(st);
+            return;
+        }
+        idle.put(key, st);
+        if (idle.size() > maxSize) {
+            Iterator<PreparedStatement> eldest = idle.values().iterator();
+            closeQuietly(eldest.next());
+            eldest.remove();
+            stats.eviction();
+        }
+    }
+
+    private void closeAll() {
+        closed = true;
+        for (PreparedStatement st : idle.values()) {
+            closeQuietly(st);
+        }
+        idle.clear();
+    }
+
+    private static void closeQuietly(AutoCloseable closeable) {
+        try {
+            closeable.close();
+        } catch (Exception ex) {
+            logger.log(Level.SEVERE, "Error when closing cached statement", ex);
+        }
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException ex) {
+            throw ex.getCause();
+        }
+    }
+
+    private class ConnectionHandler implements InvocationHandler {
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "prepareStatement":
+                    if (args.length == 1) {
+                        return prepare((String) args[0], Statement.NO_GENERATED_KEYS);
+                    }
+                    if (args.length == 2 && method.getParameterTypes()[1] == int.class) {
+                        return prepare((String) args[0], (Integer) args[1]);
+                    }
+                    break;
+                case "close":
+                    closeAll();
+                    break;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "StatementCache[" + connection + "]";
+                default:
+                    break;
+            }
+            return StatementCache.invoke(connection, method, args);
+        }
+    }
+
+    private class StatementHandler implements InvocationHandler {
+
+        private final Key key;
+        private final PreparedStatement statement;
+        private final List<ResultSet> resultSets = new ArrayList<>(1);
+        private boolean released;
+
+        StatementHandler(Key key, PreparedStatement statement) {
+            this.key = key;
+            this.statement = statement;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!released) {
+                        released = true;
+                        for (ResultSet rs : resultSets) {
+                            closeQuietly(rs);
+                        }
+                        resultSets.clear();
+                        try {
+                            statement.clearParameters();
+                            statement.clearBatch();
+                            release(key, statement);
+                        } catch (SQLException ex) {
+                            //statement is unusable, e.g. its connection was closed
+                            closeQuietly(statement);
+                        }
+                    }
+                    return null;
+                case "isClosed":
+                    return released || statement.isClosed();
+                case "getConnection":
+                    checkNotReleased();
+                    return StatementCache.this.proxy;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "CachedStatement[" + key.sql + "]";
+                default:
+                    checkNotReleased();
+                    break;
+            }
+            Object result = StatementCache.invoke(statement, method, args);
+            if (result instanceof ResultSet) {
+                resultSets.add((ResultSet) result);
+            }
+            return result;
+        }
+
+        private void checkNotReleased() throws SQLException {
+            if (released) {
+                throw new SQLException("Statement is closed");
+            }
+        }
+    }
+
+    private static final class Key {
+
+        private final String sql;
+        private final int autoGeneratedKeys;
+
+        Key(String sql, int autoGeneratedKeys) {
+            this.sql = sql;
+            this.autoGeneratedKeys = autoGeneratedKeys;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * sql.hashCode() + autoGeneratedKeys;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return autoGeneratedKeys == other.autoGeneratedKeys && Objects.equals(sql, other.sql);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package cz.muni.fi.pv168.libraryloans;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of the prepared statement cache, shared by all connections
+ * of one pool.
+ *
+ * @author L
+ */
+public class StatementCacheStats {
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    void hit() {
+        hits.increment();
+    }
+
+    void miss() {
+        misses.increment();
+    }
+
+    void eviction() {
+        evictions.increment();
+    }
+
+    /**
+     * @return number of prepareStatement calls served by a cached statement
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return number of prepareStatement calls that had to compile the statement
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return number of statements closed because the cache was full
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public double getHitRatio() {
+        long h = getHits();
+        long total = h + getMisses();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    @Override
+    public String toString() {
+        return "StatementCacheStats{" + "hits=" + getHits() + ", misses=" + getMisses()
+                + ", evictions=" + getEvictions() + '}';
+    }
+}
@@ -0,0 +1,412 @@
+package cz.muni.fi.pv168.libraryloans;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.sql.DataSource;
+
+/**
+ * Runs more manager operations in one transaction on one connection.
+ * <p>
+ * Managers have to use {@link #getDataSource()}. Outside of a unit of work
+ * it hands out connections of the target data source as they are. Inside
+ * {@link #inTransaction(Supplier)} it hands out the connection bound to the
+ * current thread, and commits, auto-commit changes and closes done by the
+ * managers do nothing; the unit commits once at its end. A rollback done by
+ * a manager marks the unit for rollback. Units on the same thread nest by
+ * joining the outer one.
+ * <p>
+ * Finders of managers may use a read-only pool wrapped by
+ * {@link #createReadOnlyDataSource(DataSource)}, so that they see the
+ * changes of the unit of work they run in.
+ * <p>
+ * Managers defer changes of their in-memory state until the commit of the
+ * unit by {@link #afterCommit(Connection, Runnable)}, and undo changes of
+ * the entities, e.g. assigned ids, when the unit is rolled back by
+ * {@link #afterRollback(Connection, Runnable)}. Decorators without a
+ * connection use {@link #afterCommit(Runnable)}.
+ *
+ * @author L
+ */
+public class TransactionManager {
+
+    private static final Logger logger = Logger.getLogger(
+            TransactionManager.class.getName());
+
+    private final DataSource target;
+    private final DataSource dataSource;
+    private final ThreadLocal<Unit> currentUnit = new ThreadLocal<>();
+
+    private final LatencyHistogram commitLatency = new LatencyHistogram();
+    private final LongAdder rollbacks = new LongAdder();
+
+    /**
+     * @param target data source providing the connections
+     */
+    public TransactionManager(DataSource target) {
+        if (target == null) {
+            throw new IllegalArgumentException("target is null");
+        }
+        this.target = target;
+        this.dataSource = new TransactionAwareDataSource(target);
+    }
+
+    /**
+     * @return data source to be used by managers taking part in units of work
+     */
+    public DataSource getDataSource() {
+        return dataSource;
+    }
+
+    /**
+     * Wraps a read-only data source for finders. Outside of a unit of work
+     * it hands out its own connections, inside it hands out the connection
+     * of the unit.
+     *
+     * @param readOnlyTarget read-only data source
+     * @return data source to be set as read-only data source of managers
+     */
+    public DataSource createReadOnlyDataSource(DataSource readOnlyTarget) {
+        if (readOnlyTarget == null) {
+            throw new IllegalArgumentException("readOnlyTarget is null");
+        }
+        return new TransactionAwareDataSource(readOnlyTarget);
+    }
+
+    /**
+     * @return true when a unit of work is running on the current thread
+     */
+    public boolean isInTransaction() {
+        return currentUnit.get() != null;
+    }
+
+    /**
+     * Runs the work in one transaction. The transaction is committed when
+     * the work returns and rolled back when it throws an exception or when
+     * an operation of the work was rolled back.
+     *
+     * @param <T> result type
+     * @param work work calling the managers
+     * @return result of the work
+     * @throws ServiceFailureException when the transaction cannot be
+     * committed or when an operation was rolled back, but the work returned
+     */
+    public <T> T inTransaction(Supplier<T> work) throws ServiceFailureException {
+        if (work == null) {
+            throw new IllegalArgumentException("work is null");
+        }
+        if (currentUnit.get() != null) {
+            return work.get();
+        }
+        Unit unit = begin();
+        currentUnit.set(unit);
+        T result;
+        try {
+            result = work.get();
+        } catch (RuntimeException | Error ex) {
+            currentUnit.remove();
+            rollback(unit);
+            throw ex;
+        }
+        currentUnit.remove();
+        if (unit.rollbackOnly) {
+            rollback(unit);
+            throw new ServiceFailureException("Unit of work was rolled back, because one of its operations failed");
+        }
+        commit(unit);
+        return result;
+    }
+
+    /**
+     * Runs the work in one transaction, like {@link #inTransaction(Supplier)}.
+     *
+     * @param work work calling the managers
+     * @throws ServiceFailureException when the transaction cannot be committed
+     */
+    public void runInTransaction(Runnable work) throws ServiceFailureException {
+        if (work == null) {
+            throw new IllegalArgumentException("work is null");
+        }
+        inTransaction(() -> {
+            work.run();
+            return null;
+        });
+    }
+
+    /**
+     * Runs the action when the changes done through the connection are
+     * committed. When the connection takes part in a unit of work, that is
+     * at the end of the unit and the action is dropped when the unit is
+     * rolled back. Otherwise the action runs immediately, the caller has
+     * just committed.
+     *
+     * @param connection connection, which was used for the changes
+     * @param action action to run after commit
+     */
+    public static void afterCommit(Connection connection, Runnable action) {
+        if (Proxy.isProxyClass(connection.getClass())) {
+            InvocationHandler handler = Proxy.getInvocationHandler(connection);
+            if (handler instanceof Handle) {
+                ((Handle) handler).unit.afterCommit.add(action);
+                return;
+            }
+        }
+        action.run();
+    }
+
+    /**
+     * Runs the action when the unit of work running on the current thread
+     * commits, or immediately when no unit is running. The action is dropped
+     * when the unit is rolled back.
+     *
+     * @param action action to run after commit
+     */
+    public void afterCommit(Runnable action) {
+        Unit unit = currentUnit.get();
+        if (unit == null) {
+            action.run();
+        } else {
+            unit.afterCommit.add(action);
+        }
+    }
+
+    /**
+     * Runs the action when the unit of work, which the connection takes part
+     * in, is rolled back. Outside of a unit of work nothing is done, the
+     * caller has already committed.
+     *
+     * @param connection connection, which was used for the changes
+     * @param action action undoing changes of entities
+     */
+    public static void afterRollback(Connection connection, Runnable action) {
+        if (Proxy.isProxyClass(connection.getClass())) {
+            InvocationHandler handler = Proxy.getInvocationHandler(connection);
+            if (handler instanceof Handle) {
+                ((Handle) handler).unit.afterRollback.add(action);
+            }
+        }
+    }
+
+    /**
+     * @return latency of commits of units of work
+     */
+    public LatencyHistogram getCommitLatency() {
+        return commitLatency;
+    }
+
+    /**
+     * @return number of committed units of work
+     */
+    public long getCommitCount() {
+        return commitLatency.getCount();
+    }
+
+    /**
+     * @return number of rolled back units of work
+     */
+    public long getRollbackCount() {
+        return rollbacks.sum();
+    }
+
+    private Unit begin() {
+        Connection connection = null;
+        try {
+            connection = target.getConnection();
+            connection.setAutoCommit(false);
+            return new Unit(connection);
+        } catch (SQLException ex) {
+            DBUtils.closeQuietly(connection);
+            String msg = "Error when starting unit of work";
+            logger.log(Level.SEVERE, msg, ex);
+            throw new ServiceFailureException(msg, ex);
+        }
+    }
+
+    private void commit(Unit unit) {
+        long start = System.nanoTime();
+        try {
+            unit.connection.commit();
+            commitLatency.recordSince(start);
+        } catch (SQLException ex) {
+            rollback(unit);
+            String msg = "Error when committing unit of work";
+            logger.log(Level.SEVERE, msg, ex);
+            throw new ServiceFailureException(msg, ex);
+        }
+        DBUtils.closeQuietly(unit.connection);
+        for (Runnable action : unit.afterCommit) {
+            action.run();
+        }
+    }
+
+    private void rollback(Unit unit) {
+        rollbacks.increment();
+        DBUtils.doRollbackQuietly(unit.connection);
+        DBUtils.closeQuietly(unit.connection);
+        for (Runnable action : unit.afterRollback) {
+            action.run();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "TransactionManager{" + "commits=" + getCommitCount() + ", rollbacks=" + getRollbackCount()
+                + ", commitLatency=" + commitLatency + '}';
+    }
+
+    /**
+     * Transaction of one unit of work.
+     */
+    private static final class Unit {
+
+        private final Connection connection;
+        private final List<Runnable> afterCommit = new ArrayList<>();
+        private final List<Runnable> afterRollback = new ArrayList<>();
+        private boolean rollbackOnly;
+
+        Unit(Connection connection) {
+            this.connection = connection;
+        }
+    }
+
+    /**
+     * Connection handed out to a manager inside a unit of work. Managers
+     * roll back in finally even after a successful commit, so a rollback
+     * marks the unit only when the connection was used since the last commit.
+     */
+    private static final class Handle implements InvocationHandler {
+
+        private final Unit unit;
+        private boolean committed;
+        private boolean closed;
+
+        Handle(Unit unit) {
+            this.unit = unit;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "UnitOfWorkConnection{" + unit.connection + '}';
+                case "close":
+                    closed = true;
+                    return null;
+                case "isClosed":
+                    return closed || unit.connection.isClosed();
+                case "setAutoCommit":
+                    return null;
+                case "getAutoCommit":
+                    return false;
+                case "commit":
+                    committed = true;
+                    return null;
+                case "rollback":
+                    if (args == null) {
+                        if (!committed) {
+                            unit.rollbackOnly = true;
+                        }
+                        return null;
+                    }
+                    break;
+                default:
+                    break;
+            }
+            if (closed) {
+                throw new SQLException("Connection is closed");
+            }
+            committed = false;
+            try {
+                return method.invoke(unit.connection, args);
+            } catch (InvocationTargetException ex) {
+                throw ex.getCause();
+            }
+        }
+    }
+
+    private final class TransactionAwareDataSource implements DataSource {
+
+        /** data source used outside of units of work */
+        private final DataSource outside;
+
+        TransactionAwareDataSource(DataSource outside) {
+            this.outside = outside;
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            Unit unit = currentUnit.get();
+            if (unit == null) {
+                return outside.getConnection();
+            }
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, new Handle(unit));
+        }
+
+        @Override
+        public Connection getConnection(String username, String password) throws SQLException {
+            if (currentUnit.get() != null) {
+                throw new SQLFeatureNotSupportedException("Credentials cannot be changed inside unit of work");
+            }
+            return outside.getConnection(username, password);
+        }
+
+        @Override
+        public PrintWriter getLogWriter() throws SQLException {
+            return outside.getLogWriter();
+        }
+
+        @Override
+        public void setLogWriter(PrintWriter out) throws SQLException {
+            outside.setLogWriter(out);
+        }
+
+        @Override
+        public void setLoginTimeout(int seconds) throws SQLException {
+            outside.setLoginTimeout(seconds);
+        }
+
+        @Override
+        public int getLoginTimeout() throws SQLException {
+            return outside.getLoginTimeout();
+        }
+
+        @Override
+        public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+            return outside.getParentLogger();
+        }
+
+        @Override
+        public <T> T unwrap(Class<T> iface) throws SQLException {
+            if (iface.isInstance(this)) {
+                return iface.cast(this);
+            }
+            return outside.unwrap(iface);
+        }
+
+        @Override
+        public boolean isWrapperFor(Class<?> iface) throws SQLException {
+            return iface.isInstance(this) || outside.isWrapperFor(iface);
+        }
+
+        @Override
+        public String toString() {
+            return "TransactionAwareDataSource{" + outside + '}';
+        }
+    }
+}
@@ -1,3 +1,4 @@
 DROP TABLE "LOAN";
 DROP TABLE "READER";
-DROP TABLE "BOOK";
\ No newline at end of file
+DROP TABLE "BOOK";
+DROP TABLE "SCHEMA_VERSION";
\ No newline at end of file
@@ -0,0 +1,7 @@
+CREATE INDEX "IX_READER_NAME" ON "READER" ("NAME");
+
+CREATE INDEX "IX_BOOK_AUTHOR" ON "BOOK" ("AUTHOR");
+
+CREATE INDEX "IX_BOOK_TITLE" ON "BOOK" ("TITLE");
+
+CREATE INDEX "IX_LOAN_REALEND_ENDTIME" ON "LOAN" ("REALEND", "ENDTIME");
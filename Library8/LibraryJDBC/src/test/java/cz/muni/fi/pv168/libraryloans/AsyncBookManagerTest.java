@@ -0,0 +1,91 @@
+package cz.muni.fi.pv168.libraryloans;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ *
+ * @author L
+ */
+public class AsyncBookManagerTest {
+
+    private BookManager delegate;
+    private ManagerExecutor executor;
+    private AsyncBookManager manager;
+
+    @Before
+    public void setUp() {
+        delegate = mock(BookManager.class);
+        executor = new ManagerExecutor(1, 1);
+        manager = new AsyncBookManager(delegate, executor);
+    }
+
+    @After
+    public void tearDown() {
+        executor.close();
+    }
+
+    @Test
+    public void getBookById() throws Exception {
+        Book book = new BookBuilder().id(1L).title("Syntagma musicum").author("Michael Praetorius")
+                .published(1620).build();
+        when(delegate.getBookById(1L)).thenReturn(book);
+
+        assertThat(manager.getBookById(1L).get(1, TimeUnit.SECONDS)).isEqualTo(book);
+        assertThat(executor.getLatencies().get("getBookById").getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void createBookCompletesWithStoredBook() throws Exception {
+        Book book = new BookBuilder().title("Syntagma musicum").author("Michael Praetorius")
+                .published(1620).build();
+        doAnswer(invocation -> {
+            book.setId(7L);
+            return null;
+        }).when(delegate).createBook(book);
+
+        assertThat(manager.createBook(book).get(1, TimeUnit.SECONDS).getId()).isEqualTo(7L);
+    }
+
+    @Test
+    public void failureCompletesFutureExceptionally() throws Exception {
+        when(delegate.countBooks()).thenThrow(new ServiceFailureException("failed"));
+
+        assertThatThrownBy(() -> manager.countBooks().get(1, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(ServiceFailureException.class);
+        assertThat(executor.getLatencies().get("countBooks").getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void fullQueueRejects() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(delegate.countBooks()).thenAnswer(invocation -> {
+            started.countDown();
+            release.await();
+            return 1L;
+        });
+
+        CompletableFuture<Long> running = manager.countBooks();
+        assertThat(started.await(1, TimeUnit.SECONDS)).isTrue();
+        CompletableFuture<Long> queued = manager.countBooks();
+        CompletableFuture<Long> rejected = manager.countBooks();
+
+        assertThatThrownBy(() -> rejected.get(1, TimeUnit.SECONDS))
+                .hasCauseInstanceOf(RejectedExecutionException.class);
+        assertThat(executor.getRejectedCount()).isEqualTo(1);
+        release.countDown();
+        assertThat(running.get(1, TimeUnit.SECONDS)).isEqualTo(1L);
+        assertThat(queued.get(1, TimeUnit.SECONDS)).isEqualTo(1L);
+    }
+}
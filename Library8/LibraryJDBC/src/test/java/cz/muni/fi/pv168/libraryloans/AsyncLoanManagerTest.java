@@ -0,0 +1,105 @@
+package cz.muni.fi.pv168.libraryloans;
+
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static java.time.Month.*;
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ *
+ * @author L
+ */
+public class AsyncLoanManagerTest {
+
+    private LoanManager delegate;
+    private ManagerExecutor executor;
+    private AsyncLoanManager manager;
+    private Reader reader;
+    private Book book;
+
+    @Before
+    public void setUp() {
+        delegate = mock(LoanManager.class);
+        executor = new ManagerExecutor(1, 1);
+        manager = new AsyncLoanManager(delegate, executor);
+        reader = new ReaderBuilder().id(1L).name("Pavel").address("Brno 41").eMail("pavel@mail.cz").build();
+        book = new BookBuilder().id(2L).title("Syntagma musicum").author("Michael Praetorius")
+                .published(1620).build();
+    }
+
+    @After
+    public void tearDown() {
+        executor.close();
+    }
+
+    @Test
+    public void checkoutBook() throws Exception {
+        LocalDate due = LocalDate.of(2016, APRIL, 27);
+        Loan loan = new LoanBuilder().id(3L).reader(reader).book(book).startDate(2016, MARCH, 27)
+                .expectedEndDate(due).build();
+        when(delegate.checkoutBook(reader, book, due)).thenReturn(loan);
+
+        assertThat(manager.checkoutBook(reader, book, due).get(1, TimeUnit.SECONDS)).isEqualTo(loan);
+        assertThat(executor.getLatencies().get("checkoutBook").getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void dueDateQueriesDelegate() throws Exception {
+        Loan loan = new LoanBuilder().id(3L).reader(reader).book(book).startDate(2016, MARCH, 1)
+                .expectedEndDate(2016, MARCH, 20).build();
+        List<Loan> loans = Collections.singletonList(loan);
+        LocalDate asOf = LocalDate.of(2016, MARCH, 27);
+        when(delegate.findOverdueLoans(asOf)).thenReturn(loans);
+        when(delegate.findLoansDueBetween(asOf.minusMonths(1), asOf)).thenReturn(loans);
+
+        assertThat(manager.findOverdueLoans(asOf).get(1, TimeUnit.SECONDS)).isEqualTo(loans);
+        assertThat(manager.findLoansDueBetween(asOf.minusMonths(1), asOf).get(1, TimeUnit.SECONDS))
+                .isEqualTo(loans);
+        assertThat(executor.getLatencies().get("findLoansDueBetween").getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void failureCompletesFutureExceptionally() throws Exception {
+        LocalDate due = LocalDate.of(2016, APRIL, 27);
+        when(delegate.checkoutBook(reader, book, due)).thenThrow(new IllegalEntityException("book is lent"));
+
+        assertThatThrownBy(() -> manager.checkoutBook(reader, book, due).get(1, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(IllegalEntityException.class);
+    }
+
+    @Test
+    public void fullQueueRejects() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(delegate.countLoans()).thenAnswer(invocation -> {
+            started.countDown();
+            release.await();
+            return 1L;
+        });
+
+        CompletableFuture<Long> running = manager.countLoans();
+        assertThat(started.await(1, TimeUnit.SECONDS)).isTrue();
+        CompletableFuture<Long> queued = manager.countLoans();
+        CompletableFuture<List<Loan>> rejected = manager.findOverdueLoans();
+
+        assertThatThrownBy(() -> rejected.get(1, TimeUnit.SECONDS))
+                .hasCauseInstanceOf(RejectedExecutionException.class);
+        assertThat(executor.getRejectedCount()).isEqualTo(1);
+        release.countDown();
+        assertThat(running.get(1, TimeUnit.SECONDS)).isEqualTo(1L);
+        assertThat(queued.get(1, TimeUnit.SECONDS)).isEqualTo(1L);
+        verify(delegate, never()).findOverdueLoans();
+    }
+}
@@ -0,0 +1,101 @@
+package cz.muni.fi.pv168.libraryloans;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ *
+ * @author L
+ */
+public class AsyncReaderManagerTest {
+
+    private ReaderManager delegate;
+    private ManagerExecutor executor;
+    private AsyncReaderManager manager;
+    private Reader reader;
+
+    @Before
+    public void setUp() {
+        delegate = mock(ReaderManager.class);
+        executor = new ManagerExecutor(1, 1);
+        manager = new AsyncReaderManager(delegate, executor);
+        reader = new ReaderBuilder().name("Pavel").address("Brno 41").eMail("pavel@mail.cz").build();
+    }
+
+    @After
+    public void tearDown() {
+        executor.close();
+    }
+
+    @Test
+    public void getReaderById() throws Exception {
+        reader.setId(1L);
+        when(delegate.getReaderById(1L)).thenReturn(reader);
+
+        assertThat(manager.getReaderById(1L).get(1, TimeUnit.SECONDS)).isEqualTo(reader);
+        assertThat(executor.getLatencies().get("getReaderById").getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void createReaderCompletesWithStoredReader() throws Exception {
+        doAnswer(invocation -> {
+            reader.setId(7L);
+            return null;
+        }).when(delegate).createReader(reader);
+
+        assertThat(manager.createReader(reader).get(1, TimeUnit.SECONDS).getId()).isEqualTo(7L);
+    }
+
+    @Test
+    public void searchReadersDelegates() throws Exception {
+        List<Reader> found = Collections.singletonList(reader);
+        when(delegate.searchReaders("pavel", 10)).thenReturn(found);
+
+        assertThat(manager.searchReaders("pavel", 10).get(1, TimeUnit.SECONDS)).isEqualTo(found);
+    }
+
+    @Test
+    public void failureCompletesFutureExceptionally() throws Exception {
+        doThrow(new IllegalEntityException("reader is not stored")).when(delegate).deleteReader(reader);
+
+        assertThatThrownBy(() -> manager.deleteReader(reader).get(1, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(IllegalEntityException.class);
+        assertThat(executor.getLatencies().get("deleteReader").getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void fullQueueRejects() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(delegate.countReaders()).thenAnswer(invocation -> {
+            started.countDown();
+            release.await();
+            return 1L;
+        });
+
+        CompletableFuture<Long> running = manager.countReaders();
+        assertThat(started.await(1, TimeUnit.SECONDS)).isTrue();
+        CompletableFuture<Long> queued = manager.countReaders();
+        CompletableFuture<Void> rejected = manager.updateReader(reader);
+
+        assertThatThrownBy(() -> rejected.get(1, TimeUnit.SECONDS))
+                .hasCauseInstanceOf(RejectedExecutionException.class);
+        assertThat(executor.getRejectedCount()).isEqualTo(1);
+        release.countDown();
+        assertThat(running.get(1, TimeUnit.SECONDS)).isEqualTo(1L);
+        assertThat(queued.get(1, TimeUnit.SECONDS)).isEqualTo(1L);
+        verify(delegate, never()).updateReader(reader);
+    }
+}
@@ -5,6 +5,8 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import javax.sql.DataSource;
 import org.apache.derby.jdbc.EmbeddedDataSource;
 import org.junit.*;
@@ -37,7 +39,7 @@ public class BookManagerImplTest {
     @Before
     public void setUp() throws SQLException {
         ds = prepareDataSource();
-        DBUtils.executeSqlScript(ds,Book.class.getResource("createTables.sql"));
+        new SchemaMigrator(ds).migrate();
         manager = new BookManagerImpl();
         manager.setDataSource(ds);
     }
@@ -151,6 +153,61 @@ public class BookManagerImplTest {
         assertDeepEquals(expected, actual);
     }
     
+    @Test
+    public void findBooksByPages() {
+        assertThat(manager.findBooks(null, 2)).isEmpty();
+        assertThat(manager.countBooks()).isEqualTo(0);
+
+        List<Book> books = Arrays.asList(sampleBookBuilder1().build(), sampleBookBuilder2().build(),
+                sampleBookBuilder1().build(), sampleBookBuilder2().build(), sampleBookBuilder1().build());
+        manager.createBooks(books);
+
+        List<Book> page1 = manager.findBooks(null, 2);
+        List<Book> page2 = manager.findBooks(page1.get(1).getId(), 2);
+        List<Book> page3 = manager.findBooks(page2.get(1).getId(), 2);
+
+        assertThat(page1).containsExactly(books.get(0), books.get(1));
+        assertThat(page2).containsExactly(books.get(2), books.get(3));
+        assertThat(page3).containsExactly(books.get(4));
+        assertThat(manager.countBooks()).isEqualTo(5);
+    }
+
+    @Test
+    public void searchBooks() {
+        Book melancholie = sampleBookBuilder1().title("Hudba věku melancholie").author("Roman Dykast").build();
+        Book stredovek = sampleBookBuilder2().title("Hudba středověku").author("Richard Hoppin").build();
+        manager.createBook(melancholie);
+        assertThat(manager.searchBooks("hudba", 10)).containsExactly(melancholie);
+
+        manager.createBooks(Collections.singletonList(stredovek));
+        assertThat(manager.searchBooks("hudba", 10)).containsExactly(melancholie, stredovek);
+        assertThat(manager.searchBooks("veku dyk", 10)).containsExactly(melancholie);
+
+        stredovek.setTitle("Hudba baroka");
+        manager.updateBook(stredovek);
+        assertThat(manager.searchBooks("stredoveku", 10)).isEmpty();
+        assertThat(manager.searchBooksFuzzy("barroka", 10)).containsExactly(stredovek);
+
+        manager.deleteBook(melancholie);
+        assertThat(manager.searchBooks("hudba", 10)).containsExactly(stredovek);
+    }
+
+    @Test
+    public void streamAllBooks() {
+        try (Stream<Book> stream = manager.streamAllBooks()) {
+            assertThat(stream).isEmpty();
+        }
+
+        List<Book> books = Arrays.asList(sampleBookBuilder1().build(), sampleBookBuilder2().build(),
+                sampleBookBuilder1().build());
+        manager.createBooks(books);
+        manager.setFetchSize(1);
+
+        try (Stream<Book> stream = manager.streamAllBooks()) {
+            assertThat(stream.collect(Collectors.toList())).containsOnlyElementsOf(books).hasSize(3);
+        }
+    }
+
     @FunctionalInterface
     private static interface Operation<T> {
         void callOn(T subjectOfOperation);
@@ -280,6 +337,78 @@ public class BookManagerImplTest {
         manager.deleteBook(book);
     }
     
+    @Test
+    public void createBooks() {
+        manager.setBatchSize(2);
+        List<Book> books = Arrays.asList(sampleBookBuilder1().build(),
+                sampleBookBuilder2().build(), sampleBookBuilder1().title("Poezie").build());
+        manager.createBooks(books);
+
+        for (Book book : books) {
+            assertThat(book.getId()).isNotNull();
+            assertDeepEquals(book, manager.getBookById(book.getId()));
+        }
+        assertThat(manager.findAllBooks()).hasSize(3);
+    }
+
+    @Test
+    public void createBooksRollsBackFailedChunk() {
+        manager.setBatchSize(2);
+        Book b1 = sampleBookBuilder1().build();
+        Book b2 = sampleBookBuilder2().build();
+        Book b3 = sampleBookBuilder1().build();
+        //too long for the TITLE column
+        Book b4 = sampleBookBuilder1().title(String.join("", Collections.nCopies(101, "x"))).build();
+
+        assertThatThrownBy(() -> manager.createBooks(Arrays.asList(b1, b2, b3, b4)))
+                .isInstanceOf(ServiceFailureException.class);
+
+        assertThat(b1.getId()).isNotNull();
+        assertThat(b2.getId()).isNotNull();
+        assertThat(b3.getId()).isNull();
+        assertThat(b4.getId()).isNull();
+        assertThat(manager.findAllBooks()).containsOnly(b1, b2);
+    }
+
+    @Test
+    public void updateBooks() {
+        Book b1 = sampleBookBuilder1().build();
+        Book b2 = sampleBookBuilder2().build();
+        Book b3 = sampleBookBuilder2().build();
+        manager.createBooks(Arrays.asList(b1, b2, b3));
+
+        b1.setTitle("Jako cool v plotě 2");
+        b2.setPublished(2016);
+        manager.updateBooks(Arrays.asList(b1, b2));
+
+        assertDeepEquals(b1, manager.getBookById(b1.getId()));
+        assertDeepEquals(b2, manager.getBookById(b2.getId()));
+        assertDeepEquals(b3, manager.getBookById(b3.getId()));
+    }
+
+    @Test
+    public void deleteBooks() {
+        Book b1 = sampleBookBuilder1().build();
+        Book b2 = sampleBookBuilder2().build();
+        Book b3 = sampleBookBuilder2().build();
+        manager.createBooks(Arrays.asList(b1, b2, b3));
+
+        manager.deleteBooks(Arrays.asList(b1, b3));
+
+        assertThat(manager.findAllBooks()).containsOnly(b2);
+    }
+
+    @Test
+    public void deleteBooksWithNonExistingId() {
+        Book b1 = sampleBookBuilder1().build();
+        manager.createBook(b1);
+        Book missing = sampleBookBuilder2().id(b1.getId() + 1).build();
+
+        assertThatThrownBy(() -> manager.deleteBooks(Arrays.asList(b1, missing)))
+                .isInstanceOf(IllegalEntityException.class);
+        assertThat(manager.getBookById(b1.getId())).isEqualTo(b1);
+    }
+
     @Test
     public void createBookWithSqlExceptionThrown() throws SQLException {
         SQLException sqlException = new SQLException();
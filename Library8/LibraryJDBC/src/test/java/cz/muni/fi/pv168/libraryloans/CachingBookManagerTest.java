@@ -0,0 +1,121 @@
+package cz.muni.fi.pv168.libraryloans;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Arrays;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ *
+ * @author L
+ */
+public class CachingBookManagerTest {
+
+    private BookManager delegate;
+    private Clock clock;
+    private CachingBookManager manager;
+    private Book book1;
+    private Book book2;
+
+    @Before
+    public void setUp() {
+        delegate = mock(BookManager.class);
+        clock = mock(Clock.class);
+        when(clock.millis()).thenReturn(0L);
+        manager = new CachingBookManager(delegate, 2, Duration.ofSeconds(60), clock);
+
+        book1 = new BookBuilder().id(1L).title("Syntagma musicum").author("Michael Praetorius")
+                .published(1620).build();
+        book2 = new BookBuilder().id(2L).title("Hudba věku melancholie").author("Roman Dykast")
+                .published(2005).build();
+        when(delegate.getBookById(1L)).thenReturn(book1);
+        when(delegate.getBookById(2L)).thenReturn(book2);
+    }
+
+    @Test
+    public void secondGetIsServedFromCache() {
+        assertThat(manager.getBookById(1L)).isEqualTo(book1);
+        assertThat(manager.getBookById(1L)).isEqualTo(book1);
+
+        verify(delegate, times(1)).getBookById(1L);
+        assertThat(manager.getCache().getHits()).isEqualTo(1);
+        assertThat(manager.getCache().getMisses()).isEqualTo(1);
+        assertThat(manager.getCache().getHitRatio()).isEqualTo(0.5);
+    }
+
+    @Test
+    public void notFoundBooksAreNotCached() {
+        assertThat(manager.getBookById(3L)).isNull();
+        assertThat(manager.getBookById(3L)).isNull();
+
+        verify(delegate, times(2)).getBookById(3L);
+    }
+
+    @Test
+    public void cachedBooksAreCopies() {
+        manager.getBookById(1L).setTitle("Changed");
+
+        assertThat(manager.getBookById(1L).getTitle()).isEqualTo("Syntagma musicum");
+    }
+
+    @Test
+    public void updateAndDeleteInvalidate() {
+        manager.getBookById(1L);
+        manager.getBookById(2L);
+
+        manager.updateBook(book1);
+        manager.getBookById(1L);
+        verify(delegate, times(2)).getBookById(1L);
+
+        manager.deleteBooks(Arrays.asList(book1, book2));
+        manager.getBookById(1L);
+        manager.getBookById(2L);
+        verify(delegate, times(3)).getBookById(1L);
+        verify(delegate, times(2)).getBookById(2L);
+    }
+
+    @Test
+    public void failedUpdateInvalidates() {
+        manager.getBookById(1L);
+        doThrow(new ServiceFailureException("failed")).when(delegate).updateBook(book1);
+
+        assertThatThrownBy(() -> manager.updateBook(book1)).isInstanceOf(ServiceFailureException.class);
+        manager.getBookById(1L);
+        verify(delegate, times(2)).getBookById(1L);
+    }
+
+    @Test
+    public void leastRecentlyUsedBookIsEvicted() {
+        Book book3 = new BookBuilder().id(3L).title("Hudba středověku").author("Richard Hoppin")
+                .published(2007).build();
+        when(delegate.getBookById(3L)).thenReturn(book3);
+
+        manager.getBookById(1L);
+        manager.getBookById(2L);
+        manager.getBookById(1L);
+        manager.getBookById(3L);
+
+        assertThat(manager.getCache().size()).isEqualTo(2);
+        assertThat(manager.getCache().getEvictions()).isEqualTo(1);
+        manager.getBookById(1L);
+        manager.getBookById(2L);
+        verify(delegate, times(1)).getBookById(1L);
+        verify(delegate, times(2)).getBookById(2L);
+    }
+
+    @Test
+    public void expiredBookIsLoadedAgain() {
+        manager.getBookById(1L);
+        when(clock.millis()).thenReturn(59_999L);
+        manager.getBookById(1L);
+        when(clock.millis()).thenReturn(60_000L);
+        manager.getBookById(1L);
+
+        verify(delegate, times(2)).getBookById(1L);
+        assertThat(manager.getCache().getExpirations()).isEqualTo(1);
+    }
+}
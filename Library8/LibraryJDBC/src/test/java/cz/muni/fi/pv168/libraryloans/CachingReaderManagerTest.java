@@ -0,0 +1,120 @@
+package cz.muni.fi.pv168.libraryloans;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ *
+ * @author L
+ */
+public class CachingReaderManagerTest {
+
+    private ReaderManager delegate;
+    private Clock clock;
+    private CachingReaderManager manager;
+    private Reader reader1;
+    private Reader reader2;
+
+    @Before
+    public void setUp() {
+        delegate = mock(ReaderManager.class);
+        clock = mock(Clock.class);
+        when(clock.millis()).thenReturn(0L);
+        manager = new CachingReaderManager(delegate, 2, Duration.ofSeconds(60), clock);
+
+        reader1 = new ReaderBuilder().id(1L).name("Pavel").address("Brno 41").eMail("pavel@mail.cz").build();
+        reader2 = new ReaderBuilder().id(2L).name("Jana").address("Praha 7").eMail("jana@mail.cz").build();
+        when(delegate.getReaderById(1L)).thenReturn(reader1);
+        when(delegate.getReaderById(2L)).thenReturn(reader2);
+    }
+
+    @Test
+    public void secondGetIsServedFromCache() {
+        assertThat(manager.getReaderById(1L)).isEqualTo(reader1);
+        assertThat(manager.getReaderById(1L)).isEqualTo(reader1);
+
+        verify(delegate, times(1)).getReaderById(1L);
+        assertThat(manager.getCache().getHits()).isEqualTo(1);
+        assertThat(manager.getCache().getMisses()).isEqualTo(1);
+        assertThat(manager.getCache().getHitRatio()).isEqualTo(0.5);
+    }
+
+    @Test
+    public void cachedReadersAreCopies() {
+        manager.getReaderById(1L).setName("Changed");
+
+        assertThat(manager.getReaderById(1L).getName()).isEqualTo("Pavel");
+    }
+
+    @Test
+    public void updateAndDeleteInvalidate() {
+        manager.getReaderById(1L);
+        manager.getReaderById(2L);
+
+        manager.updateReader(reader1);
+        manager.getReaderById(1L);
+        verify(delegate, times(2)).getReaderById(1L);
+
+        manager.deleteReader(reader2);
+        manager.getReaderById(2L);
+        verify(delegate, times(2)).getReaderById(2L);
+
+        manager.updateReaders(Collections.singletonList(reader2));
+        manager.deleteReaders(Arrays.asList(reader1));
+        manager.getReaderById(1L);
+        manager.getReaderById(2L);
+        verify(delegate, times(3)).getReaderById(1L);
+        verify(delegate, times(3)).getReaderById(2L);
+    }
+
+    @Test
+    public void failedDeleteInvalidates() {
+        manager.getReaderById(1L);
+        doThrow(new ServiceFailureException("failed")).when(delegate).deleteReader(reader1);
+
+        assertThatThrownBy(() -> manager.deleteReader(reader1)).isInstanceOf(ServiceFailureException.class);
+        manager.getReaderById(1L);
+        verify(delegate, times(2)).getReaderById(1L);
+    }
+
+    @Test
+    public void uncachedCallsGoToDelegate() {
+        assertThat(manager.getReaderById(3L)).isNull();
+        assertThat(manager.getReaderById(3L)).isNull();
+        manager.getReaderById(null);
+        manager.getReaderById(null);
+        manager.findAllReaders();
+
+        verify(delegate, times(2)).getReaderById(3L);
+        verify(delegate, times(2)).getReaderById(null);
+        verify(delegate).findAllReaders();
+        assertThat(manager.getCache().size()).isEqualTo(0);
+    }
+
+    @Test
+    public void cacheCannotBeCreatedDisabled() {
+        assertThatThrownBy(() -> new CachingReaderManager(delegate, 0, Duration.ofSeconds(60), clock))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new CachingReaderManager(delegate, 2, Duration.ZERO, clock))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new CachingReaderManager(null))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void expiredReaderIsLoadedAgain() {
+        manager.getReaderById(1L);
+        when(clock.millis()).thenReturn(60_000L);
+        manager.getReaderById(1L);
+
+        verify(delegate, times(2)).getReaderById(1L);
+        assertThat(manager.getCache().getExpirations()).isEqualTo(1);
+    }
+}
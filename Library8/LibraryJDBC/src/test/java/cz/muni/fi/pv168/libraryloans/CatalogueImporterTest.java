@@ -0,0 +1,144 @@
+package cz.muni.fi.pv168.libraryloans;
+
+import cz.muni.fi.pv168.libraryloans.CatalogueImporter.Format;
+import cz.muni.fi.pv168.libraryloans.CatalogueImporter.ImportProgress;
+import cz.muni.fi.pv168.libraryloans.CatalogueImporter.Rejection;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.apache.derby.jdbc.EmbeddedDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.*;
+
+/**
+ *
+ * @author L
+ */
+public class CatalogueImporterTest {
+
+    private EmbeddedDataSource ds;
+    private BookManagerImpl bookManager;
+    private ReaderManagerImpl readerManager;
+    private CatalogueImporter importer;
+
+    @Before
+    public void setUp() {
+        ds = new EmbeddedDataSource();
+        ds.setDatabaseName("memory:librarymanager-import-test");
+        ds.setCreateDatabase("create");
+        new SchemaMigrator(ds).migrate();
+        bookManager = new BookManagerImpl();
+        bookManager.setDataSource(ds);
+        readerManager = new ReaderManagerImpl();
+        readerManager.setDataSource(ds);
+        importer = new CatalogueImporter();
+        importer.setBookManager(bookManager);
+        importer.setReaderManager(readerManager);
+        importer.setThreads(2);
+        importer.setChunkSize(2);
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        DBUtils.executeSqlScript(ds, Loan.class.getResource("dropTables.sql"));
+    }
+
+    private static InputStream input(String... lines) {
+        return new ByteArrayInputStream(String.join("\n", lines).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static List<Long> rejectedLines(ImportProgress progress) {
+        List<Long> lines = new ArrayList<>();
+        for (Rejection rejection : progress.getRejections()) {
+            lines.add(rejection.getLine());
+        }
+        Collections.sort(lines);
+        return lines;
+    }
+
+    @Test
+    public void importBooksFromCsv() throws IOException {
+        ImportProgress progress = importer.importBooks(input(
+                "Title,Author,Published,Note",
+                "Thinking in java,Eckel Bruce,2002,",
+                "\"Musica, enchiriadis\",Anonymus,900,\"the \"\"oldest\"\" one\"",
+                "",
+                "Java 8,Eckel Bruce,year,",
+                "Effective Java,Bloch 2,2008,",
+                "Clean Code,Martin Robert,2008,"), Format.CSV);
+
+        assertThat(progress.getRowsRead()).isEqualTo(6);
+        assertThat(progress.getRowsImported()).isEqualTo(3);
+        assertThat(progress.getRowsRejected()).isEqualTo(2);
+        assertThat(progress.getRowsSkipped()).isEqualTo(1);
+        assertThat(progress.isFinished()).isTrue();
+        assertThat(rejectedLines(progress)).containsExactly(5L, 6L);
+        assertThat(bookManager.findAllBooks()).extracting(Book::getTitle)
+                .containsOnly("Thinking in java", "Musica, enchiriadis", "Clean Code");
+        assertThat(bookManager.findAllBooks()).filteredOn(book -> book.getAuthor().equals("Anonymus"))
+                .extracting(Book::getNote).containsExactly("the \"oldest\" one");
+    }
+
+    @Test
+    public void csvWithoutRequiredColumn() {
+        assertThatThrownBy(() -> importer.importBooks(input("title,note", "Clean Code,"), Format.CSV))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void importReadersFromJsonLines() throws IOException {
+        ImportProgress progress = importer.importReaders(input(
+                "{\"name\": \"Pavel\", \"address\": \"Brno 41\", \"email\": \"pavel@mail.cz\"}",
+                "{\"name\":\"Ji\\u0159\\u00ed\",\"email\":\"jiri@mail.cz\",\"note\":null,\"age\":42}",
+                "{\"name\":\"Eva\"}",
+                "{\"name\":\"Karel\",\"email\":\"karel@mail.cz\",\"address\":{\"city\":\"Brno\"}}",
+                "{\"name\":\"Jana\",\"email\":\"jana.mail.cz\"}"), Format.JSON_LINES);
+
+        assertThat(progress.getRowsImported()).isEqualTo(2);
+        assertThat(rejectedLines(progress)).containsExactly(3L, 4L, 5L);
+        assertThat(readerManager.findAllReaders()).extracting(Reader::getName).containsOnly("Pavel", "Jiří");
+    }
+
+    @Test
+    public void rowsRefusedByDatabaseAreRejected() throws IOException {
+        char[] title = new char[101];
+        Arrays.fill(title, 'x');
+
+        ImportProgress progress = importer.importBooks(input(
+                "title,author",
+                "Clean Code,Martin Robert",
+                new String(title) + ",Martin Robert",
+                "Effective Java,Bloch Joshua"), Format.CSV);
+
+        assertThat(progress.getRowsImported()).isEqualTo(2);
+        assertThat(rejectedLines(progress)).containsExactly(3L);
+        assertThat(bookManager.findAllBooks()).extracting(Book::getTitle)
+                .containsOnly("Clean Code", "Effective Java");
+    }
+
+    @Test
+    public void progressIsReportedAfterEachChunk() throws IOException {
+        List<Long> processed = Collections.synchronizedList(new ArrayList<>());
+        importer.setThreads(1);
+        importer.setProgressListener(p -> processed.add(p.getRowsImported()));
+
+        ImportProgress progress = importer.importBooks(input(
+                "title,author",
+                "Clean Code,Martin Robert",
+                "Effective Java,Bloch Joshua",
+                "Thinking in java,Eckel Bruce"), Format.CSV);
+
+        assertThat(processed).containsExactly(2L, 3L);
+        assertThat(progress.getRowsPerSecond()).isGreaterThan(0);
+        assertThat(progress.getElapsedMillis()).isGreaterThanOrEqualTo(0);
+    }
+}
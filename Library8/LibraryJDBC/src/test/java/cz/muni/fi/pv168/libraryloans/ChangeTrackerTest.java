@@ -0,0 +1,141 @@
+package cz.muni.fi.pv168.libraryloans;
+
+import cz.muni.fi.pv168.libraryloans.ChangeTracker.Table;
+import java.sql.SQLException;
+import java.time.Clock;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import org.apache.derby.jdbc.EmbeddedDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static java.time.Month.*;
+import static org.assertj.core.api.Assertions.*;
+
+/**
+ *
+ * @author L
+ */
+public class ChangeTrackerTest {
+
+    private static final ZonedDateTime NOW
+            = LocalDateTime.of(2016, MARCH, 27, 14, 00).atZone(ZoneId.of("UTC"));
+
+    private EmbeddedDataSource ds;
+    private ChangeTracker changeTracker;
+    private BookManagerImpl bookManager;
+    private ReaderManagerImpl readerManager;
+    private LoanManagerImpl loanManager;
+
+    @Before
+    public void setUp() {
+        ds = new EmbeddedDataSource();
+        ds.setDatabaseName("memory:librarymanager-change-test");
+        ds.setCreateDatabase("create");
+        new SchemaMigrator(ds).migrate();
+        changeTracker = new ChangeTracker();
+        bookManager = new BookManagerImpl();
+        bookManager.setDataSource(ds);
+        bookManager.setChangeTracker(changeTracker);
+        readerManager = new ReaderManagerImpl();
+        readerManager.setDataSource(ds);
+        readerManager.setChangeTracker(changeTracker);
+        loanManager = new LoanManagerImpl(Clock.fixed(NOW.toInstant(), NOW.getZone()));
+        loanManager.setDataSource(ds);
+        loanManager.setChangeTracker(changeTracker);
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        DBUtils.executeSqlScript(ds, Loan.class.getResource("dropTables.sql"));
+    }
+
+    private static Book newBook(String title) {
+        return new BookBuilder().title(title).author("Eckel Bruce").published(2002).build();
+    }
+
+    @Test
+    public void bookWritesIncreaseVersion() {
+        String etag = changeTracker.getETag(Table.BOOK);
+        Book book = newBook("Thinking in java");
+
+        bookManager.createBook(book);
+        assertThat(changeTracker.getVersion(Table.BOOK)).isEqualTo(1);
+        book.setNote("second edition");
+        bookManager.updateBook(book);
+        bookManager.deleteBook(book);
+
+        assertThat(changeTracker.getVersion(Table.BOOK)).isEqualTo(3);
+        assertThat(changeTracker.getVersion(Table.READER)).isEqualTo(0);
+        assertThat(changeTracker.getETag(Table.BOOK)).isNotEqualTo(etag).startsWith("\"book-").endsWith("-3\"");
+    }
+
+    @Test
+    public void failedWriteKeepsVersion() {
+        Book book = newBook("Thinking in java");
+        bookManager.createBook(book);
+        long lastModified = changeTracker.getLastModified(Table.BOOK);
+        Book missing = newBook("Java 8");
+        missing.setId(book.getId() + 1);
+
+        assertThatThrownBy(() -> bookManager.updateBook(missing)).isInstanceOf(IllegalEntityException.class);
+
+        assertThat(changeTracker.getVersion(Table.BOOK)).isEqualTo(1);
+        assertThat(changeTracker.getLastModified(Table.BOOK)).isEqualTo(lastModified);
+    }
+
+    @Test
+    public void rolledBackUnitKeepsVersion() {
+        TransactionManager transactionManager = new TransactionManager(ds);
+        bookManager.setDataSource(transactionManager.getDataSource());
+
+        assertThatThrownBy(() -> transactionManager.runInTransaction(() -> {
+            bookManager.createBook(newBook("Thinking in java"));
+            throw new IllegalStateException("desk closed");
+        })).isInstanceOf(IllegalStateException.class);
+        assertThat(changeTracker.getVersion(Table.BOOK)).isEqualTo(0);
+
+        transactionManager.runInTransaction(() -> bookManager.createBook(newBook("Java 8")));
+        assertThat(changeTracker.getVersion(Table.BOOK)).isEqualTo(1);
+    }
+
+    @Test
+    public void bulkWritesAndLoansIncreaseVersions() {
+        bookManager.setBatchSize(2);
+        Book book = newBook("Thinking in java");
+        bookManager.createBooks(Arrays.asList(book, newBook("Java 8"), newBook("Java 9")));
+        assertThat(changeTracker.getVersion(Table.BOOK)).isEqualTo(2);
+
+        Reader reader = new ReaderBuilder().name("Pavel").address("Brno 41").eMail("pavel@mail.cz").build();
+        readerManager.createReaders(Collections.singletonList(reader));
+        assertThat(changeTracker.getVersion(Table.READER)).isEqualTo(1);
+
+        loanManager.checkoutBook(reader, book, LocalDate.of(2016, APRIL, 27));
+        loanManager.returnBooks(Collections.singletonList(book.getId()), NOW.toLocalDateTime());
+        assertThat(changeTracker.getVersion(Table.LOAN)).isEqualTo(2);
+        assertThat(changeTracker.getVersion(Table.BOOK)).isEqualTo(2);
+    }
+
+    @Test
+    public void deletesCascadingToLoansIncreaseLoanVersion() {
+        Book book = newBook("Thinking in java");
+        bookManager.createBook(book);
+        Reader reader = new ReaderBuilder().name("Pavel").address("Brno 41").eMail("pavel@mail.cz").build();
+        readerManager.createReader(reader);
+        loanManager.checkoutBook(reader, book, LocalDate.of(2016, APRIL, 27));
+        String etag = changeTracker.getETag(Table.LOAN);
+
+        bookManager.deleteBook(book);
+        assertThat(changeTracker.getVersion(Table.LOAN)).isEqualTo(2);
+        readerManager.deleteReaders(Collections.singletonList(reader));
+
+        assertThat(changeTracker.getVersion(Table.LOAN)).isEqualTo(3);
+        assertThat(changeTracker.getETag(Table.LOAN)).isNotEqualTo(etag);
+        assertThat(loanManager.countLoans()).isEqualTo(0);
+    }
+}
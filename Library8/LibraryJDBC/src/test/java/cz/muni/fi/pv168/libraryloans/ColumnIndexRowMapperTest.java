@@ -0,0 +1,51 @@
+package cz.muni.fi.pv168.libraryloans;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ *
+ * @author L
+ */
+public class ColumnIndexRowMapperTest {
+
+    private static ResultSet resultSet() throws SQLException {
+        ResultSet rs = mock(ResultSet.class);
+        when(rs.findColumn("id")).thenReturn(2);
+        when(rs.findColumn("title")).thenReturn(1);
+        when(rs.getLong(2)).thenReturn(7L);
+        when(rs.getString(1)).thenReturn("Musica enchiriadis");
+        return rs;
+    }
+
+    @Test
+    public void columnsAreResolvedOncePerResultSet() throws SQLException {
+        ColumnIndexRowMapper<String> mapper = new ColumnIndexRowMapper<>(new String[]{"id", "title"},
+                (rs, columns) -> rs.getLong(columns[0]) + ":" + rs.getString(columns[1]));
+        ResultSet rs1 = resultSet();
+        ResultSet rs2 = resultSet();
+
+        assertThat(mapper.mapRow(rs1)).isEqualTo("7:Musica enchiriadis");
+        assertThat(mapper.mapRow(rs1)).isEqualTo("7:Musica enchiriadis");
+        assertThat(mapper.mapRow(rs2)).isEqualTo("7:Musica enchiriadis");
+
+        verify(rs1, times(1)).findColumn("id");
+        verify(rs1, times(1)).findColumn("title");
+        verify(rs2, times(1)).findColumn("id");
+        verify(rs1, never()).getLong("id");
+    }
+
+    @Test
+    public void missingColumn() throws SQLException {
+        ResultSet rs = resultSet();
+        when(rs.findColumn("note")).thenThrow(new SQLException("Column 'note' not found"));
+        ColumnIndexRowMapper<String> mapper = new ColumnIndexRowMapper<>(new String[]{"id", "note"},
+                (r, columns) -> r.getString(columns[1]));
+
+        assertThatThrownBy(() -> mapper.mapRow(rs)).isInstanceOf(SQLException.class);
+    }
+}
@@ -0,0 +1,182 @@
+package cz.muni.fi.pv168.libraryloans;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.*;
+
+/**
+ *
+ * @author L
+ */
+public class DataSourceFactoryTest {
+
+    private DataSourceFactory factory;
+    private PooledDataSource ds;
+
+    @Before
+    public void setUp() throws SQLException {
+        factory = new DataSourceFactory();
+        factory.setUrl("jdbc:derby:memory:librarymanager-pool-test;create=true");
+        factory.setMaxTotal(2);
+        factory.setMaxWaitMillis(100);
+        factory.setTestOnBorrow(true);
+        ds = factory.createDataSource();
+        new SchemaMigrator(ds).migrate();
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        DBUtils.executeSqlScript(ds, Book.class.getResource("dropTables.sql"));
+        ds.close();
+    }
+
+    @Test
+    public void connectionsAreReturnedToPool() throws SQLException {
+        Connection first = ds.getConnection();
+        assertThat(ds.getNumActive()).isEqualTo(1);
+        first.close();
+        assertThat(ds.getNumActive()).isEqualTo(0);
+        assertThat(ds.getNumIdle()).isEqualTo(1);
+
+        long borrowsBefore = ds.getBorrowLatency().getCount();
+        try (Connection second = ds.getConnection()) {
+            assertThat(second.isValid(1)).isTrue();
+            assertThat(ds.getNumIdle()).isEqualTo(0);
+        }
+        assertThat(ds.getBorrowLatency().getCount()).isEqualTo(borrowsBefore + 1);
+    }
+
+    @Test
+    public void readOnlyPoolHandsOutReadOnlyConnections() throws SQLException {
+        try (PooledDataSource readOnly = factory.createReadOnlyDataSource();
+                Connection conn = readOnly.getConnection()) {
+            assertThat(conn.isReadOnly()).isTrue();
+            assertThat(conn.getAutoCommit()).isTrue();
+            assertThat(conn.getTransactionIsolation()).isEqualTo(Connection.TRANSACTION_READ_COMMITTED);
+            assertThatThrownBy(() -> conn.createStatement().executeUpdate(
+                    "INSERT INTO Book (title, author, published) VALUES ('a', 'b', 1)"))
+                    .isInstanceOf(SQLException.class);
+        }
+    }
+
+    @Test
+    public void findersUseReadOnlyPool() {
+        try (PooledDataSource readOnly = factory.createReadOnlyDataSource()) {
+            BookManagerImpl manager = new BookManagerImpl();
+            manager.setDataSource(ds);
+            manager.setReadOnlyDataSource(readOnly);
+            Book book = new BookBuilder().title("Syntagma musicum").author("Michael Praetorius")
+                    .published(1620).build();
+            manager.createBook(book);
+            long writeBorrows = ds.getBorrowLatency().getCount();
+
+            assertThat(manager.getBookById(book.getId())).isEqualTo(book);
+            assertThat(manager.findAllBooks()).containsExactly(book);
+
+            assertThat(ds.getBorrowLatency().getCount()).isEqualTo(writeBorrows);
+            assertThat(readOnly.getBorrowLatency().getCount()).isEqualTo(2);
+            assertThat(readOnly.getNumActive()).isEqualTo(0);
+        }
+    }
+
+    @Test
+    public void exhaustedPoolFailsAfterMaxWait() throws SQLException {
+        try (Connection c1 = ds.getConnection(); Connection c2 = ds.getConnection()) {
+            assertThat(c1).isNotSameAs(c2);
+            long start = System.nanoTime();
+            assertThatThrownBy(() -> ds.getConnection()).isInstanceOf(SQLException.class);
+            long waitedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            //maxWait is 100 ms
+            assertThat(waitedMillis).isBetween(90L, 5_000L);
+        }
+        assertThat(ds.getNumActive()).isEqualTo(0);
+    }
+
+    @Test
+    public void managerWorksWithPool() {
+        BookManagerImpl manager = new BookManagerImpl();
+        manager.setDataSource(ds);
+        Book book = new BookBuilder().title("Syntagma musicum").author("Michael Praetorius")
+                .published(1620).build();
+        manager.createBook(book);
+
+        assertThat(manager.getBookById(book.getId())).isEqualTo(book);
+        assertThat(ds.getNumActive()).isEqualTo(0);
+    }
+
+    @Test
+    public void streamHoldsConnectionUntilClosed() {
+        BookManagerImpl manager = new BookManagerImpl();
+        manager.setDataSource(ds);
+        manager.createBook(new BookBuilder().title("Syntagma musicum").author("Michael Praetorius")
+                .published(1620).build());
+
+        try (Stream<Book> books = manager.streamAllBooks()) {
+            assertThat(ds.getNumActive()).isEqualTo(1);
+            assertThat(books.count()).isEqualTo(1);
+        }
+        assertThat(ds.getNumActive()).isEqualTo(0);
+    }
+
+    @Test
+    public void preparedStatementsAreReused() {
+        BookManagerImpl manager = new BookManagerImpl();
+        manager.setDataSource(ds);
+        Book book = new BookBuilder().title("Syntagma musicum").author("Michael Praetorius")
+                .published(1620).build();
+        manager.createBook(book);
+
+        StatementCacheStats stats = ds.getStatementCacheStats();
+        manager.getBookById(book.getId());
+        long misses = stats.getMisses();
+        long hits = stats.getHits();
+        manager.getBookById(book.getId());
+        manager.getBookById(book.getId());
+
+        assertThat(stats.getMisses()).isEqualTo(misses);
+        assertThat(stats.getHits()).isEqualTo(hits + 2);
+    }
+
+    @Test
+    public void leastRecentlyUsedStatementIsEvicted() throws SQLException {
+        DataSourceFactory factory = new DataSourceFactory();
+        factory.setUrl("jdbc:derby:memory:librarymanager-pool-test;create=true");
+        factory.setMaxTotal(1);
+        factory.setMaxOpenPreparedStatements(2);
+        try (PooledDataSource small = factory.createDataSource();
+                Connection conn = small.getConnection()) {
+            StatementCacheStats stats = small.getStatementCacheStats();
+            conn.prepareStatement("VALUES 1").close();
+            conn.prepareStatement("VALUES 2").close();
+            conn.prepareStatement("VALUES 1").close();
+            conn.prepareStatement("VALUES 3").close();
+            conn.prepareStatement("VALUES 1").close();
+            conn.prepareStatement("VALUES 2").close();
+
+            assertThat(stats.getHits()).isEqualTo(2);
+            assertThat(stats.getMisses()).isEqualTo(4);
+            assertThat(stats.getEvictions()).isEqualTo(2);
+        }
+    }
+
+    @Test
+    public void histogramPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 99; i++) {
+            histogram.record(3_000);
+        }
+        histogram.record(5_000_000);
+
+        assertThat(histogram.getCount()).isEqualTo(100);
+        assertThat(histogram.getPercentileMicros(50)).isEqualTo(4);
+        assertThat(histogram.getPercentileMicros(100)).isEqualTo(5_000);
+        assertThat(histogram.getMaxMicros()).isEqualTo(5_000);
+    }
+}
@@ -0,0 +1,74 @@
+package cz.muni.fi.pv168.libraryloans;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.*;
+
+/**
+ *
+ * @author L
+ */
+public class JsonParserTest {
+
+    @Test
+    public void parsesValues() {
+        Map<String, Object> expected = new LinkedHashMap<>();
+        expected.put("title", "Clean \"Code\"\n\u00e1");
+        expected.put("published", 2008L);
+        expected.put("price", 1.5);
+        expected.put("lent", Boolean.TRUE);
+        expected.put("note", null);
+        expected.put("tags", Arrays.asList("a", Collections.emptyList(), Collections.emptyMap()));
+
+        assertThat(JsonParser.parse(" {\"title\" : \"Clean \\\"Code\\\"\\n\\u00e1\", \"published\":2008,"
+                + "\"price\":1.5,\"lent\":true,\"note\":null,\"tags\":[\"a\",[],{}]} "))
+                .isEqualTo(expected);
+    }
+
+    @Test
+    public void rejectsInvalidJson() {
+        for (String text : new String[]{"", "{", "[1,]", "{\"a\" 1}", "{a:1}", "\"abc", "[1] 2", "nul",
+            "\"\\u12\"", "12345678901234567890"}) {
+            assertThatThrownBy(() -> JsonParser.parse(text))
+                    .as(text)
+                    .isInstanceOf(IllegalArgumentException.class);
+        }
+    }
+
+    @Test
+    public void limitsNestingDepth() {
+        StringBuilder allowed = new StringBuilder();
+        for (int i = 0; i < JsonParser.MAX_DEPTH; i++) {
+            allowed.append(i % 2 == 0 ? "[" : "{\"a\":");
+        }
+        allowed.append("null");
+        for (int i = JsonParser.MAX_DEPTH - 1; i >= 0; i--) {
+            allowed.append(i % 2 == 0 ? "]" : "}");
+        }
+        assertThat(JsonParser.parse(allowed.toString())).isInstanceOf(List.class);
+
+        StringBuilder deep = new StringBuilder();
+        for (int i = 0; i < 100_000; i++) {
+            deep.append('[');
+        }
+        assertThatThrownBy(() -> JsonParser.parse(deep.toString()))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("nested deeper than " + JsonParser.MAX_DEPTH);
+    }
+
+    @Test
+    public void limitsArrayLength() {
+        assertThat(JsonParser.parse("[1,2,3]", 3)).isEqualTo(Arrays.asList(1L, 2L, 3L));
+        assertThat(JsonParser.parse("[]", 0)).isEqualTo(Collections.emptyList());
+        assertThatThrownBy(() -> JsonParser.parse("[1,2,3,4", 3))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("array longer than 3 elements");
+        assertThatThrownBy(() -> JsonParser.parse("{\"a\":[1,2]}", 1))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
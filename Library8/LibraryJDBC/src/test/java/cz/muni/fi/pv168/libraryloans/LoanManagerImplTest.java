@@ -1,5 +1,7 @@
 package cz.muni.fi.pv168.libraryloans;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.time.Clock;
 import java.time.LocalDate;
@@ -7,10 +9,20 @@ import java.time.LocalDateTime;
 import static java.time.Month.*;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import javax.sql.DataSource;
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.is;
@@ -72,7 +84,7 @@ public class LoanManagerImplTest {
     @Before
     public void setUp() throws SQLException {
         ds = prepareDataSource();
-        DBUtils.executeSqlScript(ds,Loan.class.getResource("createTables.sql"));
+        new SchemaMigrator(ds).migrate();
         loanManager = new LoanManagerImpl(prepareClockMock(NOW));
         loanManager.setDataSource(ds);
         readerManager = new ReaderManagerImpl();
@@ -205,6 +217,326 @@ public class LoanManagerImplTest {
         assertDeepEquals(expected, actual);
     }
     
+    @Test
+    public void findAllLoansSharesReaderAndBookInstances() {
+        Reader reader = preparedReaderBuilder.build();
+        Book book = preparedBookBuilder.build();
+        readerManager.createReader(reader);
+        bookManager.createBook(book);
+
+        loanManager.createLoan(new LoanBuilder().reader(reader).book(book).build());
+        loanManager.createLoan(new LoanBuilder().reader(reader).book(book).build());
+
+        List<Loan> actual = loanManager.findAllLoans();
+
+        assertThat(actual).hasSize(2);
+        assertThat(actual.get(0).getReader()).isEqualTo(reader)
+                .isSameAs(actual.get(1).getReader());
+        assertThat(actual.get(0).getBook()).isEqualTo(book)
+                .isSameAs(actual.get(1).getBook());
+    }
+
+    @Test
+    public void createUpdateAndDeleteLoans() {
+        loanManager.setBatchSize(1);
+        Loan l1 = sampleLoanBuilder1().build();
+        Loan l2 = sampleLoanBuilder2().build();
+        loanManager.createLoans(Arrays.asList(l1, l2));
+
+        assertThat(l1.getId()).isNotNull();
+        assertThat(l2.getId()).isNotNull();
+        assertDeepEquals(l1, loanManager.getLoanById(l1.getId()));
+        assertDeepEquals(l2, loanManager.getLoanById(l2.getId()));
+
+        l1.setRealEndTime(null);
+        l2.setExpectedEndDate(LocalDate.of(2016, MARCH, 5));
+        loanManager.updateLoans(Arrays.asList(l1, l2));
+        assertDeepEquals(l1, loanManager.getLoanById(l1.getId()));
+        assertDeepEquals(l2, loanManager.getLoanById(l2.getId()));
+
+        loanManager.deleteLoans(Arrays.asList(l1, l2));
+        assertTrue(loanManager.findAllLoans().isEmpty());
+    }
+
+    @Test
+    public void findLoansByPages() {
+        Loan l1 = sampleLoanBuilder1().build();
+        Loan l2 = sampleLoanBuilder2().build();
+        Loan l3 = sampleLoanBuilder1().build();
+        loanManager.createLoans(Arrays.asList(l1, l2, l3));
+
+        List<Loan> page1 = loanManager.findLoans(null, 2);
+        List<Loan> page2 = loanManager.findLoans(page1.get(1).getId(), 2);
+
+        assertThat(page1).containsExactly(l1, l2);
+        assertThat(page2).containsExactly(l3);
+        assertThat(loanManager.countLoans()).isEqualTo(3);
+    }
+
+    @Test
+    public void streamAllLoans() {
+        Loan l1 = sampleLoanBuilder1().build();
+        Loan l2 = sampleLoanBuilder2().build();
+        loanManager.createLoans(Arrays.asList(l1, l2));
+        loanManager.setFetchSize(1);
+
+        try (Stream<Loan> stream = loanManager.streamAllLoans()) {
+            List<Loan> loans = stream.sorted(Comparator.comparing(Loan::getId))
+                    .collect(Collectors.toList());
+            assertDeepEquals(Arrays.asList(l1, l2), loans);
+        }
+    }
+
+    @Test
+    public void checkoutBook() {
+        Reader reader = preparedReaderBuilder.build();
+        readerManager.createReader(reader);
+        Book book = preparedBookBuilder.build();
+        bookManager.createBook(book);
+
+        Loan loan = loanManager.checkoutBook(reader, book, LocalDate.of(2016, APRIL, 27));
+
+        assertThat(loan.getId()).isNotNull();
+        assertThat(loan.getStartDate()).isEqualTo(NOW.toLocalDate());
+        assertThat(loan.getRealEndTime()).isNull();
+        assertDeepEquals(loan, loanManager.getLoanById(loan.getId()));
+    }
+
+    @Test
+    public void bookAvailabilityWithoutIndex() {
+        Reader reader = preparedReaderBuilder.build();
+        readerManager.createReader(reader);
+        Book book = preparedBookBuilder.build();
+        bookManager.createBook(book);
+        assertThat(loanManager.isBookAvailable(book)).isTrue();
+        assertThat(loanManager.getHolderId(book)).isNull();
+
+        loanManager.checkoutBook(reader, book, LocalDate.of(2016, APRIL, 27));
+        assertThat(loanManager.isBookAvailable(book)).isFalse();
+        assertThat(loanManager.getHolderId(book)).isEqualTo(reader.getId());
+
+        loanManager.returnBooks(Arrays.asList(book.getId()), LocalDateTime.of(2016, 3, 28, 9, 0));
+        assertThat(loanManager.isBookAvailable(book)).isTrue();
+        assertThatThrownBy(() -> loanManager.isBookAvailable(null))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void checkoutLentBook() {
+        Reader reader = preparedReaderBuilder.build();
+        readerManager.createReader(reader);
+        Book book = preparedBookBuilder.build();
+        bookManager.createBook(book);
+        Loan loan = loanManager.checkoutBook(reader, book, LocalDate.of(2016, APRIL, 27));
+
+        assertThatThrownBy(() -> loanManager.checkoutBook(reader, book, LocalDate.of(2016, APRIL, 27)))
+                .isInstanceOf(IllegalEntityException.class);
+        assertThat(loanManager.countLoans()).isEqualTo(1);
+
+        loan.setRealEndTime(NOW.toLocalDateTime());
+        loanManager.updateLoan(loan);
+        assertThat(loanManager.checkoutBook(reader, book, LocalDate.of(2016, APRIL, 27)).getId()).isNotNull();
+    }
+
+    @Test
+    public void checkoutDeletedBook() {
+        Reader reader = preparedReaderBuilder.build();
+        readerManager.createReader(reader);
+        Book book = preparedBookBuilder.build();
+        bookManager.createBook(book);
+        bookManager.deleteBook(book);
+
+        assertThatThrownBy(() -> loanManager.checkoutBook(reader, book, LocalDate.of(2016, APRIL, 27)))
+                .isInstanceOf(IllegalEntityException.class);
+    }
+
+    @Test
+    public void concurrentCheckoutLendsBookOnce() throws Exception {
+        Reader reader = preparedReaderBuilder.build();
+        readerManager.createReader(reader);
+        Book book = preparedBookBuilder.build();
+        bookManager.createBook(book);
+
+        ExecutorService desks = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Loan>> checkouts = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                checkouts.add(desks.submit(() -> loanManager.checkoutBook(reader, book, LocalDate.of(2016, APRIL, 27))));
+            }
+            int lent = 0;
+            for (Future<Loan> checkout : checkouts) {
+                try {
+                    checkout.get();
+                    lent++;
+                } catch (ExecutionException ex) {
+                    assertThat(ex.getCause()).isInstanceOf(IllegalEntityException.class);
+                }
+            }
+            assertThat(lent).isEqualTo(1);
+        } finally {
+            desks.shutdown();
+        }
+        assertThat(loanManager.countLoans()).isEqualTo(1);
+    }
+
+    @Test
+    public void returnBooks() {
+        Reader reader = preparedReaderBuilder.build();
+        readerManager.createReader(reader);
+        List<Book> books = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Book book = preparedBookBuilder.build();
+            bookManager.createBook(book);
+            books.add(book);
+        }
+        Loan loan1 = loanManager.checkoutBook(reader, books.get(0), LocalDate.of(2016, APRIL, 27));
+        Loan loan2 = loanManager.checkoutBook(reader, books.get(1), LocalDate.of(2016, APRIL, 27));
+        Loan loan3 = loanManager.checkoutBook(reader, books.get(2), LocalDate.of(2016, APRIL, 27));
+        loanManager.setBatchSize(2);
+        LocalDateTime when = NOW.toLocalDateTime();
+
+        Set<Long> notLent = loanManager.returnBooks(Arrays.asList(books.get(3).getId(),
+                books.get(0).getId(), books.get(2).getId(), -1L, books.get(0).getId()), when);
+
+        assertThat(notLent).containsExactly(books.get(3).getId(), -1L);
+        assertThat(loanManager.getLoanById(loan1.getId()).getRealEndTime()).isEqualTo(when);
+        assertThat(loanManager.getLoanById(loan2.getId()).getRealEndTime()).isNull();
+        assertThat(loanManager.getLoanById(loan3.getId()).getRealEndTime()).isEqualTo(when);
+        assertThat(loanManager.returnBooks(Collections.singleton(books.get(0).getId()), when))
+                .containsExactly(books.get(0).getId());
+    }
+
+    @Test
+    public void returnBooksWaitsForCheckoutInProgress() throws Exception {
+        Reader reader = preparedReaderBuilder.build();
+        readerManager.createReader(reader);
+        Book book = preparedBookBuilder.build();
+        bookManager.createBook(book);
+        LocalDateTime when = NOW.toLocalDateTime();
+
+        ExecutorService desk = Executors.newSingleThreadExecutor();
+        Connection checkout = ds.getConnection();
+        try {
+            //the first step of a checkout, which commits after the loan is inserted
+            checkout.setAutoCommit(false);
+            try (PreparedStatement st = checkout.prepareStatement(
+                    "UPDATE book SET published = published WHERE id = ?")) {
+                st.setLong(1, book.getId());
+                st.executeUpdate();
+            }
+            Future<Set<Long>> returned = desk.submit(
+                    () -> loanManager.returnBooks(Collections.singleton(book.getId()), when));
+            assertThatThrownBy(() -> returned.get(300, TimeUnit.MILLISECONDS))
+                    .isInstanceOf(TimeoutException.class);
+
+            try (PreparedStatement st = checkout.prepareStatement(
+                    "INSERT INTO loan (readerid, bookid, starttime, endtime) VALUES (?, ?, ?, ?)")) {
+                st.setLong(1, reader.getId());
+                st.setLong(2, book.getId());
+                st.setDate(3, java.sql.Date.valueOf(NOW.toLocalDate()));
+                st.setDate(4, java.sql.Date.valueOf(NOW.toLocalDate().plusMonths(1)));
+                st.executeUpdate();
+            }
+            checkout.commit();
+
+            assertThat(returned.get(10, TimeUnit.SECONDS)).isEmpty();
+        } finally {
+            //releases the lock when the test failed before the commit
+            checkout.rollback();
+            checkout.close();
+            desk.shutdownNow();
+        }
+        assertThat(loanManager.findAllLoansForBook(book)).extracting(Loan::getRealEndTime).containsExactly(when);
+    }
+
+    @Test
+    public void checkoutLoans() {
+        Reader reader = preparedReaderBuilder.build();
+        readerManager.createReader(reader);
+        List<Book> books = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Book book = preparedBookBuilder.build();
+            bookManager.createBook(book);
+            books.add(book);
+        }
+        loanManager.setBatchSize(2);
+        List<Loan> loans = new ArrayList<>();
+        for (Book book : books) {
+            loans.add(new LoanBuilder().reader(new ReaderBuilder().id(reader.getId()).build())
+                    .book(new BookBuilder().id(book.getId()).build())
+                    .startDate(2016, MARCH, 1).expectedEndDate(2016, APRIL, 1).build());
+        }
+        //returned loan of a lent book
+        loans.add(new LoanBuilder().reader(reader).book(books.get(0)).startDate(2016, JANUARY, 1)
+                .expectedEndDate(2016, FEBRUARY, 1).realEndTime(LocalDateTime.of(2016, 1, 20, 10, 0)).build());
+
+        loanManager.checkoutLoans(loans);
+
+        assertThat(loans).extracting(Loan::getId).doesNotContainNull();
+        assertThat(loanManager.findAllLoansForBook(books.get(0))).hasSize(2);
+        assertThat(loanManager.getLoanById(loans.get(1).getId()).getReader()).isEqualTo(reader);
+    }
+
+    @Test
+    public void checkoutLoansRejectsLentAndMissingBooks() {
+        Reader reader = preparedReaderBuilder.build();
+        readerManager.createReader(reader);
+        Book lentBook = preparedBookBuilder.build();
+        bookManager.createBook(lentBook);
+        Book freeBook = preparedBookBuilder.build();
+        bookManager.createBook(freeBook);
+        loanManager.checkoutBook(reader, lentBook, LocalDate.of(2016, APRIL, 27));
+        LocalDate start = LocalDate.of(2016, MARCH, 1);
+
+        Loan ofLent = new LoanBuilder().reader(reader).book(lentBook).startDate(start).expectedEndDate(start).build();
+        assertThatThrownBy(() -> loanManager.checkoutLoans(Collections.singletonList(ofLent)))
+                .isInstanceOf(IllegalEntityException.class).hasMessageContaining("already lent");
+        assertThat(ofLent.getId()).isNull();
+
+        List<Loan> twice = Arrays.asList(
+                new LoanBuilder().reader(reader).book(freeBook).startDate(start).expectedEndDate(start).build(),
+                new LoanBuilder().reader(reader).book(freeBook).startDate(start).expectedEndDate(start).build());
+        assertThatThrownBy(() -> loanManager.checkoutLoans(twice))
+                .isInstanceOf(IllegalEntityException.class).hasMessageContaining("already lent");
+
+        Loan ofMissingBook = new LoanBuilder().reader(reader).book(new BookBuilder().id(lentBook.getId() + 100).build())
+                .startDate(start).expectedEndDate(start).build();
+        assertThatThrownBy(() -> loanManager.checkoutLoans(Collections.singletonList(ofMissingBook)))
+                .isInstanceOf(IllegalEntityException.class).hasMessageContaining("does not exist");
+        Loan ofMissingReader = new LoanBuilder().reader(new ReaderBuilder().id(reader.getId() + 100).build())
+                .book(freeBook).startDate(start).expectedEndDate(start).build();
+        assertThatThrownBy(() -> loanManager.checkoutLoans(Collections.singletonList(ofMissingReader)))
+                .isInstanceOf(IllegalEntityException.class).hasMessageContaining("reader");
+
+        assertThat(loanManager.countLoans()).isEqualTo(1);
+    }
+
+    @Test
+    public void findOverdueLoans() {
+        Reader reader = preparedReaderBuilder.build();
+        readerManager.createReader(reader);
+        List<Loan> loans = new ArrayList<>();
+        LocalDate today = NOW.toLocalDate();
+        for (int days : new int[]{-3, 0, -10, 5, -1}) {
+            Book book = preparedBookBuilder.build();
+            bookManager.createBook(book);
+            Loan loan = new LoanBuilder().reader(reader).book(book).startDate(today.minusDays(20))
+                    .expectedEndDate(today.plusDays(days)).build();
+            loanManager.createLoan(loan);
+            loans.add(loan);
+        }
+        Loan returned = loans.get(4);
+        returned.setRealEndTime(NOW.toLocalDateTime());
+        loanManager.updateLoan(returned);
+
+        assertThat(loanManager.findOverdueLoans()).containsExactly(loans.get(2), loans.get(0));
+        assertThat(loanManager.findOverdueLoans(today.plusDays(1)))
+                .containsExactly(loans.get(2), loans.get(0), loans.get(1));
+        assertThat(loanManager.findLoansDueBetween(today.minusDays(3), today.plusDays(5)))
+                .containsExactly(loans.get(0), loans.get(1), loans.get(3));
+        assertThat(loanManager.findLoansDueBetween(today.plusDays(1), today)).isEmpty();
+    }
+
     @FunctionalInterface
     private static interface Operation<T> {
         void callOn(T subjectOfOperation);
@@ -0,0 +1,51 @@
+package cz.muni.fi.pv168.libraryloans;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.*;
+
+/**
+ *
+ * @author L
+ */
+public class LongHashSetTest {
+
+    @Test
+    public void addContainsRemove() {
+        LongHashSet set = new LongHashSet();
+        assertThat(set.add(0L)).isTrue();
+        assertThat(set.add(7L)).isTrue();
+        assertThat(set.add(7L)).isFalse();
+        assertThat(set.add(Long.MIN_VALUE)).isTrue();
+
+        assertThat(set.size()).isEqualTo(3);
+        assertThat(set.contains(0L)).isTrue();
+        assertThat(set.contains(8L)).isFalse();
+        assertThat(set.remove(0L)).isTrue();
+        assertThat(set.remove(0L)).isFalse();
+        assertThat(set.contains(0L)).isFalse();
+        assertThat(set.size()).isEqualTo(2);
+    }
+
+    @Test
+    public void behavesLikeHashSet() {
+        LongHashSet set = new LongHashSet();
+        Set<Long> expected = new HashSet<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 100_000; i++) {
+            long value = random.nextInt(2000) - 1000;
+            if (random.nextInt(3) == 0) {
+                assertThat(set.remove(value)).isEqualTo(expected.remove(value));
+            } else {
+                assertThat(set.add(value)).isEqualTo(expected.add(value));
+            }
+        }
+        assertThat(set.size()).isEqualTo(expected.size());
+        Set<Long> actual = new HashSet<>();
+        set.forEach(actual::add);
+        assertThat(actual).isEqualTo(expected);
+    }
+}
@@ -0,0 +1,59 @@
+package cz.muni.fi.pv168.libraryloans;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.*;
+
+/**
+ *
+ * @author L
+ */
+public class LongObjectHashMapTest {
+
+    @Test
+    public void putGetRemove() {
+        LongObjectHashMap<String> map = new LongObjectHashMap<>();
+        assertThat(map.put(1L, "one")).isNull();
+        assertThat(map.put(0L, "zero")).isNull();
+        assertThat(map.put(-5L, "minus five")).isNull();
+        assertThat(map.put(1L, "uno")).isEqualTo("one");
+
+        assertThat(map.size()).isEqualTo(3);
+        assertThat(map.get(1L)).isEqualTo("uno");
+        assertThat(map.get(0L)).isEqualTo("zero");
+        assertThat(map.get(2L)).isNull();
+        assertThat(map.remove(0L)).isEqualTo("zero");
+        assertThat(map.containsKey(0L)).isFalse();
+        assertThat(map.remove(0L)).isNull();
+        assertThat(map.size()).isEqualTo(2);
+    }
+
+    @Test
+    public void putNullValue() {
+        assertThatThrownBy(() -> new LongObjectHashMap<String>().put(1L, null))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void behavesLikeHashMap() {
+        LongObjectHashMap<Long> map = new LongObjectHashMap<>();
+        Map<Long, Long> expected = new HashMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 100_000; i++) {
+            //small key range, so that keys collide and are removed often
+            long key = random.nextInt(2000) * 1024L;
+            if (random.nextInt(3) == 0) {
+                assertThat(map.remove(key)).isEqualTo(expected.remove(key));
+            } else {
+                assertThat(map.put(key, (long) i)).isEqualTo(expected.put(key, (long) i));
+            }
+        }
+        assertThat(map.size()).isEqualTo(expected.size());
+        Map<Long, Long> actual = new HashMap<>();
+        map.forEach(actual::put);
+        assertThat(actual).isEqualTo(expected);
+    }
+}
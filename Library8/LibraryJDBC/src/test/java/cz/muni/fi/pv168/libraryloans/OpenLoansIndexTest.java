@@ -0,0 +1,217 @@
+package cz.muni.fi.pv168.libraryloans;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Clock;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import javax.sql.DataSource;
+import org.apache.derby.jdbc.EmbeddedDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static java.time.Month.*;
+import static org.assertj.core.api.Assertions.*;
+
+/**
+ *
+ * @author L
+ */
+public class OpenLoansIndexTest {
+
+    private static final ZonedDateTime NOW
+            = LocalDateTime.of(2016, MARCH, 27, 14, 00).atZone(ZoneId.of("UTC"));
+
+    private DataSource ds;
+    private ReaderManagerImpl readerManager;
+    private BookManagerImpl bookManager;
+    private LoanManagerImpl loanManager;
+    private OpenLoansIndex index;
+    private Reader reader;
+    private Book book1;
+    private Book book2;
+
+    @Before
+    public void setUp() {
+        EmbeddedDataSource embedded = new EmbeddedDataSource();
+        embedded.setDatabaseName("memory:librarymanager-openloans-test");
+        embedded.setCreateDatabase("create");
+        ds = embedded;
+        new SchemaMigrator(ds).migrate();
+        readerManager = new ReaderManagerImpl();
+        readerManager.setDataSource(ds);
+        bookManager = new BookManagerImpl();
+        bookManager.setDataSource(ds);
+        loanManager = new LoanManagerImpl(Clock.fixed(NOW.toInstant(), NOW.getZone()));
+        loanManager.setDataSource(ds);
+        index = new OpenLoansIndex(ds);
+        loanManager.setOpenLoansIndex(index);
+        readerManager.setOpenLoansIndex(index);
+        bookManager.setOpenLoansIndex(index);
+
+        reader = new ReaderBuilder().name("Pavel").address("Brno 41").eMail("pavel@mail.cz").build();
+        readerManager.createReader(reader);
+        book1 = new BookBuilder().title("Thinking in java").author("Eckel Bruce").published(2002).build();
+        book2 = new BookBuilder().title("Jako cool v plotě").author("Plíhal Karel").published(2006).build();
+        bookManager.createBooks(Arrays.asList(book1, book2));
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        DBUtils.executeSqlScript(ds, Loan.class.getResource("dropTables.sql"));
+    }
+
+    private Loan openLoan(Book book) {
+        return new LoanBuilder().reader(reader).book(book)
+                .startDate(LocalDate.of(2016, MARCH, 1))
+                .expectedEndDate(LocalDate.of(2016, APRIL, 1))
+                .realEndTime(null).build();
+    }
+
+    @Test
+    public void warmUpLoadsOpenLoans() {
+        Loan open = openLoan(book1);
+        Loan returned = openLoan(book2);
+        returned.setRealEndTime(LocalDateTime.of(2016, 3, 20, 10, 0));
+        loanManager.createLoans(Arrays.asList(open, returned));
+
+        OpenLoansIndex fresh = new OpenLoansIndex(ds);
+        fresh.warmUp();
+
+        assertThat(fresh.size()).isEqualTo(1);
+        assertThat(fresh.isAvailable(book1.getId())).isFalse();
+        assertThat(fresh.isAvailable(book2.getId())).isTrue();
+        assertThat(fresh.getOpenLoan(book1.getId()))
+                .isEqualTo(new OpenLoansIndex.OpenLoan(open.getId(), reader.getId(), book1.getId()));
+        assertThat(fresh.getHolderId(book1.getId())).isEqualTo(reader.getId());
+        assertThat(fresh.getHolderId(book2.getId())).isNull();
+    }
+
+    @Test
+    public void indexFollowsLoanChanges() {
+        assertThat(index.isAvailable(book1.getId())).isTrue();
+
+        Loan loan = loanManager.checkoutBook(reader, book1, LocalDate.of(2016, APRIL, 27));
+        assertThat(index.getHolderId(book1.getId())).isEqualTo(reader.getId());
+
+        loan.setBook(book2);
+        loanManager.updateLoan(loan);
+        assertThat(index.isAvailable(book1.getId())).isTrue();
+        assertThat(index.isAvailable(book2.getId())).isFalse();
+
+        loan.setRealEndTime(LocalDateTime.of(2016, 3, 27, 12, 0));
+        loanManager.updateLoan(loan);
+        assertThat(index.isAvailable(book2.getId())).isTrue();
+
+        Loan other = openLoan(book1);
+        loanManager.createLoan(other);
+        assertThat(index.isAvailable(book1.getId())).isFalse();
+        loanManager.deleteLoan(other);
+        assertThat(index.isAvailable(book1.getId())).isTrue();
+        assertThat(index.verify().isEmpty()).isTrue();
+    }
+
+    @Test
+    public void indexFollowsBulkOperations() {
+        loanManager.createLoans(Arrays.asList(openLoan(book1), openLoan(book2)));
+        assertThat(index.isAvailable(book1.getId())).isFalse();
+        assertThat(index.isAvailable(book2.getId())).isFalse();
+
+        loanManager.returnBooks(Arrays.asList(book1.getId()), LocalDateTime.of(2016, 3, 27, 12, 0));
+
+        assertThat(index.isAvailable(book1.getId())).isTrue();
+        assertThat(index.isAvailable(book2.getId())).isFalse();
+        assertThat(index.verify().isEmpty()).isTrue();
+    }
+
+    @Test
+    public void bookWithMoreOpenLoansStaysLent() {
+        Loan loan1 = openLoan(book1);
+        Loan loan2 = openLoan(book1);
+        loanManager.createLoans(Arrays.asList(loan1, loan2));
+
+        loanManager.deleteLoan(loan2);
+
+        assertThat(index.getOpenLoan(book1.getId()).getLoanId()).isEqualTo(loan1.getId());
+    }
+
+    @Test
+    public void deletedReaderReleasesBooks() {
+        Reader other = new ReaderBuilder().name("Jana").address("Praha 7").eMail("jana@mail.cz").build();
+        readerManager.createReader(other);
+        Loan held = openLoan(book2);
+        held.setReader(other);
+        loanManager.createLoans(Arrays.asList(openLoan(book1), held));
+
+        //loans are deleted by ON DELETE CASCADE
+        readerManager.deleteReader(reader);
+
+        assertThat(index.isAvailable(book1.getId())).isTrue();
+        assertThat(index.getHolderId(book1.getId())).isNull();
+        assertThat(index.getHolderId(book2.getId())).isEqualTo(other.getId());
+        assertThat(index.verify().isEmpty()).isTrue();
+
+        readerManager.deleteReaders(Arrays.asList(other));
+        assertThat(index.isAvailable(book2.getId())).isTrue();
+        assertThat(index.size()).isZero();
+    }
+
+    @Test
+    public void deletedBooksLoseTheirLoans() {
+        loanManager.createLoans(Arrays.asList(openLoan(book1), openLoan(book2)));
+
+        bookManager.deleteBook(book1);
+        assertThat(index.isAvailable(book1.getId())).isTrue();
+        assertThat(index.isAvailable(book2.getId())).isFalse();
+
+        bookManager.deleteBooks(Arrays.asList(book2));
+        assertThat(index.size()).isZero();
+        assertThat(index.verify().isEmpty()).isTrue();
+    }
+
+    @Test
+    public void loanManagerAnswersAvailabilityFromIndex() throws SQLException {
+        loanManager.checkoutBook(reader, book1, LocalDate.of(2016, APRIL, 27));
+        assertThat(loanManager.isBookAvailable(book1)).isFalse();
+        assertThat(loanManager.getHolderId(book1)).isEqualTo(reader.getId());
+        assertThat(loanManager.isBookAvailable(book2)).isTrue();
+
+        //the index does not see changes made around the managers
+        try (Connection conn = ds.getConnection(); Statement st = conn.createStatement()) {
+            st.executeUpdate("DELETE FROM loan");
+        }
+        assertThat(loanManager.isBookAvailable(book1)).isFalse();
+        index.invalidate();
+        assertThat(loanManager.isBookAvailable(book1)).isTrue();
+    }
+
+    @Test
+    public void verifyReportsChangesMadeElsewhere() throws SQLException {
+        Loan loan1 = openLoan(book1);
+        Loan loan2 = openLoan(book2);
+        loanManager.createLoans(Arrays.asList(loan1, loan2));
+        index.warmUp();
+
+        try (Connection conn = ds.getConnection(); Statement st = conn.createStatement()) {
+            st.executeUpdate("DELETE FROM loan WHERE id = " + loan1.getId());
+            st.executeUpdate("INSERT INTO loan (readerid, bookid, starttime, endtime) VALUES ("
+                    + reader.getId() + ", " + book1.getId() + ", '2016-03-01', '2016-04-01')");
+        }
+
+        OpenLoansIndex.Difference difference = index.verify();
+
+        assertThat(difference.isEmpty()).isFalse();
+        assertThat(difference.getStale()).extracting(OpenLoansIndex.OpenLoan::getLoanId)
+                .containsExactly(loan1.getId());
+        assertThat(difference.getMissing()).extracting(OpenLoansIndex.OpenLoan::getBookId)
+                .containsExactly(book1.getId());
+
+        index.warmUp();
+        assertThat(index.verify().isEmpty()).isTrue();
+    }
+}
@@ -36,7 +36,7 @@ public class ReaderManagerImplTest {
     @Before
     public void setUp() throws SQLException {
         dataSource = prepareDataSource();
-        DBUtils.executeSqlScript(dataSource, Reader.class.getResource("createTables.sql"));
+        new SchemaMigrator(dataSource).migrate();
         manager = new ReaderManagerImpl();
         manager.setDataSource(dataSource);
     }
@@ -153,6 +153,20 @@ public class ReaderManagerImplTest {
         assertDeepEquals(expected, actual);
     }
     
+    @Test
+    public void searchReaders() {
+        Reader gallus = sampleReader1().name("Jacob Gallus").eMail("j.h.gallus@musicaantiqua.com").build();
+        Reader lassus = sampleReader2().name("Roland de Lassus").eMail("r.lassus@musicaantiqua.com").build();
+        manager.createReaders(Arrays.asList(gallus, lassus));
+
+        assertThat(manager.searchReaders("musica", 10)).containsExactly(gallus, lassus);
+        assertThat(manager.searchReaders("jac gal", 10)).containsExactly(gallus);
+        assertThat(manager.searchReadersFuzzy("lasus", 10)).containsExactly(lassus);
+
+        manager.deleteReaders(Collections.singletonList(gallus));
+        assertThat(manager.searchReaders("musica", 10)).containsExactly(lassus);
+    }
+
     @FunctionalInterface
     private static interface Operation<T> {
         void callOn(T subjectOfOperation);
@@ -239,6 +253,48 @@ public class ReaderManagerImplTest {
         manager.deleteReader(reader);
     }
     
+    @Test
+    public void createReaders() {
+        manager.setBatchSize(1);
+        List<Reader> readers = Arrays.asList(sampleReader1().build(), sampleReader2().build());
+        manager.createReaders(readers);
+
+        for (Reader reader : readers) {
+            assertThat(reader.getId()).isNotNull();
+            assertDeepEquals(reader, manager.getReaderById(reader.getId()));
+        }
+    }
+
+    @Test
+    public void updateAndDeleteReaders() {
+        Reader r1 = sampleReader1().build();
+        Reader r2 = sampleReader2().build();
+        manager.createReaders(Arrays.asList(r1, r2));
+
+        r1.setAddress("Praha 1");
+        r2.setNote("changed");
+        manager.updateReaders(Arrays.asList(r1, r2));
+        assertDeepEquals(r1, manager.getReaderById(r1.getId()));
+        assertDeepEquals(r2, manager.getReaderById(r2.getId()));
+
+        manager.deleteReaders(Arrays.asList(r1));
+        assertThat(manager.findAllReaders()).containsOnly(r2);
+    }
+
+    @Test
+    public void findReadersByPages() {
+        List<Reader> readers = Arrays.asList(sampleReader1().build(), sampleReader2().build(),
+                sampleReader1().build());
+        manager.createReaders(readers);
+
+        List<Reader> page1 = manager.findReaders(null, 2);
+        List<Reader> page2 = manager.findReaders(page1.get(1).getId(), 2);
+
+        assertThat(page1).containsExactly(readers.get(0), readers.get(1));
+        assertThat(page2).containsExactly(readers.get(2));
+        assertThat(manager.countReaders()).isEqualTo(3);
+    }
+
     @Test
     public void createReaderWithSqlExceptionThrown() throws SQLException {
         SQLException sqlException = new SQLException();
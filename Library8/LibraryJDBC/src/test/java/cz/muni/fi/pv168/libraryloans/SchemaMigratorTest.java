@@ -0,0 +1,84 @@
+package cz.muni.fi.pv168.libraryloans;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashSet;
+import java.util.Set;
+import javax.sql.DataSource;
+import org.apache.derby.jdbc.EmbeddedDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.*;
+
+/**
+ *
+ * @author L
+ */
+public class SchemaMigratorTest {
+
+    private DataSource ds;
+    private SchemaMigrator migrator;
+
+    @Before
+    public void setUp() {
+        EmbeddedDataSource embedded = new EmbeddedDataSource();
+        embedded.setDatabaseName("memory:librarymanager-migration-test");
+        embedded.setCreateDatabase("create");
+        ds = embedded;
+        migrator = new SchemaMigrator(ds);
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        DBUtils.executeSqlScript(ds, Book.class.getResource("dropTables.sql"));
+    }
+
+    @Test
+    public void migrateEmptyDatabase() throws SQLException {
+        assertThat(migrator.getVersion()).isEqualTo(0);
+
+        assertThat(migrator.migrate()).isEqualTo(SchemaMigrator.getLatestVersion());
+
+        assertThat(migrator.getVersion()).isEqualTo(SchemaMigrator.getLatestVersion());
+        assertThat(indexNames("READER")).contains("IX_READER_NAME");
+        assertThat(indexNames("BOOK")).contains("IX_BOOK_AUTHOR", "IX_BOOK_TITLE");
+        assertThat(indexNames("LOAN")).contains("IX_LOAN_REALEND_ENDTIME");
+    }
+
+    @Test
+    public void migrateTwice() {
+        migrator.migrate();
+        assertThat(migrator.migrate()).isEqualTo(SchemaMigrator.getLatestVersion());
+    }
+
+    @Test
+    public void upgradeUnversionedDatabaseKeepsData() throws SQLException {
+        DBUtils.executeSqlScript(ds, Book.class.getResource("schema/V1__create_tables.sql"));
+        BookManagerImpl manager = new BookManagerImpl();
+        manager.setDataSource(ds);
+        Book book = new BookBuilder().title("Syntagma musicum").author("Michael Praetorius")
+                .published(1620).build();
+        manager.createBook(book);
+        assertThat(migrator.getVersion()).isEqualTo(1);
+
+        migrator.migrate();
+
+        assertThat(migrator.getVersion()).isEqualTo(SchemaMigrator.getLatestVersion());
+        assertThat(manager.findAllBooks()).containsExactly(book);
+        assertThat(indexNames("BOOK")).contains("IX_BOOK_AUTHOR");
+    }
+
+    private Set<String> indexNames(String table) throws SQLException {
+        Set<String> names = new HashSet<>();
+        try (Connection conn = ds.getConnection();
+                ResultSet rs = conn.getMetaData().getIndexInfo(null, conn.getSchema(), table, false, false)) {
+            while (rs.next()) {
+                names.add(rs.getString("INDEX_NAME"));
+            }
+        }
+        return names;
+    }
+}
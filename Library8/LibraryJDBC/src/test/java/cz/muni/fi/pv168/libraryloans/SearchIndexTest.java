@@ -0,0 +1,93 @@
+package cz.muni.fi.pv168.libraryloans;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.*;
+
+/**
+ *
+ * @author L
+ */
+public class SearchIndexTest {
+
+    private List<Book> stored;
+    private SearchIndex<Book> index;
+
+    @Before
+    public void setUp() {
+        stored = new ArrayList<>();
+        stored.add(book(1L, "Hudba věku melancholie", "Roman Dykast"));
+        stored.add(book(2L, "Hudba středověku", "Richard H. Hoppin"));
+        stored.add(book(3L, "Syntagma musicum", "Michael Praetorius"));
+        index = new SearchIndex<>(Book::getId, b -> b.getTitle() + " " + b.getAuthor(),
+                b -> book(b.getId(), b.getTitle(), b.getAuthor()), () -> stored.stream());
+    }
+
+    private static Book book(Long id, String title, String author) {
+        return new BookBuilder().id(id).title(title).author(author).published(2000).build();
+    }
+
+    @Test
+    public void normalize() {
+        assertThat(SearchIndex.normalize("Hudba  věku, MELANCHOLIE!")).isEqualTo("hudba veku melancholie");
+        assertThat(SearchIndex.normalize("Příliš žluťoučký kůň")).isEqualTo("prilis zlutoucky kun");
+        assertThat(SearchIndex.normalize(null)).isEmpty();
+    }
+
+    @Test
+    public void searchByPrefixes() {
+        assertThat(index.search("hud", 10)).extracting(Book::getId).containsExactly(1L, 2L);
+        assertThat(index.search("HUDBA Věk", 10)).extracting(Book::getId).containsExactly(1L);
+        assertThat(index.search("stredo", 10)).extracting(Book::getId).containsExactly(2L);
+        assertThat(index.search("hudba syntagma", 10)).isEmpty();
+        assertThat(index.search(" ,", 10)).isEmpty();
+        assertThat(index.search("hudba", 1)).hasSize(1);
+    }
+
+    @Test
+    public void searchFuzzy() {
+        assertThat(index.searchFuzzy("melanchloie", 10)).extracting(Book::getId).containsExactly(1L);
+        assertThat(index.searchFuzzy("pretorius", 10)).extracting(Book::getId).containsExactly(3L);
+        assertThat(index.searchFuzzy("hudbs veku", 10)).extracting(Book::getId).containsExactly(1L);
+        assertThat(index.searchFuzzy("hub", 10)).isEmpty();
+    }
+
+    @Test
+    public void warmUpLoadsIndex() {
+        index.warmUp();
+        stored.clear();
+
+        assertThat(index.size()).isEqualTo(3);
+        assertThat(index.search("syntagma", 10)).extracting(Book::getId).containsExactly(3L);
+    }
+
+    @Test
+    public void updatesAfterLoading() {
+        index.put(book(4L, "Ignored", "Before loading"));
+        assertThat(index.size()).isEqualTo(0);
+        assertThat(index.search("ignored", 10)).isEmpty();
+        assertThat(index.size()).isEqualTo(3);
+
+        index.put(book(1L, "Hudba baroka", "Roman Dykast"));
+        index.remove(2L);
+        assertThat(index.search("hudba", 10)).extracting(Book::getTitle).containsExactly("Hudba baroka");
+        assertThat(index.search("melancholie", 10)).isEmpty();
+        assertThat(index.searchFuzzy("hoppin", 10)).isEmpty();
+    }
+
+    @Test
+    public void returnedEntitiesAreCopies() {
+        index.search("hudba", 10).get(0).setTitle("Changed");
+        assertThat(index.search("hudba", 10).get(0).getTitle()).isEqualTo("Hudba věku melancholie");
+    }
+
+    @Test
+    public void editDistance() {
+        assertThat(SearchIndex.editDistance("kitten", "sitting")).isEqualTo(3);
+        assertThat(SearchIndex.editDistance("", "abc")).isEqualTo(3);
+        assertThat(SearchIndex.editDistance("abc", "abc")).isEqualTo(0);
+    }
+}
@@ -0,0 +1,240 @@
+package cz.muni.fi.pv168.libraryloans;
+
+import java.sql.SQLException;
+import java.time.Clock;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.sql.DataSource;
+import org.apache.derby.jdbc.EmbeddedDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static java.time.Month.*;
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ *
+ * @author L
+ */
+public class TransactionManagerTest {
+
+    private static final ZonedDateTime NOW
+            = LocalDateTime.of(2016, MARCH, 27, 14, 00).atZone(ZoneId.of("UTC"));
+
+    private DataSource target;
+    private TransactionManager transactionManager;
+    private ReaderManagerImpl readerManager;
+    private BookManagerImpl bookManager;
+    private LoanManagerImpl loanManager;
+    private Book book;
+
+    @Before
+    public void setUp() {
+        EmbeddedDataSource embedded = new EmbeddedDataSource();
+        embedded.setDatabaseName("memory:librarymanager-transaction-test");
+        embedded.setCreateDatabase("create");
+        new SchemaMigrator(embedded).migrate();
+        target = spy(embedded);
+        transactionManager = new TransactionManager(target);
+        DataSource ds = transactionManager.getDataSource();
+        readerManager = new ReaderManagerImpl();
+        readerManager.setDataSource(ds);
+        bookManager = new BookManagerImpl();
+        bookManager.setDataSource(ds);
+        loanManager = new LoanManagerImpl(Clock.fixed(NOW.toInstant(), NOW.getZone()));
+        loanManager.setDataSource(ds);
+
+        book = new BookBuilder().title("Thinking in java").author("Eckel Bruce").published(2002).build();
+        bookManager.createBook(book);
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        DBUtils.executeSqlScript(target, Loan.class.getResource("dropTables.sql"));
+    }
+
+    private static Reader newReader() {
+        return new ReaderBuilder().name("Pavel").address("Brno 41").eMail("pavel@mail.cz").build();
+    }
+
+    @Test
+    public void operationsShareOneTransaction() throws SQLException {
+        reset(target);
+        Reader reader = newReader();
+
+        Loan loan = transactionManager.inTransaction(() -> {
+            readerManager.createReader(reader);
+            return loanManager.checkoutBook(reader, book, LocalDate.of(2016, APRIL, 27));
+        });
+
+        verify(target, times(1)).getConnection();
+        assertThat(loanManager.getLoanById(loan.getId()).getReader()).isEqualTo(reader);
+        assertThat(transactionManager.getCommitCount()).isEqualTo(1);
+        assertThat(transactionManager.getCommitLatency().getCount()).isEqualTo(1);
+        assertThat(transactionManager.getRollbackCount()).isEqualTo(0);
+        assertThat(transactionManager.isInTransaction()).isFalse();
+    }
+
+    @Test
+    public void exceptionRollsBackAllOperations() {
+        Reader reader = newReader();
+
+        assertThatThrownBy(() -> transactionManager.runInTransaction(() -> {
+            readerManager.createReader(reader);
+            loanManager.checkoutBook(reader, book, LocalDate.of(2016, APRIL, 27));
+            throw new IllegalStateException("desk closed");
+        })).isInstanceOf(IllegalStateException.class);
+
+        assertThat(readerManager.findAllReaders()).isEmpty();
+        assertThat(loanManager.findAllLoans()).isEmpty();
+        assertThat(readerManager.searchReaders("Pavel", 10)).isEmpty();
+        assertThat(transactionManager.getRollbackCount()).isEqualTo(1);
+        assertThat(transactionManager.getCommitCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void rollbackClearsAssignedIds() {
+        Reader reader = newReader();
+        Book other = new BookBuilder().title("Java 8").author("Eckel Bruce").published(2014).build();
+        List<Loan> loans = new ArrayList<>();
+
+        assertThatThrownBy(() -> transactionManager.runInTransaction(() -> {
+            readerManager.createReader(reader);
+            bookManager.createBooks(Collections.singletonList(other));
+            loans.add(loanManager.checkoutBook(reader, book, LocalDate.of(2016, APRIL, 27)));
+            assertThat(reader.getId()).isNotNull();
+            assertThat(other.getId()).isNotNull();
+            throw new IllegalStateException("desk closed");
+        })).isInstanceOf(IllegalStateException.class);
+
+        assertThat(reader.getId()).isNull();
+        assertThat(other.getId()).isNull();
+        assertThat(loans.get(0).getId()).isNull();
+        assertThat(book.getId()).isNotNull();
+    }
+
+    @Test
+    public void failedOperationRollsBackUnit() {
+        Reader reader = newReader();
+
+        assertThatThrownBy(() -> transactionManager.runInTransaction(() -> {
+            readerManager.createReader(reader);
+            loanManager.checkoutBook(reader, book, LocalDate.of(2016, APRIL, 27));
+            try {
+                loanManager.checkoutBook(reader, book, LocalDate.of(2016, APRIL, 27));
+            } catch (IllegalEntityException ex) {
+                //already lent, ignored by the work
+            }
+        })).isInstanceOf(ServiceFailureException.class);
+
+        assertThat(readerManager.findAllReaders()).isEmpty();
+        assertThat(transactionManager.getRollbackCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void nestedUnitJoinsOuterOne() {
+        Reader reader = newReader();
+
+        transactionManager.runInTransaction(() -> {
+            readerManager.createReader(reader);
+            transactionManager.runInTransaction(() -> bookManager.updateBook(book));
+            assertThat(transactionManager.isInTransaction()).isTrue();
+        });
+
+        assertThat(readerManager.getReaderById(reader.getId())).isEqualTo(reader);
+        assertThat(transactionManager.getCommitCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void searchIndexIsUpdatedAfterCommit() {
+        assertThat(readerManager.searchReaders("Pavel", 10)).isEmpty();
+        Reader reader = newReader();
+
+        transactionManager.runInTransaction(() -> {
+            readerManager.createReader(reader);
+            assertThat(readerManager.searchReaders("Pavel", 10)).isEmpty();
+        });
+
+        assertThat(readerManager.searchReaders("Pavel", 10)).containsExactly(reader);
+    }
+
+    @Test
+    public void readOnlyFindersSeeChangesOfUnit() {
+        DataSourceFactory factory = new DataSourceFactory();
+        factory.setUrl("jdbc:derby:memory:librarymanager-transaction-test");
+        try (PooledDataSource readOnly = factory.createReadOnlyDataSource()) {
+            readerManager.setReadOnlyDataSource(transactionManager.createReadOnlyDataSource(readOnly));
+            Reader reader = newReader();
+
+            transactionManager.runInTransaction(() -> {
+                readerManager.createReader(reader);
+                assertThat(readerManager.getReaderById(reader.getId())).isEqualTo(reader);
+            });
+
+            assertThat(readerManager.findAllReaders()).containsExactly(reader);
+            assertThat(readOnly.getBorrowLatency().getCount()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    public void cacheIsInvalidatedAfterCommit() throws Exception {
+        CachingBookManager cachingManager = new CachingBookManager(bookManager);
+        cachingManager.setTransactionManager(transactionManager);
+        cachingManager.getBookById(book.getId());
+        ExecutorService other = Executors.newSingleThreadExecutor();
+        try {
+            transactionManager.runInTransaction(() -> {
+                book.setNote("second edition");
+                cachingManager.updateBook(book);
+                assertThat(cachingManager.getBookById(book.getId()).getNote()).isEqualTo("second edition");
+                try {
+                    //others see the committed state, which stays cached
+                    assertThat(other.submit(() -> cachingManager.getBookById(book.getId())).get().getNote())
+                            .isNotEqualTo("second edition");
+                } catch (InterruptedException | ExecutionException ex) {
+                    throw new IllegalStateException(ex);
+                }
+            });
+        } finally {
+            other.shutdown();
+        }
+
+        assertThat(cachingManager.getBookById(book.getId()).getNote()).isEqualTo("second edition");
+        assertThat(cachingManager.getCache().getHits()).isEqualTo(1);
+    }
+
+    @Test
+    public void rolledBackUnitKeepsCache() {
+        CachingBookManager cachingManager = new CachingBookManager(bookManager);
+        cachingManager.setTransactionManager(transactionManager);
+        cachingManager.getBookById(book.getId());
+
+        assertThatThrownBy(() -> transactionManager.runInTransaction(() -> {
+            book.setNote("second edition");
+            cachingManager.updateBook(book);
+            throw new IllegalStateException("desk closed");
+        })).isInstanceOf(IllegalStateException.class);
+
+        assertThat(cachingManager.getBookById(book.getId()).getNote()).isNotEqualTo("second edition");
+        assertThat(cachingManager.getCache().getHits()).isEqualTo(1);
+    }
+
+    @Test
+    public void operationsOutsideUnitCommitThemselves() {
+        Reader reader = newReader();
+        readerManager.createReader(reader);
+
+        assertThat(readerManager.getReaderById(reader.getId())).isEqualTo(reader);
+        assertThat(transactionManager.getCommitCount()).isEqualTo(0);
+    }
+}
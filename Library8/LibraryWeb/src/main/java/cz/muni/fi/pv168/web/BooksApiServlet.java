@@ -0,0 +1,84 @@
+package cz.muni.fi.pv168.web;
+
+import cz.muni.fi.pv168.libraryloans.Book;
+import cz.muni.fi.pv168.libraryloans.BookManager;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import javax.servlet.annotation.WebServlet;
+
+/**
+ * JSON API of books.
+ *
+ * @author L
+ */
+@WebServlet(urlPatterns = BooksApiServlet.URL_MAPPING + "/*", asyncSupported = true)
+public class BooksApiServlet extends EntityApiServlet<Book> {
+
+    public static final String URL_MAPPING = "/api/books";
+
+    private BookManager getBookManager() {
+        return (BookManager) getServletContext().getAttribute("bookManager");
+    }
+
+    @Override
+    protected List<Book> findPage(Long afterId, int limit) {
+        return getBookManager().findBooks(afterId, limit);
+    }
+
+    @Override
+    protected long count() {
+        return getBookManager().countBooks();
+    }
+
+    @Override
+    protected Stream<Book> streamAll() {
+        return getBookManager().streamAllBooks();
+    }
+
+    @Override
+    protected Book getById(Long id) {
+        return getBookManager().getBookById(id);
+    }
+
+    @Override
+    protected Long getId(Book book) {
+        return book.getId();
+    }
+
+    @Override
+    protected int hash(Book book) {
+        return book.hashCode();
+    }
+
+    @Override
+    protected void write(JsonWriter json, Book book) throws IOException {
+        json.beginObject()
+                .name("id").value(book.getId())
+                .name("title").value(book.getTitle())
+                .name("author").value(book.getAuthor())
+                .name("published").value(book.getPublished())
+                .name("note").value(book.getNote())
+                .endObject();
+    }
+
+    @Override
+    protected Book read(Map<String, Object> object) {
+        Book book = new Book();
+        book.setTitle(getString(object, "title", true));
+        book.setAuthor(getString(object, "author", true));
+        Long published = getLong(object, "published", true);
+        if (published < Integer.MIN_VALUE || published > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("published is out of range");
+        }
+        book.setPublished(published.intValue());
+        book.setNote(getString(object, "note", false));
+        return book;
+    }
+
+    @Override
+    protected void createAll(List<Book> books) {
+        getBookManager().createBooks(books);
+    }
+}
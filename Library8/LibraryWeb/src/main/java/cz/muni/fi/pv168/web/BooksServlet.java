@@ -10,32 +10,130 @@ import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
 import java.util.logging.Level;
+import java.util.zip.GZIPInputStream;
 
 /**
  * Servlet for managing books.
  *
  * @author L
  */
-@WebServlet(BooksServlet.URL_MAPPING + "/*")
+@WebServlet(urlPatterns = BooksServlet.URL_MAPPING + "/*", asyncSupported = true)
 public class BooksServlet extends HttpServlet {
 
     private static final String LIST_JSP = "/list.jsp";
     public static final String URL_MAPPING = "/books";
+    private static final int PAGE_SIZE = 50;
+
+    private static final int CACHED_PAGES = 100;
+    private static final String VERSION_ATTRIBUTE = BooksServlet.class.getName() + ".version";
 
     private final static Logger log = Logger.getLogger(BooksServlet.class.getName());
 
+    private final FragmentCache fragmentCache = new FragmentCache(CACHED_PAGES);
+
     @Override
     protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        if (DatabaseDispatcher.isDispatched(request)) {
+            renderBooksList(request, response);
+            return;
+        }
         log.log(Level.INFO, "GET ...");
-        showBooksList(request, response);
+        if (notModified(request, response)) {
+            log.log(Level.FINE, "books not modified");
+            return;
+        }
+        if (writeCachedPage(request, response)) {
+            return;
+        }
+        DatabaseDispatcher.execute(this, "books.list", request, response, new DatabaseDispatcher.Task() {
+            @Override
+            public boolean run(HttpServletRequest request, HttpServletResponse response) throws IOException {
+                return loadBooksList(request, response);
+            }
+        });
+    }
+
+    /**
+     * Sets ETag and Last-Modified of the current version of the BOOK table
+     * and answers 304 Not Modified, when the client has that version already.
+     * The database is not touched. Last-Modified is left out while the table
+     * has changed in the current second, only the ETag validates then.
+     *
+     * @return true when the response is complete
+     */
+    private boolean notModified(HttpServletRequest request, HttpServletResponse response) {
+        ChangeTracker changeTracker = getChangeTracker();
+        if (changeTracker == null) {
+            return false;
+        }
+        String etag = changeTracker.getETag(ChangeTracker.Table.BOOK);
+        long lastModified = changeTracker.getLastModified(ChangeTracker.Table.BOOK);
+        //HTTP dates have a precision of seconds, a date of the current second
+        //would not tell a client about a later change in the same second
+        boolean dateIsValidator = lastModified / 1000 < System.currentTimeMillis() / 1000;
+        response.setHeader("ETag", etag);
+        if (dateIsValidator) {
+            response.setDateHeader("Last-Modified", lastModified);
+        }
+        response.setHeader("Vary", "Accept-Encoding");
+        //clients have to revalidate, the list may change any time
+        response.setHeader("Cache-Control", "no-cache");
+        boolean notModified;
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch != null) {
+            notModified = false;
+            for (String tag : ifNoneMatch.split(",")) {
+                tag = tag.trim();
+                if (tag.startsWith("W/")) {
+                    tag = tag.substring(2);
+                }
+                notModified |= tag.equals("*") || tag.equals(etag) || tag.equals(gzipETag(etag));
+            }
+        } else if (dateIsValidator) {
+            long ifModifiedSince;
+            try {
+                ifModifiedSince = request.getDateHeader("If-Modified-Since");
+            } catch (IllegalArgumentException e) {
+                ifModifiedSince = -1;
+            }
+            notModified = ifModifiedSince >= 0 && lastModified / 1000 <= ifModifiedSince / 1000;
+        } else {
+            notModified = false;
+        }
+        if (notModified) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        }
+        return notModified;
     }
 
     @Override
     protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        if (DatabaseDispatcher.isDispatched(request)) {
+            renderBooksList(request, response);
+            return;
+        }
         //support non-ASCII characters in form
         request.setCharacterEncoding("utf-8");
+        DatabaseDispatcher.execute(this, "books.post", request, response, new DatabaseDispatcher.Task() {
+            @Override
+            public boolean run(HttpServletRequest request, HttpServletResponse response) throws IOException {
+                return handlePost(request, response);
+            }
+        });
+    }
+
+    /**
+     * Performs the action of a POST request.
+     *
+     * @return true when the request has to be dispatched back to render the list of books
+     */
+    private boolean handlePost(HttpServletRequest request, HttpServletResponse response) throws IOException {
         //action specified by pathInfo
         String action = request.getPathInfo();
         log.log(Level.INFO, "POST ... {}", action);//concatenation ok?
@@ -54,14 +152,12 @@ public class BooksServlet extends HttpServlet {
                 else {
                     request.setAttribute("chyba", "publishing year must be integer !");
                     log.log(Level.INFO, "form data invalid");
-                    showBooksList(request, response);
-                    return;
+                    return loadBooksList(request, response);
                 }
                 if (title == null || title.length() == 0 || author == null || author.length() == 0) { //doplnit kontrolu roku
                     request.setAttribute("chyba", "all values except note must be filled !");
                     log.log(Level.INFO, "form data invalid");
-                    showBooksList(request, response);
-                    return;
+                    return loadBooksList(request, response);
                 }
                 //form data processing - storing to database
                 try {
@@ -74,12 +170,12 @@ public class BooksServlet extends HttpServlet {
                     //redirect-after-POST protects from multiple submission
                     log.log(Level.INFO, "redirecting after POST");
                     response.sendRedirect(request.getContextPath()+URL_MAPPING);
-                    return;
+                    return false;
                 } catch (ServiceFailureException e) {
                     String msg ="Cannot add book";
                     log.log(Level.SEVERE, msg, e);
                     response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, e.getMessage());
-                    return;
+                    return false;
                 }
             case "/delete":
                 try {
@@ -88,20 +184,21 @@ public class BooksServlet extends HttpServlet {
                     getBookManager().deleteBook(book);
                     log.log(Level.INFO, "redirecting after POST");
                     response.sendRedirect(request.getContextPath()+URL_MAPPING);
-                    return;
+                    return false;
                 } catch (ServiceFailureException e) {
                     String msg ="Cannot delete book";
                     log.log(Level.SEVERE, msg, e);
                     response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, e.getMessage());
-                    return;
+                    return false;
                 }
             case "/update":
                 //TODO
-                return;
+                return false;
             default:
                 String msg ="Unknown action " + action;
                 log.log(Level.SEVERE, msg);
                 response.sendError(HttpServletResponse.SC_NOT_FOUND, "Unknown action " + action);
+                return false;
         }
     }
 
@@ -115,17 +212,149 @@ public class BooksServlet extends HttpServlet {
     }
 
     /**
-     * Stores the list of books to request attribute "books" and forwards to the JSP to display it.
+     * Gets ChangeTracker from ServletContext, where it was stored by {@link StartListener}.
+     *
+     * @return ChangeTracker instance or null
+     */
+    private ChangeTracker getChangeTracker() {
+        return (ChangeTracker) getServletContext().getAttribute("changeTracker");
+    }
+
+    /**
+     * Only GET of a page without error message and form values renders the
+     * same HTML for the same data.
+     */
+    private static boolean isPlainListRequest(HttpServletRequest request) {
+        if (!"GET".equals(request.getMethod()) || request.getAttribute("chyba") != null) {
+            return false;
+        }
+        for (String name : request.getParameterMap().keySet()) {
+            if (!name.equals("after")) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Sends cached page, compressed when the client accepts gzip.
+     */
+    private static void writeFragment(HttpServletRequest request, HttpServletResponse response, byte[] fragment)
+            throws IOException {
+        response.setContentType("text/html;charset=utf-8");
+        String acceptEncoding = request.getHeader("Accept-Encoding");
+        if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            response.setHeader("Content-Encoding", "gzip");
+            String etag = response.getHeader("ETag");
+            if (etag != null) {
+                response.setHeader("ETag", gzipETag(etag));
+            }
+            response.setContentLength(fragment.length);
+            response.getOutputStream().write(fragment);
+        } else {
+            try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(fragment))) {
+                OutputStream out = response.getOutputStream();
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) >= 0) {
+                    out.write(buffer, 0, read);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return strong entity tag of the gzip encoded representation
      */
-    private void showBooksList(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+    private static String gzipETag(String etag) {
+        return etag.substring(0, etag.length() - 1) + "-gzip\"";
+    }
+
+    /**
+     * Stores one page of books to request attribute "books", to be displayed by the JSP.
+     * The page starts after the book id given in parameter "after".
+     *
+     * @return true when the page was loaded, false when an error was sent
+     */
+    private boolean loadBooksList(HttpServletRequest request, HttpServletResponse response) throws IOException {
         try {
-            log.log(Level.INFO, "showing table of books");
-            request.setAttribute("books", getBookManager().findAllBooks());
-            request.getRequestDispatcher(LIST_JSP).forward(request, response);
+            log.log(Level.INFO, "loading table of books");
+            Long after = parseAfter(request);
+            ChangeTracker changeTracker = getChangeTracker();
+            if (changeTracker != null) {
+                //version is read before the data, so a page is never cached under a newer version
+                request.setAttribute(VERSION_ATTRIBUTE, changeTracker.getVersion(ChangeTracker.Table.BOOK));
+            }
+            List<Book> books = getBookManager().findBooks(after, PAGE_SIZE);
+            request.setAttribute("after", after);
+            request.setAttribute("books", books);
+            request.setAttribute("booksCount", getBookManager().countBooks());
+            if (books.size() == PAGE_SIZE) {
+                request.setAttribute("nextAfter", books.get(books.size() - 1).getId());
+            }
+            return true;
         } catch (ServiceFailureException e) {
             String msg ="Cannot show book";
             log.log(Level.SEVERE, msg, e);
             response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * @return book id from parameter "after" or null, when it is missing or
+     * it is not a valid id
+     */
+    private static Long parseAfter(HttpServletRequest request) {
+        String afterStr = request.getParameter("after");
+        //at most 18 digits always fit into long
+        if (afterStr != null && afterStr.matches("[0-9]{1,18}")) {
+            return Long.valueOf(afterStr);
         }
+        return null;
+    }
+
+    /**
+     * Renders page loaded by {@link #loadBooksList} by the JSP. Plain pages
+     * are stored to the fragment cache.
+     */
+    private void renderBooksList(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        Long version = (Long) request.getAttribute(VERSION_ATTRIBUTE);
+        if (version == null || !isPlainListRequest(request)) {
+            request.getRequestDispatcher(LIST_JSP).forward(request, response);
+            return;
+        }
+        FragmentCache.CapturingResponse capture = new FragmentCache.CapturingResponse(response);
+        request.getRequestDispatcher(LIST_JSP).include(request, capture);
+        byte[] fragment = FragmentCache.gzip(capture.getText());
+        fragmentCache.put(version, pageKey(request), fragment);
+        writeFragment(request, response, fragment);
+    }
+
+    /**
+     * Sends the page from the fragment cache without touching the database.
+     *
+     * @return true when the page was cached
+     */
+    private boolean writeCachedPage(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        ChangeTracker changeTracker = getChangeTracker();
+        if (changeTracker == null || !isPlainListRequest(request)) {
+            return false;
+        }
+        byte[] fragment = fragmentCache.get(changeTracker.getVersion(ChangeTracker.Table.BOOK), pageKey(request));
+        if (fragment == null) {
+            return false;
+        }
+        writeFragment(request, response, fragment);
+        return true;
+    }
+
+    /**
+     * Pages are keyed by the parsed id, so variants of the same page, e.g.
+     * "after=007" or "after=abc", share one entry.
+     */
+    private static String pageKey(HttpServletRequest request) {
+        Long after = parseAfter(request);
+        return after == null ? "" : after.toString();
     }
 }
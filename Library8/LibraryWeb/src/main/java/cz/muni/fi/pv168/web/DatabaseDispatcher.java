@@ -0,0 +1,218 @@
+package cz.muni.fi.pv168.web;
+
+import cz.muni.fi.pv168.libraryloans.ManagerExecutor;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Runs the database work of requests asynchronously on the
+ * {@link ManagerExecutor} stored by {@link StartListener}, so container
+ * threads are not blocked by database calls.
+ * <p>
+ * The executor is bounded by the size of the connection pool. When its
+ * queue is full, the request is refused with 503 Service Unavailable right
+ * away. A request, whose task has not started within {@link #TIMEOUT_MILLIS},
+ * gets 503 too and its task is skipped. A task, which has started, owns
+ * the response until it completes; a timeout or an error then waits for
+ * it instead of writing into the response concurrently.
+ * <p>
+ * A task either completes the response itself, or asks to dispatch the
+ * request back to the servlet, e.g. to render a JSP on a container thread.
+ * The servlet recognizes such request by {@link #isDispatched(HttpServletRequest)}.
+ *
+ * @author L
+ */
+final class DatabaseDispatcher {
+
+    static final String EXECUTOR_ATTRIBUTE = "databaseExecutor";
+    static final long TIMEOUT_MILLIS = 10_000;
+    static final int RETRY_AFTER_SECONDS = 1;
+
+    private static final String DISPATCHED = DatabaseDispatcher.class.getName() + ".dispatched";
+
+    private final static Logger log = Logger.getLogger(DatabaseDispatcher.class.getName());
+
+    private DatabaseDispatcher() {
+    }
+
+    /**
+     * Database work of one request.
+     */
+    interface Task {
+
+        /**
+         * @return true when the request has to be dispatched back to the
+         * servlet, false when the response is complete
+         */
+        boolean run(HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException;
+    }
+
+    /**
+     * @return true when the request was dispatched back after its task
+     */
+    static boolean isDispatched(HttpServletRequest request) {
+        return request.getAttribute(DISPATCHED) != null;
+    }
+
+    /**
+     * Runs the task on the database executor. When there is no executor or
+     * the request cannot be asynchronous, the task runs on the current thread.
+     *
+     * @param servlet servlet handling the request
+     * @param operation name of the operation for latency metrics of the executor
+     * @param request request
+     * @param response response
+     * @param task database work
+     */
+    static void execute(HttpServlet servlet, String operation, HttpServletRequest request,
+            HttpServletResponse response, final Task task) throws IOException, ServletException {
+        ManagerExecutor executor = (ManagerExecutor) servlet.getServletContext().getAttribute(EXECUTOR_ATTRIBUTE);
+        if (executor == null || !request.isAsyncSupported()) {
+            if (task.run(request, response)) {
+                request.setAttribute(DISPATCHED, Boolean.TRUE);
+                servlet.service(request, response);
+            }
+            return;
+        }
+        final AsyncContext ac = request.startAsync(request, response);
+        ac.setTimeout(TIMEOUT_MILLIS);
+        //the response is owned by the first of the task, timeout, error and rejection
+        final AtomicBoolean claimed = new AtomicBoolean();
+        //released when the task has completed or dispatched the request
+        final CountDownLatch taskDone = new CountDownLatch(1);
+        final String uri = request.getRequestURI();
+        ac.addListener(new AsyncListener() {
+            @Override
+            public void onTimeout(AsyncEvent event) throws IOException {
+                if (claimed.compareAndSet(false, true)) {
+                    log.log(Level.WARNING, "Request {0} timed out", uri);
+                    sendUnavailable((HttpServletResponse) ac.getResponse(), "Request timed out");
+                    ac.complete();
+                } else {
+                    awaitTask(taskDone, uri);
+                }
+            }
+
+            @Override
+            public void onError(AsyncEvent event) {
+                if (!claimed.compareAndSet(false, true)) {
+                    awaitTask(taskDone, uri);
+                }
+            }
+
+            @Override
+            public void onComplete(AsyncEvent event) {
+            }
+
+            @Override
+            public void onStartAsync(AsyncEvent event) {
+            }
+        });
+        executor.submit(operation, new Supplier<Boolean>() {
+            @Override
+            public Boolean get() {
+                if (!claimed.compareAndSet(false, true)) {
+                    //timed out while queued
+                    return null;
+                }
+                try {
+                    return task.run((HttpServletRequest) ac.getRequest(), (HttpServletResponse) ac.getResponse());
+                } catch (IOException | ServletException ex) {
+                    throw new TaskException(ex);
+                }
+            }
+        }).whenComplete(new BiConsumer<Boolean, Throwable>() {
+            @Override
+            public void accept(Boolean dispatch, Throwable failure) {
+                if (failure instanceof RejectedExecutionException) {
+                    if (claimed.compareAndSet(false, true)) {
+                        log.log(Level.WARNING, "Request {0} refused, database executor is busy", uri);
+                        try {
+                            sendUnavailable((HttpServletResponse) ac.getResponse(), "Server is busy, try again later");
+                        } catch (IOException | RuntimeException ex) {
+                            log.log(Level.WARNING, "Cannot send response of " + uri, ex);
+                        }
+                        ac.complete();
+                    }
+                    return;
+                }
+                if (failure == null && dispatch == null) {
+                    //the task did not run, the timeout has completed the request
+                    return;
+                }
+                try {
+                    finishTask(ac, uri, dispatch, failure);
+                } finally {
+                    taskDone.countDown();
+                }
+            }
+        });
+    }
+
+    /**
+     * Completes or dispatches the request after its task, which owns the response.
+     */
+    private static void finishTask(AsyncContext ac, String uri, Boolean dispatch, Throwable failure) {
+        try {
+            if (failure != null) {
+                Throwable cause = failure instanceof TaskException ? failure.getCause() : failure;
+                log.log(Level.SEVERE, "Request " + uri + " failed", cause);
+                HttpServletResponse response = (HttpServletResponse) ac.getResponse();
+                if (!response.isCommitted()) {
+                    response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, cause.getMessage());
+                }
+            } else if (dispatch) {
+                ac.getRequest().setAttribute(DISPATCHED, Boolean.TRUE);
+                ac.dispatch();
+                return;
+            }
+        } catch (IOException | RuntimeException ex) {
+            log.log(Level.WARNING, "Cannot send response of " + uri, ex);
+        }
+        ac.complete();
+    }
+
+    /**
+     * Blocks the container, which would complete the request after a timeout
+     * or an error, until the running task has finished with the response.
+     */
+    private static void awaitTask(CountDownLatch taskDone, String uri) {
+        log.log(Level.WARNING, "Request {0} timed out or failed while its task is running", uri);
+        try {
+            taskDone.await();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void sendUnavailable(HttpServletResponse response, String message) throws IOException {
+        if (response.isCommitted()) {
+            return;
+        }
+        response.setHeader("Retry-After", Integer.toString(RETRY_AFTER_SECONDS));
+        response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, message);
+    }
+
+    /**
+     * Carries checked exception of a task through the executor.
+     */
+    private static final class TaskException extends RuntimeException {
+
+        TaskException(Exception cause) {
+            super(cause);
+        }
+    }
+}
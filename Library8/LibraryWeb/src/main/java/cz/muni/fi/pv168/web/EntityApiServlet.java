@@ -0,0 +1,380 @@
+package cz.muni.fi.pv168.web;
+
+import cz.muni.fi.pv168.libraryloans.IllegalEntityException;
+import cz.muni.fi.pv168.libraryloans.JsonParser;
+import cz.muni.fi.pv168.libraryloans.ServiceFailureException;
+import cz.muni.fi.pv168.libraryloans.ValidationException;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Base of the JSON API of one manager.
+ * <ul>
+ * <li>{@code GET /api/<entities>?after=<id>&limit=<n>} returns one page of
+ * entities ordered by id, {@code next} is the id to be used as {@code after}
+ * for the next page.</li>
+ * <li>{@code GET /api/<entities>?all=true} streams all entities.</li>
+ * <li>{@code GET /api/<entities>/<id>} returns one entity.</li>
+ * <li>{@code POST /api/<entities>} stores one entity or an array of them
+ * in one bulk operation and returns their ids. Bodies longer than
+ * {@value #MAX_BODY_LENGTH} characters get 413 Payload Too Large.</li>
+ * </ul>
+ * Pages and entities carry a weak ETag, a request with a matching
+ * {@code If-None-Match} gets 304 Not Modified. Responses are written by
+ * {@link JsonWriter} directly to the response. Requests are processed
+ * asynchronously by {@link DatabaseDispatcher}.
+ *
+ * @param <T> entity type
+ * @author L
+ */
+public abstract class EntityApiServlet<T> extends HttpServlet {
+
+    static final String JSON_CONTENT_TYPE = "application/json;charset=UTF-8";
+    static final int DEFAULT_PAGE_SIZE = 100;
+    static final int MAX_PAGE_SIZE = 1000;
+    static final int MAX_POSTED_ENTITIES = 10_000;
+    static final int MAX_BODY_LENGTH = 4 * 1024 * 1024;
+
+    private final static Logger log = Logger.getLogger(EntityApiServlet.class.getName());
+
+    /**
+     * @return one page of entities ordered by id
+     */
+    protected abstract List<T> findPage(Long afterId, int limit);
+
+    protected abstract long count();
+
+    /**
+     * @return stream of all entities, it is closed by the caller
+     */
+    protected abstract Stream<T> streamAll();
+
+    /**
+     * @return entity or null when it does not exist
+     */
+    protected abstract T getById(Long id);
+
+    protected abstract Long getId(T entity);
+
+    /**
+     * @return hash of all written properties of the entity, used for ETags
+     */
+    protected abstract int hash(T entity);
+
+    /**
+     * Writes entity as JSON object.
+     */
+    protected abstract void write(JsonWriter json, T entity) throws IOException;
+
+    /**
+     * Creates new entity from parsed JSON object.
+     *
+     * @throws IllegalArgumentException when the object is not valid
+     */
+    protected abstract T read(Map<String, Object> object);
+
+    /**
+     * Stores new entities in one bulk operation.
+     */
+    protected abstract void createAll(List<T> entities);
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        DatabaseDispatcher.execute(this, getServletName() + ".get", request, response, new DatabaseDispatcher.Task() {
+            @Override
+            public boolean run(HttpServletRequest request, HttpServletResponse response) throws IOException {
+                handleGet(request, response);
+                return false;
+            }
+        });
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        request.setCharacterEncoding("utf-8");
+        DatabaseDispatcher.execute(this, getServletName() + ".post", request, response, new DatabaseDispatcher.Task() {
+            @Override
+            public boolean run(HttpServletRequest request, HttpServletResponse response) throws IOException {
+                handlePost(request, response);
+                return false;
+            }
+        });
+    }
+
+    private void handleGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        try {
+            String path = request.getPathInfo();
+            if (path == null || path.equals("/")) {
+                if ("true".equals(request.getParameter("all"))) {
+                    writeAll(response);
+                } else {
+                    writePage(request, response);
+                }
+            } else {
+                writeOne(request, response, parseId(path.substring(1)));
+            }
+        } catch (IllegalArgumentException | IllegalEntityException | ValidationException e) {
+            sendError(response, HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+        } catch (ServiceFailureException e) {
+            String msg = "Cannot read " + request.getRequestURI();
+            log.log(Level.SEVERE, msg, e);
+            sendError(response, HttpServletResponse.SC_INTERNAL_SERVER_ERROR, e.getMessage());
+        }
+    }
+
+    private void handlePost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String path = request.getPathInfo();
+        if (path != null && !path.equals("/")) {
+            sendError(response, HttpServletResponse.SC_NOT_FOUND, "Unknown resource " + path);
+            return;
+        }
+        if (request.getContentLengthLong() > MAX_BODY_LENGTH) {
+            sendError(response, HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE,
+                    "body longer than " + MAX_BODY_LENGTH + " characters");
+            return;
+        }
+        try {
+            List<T> entities = readBody(request);
+            if (entities == null) {
+                sendError(response, HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE,
+                        "body longer than " + MAX_BODY_LENGTH + " characters");
+                return;
+            }
+            createAll(entities);
+            response.setStatus(HttpServletResponse.SC_CREATED);
+            if (entities.size() == 1) {
+                response.setHeader("Location", request.getRequestURL() + "/" + getId(entities.get(0)));
+            }
+            response.setContentType(JSON_CONTENT_TYPE);
+            JsonWriter json = new JsonWriter(response.getWriter());
+            json.beginObject().name("created").value(entities.size()).name("ids").beginArray();
+            for (T entity : entities) {
+                json.value(getId(entity));
+            }
+            json.endArray().endObject().flush();
+        } catch (IllegalArgumentException | IllegalEntityException | ValidationException e) {
+            sendError(response, HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+        } catch (ServiceFailureException e) {
+            String msg = "Cannot store " + request.getRequestURI();
+            log.log(Level.SEVERE, msg, e);
+            sendError(response, HttpServletResponse.SC_INTERNAL_SERVER_ERROR, e.getMessage());
+        }
+    }
+
+    private void writePage(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        Long after = null;
+        String afterStr = request.getParameter("after");
+        if (afterStr != null) {
+            after = parseId(afterStr);
+        }
+        int limit = DEFAULT_PAGE_SIZE;
+        String limitStr = request.getParameter("limit");
+        if (limitStr != null) {
+            if (!limitStr.matches("[0-9]{1,9}") || Integer.parseInt(limitStr) == 0) {
+                throw new IllegalArgumentException("limit must be positive number");
+            }
+            limit = Math.min(Integer.parseInt(limitStr), MAX_PAGE_SIZE);
+        }
+        List<T> page = findPage(after, limit);
+        long count = count();
+
+        long hash = 17;
+        hash = 31 * hash + count;
+        hash = 31 * hash + (after == null ? -1 : after);
+        hash = 31 * hash + limit;
+        for (T entity : page) {
+            hash = 31 * hash + getId(entity);
+            hash = 31 * hash + hash(entity);
+        }
+        if (notModified(request, response, hash)) {
+            return;
+        }
+        response.setContentType(JSON_CONTENT_TYPE);
+        JsonWriter json = new JsonWriter(response.getWriter());
+        json.beginObject().name("count").value(count).name("limit").value(limit);
+        if (page.size() == limit) {
+            json.name("next").value(getId(page.get(page.size() - 1)));
+        }
+        json.name("items").beginArray();
+        for (T entity : page) {
+            write(json, entity);
+        }
+        json.endArray().endObject().flush();
+    }
+
+    private void writeAll(HttpServletResponse response) throws IOException {
+        response.setContentType(JSON_CONTENT_TYPE);
+        JsonWriter json = new JsonWriter(response.getWriter());
+        json.beginArray();
+        try (Stream<T> entities = streamAll()) {
+            Iterator<T> it = entities.iterator();
+            while (it.hasNext()) {
+                write(json, it.next());
+            }
+        }
+        json.endArray().flush();
+    }
+
+    private void writeOne(HttpServletRequest request, HttpServletResponse response, Long id) throws IOException {
+        T entity = getById(id);
+        if (entity == null) {
+            sendError(response, HttpServletResponse.SC_NOT_FOUND, "No entity with id " + id);
+            return;
+        }
+        if (notModified(request, response, hash(entity))) {
+            return;
+        }
+        response.setContentType(JSON_CONTENT_TYPE);
+        JsonWriter json = new JsonWriter(response.getWriter());
+        write(json, entity);
+        json.flush();
+    }
+
+    /**
+     * Sets weak ETag derived from the hash and answers 304 when the client
+     * already has the same representation.
+     *
+     * @return true when the response is complete
+     */
+    private static boolean notModified(HttpServletRequest request, HttpServletResponse response, long hash) {
+        String etag = "W/\"" + Long.toHexString(hash) + "\"";
+        response.setHeader("ETag", etag);
+        response.setHeader("Cache-Control", "no-cache");
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.equals("*") || tag.equals(etag) || ("W/" + tag).equals(etag)) {
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Content-Length may be missing, e.g. for chunked bodies, so the body is
+     * counted while it is read. Arrays are limited while parsing, so a too
+     * long array is rejected before its entities are created.
+     *
+     * @return posted entities or null when the body is too long
+     */
+    @SuppressWarnings("unchecked")
+    private List<T> readBody(HttpServletRequest request) throws IOException {
+        StringBuilder body = new StringBuilder();
+        BufferedReader reader = request.getReader();
+        char[] buffer = new char[8192];
+        int read;
+        while ((read = reader.read(buffer)) >= 0) {
+            if (body.length() + read > MAX_BODY_LENGTH) {
+                return null;
+            }
+            body.append(buffer, 0, read);
+        }
+        Object parsed = JsonParser.parse(body.toString(), MAX_POSTED_ENTITIES);
+        List<Object> objects;
+        if (parsed instanceof List) {
+            objects = (List<Object>) parsed;
+        } else {
+            objects = Collections.singletonList(parsed);
+        }
+        if (objects.isEmpty()) {
+            throw new IllegalArgumentException("no entity posted");
+        }
+        List<T> entities = new ArrayList<>(objects.size());
+        for (int i = 0; i < objects.size(); i++) {
+            if (!(objects.get(i) instanceof Map)) {
+                throw new IllegalArgumentException("entity " + i + " is not an object");
+            }
+            try {
+                entities.add(read((Map<String, Object>) objects.get(i)));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("entity " + i + ": " + e.getMessage(), e);
+            }
+        }
+        return entities;
+    }
+
+    static void sendError(HttpServletResponse response, int status, String message) throws IOException {
+        if (response.isCommitted()) {
+            log.log(Level.WARNING, "Cannot send error {0} {1}, response is already committed",
+                    new Object[]{status, message});
+            return;
+        }
+        response.reset();
+        response.setStatus(status);
+        response.setContentType(JSON_CONTENT_TYPE);
+        JsonWriter json = new JsonWriter(response.getWriter());
+        json.beginObject().name("error").value(message).endObject().flush();
+    }
+
+    static Long parseId(String id) {
+        if (!id.matches("[0-9]{1,18}")) {
+            throw new IllegalArgumentException("invalid id " + id);
+        }
+        return Long.valueOf(id);
+    }
+
+    static String getString(Map<String, Object> object, String name, boolean required) {
+        Object value = object.get(name);
+        if (value == null) {
+            if (required) {
+                throw new IllegalArgumentException("missing value - " + name);
+            }
+            return null;
+        }
+        if (!(value instanceof String)) {
+            throw new IllegalArgumentException(name + " must be string");
+        }
+        return (String) value;
+    }
+
+    static Long getLong(Map<String, Object> object, String name, boolean required) {
+        Object value = object.get(name);
+        if (value == null) {
+            if (required) {
+                throw new IllegalArgumentException("missing value - " + name);
+            }
+            return null;
+        }
+        if (!(value instanceof Long)) {
+            throw new IllegalArgumentException(name + " must be integer");
+        }
+        return (Long) value;
+    }
+
+    static LocalDate getDate(Map<String, Object> object, String name, boolean required) {
+        String value = getString(object, name, required);
+        try {
+            return value == null ? null : LocalDate.parse(value);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException(name + " must be date yyyy-mm-dd");
+        }
+    }
+
+    static LocalDateTime getDateTime(Map<String, Object> object, String name, boolean required) {
+        String value = getString(object, name, required);
+        try {
+            return value == null ? null : LocalDateTime.parse(value);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException(name + " must be date and time yyyy-mm-ddThh:mm:ss");
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package cz.muni.fi.pv168.web;
+
+import java.io.ByteArrayOutputStream;
+import java.io.CharArrayWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Cache of rendered pages, kept gzip-compressed. Pages are stored with the
+ * version of the data they show; when the version changes, all pages are
+ * dropped. At most {@code maxEntries} least recently used pages are kept.
+ *
+ * @author L
+ */
+final class FragmentCache {
+
+    private final Map<String, byte[]> fragments;
+    private long version = -1;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    FragmentCache(final int maxEntries) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be positive");
+        }
+        fragments = new LinkedHashMap<String, byte[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Returns cached page of the version. A request that read an older
+     * version than the cached pages gets none and leaves them in the cache.
+     *
+     * @param version current version of the data
+     * @param key page key
+     * @return compressed page or null
+     */
+    synchronized byte[] get(long version, String key) {
+        if (version > this.version) {
+            fragments.clear();
+            this.version = version;
+        }
+        byte[] fragment = version < this.version ? null : fragments.get(key);
+        (fragment == null ? misses : hits).incrementAndGet();
+        return fragment;
+    }
+
+    /**
+     * Stores page rendered from data of the version. Pages rendered from
+     * older data than the cached ones are ignored.
+     *
+     * @param version version of the data read before the page was rendered
+     * @param key page key
+     * @param fragment compressed page
+     */
+    synchronized void put(long version, String key, byte[] fragment) {
+        if (version < this.version) {
+            return;
+        }
+        if (version > this.version) {
+            fragments.clear();
+            this.version = version;
+        }
+        fragments.put(key, fragment);
+    }
+
+    synchronized int size() {
+        return fragments.size();
+    }
+
+    long getHits() {
+        return hits.get();
+    }
+
+    long getMisses() {
+        return misses.get();
+    }
+
+    static byte[] gzip(String text) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(text.length() / 4);
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(text.getBytes(StandardCharsets.UTF_8));
+        }
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public String toString() {
+        return "FragmentCache{" + "size=" + size() + ", hits=" + hits + ", misses=" + misses + '}';
+    }
+
+    /**
+     * Response collecting text written by an included JSP.
+     */
+    static final class CapturingResponse extends HttpServletResponseWrapper {
+
+        private final CharArrayWriter text = new CharArrayWriter(8192);
+        private final PrintWriter writer = new PrintWriter(text);
+
+        CapturingResponse(HttpServletResponse response) {
+            super(response);
+        }
+
+        @Override
+        public PrintWriter getWriter() {
+            return writer;
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() {
+            throw new IllegalStateException("only writer can be captured");
+        }
+
+        @Override
+        public void flushBuffer() {
+            writer.flush();
+        }
+
+        @Override
+        public boolean isCommitted() {
+            return false;
+        }
+
+        /**
+         * @return captured text
+         */
+        String getText() {
+            writer.flush();
+            return text.toString();
+        }
+    }
+}
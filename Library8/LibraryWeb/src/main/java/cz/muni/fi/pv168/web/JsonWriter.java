@@ -0,0 +1,216 @@
+package cz.muni.fi.pv168.web;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * Writes JSON directly to a character stream, so large documents are never
+ * kept in memory. Values are written in document order, commas and escaping
+ * are handled by the writer.
+ *
+ * @author L
+ */
+public final class JsonWriter implements Closeable, Flushable {
+
+    private static final int EMPTY_ARRAY = 1;
+    private static final int NONEMPTY_ARRAY = 2;
+    private static final int EMPTY_OBJECT = 3;
+    private static final int NONEMPTY_OBJECT = 4;
+    private static final int DANGLING_NAME = 5;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final Writer out;
+    private int[] stack = new int[16];
+    private int depth;
+
+    public JsonWriter(Writer out) {
+        if (out == null) {
+            throw new IllegalArgumentException("out is null");
+        }
+        this.out = out;
+    }
+
+    public JsonWriter beginObject() throws IOException {
+        beforeValue();
+        push(EMPTY_OBJECT);
+        out.write('{');
+        return this;
+    }
+
+    public JsonWriter endObject() throws IOException {
+        pop(EMPTY_OBJECT, NONEMPTY_OBJECT);
+        out.write('}');
+        return this;
+    }
+
+    public JsonWriter beginArray() throws IOException {
+        beforeValue();
+        push(EMPTY_ARRAY);
+        out.write('[');
+        return this;
+    }
+
+    public JsonWriter endArray() throws IOException {
+        pop(EMPTY_ARRAY, NONEMPTY_ARRAY);
+        out.write(']');
+        return this;
+    }
+
+    /**
+     * Writes name of the next property of the current object.
+     */
+    public JsonWriter name(String name) throws IOException {
+        if (name == null) {
+            throw new IllegalArgumentException("name is null");
+        }
+        int state = peek();
+        if (state == NONEMPTY_OBJECT) {
+            out.write(',');
+        } else if (state != EMPTY_OBJECT) {
+            throw new IllegalStateException("name is allowed only inside object");
+        }
+        stack[depth - 1] = DANGLING_NAME;
+        string(name);
+        out.write(':');
+        return this;
+    }
+
+    /**
+     * @param value string or null
+     */
+    public JsonWriter value(String value) throws IOException {
+        if (value == null) {
+            return nullValue();
+        }
+        beforeValue();
+        string(value);
+        return this;
+    }
+
+    public JsonWriter value(long value) throws IOException {
+        beforeValue();
+        out.write(Long.toString(value));
+        return this;
+    }
+
+    /**
+     * @param value number or null
+     */
+    public JsonWriter value(Long value) throws IOException {
+        return value == null ? nullValue() : value(value.longValue());
+    }
+
+    public JsonWriter value(boolean value) throws IOException {
+        beforeValue();
+        out.write(value ? "true" : "false");
+        return this;
+    }
+
+    /**
+     * Writes the text representation of the value as string, e.g. of dates.
+     *
+     * @param value value or null
+     */
+    public JsonWriter value(Object value) throws IOException {
+        return value(value == null ? null : value.toString());
+    }
+
+    public JsonWriter nullValue() throws IOException {
+        beforeValue();
+        out.write("null");
+        return this;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Closes the underlying stream.
+     *
+     * @throws IllegalStateException when the document is not complete
+     */
+    @Override
+    public void close() throws IOException {
+        out.close();
+        if (depth > 0) {
+            throw new IllegalStateException("incomplete document");
+        }
+    }
+
+    private int peek() {
+        return depth == 0 ? 0 : stack[depth - 1];
+    }
+
+    private void push(int state) {
+        if (depth == stack.length) {
+            stack = Arrays.copyOf(stack, 2 * depth);
+        }
+        stack[depth++] = state;
+    }
+
+    private void pop(int empty, int nonempty) {
+        int state = peek();
+        if (state != empty && state != nonempty) {
+            throw new IllegalStateException("nesting problem");
+        }
+        depth--;
+    }
+
+    private void beforeValue() throws IOException {
+        switch (peek()) {
+            case 0:
+                break;
+            case EMPTY_ARRAY:
+                stack[depth - 1] = NONEMPTY_ARRAY;
+                break;
+            case NONEMPTY_ARRAY:
+                out.write(',');
+                break;
+            case DANGLING_NAME:
+                stack[depth - 1] = NONEMPTY_OBJECT;
+                break;
+            default:
+                throw new IllegalStateException("name expected");
+        }
+    }
+
+    private void string(String value) throws IOException {
+        out.write('"');
+        int last = 0;
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            String replacement;
+            if (c == '"') {
+                replacement = "\\\"";
+            } else if (c == '\\') {
+                replacement = "\\\\";
+            } else if (c == '\n') {
+                replacement = "\\n";
+            } else if (c == '\r') {
+                replacement = "\\r";
+            } else if (c == '\t') {
+                replacement = "\\t";
+            } else if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+                replacement = "\\u" + HEX[c >> 12] + HEX[(c >> 8) & 0xF] + HEX[(c >> 4) & 0xF] + HEX[c & 0xF];
+            } else {
+                continue;
+            }
+            if (last < i) {
+                out.write(value, last, i - last);
+            }
+            out.write(replacement);
+            last = i + 1;
+        }
+        if (last < length) {
+            out.write(value, last, length - last);
+        }
+        out.write('"');
+    }
+}
@@ -0,0 +1,99 @@
+package cz.muni.fi.pv168.web;
+
+import cz.muni.fi.pv168.libraryloans.Book;
+import cz.muni.fi.pv168.libraryloans.Loan;
+import cz.muni.fi.pv168.libraryloans.LoanManager;
+import cz.muni.fi.pv168.libraryloans.Reader;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Stream;
+import javax.servlet.annotation.WebServlet;
+
+/**
+ * JSON API of loans. Loans refer to their reader and book by id.
+ *
+ * @author L
+ */
+@WebServlet(urlPatterns = LoansApiServlet.URL_MAPPING + "/*", asyncSupported = true)
+public class LoansApiServlet extends EntityApiServlet<Loan> {
+
+    public static final String URL_MAPPING = "/api/loans";
+
+    private LoanManager getLoanManager() {
+        return (LoanManager) getServletContext().getAttribute("loanManager");
+    }
+
+    @Override
+    protected List<Loan> findPage(Long afterId, int limit) {
+        return getLoanManager().findLoans(afterId, limit);
+    }
+
+    @Override
+    protected long count() {
+        return getLoanManager().countLoans();
+    }
+
+    @Override
+    protected Stream<Loan> streamAll() {
+        return getLoanManager().streamAllLoans();
+    }
+
+    @Override
+    protected Loan getById(Long id) {
+        return getLoanManager().getLoanById(id);
+    }
+
+    @Override
+    protected Long getId(Loan loan) {
+        return loan.getId();
+    }
+
+    @Override
+    protected int hash(Loan loan) {
+        //Loan.hashCode() does not cover the dates
+        return Objects.hash(loan.getId(), loan.getReader().getId(), loan.getBook().getId(),
+                loan.getStartDate(), loan.getExpectedEndDate(), loan.getRealEndTime());
+    }
+
+    @Override
+    protected void write(JsonWriter json, Loan loan) throws IOException {
+        json.beginObject()
+                .name("id").value(loan.getId())
+                .name("readerId").value(loan.getReader().getId())
+                .name("bookId").value(loan.getBook().getId())
+                .name("startDate").value(loan.getStartDate())
+                .name("expectedEndDate").value(loan.getExpectedEndDate())
+                .name("realEndTime").value(loan.getRealEndTime())
+                .endObject();
+    }
+
+    /**
+     * Reader and book are given by ids only, {@link #createAll(List)} checks
+     * that they exist.
+     */
+    @Override
+    protected Loan read(Map<String, Object> object) {
+        Reader reader = new Reader();
+        reader.setId(getLong(object, "readerId", true));
+        Book book = new Book();
+        book.setId(getLong(object, "bookId", true));
+        Loan loan = new Loan();
+        loan.setReader(reader);
+        loan.setBook(book);
+        loan.setStartDate(getDate(object, "startDate", true));
+        loan.setExpectedEndDate(getDate(object, "expectedEndDate", true));
+        loan.setRealEndTime(getDateTime(object, "realEndTime", false));
+        return loan;
+    }
+
+    /**
+     * Stores loans with the checks of checkout, so a lent book cannot get
+     * another open loan.
+     */
+    @Override
+    protected void createAll(List<Loan> loans) {
+        getLoanManager().checkoutLoans(loans);
+    }
+}
@@ -0,0 +1,80 @@
+package cz.muni.fi.pv168.web;
+
+import cz.muni.fi.pv168.libraryloans.Reader;
+import cz.muni.fi.pv168.libraryloans.ReaderManager;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import javax.servlet.annotation.WebServlet;
+
+/**
+ * JSON API of readers.
+ *
+ * @author L
+ */
+@WebServlet(urlPatterns = ReadersApiServlet.URL_MAPPING + "/*", asyncSupported = true)
+public class ReadersApiServlet extends EntityApiServlet<Reader> {
+
+    public static final String URL_MAPPING = "/api/readers";
+
+    private ReaderManager getReaderManager() {
+        return (ReaderManager) getServletContext().getAttribute("readerManager");
+    }
+
+    @Override
+    protected List<Reader> findPage(Long afterId, int limit) {
+        return getReaderManager().findReaders(afterId, limit);
+    }
+
+    @Override
+    protected long count() {
+        return getReaderManager().countReaders();
+    }
+
+    @Override
+    protected Stream<Reader> streamAll() {
+        return getReaderManager().streamAllReaders();
+    }
+
+    @Override
+    protected Reader getById(Long id) {
+        return getReaderManager().getReaderById(id);
+    }
+
+    @Override
+    protected Long getId(Reader reader) {
+        return reader.getId();
+    }
+
+    @Override
+    protected int hash(Reader reader) {
+        return reader.hashCode();
+    }
+
+    @Override
+    protected void write(JsonWriter json, Reader reader) throws IOException {
+        json.beginObject()
+                .name("id").value(reader.getId())
+                .name("name").value(reader.getName())
+                .name("address").value(reader.getAddress())
+                .name("email").value(reader.getEMail())
+                .name("note").value(reader.getNote())
+                .endObject();
+    }
+
+    @Override
+    protected Reader read(Map<String, Object> object) {
+        Reader reader = new Reader();
+        reader.setName(getString(object, "name", true));
+        reader.setAddress(getString(object, "address", false));
+        reader.setEMail(getString(object, "email", true));
+        reader.setNote(getString(object, "note", false));
+        return reader;
+    }
+
+    @Override
+    protected void createAll(List<Reader> readers) {
+        getReaderManager().createReaders(readers);
+    }
+}
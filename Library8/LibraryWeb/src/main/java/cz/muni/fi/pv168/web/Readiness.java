@@ -0,0 +1,55 @@
+package cz.muni.fi.pv168.web;
+
+/**
+ * Readiness of the application, set by {@link StartListener} when the
+ * background warm-up ends and reported by {@link ReadinessServlet}.
+ *
+ * @author L
+ */
+final class Readiness {
+
+    static final String ATTRIBUTE = "readiness";
+
+    enum State {
+        STARTING, READY, FAILED
+    }
+
+    private final long started = System.currentTimeMillis();
+    private volatile State state = State.STARTING;
+    private volatile String message;
+    private volatile long warmUpMillis = -1;
+
+    void ready() {
+        warmUpMillis = System.currentTimeMillis() - started;
+        state = State.READY;
+    }
+
+    void failed(String message) {
+        this.message = message;
+        warmUpMillis = System.currentTimeMillis() - started;
+        state = State.FAILED;
+    }
+
+    State getState() {
+        return state;
+    }
+
+    /**
+     * @return reason of failure or null
+     */
+    String getMessage() {
+        return message;
+    }
+
+    /**
+     * @return duration of the warm-up, -1 while it runs
+     */
+    long getWarmUpMillis() {
+        return warmUpMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "Readiness{" + "state=" + state + ", warmUpMillis=" + warmUpMillis + '}';
+    }
+}
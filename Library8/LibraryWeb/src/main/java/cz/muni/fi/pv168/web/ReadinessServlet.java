@@ -0,0 +1,43 @@
+package cz.muni.fi.pv168.web;
+
+import java.io.IOException;
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Readiness endpoint for load balancers. Answers 200 when the application
+ * is warmed up, 503 while it is starting or when its start failed.
+ *
+ * @author L
+ */
+@WebServlet(ReadinessServlet.URL_MAPPING)
+public class ReadinessServlet extends HttpServlet {
+
+    public static final String URL_MAPPING = "/ready";
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        Readiness readiness = (Readiness) getServletContext().getAttribute(Readiness.ATTRIBUTE);
+        Readiness.State state = readiness == null ? Readiness.State.FAILED : readiness.getState();
+        response.setHeader("Cache-Control", "no-store");
+        if (state != Readiness.State.READY) {
+            response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            response.setHeader("Retry-After", Integer.toString(DatabaseDispatcher.RETRY_AFTER_SECONDS));
+        }
+        response.setContentType(EntityApiServlet.JSON_CONTENT_TYPE);
+        JsonWriter json = new JsonWriter(response.getWriter());
+        json.beginObject().name("status").value(state.name().toLowerCase());
+        if (readiness != null) {
+            if (readiness.getMessage() != null) {
+                json.name("message").value(readiness.getMessage());
+            }
+            if (readiness.getWarmUpMillis() >= 0) {
+                json.name("warmUpMillis").value(readiness.getWarmUpMillis());
+            }
+        }
+        json.endObject().flush();
+    }
+}
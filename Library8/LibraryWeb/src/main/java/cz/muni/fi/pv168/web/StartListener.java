@@ -2,7 +2,14 @@ package cz.muni.fi.pv168.web;
 
 import cz.muni.fi.pv168.libraryloans.*;
 import java.sql.SQLException;
+import java.time.Clock;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
 import javax.servlet.ServletContext;
 import javax.servlet.ServletContextEvent;
 import javax.servlet.ServletContextListener;
@@ -15,32 +22,240 @@ import java.util.logging.Logger;
 //import org.slf4j.LoggerFactory;
 
 /**
+ * Builds the application context of the web application.
+ * <p>
+ * The DataSource is looked up in JNDI as {@value #DEFAULT_JNDI_NAME}, e.g.
+ * a Resource of META-INF/context.xml. When there is none, an own pool is
+ * created by {@link DataSourceFactory}, together with a read-only pool for
+ * finders. The schema is migrated to the latest version, never rebuilt.
+ * The managers of all entities share one change tracker and the index of
+ * open loans; they are stored into ServletContext
+ * attributes. Search indexes and the index of open loans
+ * are loaded in the background, {@link ReadinessServlet} reports when it
+ * is done.
+ * <p>
+ * Context parameters, e.g. Parameter elements of context.xml:
+ * <ul>
+ * <li>{@code library.jndiName} - JNDI name of the DataSource</li>
+ * <li>{@code library.databaseThreads} - threads of the database executor,
+ * by default the size of the own pool; set it to the size of the pool
+ * from JNDI</li>
+ * <li>{@code library.url}, {@code library.username}, {@code library.password},
+ * {@code library.maxTotal} - own pool, when the DataSource is not in JNDI</li>
+ * <li>{@code library.testData} - fill new database with test data, by
+ * default only the in-memory database</li>
+ * <li>{@code library.entityCache} - cache entities read by id, default false</li>
+ * </ul>
  *
  * @author L
  */
 @WebListener
 public class StartListener implements ServletContextListener {
 
+    public static final String DEFAULT_JNDI_NAME = "java:comp/env/jdbc/LibraryDB";
+
+    private static final int DEFAULT_DATABASE_THREADS = 8;
+    private static final int QUEUED_REQUESTS_PER_THREAD = 4;
+
     private final static Logger log = Logger.getLogger(StartListener.class.getName());
 
+    /** pools created by the listener, a DataSource from JNDI is closed by the container */
+    private PooledDataSource ownDataSource;
+    private PooledDataSource readOnlyDataSource;
+    private ManagerExecutor databaseExecutor;
+    private ExecutorService warmUpExecutor;
+
     @Override
     public void contextInitialized(ServletContextEvent ev) {
         log.info("web app initialized");
-        
+
         ServletContext servletContext = ev.getServletContext();
+        Readiness readiness = new Readiness();
+        servletContext.setAttribute(Readiness.ATTRIBUTE, readiness);
         try {
-            DataSource dataSource = Main.createDatabase();
-            BookManager bookManager = new BookManagerImpl();
-            bookManager.setDataSource(dataSource);
+            DataSource dataSource = lookupDataSource(servletContext);
+            if (dataSource == null) {
+                dataSource = createDataSource(servletContext);
+            }
+            migrateSchema(servletContext, dataSource);
+
+            ChangeTracker changeTracker = new ChangeTracker();
+            servletContext.setAttribute("changeTracker", changeTracker);
+
+            final OpenLoansIndex openLoansIndex = new OpenLoansIndex(dataSource);
+            final BookManagerImpl bookManagerImpl = new BookManagerImpl();
+            bookManagerImpl.setDataSource(dataSource);
+            bookManagerImpl.setReadOnlyDataSource(readOnlyDataSource);
+            bookManagerImpl.setChangeTracker(changeTracker);
+            bookManagerImpl.setOpenLoansIndex(openLoansIndex);
+            final ReaderManagerImpl readerManagerImpl = new ReaderManagerImpl();
+            readerManagerImpl.setDataSource(dataSource);
+            readerManagerImpl.setReadOnlyDataSource(readOnlyDataSource);
+            readerManagerImpl.setChangeTracker(changeTracker);
+            readerManagerImpl.setOpenLoansIndex(openLoansIndex);
+            BookManager bookManager = bookManagerImpl;
+            ReaderManager readerManager = readerManagerImpl;
+            if (Boolean.parseBoolean(servletContext.getInitParameter("library.entityCache"))) {
+                bookManager = new CachingBookManager(bookManagerImpl);
+                readerManager = new CachingReaderManager(readerManagerImpl);
+            }
+            LoanManagerImpl loanManager = new LoanManagerImpl(Clock.systemDefaultZone());
+            loanManager.setDataSource(dataSource);
+            loanManager.setReadOnlyDataSource(readOnlyDataSource);
+            loanManager.setChangeTracker(changeTracker);
+            loanManager.setOpenLoansIndex(openLoansIndex);
             servletContext.setAttribute("bookManager", bookManager);
-        } catch (SQLException ex) {
-            java.util.logging.Logger.getLogger(StartListener.class.getName()).log(Level.SEVERE, "Cannot initialize database", ex);
+            servletContext.setAttribute("readerManager", readerManager);
+            servletContext.setAttribute("loanManager", loanManager);
+            log.info("managers were created and stored into servletContext attributes");
+
+            int threads = getDatabaseThreads(servletContext, dataSource);
+            databaseExecutor = new ManagerExecutor(threads, QUEUED_REQUESTS_PER_THREAD * threads);
+            servletContext.setAttribute(DatabaseDispatcher.EXECUTOR_ATTRIBUTE, databaseExecutor);
+            log.log(Level.INFO, "database executor with {0} threads created", threads);
+
+            warmUp(readiness, bookManagerImpl, readerManagerImpl, openLoansIndex);
+        } catch (SQLException | RuntimeException ex) {
+            log.log(Level.SEVERE, "Cannot initialize database", ex);
+            readiness.failed("Cannot initialize database: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * One database operation per pooled connection, so waiting for connections
+     * is never needed. The size of a pool from JNDI is not known, so it has
+     * to be given by the context parameter.
+     */
+    private static int getDatabaseThreads(ServletContext servletContext, DataSource dataSource) {
+        String threads = servletContext.getInitParameter("library.databaseThreads");
+        if (threads != null) {
+            int value = Integer.parseInt(threads.trim());
+            if (value <= 0) {
+                throw new IllegalArgumentException("library.databaseThreads must be positive: " + threads);
+            }
+            return value;
+        }
+        if (dataSource instanceof PooledDataSource) {
+            return ((PooledDataSource) dataSource).getMaxTotal();
+        }
+        log.log(Level.WARNING, "library.databaseThreads not set, using {0} database threads",
+                DEFAULT_DATABASE_THREADS);
+        return DEFAULT_DATABASE_THREADS;
+    }
+
+    /**
+     * @return DataSource from JNDI or null when it is not configured
+     */
+    private static DataSource lookupDataSource(ServletContext servletContext) {
+        String name = servletContext.getInitParameter("library.jndiName");
+        if (name == null) {
+            name = DEFAULT_JNDI_NAME;
+        }
+        try {
+            DataSource dataSource = (DataSource) new InitialContext().lookup(name);
+            log.log(Level.INFO, "using DataSource {0} from JNDI", name);
+            return dataSource;
+        } catch (NamingException ex) {
+            log.log(Level.INFO, "DataSource {0} not found in JNDI, creating own pool", name);
+            return null;
         }
-        log.info("manager was created and stored into servletContext attribute");
+    }
+
+    private PooledDataSource createDataSource(ServletContext servletContext) {
+        DataSourceFactory factory = new DataSourceFactory();
+        String url = servletContext.getInitParameter("library.url");
+        if (url != null) {
+            factory.setUrl(url);
+        }
+        String username = servletContext.getInitParameter("library.username");
+        if (username != null) {
+            factory.setUsername(username);
+            factory.setPassword(servletContext.getInitParameter("library.password"));
+        }
+        String maxTotal = servletContext.getInitParameter("library.maxTotal");
+        if (maxTotal != null) {
+            factory.setMaxTotal(Integer.parseInt(maxTotal));
+        }
+        ownDataSource = factory.createDataSource();
+        readOnlyDataSource = factory.createReadOnlyDataSource();
+        log.log(Level.INFO, "created {0}", ownDataSource);
+        return ownDataSource;
+    }
+
+    private void migrateSchema(ServletContext servletContext, DataSource dataSource) throws SQLException {
+        SchemaMigrator migrator = new SchemaMigrator(dataSource);
+        boolean empty = migrator.getVersion() == 0;
+        migrator.migrate();
+        String testData = servletContext.getInitParameter("library.testData");
+        boolean inMemory = ownDataSource != null
+                && (servletContext.getInitParameter("library.url") == null
+                || servletContext.getInitParameter("library.url").startsWith("jdbc:derby:memory:"));
+        if (empty && (testData == null ? inMemory : Boolean.parseBoolean(testData))) {
+            DBUtils.executeSqlScript(dataSource, Main.class.getResource("testData.sql"));
+            log.info("test data loaded");
+        }
+    }
+
+    /**
+     * Loads the indexes in the background, the application is ready when
+     * they are loaded.
+     */
+    private void warmUp(final Readiness readiness, final BookManagerImpl bookManager,
+            final ReaderManagerImpl readerManager, final OpenLoansIndex openLoansIndex) {
+        warmUpExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "library-warm-up");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        warmUpExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    openLoansIndex.warmUp();
+                    bookManager.warmUp();
+                    readerManager.warmUp();
+                    readiness.ready();
+                    log.log(Level.INFO, "warm-up finished in {0} ms", readiness.getWarmUpMillis());
+                } catch (RuntimeException ex) {
+                    log.log(Level.SEVERE, "Warm-up failed", ex);
+                    readiness.failed("Warm-up failed: " + ex.getMessage());
+                }
+            }
+        });
+        //no more tasks, the thread ends after the warm-up
+        warmUpExecutor.shutdown();
     }
 
     @Override
     public void contextDestroyed(ServletContextEvent ev) {
+        ServletContext servletContext = ev.getServletContext();
+        if (warmUpExecutor != null) {
+            warmUpExecutor.shutdownNow();
+            try {
+                warmUpExecutor.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (databaseExecutor != null) {
+            //running requests finish before the pools are closed
+            databaseExecutor.close();
+            log.log(Level.INFO, "database executor closed: {0}", databaseExecutor);
+        }
+        if (readOnlyDataSource != null) {
+            readOnlyDataSource.close();
+        }
+        if (ownDataSource != null) {
+            log.log(Level.INFO, "closing {0}", ownDataSource);
+            ownDataSource.close();
+        }
+        for (String name : new String[]{"bookManager", "readerManager", "loanManager", "changeTracker",
+            DatabaseDispatcher.EXECUTOR_ATTRIBUTE, Readiness.ATTRIBUTE}) {
+            servletContext.removeAttribute(name);
+        }
         log.info("application ends");
     }
 }
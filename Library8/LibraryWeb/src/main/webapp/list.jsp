@@ -25,6 +25,15 @@
         </tr>
     </c:forEach>
 </table>
+<p>
+    Total: <c:out value="${booksCount}"/>
+    <c:if test="${not empty after}">
+        <a href="${pageContext.request.contextPath}/books">first page</a>
+    </c:if>
+    <c:if test="${not empty nextAfter}">
+        <a href="${pageContext.request.contextPath}/books?after=${nextAfter}">next page</a>
+    </c:if>
+</p>
 
 <h2>Insert book</h2>
 <c:if test="${not empty chyba}">
@@ -0,0 +1,265 @@
+package cz.muni.fi.pv168.web;
+
+import cz.muni.fi.pv168.libraryloans.BookManager;
+import cz.muni.fi.pv168.libraryloans.ChangeTracker;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import javax.servlet.RequestDispatcher;
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletResponse;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests of the conditional GET and of the page cache of {@link BooksServlet}.
+ * There is no database executor in the context, so requests run
+ * synchronously. The JSP renders a fixed text.
+ *
+ * @author L
+ */
+public class BooksServletTest {
+
+    private static final Instant CREATED = Instant.parse("2016-03-27T14:00:00.500Z");
+
+    private ChangeTracker changeTracker;
+    private BookManager bookManager;
+    private ServletContext servletContext;
+    private BooksServlet servlet;
+    private HttpServletRequest request;
+    private HttpServletResponse response;
+    private BytesOutputStream output;
+
+    @Before
+    public void setUp() throws Exception {
+        changeTracker = new ChangeTracker(Clock.fixed(CREATED, ZoneOffset.UTC));
+        bookManager = mock(BookManager.class);
+        when(bookManager.findBooks(any(Long.class), anyInt())).thenReturn(Collections.emptyList());
+        servletContext = mock(ServletContext.class);
+        when(servletContext.getAttribute("bookManager")).thenReturn(bookManager);
+        when(servletContext.getAttribute("changeTracker")).thenReturn(changeTracker);
+        ServletConfig config = mock(ServletConfig.class);
+        when(config.getServletContext()).thenReturn(servletContext);
+        servlet = new BooksServlet();
+        servlet.init(config);
+        newRequest(null);
+    }
+
+    private void newRequest(String after) throws Exception {
+        request = mock(HttpServletRequest.class);
+        when(request.getMethod()).thenReturn("GET");
+        when(request.getParameter("after")).thenReturn(after);
+        when(request.getParameterMap()).thenReturn(after == null
+                ? Collections.emptyMap() : Collections.singletonMap("after", new String[]{after}));
+        when(request.getDateHeader("If-Modified-Since")).thenReturn(-1L);
+        RequestDispatcher jsp = mock(RequestDispatcher.class);
+        doAnswer(invocation -> {
+            ((ServletResponse) invocation.getArguments()[1]).getWriter().print("<p>page</p>");
+            return null;
+        }).when(jsp).include(any(), any());
+        when(request.getRequestDispatcher("/list.jsp")).thenReturn(jsp);
+        final Map<String, Object> attributes = new HashMap<>();
+        doAnswer(invocation -> attributes.put((String) invocation.getArguments()[0], invocation.getArguments()[1]))
+                .when(request).setAttribute(anyString(), any());
+        when(request.getAttribute(anyString())).then(invocation -> attributes.get(invocation.getArguments()[0]));
+        response = mock(HttpServletResponse.class);
+        output = new BytesOutputStream();
+        when(response.getOutputStream()).thenReturn(output);
+    }
+
+    private void assertNotModified() {
+        verify(response).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        verifyZeroInteractions(bookManager);
+    }
+
+    private void assertListLoaded() {
+        verify(response, never()).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        verify(bookManager).findBooks(null, 50);
+    }
+
+    @Test
+    public void validatorsAreSent() throws Exception {
+        servlet.doGet(request, response);
+
+        verify(response).setHeader("ETag", changeTracker.getETag(ChangeTracker.Table.BOOK));
+        verify(response).setDateHeader("Last-Modified", changeTracker.getLastModified(ChangeTracker.Table.BOOK));
+        verify(response).setHeader("Cache-Control", "no-cache");
+        assertListLoaded();
+    }
+
+    @Test
+    public void matchingETagIsNotModified() throws Exception {
+        when(request.getHeader("If-None-Match")).thenReturn(changeTracker.getETag(ChangeTracker.Table.BOOK));
+
+        servlet.doGet(request, response);
+
+        assertNotModified();
+    }
+
+    @Test
+    public void weakAndGzipETagsMatch() throws Exception {
+        String etag = changeTracker.getETag(ChangeTracker.Table.BOOK);
+        String gzipETag = etag.substring(0, etag.length() - 1) + "-gzip\"";
+        when(request.getHeader("If-None-Match")).thenReturn("\"other\", W/" + gzipETag);
+
+        servlet.doGet(request, response);
+
+        assertNotModified();
+    }
+
+    @Test
+    public void changedTableIsModified() throws Exception {
+        when(request.getHeader("If-None-Match")).thenReturn(changeTracker.getETag(ChangeTracker.Table.BOOK));
+        changeTracker.changed(ChangeTracker.Table.READER);
+        changeTracker.changed(ChangeTracker.Table.BOOK);
+
+        servlet.doGet(request, response);
+
+        assertListLoaded();
+    }
+
+    @Test
+    public void ifModifiedSinceHasPrecisionOfSeconds() throws Exception {
+        long lastModified = changeTracker.getLastModified(ChangeTracker.Table.BOOK);
+        when(request.getDateHeader("If-Modified-Since")).thenReturn(lastModified / 1000 * 1000);
+
+        servlet.doGet(request, response);
+
+        assertNotModified();
+    }
+
+    @Test
+    public void olderIfModifiedSinceIsModified() throws Exception {
+        long lastModified = changeTracker.getLastModified(ChangeTracker.Table.BOOK);
+        when(request.getDateHeader("If-Modified-Since")).thenReturn(lastModified - 2000);
+
+        servlet.doGet(request, response);
+
+        assertListLoaded();
+    }
+
+    @Test
+    public void changeInCurrentSecondHasNoDateValidator() throws Exception {
+        //the change is still in the current second of the clock of the servlet
+        changeTracker = new ChangeTracker(Clock.fixed(Instant.now().plusSeconds(60), ZoneOffset.UTC));
+        when(servletContext.getAttribute("changeTracker")).thenReturn(changeTracker);
+        when(request.getDateHeader("If-Modified-Since"))
+                .thenReturn(changeTracker.getLastModified(ChangeTracker.Table.BOOK) / 1000 * 1000);
+
+        servlet.doGet(request, response);
+
+        verify(response).setHeader("ETag", changeTracker.getETag(ChangeTracker.Table.BOOK));
+        verify(response, never()).setDateHeader(eq("Last-Modified"), anyLong());
+        assertListLoaded();
+    }
+
+    @Test
+    public void invalidIfModifiedSinceIsIgnored() throws Exception {
+        when(request.getDateHeader("If-Modified-Since")).thenThrow(new IllegalArgumentException("bad date"));
+
+        servlet.doGet(request, response);
+
+        assertListLoaded();
+    }
+
+    @Test
+    public void ifNoneMatchTakesPrecedence() throws Exception {
+        when(request.getHeader("If-None-Match")).thenReturn("\"other\"");
+        when(request.getDateHeader("If-Modified-Since"))
+                .thenReturn(changeTracker.getLastModified(ChangeTracker.Table.BOOK) + 1000);
+
+        servlet.doGet(request, response);
+
+        assertListLoaded();
+    }
+
+    @Test
+    public void plainPageIsServedFromCache() throws Exception {
+        servlet.doGet(request, response);
+        assertThat(output.getText()).isEqualTo("<p>page</p>");
+
+        newRequest(null);
+        servlet.doGet(request, response);
+
+        assertThat(output.getText()).isEqualTo("<p>page</p>");
+        verify(bookManager, times(1)).findBooks(null, 50);
+        verify(request, never()).getRequestDispatcher(anyString());
+    }
+
+    @Test
+    public void variantsOfAfterShareCachedPage() throws Exception {
+        newRequest("007");
+        servlet.doGet(request, response);
+        newRequest("7");
+        servlet.doGet(request, response);
+
+        assertThat(output.getText()).isEqualTo("<p>page</p>");
+        verify(bookManager, times(1)).findBooks(7L, 50);
+    }
+
+    @Test
+    public void changedBooksAreLoadedAgain() throws Exception {
+        servlet.doGet(request, response);
+        changeTracker.changed(ChangeTracker.Table.BOOK);
+        newRequest(null);
+        servlet.doGet(request, response);
+
+        verify(bookManager, times(2)).findBooks(null, 50);
+    }
+
+    @Test
+    public void cachedPageIsSentCompressed() throws Exception {
+        servlet.doGet(request, response);
+        newRequest(null);
+        when(request.getHeader("Accept-Encoding")).thenReturn("gzip, deflate");
+        String etag = changeTracker.getETag(ChangeTracker.Table.BOOK);
+        when(response.getHeader("ETag")).thenReturn(etag);
+
+        servlet.doGet(request, response);
+
+        verify(response).setHeader("Content-Encoding", "gzip");
+        verify(response).setHeader("ETag", etag.substring(0, etag.length() - 1) + "-gzip\"");
+        assertThat(FragmentCacheTest.gunzip(output.bytes.toByteArray())).isEqualTo("<p>page</p>");
+    }
+
+    /**
+     * Output stream of the response.
+     */
+    private static final class BytesOutputStream extends ServletOutputStream {
+
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        @Override
+        public void write(int b) {
+            bytes.write(b);
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+            throw new UnsupportedOperationException();
+        }
+
+        String getText() {
+            return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package cz.muni.fi.pv168.web;
+
+import cz.muni.fi.pv168.libraryloans.ManagerExecutor;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ *
+ * @author L
+ */
+public class DatabaseDispatcherTest {
+
+    private ManagerExecutor executor;
+    private ServletContext servletContext;
+    private HttpServlet servlet;
+    private HttpServletRequest request;
+    private HttpServletResponse response;
+    private AsyncContext ac;
+    /** released by the tests to let blocking tasks finish */
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @Before
+    public void setUp() {
+        executor = new ManagerExecutor(1, 1);
+        servletContext = mock(ServletContext.class);
+        when(servletContext.getAttribute(DatabaseDispatcher.EXECUTOR_ATTRIBUTE)).thenReturn(executor);
+        servlet = mock(HttpServlet.class);
+        when(servlet.getServletContext()).thenReturn(servletContext);
+        request = mock(HttpServletRequest.class);
+        when(request.isAsyncSupported()).thenReturn(true);
+        response = mock(HttpServletResponse.class);
+        ac = mock(AsyncContext.class);
+        when(request.startAsync(request, response)).thenReturn(ac);
+        when(ac.getRequest()).thenReturn(request);
+        when(ac.getResponse()).thenReturn(response);
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        executor.close();
+    }
+
+    private DatabaseDispatcher.Task task(final boolean dispatch, final AtomicInteger runs) {
+        return new DatabaseDispatcher.Task() {
+            @Override
+            public boolean run(HttpServletRequest request, HttpServletResponse response) {
+                runs.incrementAndGet();
+                return dispatch;
+            }
+        };
+    }
+
+    private DatabaseDispatcher.Task blockingTask(final CountDownLatch started) {
+        return new DatabaseDispatcher.Task() {
+            @Override
+            public boolean run(HttpServletRequest request, HttpServletResponse response) {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Occupies the only thread of the executor until {@link #release}.
+     */
+    private void occupyExecutor() throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        executor.submit("blocker", () -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            return null;
+        });
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+    }
+
+    private AsyncListener listener() {
+        ArgumentCaptor<AsyncListener> listener = ArgumentCaptor.forClass(AsyncListener.class);
+        verify(ac).addListener(listener.capture());
+        return listener.getValue();
+    }
+
+    @Test
+    public void withoutExecutorTaskRunsOnCurrentThread() throws Exception {
+        when(servletContext.getAttribute(DatabaseDispatcher.EXECUTOR_ATTRIBUTE)).thenReturn(null);
+        AtomicInteger runs = new AtomicInteger();
+
+        DatabaseDispatcher.execute(servlet, "op", request, response, task(true, runs));
+
+        assertThat(runs.get()).isEqualTo(1);
+        verify(request, never()).startAsync(any(), any());
+        verify(request).setAttribute(anyString(), eq(Boolean.TRUE));
+        verify(servlet).service(request, response);
+    }
+
+    @Test
+    public void synchronousRequestRunsOnCurrentThread() throws Exception {
+        when(request.isAsyncSupported()).thenReturn(false);
+        AtomicInteger runs = new AtomicInteger();
+
+        DatabaseDispatcher.execute(servlet, "op", request, response, task(false, runs));
+
+        assertThat(runs.get()).isEqualTo(1);
+        verify(request, never()).startAsync(any(), any());
+        verify(servlet, never()).service(any(HttpServletRequest.class), any(HttpServletResponse.class));
+    }
+
+    @Test
+    public void completedTaskCompletesRequest() throws Exception {
+        AtomicInteger runs = new AtomicInteger();
+
+        DatabaseDispatcher.execute(servlet, "op", request, response, task(false, runs));
+
+        verify(ac, timeout(5000)).complete();
+        assertThat(runs.get()).isEqualTo(1);
+        verify(ac).setTimeout(DatabaseDispatcher.TIMEOUT_MILLIS);
+        verify(ac, never()).dispatch();
+        assertThat(executor.getLatencies().get("op").getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void taskAskingForDispatchIsDispatched() throws Exception {
+        AtomicInteger runs = new AtomicInteger();
+
+        DatabaseDispatcher.execute(servlet, "op", request, response, task(true, runs));
+
+        verify(ac, timeout(5000)).dispatch();
+        verify(request).setAttribute(anyString(), eq(Boolean.TRUE));
+        verify(ac, never()).complete();
+    }
+
+    @Test
+    public void failedTaskSendsError() throws Exception {
+        DatabaseDispatcher.execute(servlet, "op", request, response, new DatabaseDispatcher.Task() {
+            @Override
+            public boolean run(HttpServletRequest request, HttpServletResponse response) throws IOException {
+                throw new IOException("disk failure");
+            }
+        });
+
+        verify(ac, timeout(5000)).complete();
+        verify(response).sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "disk failure");
+    }
+
+    @Test
+    public void fullExecutorRefusesRequest() throws Exception {
+        occupyExecutor();
+        CompletableFuture<Object> queued = executor.submit("queued", () -> null);
+        AtomicInteger runs = new AtomicInteger();
+
+        DatabaseDispatcher.execute(servlet, "op", request, response, task(false, runs));
+
+        verify(ac, timeout(5000)).complete();
+        verify(response).setHeader("Retry-After", Integer.toString(DatabaseDispatcher.RETRY_AFTER_SECONDS));
+        verify(response).sendError(eq(HttpServletResponse.SC_SERVICE_UNAVAILABLE), anyString());
+        release.countDown();
+        queued.get(5, TimeUnit.SECONDS);
+        assertThat(runs.get()).isZero();
+    }
+
+    @Test
+    public void timeoutOfQueuedTaskSkipsIt() throws Exception {
+        occupyExecutor();
+        AtomicInteger runs = new AtomicInteger();
+        DatabaseDispatcher.execute(servlet, "op", request, response, task(false, runs));
+
+        listener().onTimeout(new AsyncEvent(ac));
+        verify(response).sendError(eq(HttpServletResponse.SC_SERVICE_UNAVAILABLE), anyString());
+        verify(ac).complete();
+
+        release.countDown();
+        executor.close();
+        assertThat(runs.get()).isZero();
+        verify(ac, times(1)).complete();
+    }
+
+    @Test
+    public void timeoutOfRunningTaskWaitsForIt() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        DatabaseDispatcher.execute(servlet, "op", request, response, blockingTask(started));
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+        final AsyncListener listener = listener();
+        final CountDownLatch timedOut = new CountDownLatch(1);
+        Thread container = new Thread(() -> {
+            try {
+                listener.onTimeout(new AsyncEvent(ac));
+            } catch (IOException ex) {
+                throw new AssertionError(ex);
+            }
+            timedOut.countDown();
+        });
+        container.start();
+        assertThat(timedOut.await(200, TimeUnit.MILLISECONDS)).isFalse();
+
+        release.countDown();
+        assertThat(timedOut.await(5, TimeUnit.SECONDS)).isTrue();
+        verify(ac, times(1)).complete();
+        verify(response, never()).sendError(anyInt(), anyString());
+    }
+}
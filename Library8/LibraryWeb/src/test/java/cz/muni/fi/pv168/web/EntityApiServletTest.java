@@ -0,0 +1,242 @@
+package cz.muni.fi.pv168.web;
+
+import cz.muni.fi.pv168.libraryloans.Book;
+import cz.muni.fi.pv168.libraryloans.BookManager;
+import java.io.BufferedReader;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests of {@link EntityApiServlet} through {@link BooksApiServlet}. There is
+ * no database executor in the context, so requests run synchronously.
+ *
+ * @author L
+ */
+public class EntityApiServletTest {
+
+    private BookManager bookManager;
+    private BooksApiServlet servlet;
+    private HttpServletRequest request;
+    private HttpServletResponse response;
+    private StringWriter body;
+
+    @Before
+    public void setUp() throws Exception {
+        bookManager = mock(BookManager.class);
+        ServletContext servletContext = mock(ServletContext.class);
+        when(servletContext.getAttribute("bookManager")).thenReturn(bookManager);
+        ServletConfig config = mock(ServletConfig.class);
+        when(config.getServletContext()).thenReturn(servletContext);
+        when(config.getServletName()).thenReturn("books");
+        servlet = new BooksApiServlet();
+        servlet.init(config);
+
+        request = mock(HttpServletRequest.class);
+        when(request.getRequestURL()).thenReturn(new StringBuffer("http://localhost/api/books"));
+        response = mock(HttpServletResponse.class);
+        body = new StringWriter();
+        when(response.getWriter()).thenReturn(new PrintWriter(body));
+    }
+
+    private static Book book(long id, String title) {
+        Book book = new Book();
+        book.setId(id);
+        book.setTitle(title);
+        book.setAuthor("Martin Robert");
+        book.setPublished(2008);
+        return book;
+    }
+
+    @Test
+    public void firstPageHasNext() throws Exception {
+        when(request.getParameter("limit")).thenReturn("2");
+        when(bookManager.findBooks(null, 2)).thenReturn(Arrays.asList(book(1, "A"), book(2, "B")));
+        when(bookManager.countBooks()).thenReturn(3L);
+
+        servlet.doGet(request, response);
+
+        assertThat(body.toString()).isEqualTo("{\"count\":3,\"limit\":2,\"next\":2,\"items\":["
+                + "{\"id\":1,\"title\":\"A\",\"author\":\"Martin Robert\",\"published\":2008,\"note\":null},"
+                + "{\"id\":2,\"title\":\"B\",\"author\":\"Martin Robert\",\"published\":2008,\"note\":null}]}");
+        verify(response).setHeader(eq("ETag"), startsWith("W/\""));
+    }
+
+    @Test
+    public void lastPageHasNoNextAndLimitIsCapped() throws Exception {
+        when(request.getParameter("after")).thenReturn("2");
+        when(request.getParameter("limit")).thenReturn("5000");
+        when(bookManager.findBooks(2L, EntityApiServlet.MAX_PAGE_SIZE)).thenReturn(Arrays.asList(book(3, "C")));
+        when(bookManager.countBooks()).thenReturn(3L);
+
+        servlet.doGet(request, response);
+
+        assertThat(body.toString()).startsWith("{\"count\":3,\"limit\":1000,\"items\":[{\"id\":3,");
+    }
+
+    @Test
+    public void invalidPagingParametersAreRejected() throws Exception {
+        for (String[] params : new String[][]{{"abc", null}, {"1", "0"}, {"1", "-5"}, {"12345678901234567890", null}}) {
+            reset(bookManager);
+            when(request.getParameter("after")).thenReturn(params[0]);
+            when(request.getParameter("limit")).thenReturn(params[1]);
+
+            servlet.doGet(request, response);
+        }
+
+        verify(response, times(4)).setStatus(HttpServletResponse.SC_BAD_REQUEST);
+        verify(bookManager, never()).findBooks(any(Long.class), anyInt());
+    }
+
+    @Test
+    public void unchangedPageIsNotModified() throws Exception {
+        when(bookManager.findBooks(null, EntityApiServlet.DEFAULT_PAGE_SIZE))
+                .thenReturn(Arrays.asList(book(1, "A")));
+        when(bookManager.countBooks()).thenReturn(1L);
+        servlet.doGet(request, response);
+        ArgumentCaptor<String> etag = ArgumentCaptor.forClass(String.class);
+        verify(response).setHeader(eq("ETag"), etag.capture());
+
+        HttpServletResponse second = mock(HttpServletResponse.class);
+        when(request.getHeader("If-None-Match")).thenReturn("\"other\", " + etag.getValue());
+        servlet.doGet(request, second);
+        verify(second).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        verify(second, never()).getWriter();
+
+        //a changed book changes the tag
+        Book changed = book(1, "A");
+        changed.setNote("new note");
+        when(bookManager.findBooks(null, EntityApiServlet.DEFAULT_PAGE_SIZE)).thenReturn(Arrays.asList(changed));
+        HttpServletResponse third = mock(HttpServletResponse.class);
+        when(third.getWriter()).thenReturn(new PrintWriter(new StringWriter()));
+        servlet.doGet(request, third);
+        verify(third, never()).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+    }
+
+    @Test
+    public void missingEntityIsNotFound() throws Exception {
+        when(request.getPathInfo()).thenReturn("/7");
+
+        servlet.doGet(request, response);
+
+        verify(response).setStatus(HttpServletResponse.SC_NOT_FOUND);
+        assertThat(body.toString()).isEqualTo("{\"error\":\"No entity with id 7\"}");
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Book> postBody(String json) throws Exception {
+        when(request.getReader()).thenReturn(new BufferedReader(new StringReader(json)));
+        List<Book> created = new ArrayList<>();
+        doAnswer(invocation -> {
+            long id = 10;
+            for (Book book : (Collection<Book>) invocation.getArguments()[0]) {
+                book.setId(id++);
+                created.add(book);
+            }
+            return null;
+        }).when(bookManager).createBooks(anyCollectionOf(Book.class));
+        servlet.doPost(request, response);
+        return created;
+    }
+
+    @Test
+    public void postedArrayIsStoredInOneBulkOperation() throws Exception {
+        List<Book> created = postBody("[{\"title\":\"A\",\"author\":\"X\",\"published\":2001},"
+                + "{\"title\":\"B\",\"author\":\"Y\",\"published\":2002,\"note\":\"n\"}]");
+
+        verify(bookManager, times(1)).createBooks(anyCollectionOf(Book.class));
+        assertThat(created).extracting(Book::getTitle).containsExactly("A", "B");
+        assertThat(created.get(1).getNote()).isEqualTo("n");
+        verify(response).setStatus(HttpServletResponse.SC_CREATED);
+        verify(response, never()).setHeader(eq("Location"), anyString());
+        assertThat(body.toString()).isEqualTo("{\"created\":2,\"ids\":[10,11]}");
+    }
+
+    @Test
+    public void postedObjectGetsLocation() throws Exception {
+        postBody("{\"title\":\"A\",\"author\":\"X\",\"published\":2001}");
+
+        verify(response).setStatus(HttpServletResponse.SC_CREATED);
+        verify(response).setHeader("Location", "http://localhost/api/books/10");
+        assertThat(body.toString()).isEqualTo("{\"created\":1,\"ids\":[10]}");
+    }
+
+    @Test
+    public void invalidEntityRejectsWholeBody() throws Exception {
+        postBody("[{\"title\":\"A\",\"author\":\"X\",\"published\":2001},{\"title\":\"B\",\"published\":2002}]");
+
+        verify(response).setStatus(HttpServletResponse.SC_BAD_REQUEST);
+        assertThat(body.toString()).isEqualTo("{\"error\":\"entity 1: missing value - author\"}");
+        verify(bookManager, never()).createBooks(anyCollectionOf(Book.class));
+    }
+
+    @Test
+    public void invalidBodiesAreRejected() throws Exception {
+        for (String json : new String[]{"[]", "[1]", "{\"title\":", "[[[[]]]]"}) {
+            postBody(json);
+        }
+
+        verify(response, times(4)).setStatus(HttpServletResponse.SC_BAD_REQUEST);
+        verify(bookManager, never()).createBooks(anyCollectionOf(Book.class));
+    }
+
+    @Test
+    public void tooManyEntitiesAreRejected() throws Exception {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i <= EntityApiServlet.MAX_POSTED_ENTITIES; i++) {
+            json.append(i == 0 ? "" : ",").append("{}");
+        }
+        postBody(json.append(']').toString());
+
+        verify(response).setStatus(HttpServletResponse.SC_BAD_REQUEST);
+        assertThat(body.toString()).contains("array longer than " + EntityApiServlet.MAX_POSTED_ENTITIES);
+        verify(bookManager, never()).createBooks(anyCollectionOf(Book.class));
+    }
+
+    @Test
+    public void declaredTooLongBodyIsNotRead() throws Exception {
+        when(request.getContentLengthLong()).thenReturn(EntityApiServlet.MAX_BODY_LENGTH + 1L);
+
+        servlet.doPost(request, response);
+
+        verify(response).setStatus(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+        verify(request, never()).getReader();
+    }
+
+    @Test
+    public void streamedTooLongBodyIsRejected() throws Exception {
+        when(request.getContentLengthLong()).thenReturn(-1L);
+        char[] text = new char[EntityApiServlet.MAX_BODY_LENGTH + 1];
+        Arrays.fill(text, ' ');
+
+        postBody(new String(text));
+
+        verify(response).setStatus(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+        verify(bookManager, never()).createBooks(anyCollectionOf(Book.class));
+    }
+
+    @Test
+    public void postToEntityIsNotFound() throws Exception {
+        when(request.getPathInfo()).thenReturn("/1");
+
+        servlet.doPost(request, response);
+
+        verify(response).setStatus(HttpServletResponse.SC_NOT_FOUND);
+        verify(request, never()).getReader();
+    }
+}
@@ -0,0 +1,130 @@
+package cz.muni.fi.pv168.web;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ *
+ * @author L
+ */
+public class FragmentCacheTest {
+
+    private static final byte[] PAGE1 = {1};
+    private static final byte[] PAGE2 = {2};
+
+    @Test
+    public void pageIsCachedForItsVersion() {
+        FragmentCache cache = new FragmentCache(10);
+        assertThat(cache.get(1, "")).isNull();
+        cache.put(1, "", PAGE1);
+        cache.put(1, "50", PAGE2);
+
+        assertThat(cache.get(1, "")).isSameAs(PAGE1);
+        assertThat(cache.get(1, "50")).isSameAs(PAGE2);
+        assertThat(cache.getHits()).isEqualTo(2);
+        assertThat(cache.getMisses()).isEqualTo(1);
+    }
+
+    @Test
+    public void newVersionDropsAllPages() {
+        FragmentCache cache = new FragmentCache(10);
+        cache.put(1, "", PAGE1);
+        cache.put(1, "50", PAGE2);
+
+        assertThat(cache.get(2, "")).isNull();
+        assertThat(cache.size()).isZero();
+        assertThat(cache.get(1, "50")).isNull();
+    }
+
+    @Test
+    public void pageOfOlderVersionIsIgnored() {
+        FragmentCache cache = new FragmentCache(10);
+        cache.put(2, "", PAGE2);
+        //rendered from data read before the change
+        cache.put(1, "", PAGE1);
+        assertThat(cache.get(2, "")).isSameAs(PAGE2);
+
+        //rendered from data read after the change, before any get of the new version
+        cache.put(3, "", PAGE1);
+        assertThat(cache.get(3, "")).isSameAs(PAGE1);
+    }
+
+    @Test
+    public void getOfOlderVersionKeepsPages() {
+        FragmentCache cache = new FragmentCache(10);
+        cache.put(2, "", PAGE2);
+
+        //request that read the version before the change
+        assertThat(cache.get(1, "")).isNull();
+        assertThat(cache.get(2, "")).isSameAs(PAGE2);
+        assertThat(cache.getMisses()).isEqualTo(1);
+        assertThat(cache.getHits()).isEqualTo(1);
+    }
+
+    @Test
+    public void leastRecentlyUsedPageIsEvicted() {
+        FragmentCache cache = new FragmentCache(2);
+        cache.put(1, "a", PAGE1);
+        cache.put(1, "b", PAGE1);
+        cache.get(1, "a");
+        cache.put(1, "c", PAGE2);
+
+        assertThat(cache.size()).isEqualTo(2);
+        assertThat(cache.get(1, "b")).isNull();
+        assertThat(cache.get(1, "a")).isSameAs(PAGE1);
+        assertThat(cache.get(1, "c")).isSameAs(PAGE2);
+    }
+
+    @Test
+    public void maxEntriesMustBePositive() {
+        assertThatThrownBy(() -> new FragmentCache(0)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void gzipKeepsText() throws IOException {
+        String text = "<td>Příliš žluťoučký kůň</td>";
+
+        assertThat(gunzip(FragmentCache.gzip(text))).isEqualTo(text);
+    }
+
+    @Test
+    public void capturingResponseCollectsWrittenText() throws IOException {
+        HttpServletResponse response = mock(HttpServletResponse.class);
+        when(response.isCommitted()).thenReturn(true);
+        FragmentCache.CapturingResponse capture = new FragmentCache.CapturingResponse(response);
+
+        capture.getWriter().print("<p>");
+        capture.flushBuffer();
+        capture.getWriter().print("</p>");
+
+        assertThat(capture.getText()).isEqualTo("<p></p>");
+        assertThat(capture.isCommitted()).isFalse();
+        assertThatThrownBy(capture::getOutputStream).isInstanceOf(IllegalStateException.class);
+        verify(response, never()).getWriter();
+        verify(response, never()).flushBuffer();
+    }
+
+    static String gunzip(byte[] fragment) throws IOException {
+        StringWriter text = new StringWriter();
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(fragment));
+                Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+            char[] buffer = new char[1024];
+            int read;
+            while ((read = reader.read(buffer)) >= 0) {
+                text.write(buffer, 0, read);
+            }
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,70 @@
+package cz.muni.fi.pv168.web;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.time.LocalDate;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.*;
+
+/**
+ *
+ * @author L
+ */
+public class JsonWriterTest {
+
+    private StringWriter out;
+    private JsonWriter json;
+
+    @Before
+    public void setUp() {
+        out = new StringWriter();
+        json = new JsonWriter(out);
+    }
+
+    @Test
+    public void writesNestedDocument() throws IOException {
+        json.beginObject()
+                .name("id").value(1L)
+                .name("note").value((String) null)
+                .name("lent").value(true)
+                .name("due").value(LocalDate.of(2016, 3, 31))
+                .name("tags").beginArray().value("a").beginObject().endObject().beginArray().endArray().endArray()
+                .name("empty").beginObject().endObject()
+                .endObject().flush();
+
+        assertThat(out.toString()).isEqualTo(
+                "{\"id\":1,\"note\":null,\"lent\":true,\"due\":\"2016-03-31\",\"tags\":[\"a\",{},[]],\"empty\":{}}");
+    }
+
+    @Test
+    public void escapesStrings() throws IOException {
+        json.value("quote \" backslash \\ \n\r\t \u0001 \u2028 \u00e1");
+
+        assertThat(out.toString()).isEqualTo("\"quote \\\" backslash \\\\ \\n\\r\\t \\u0001 \\u2028 \u00e1\"");
+    }
+
+    @Test
+    public void deepNestingGrowsStack() throws IOException {
+        for (int i = 0; i < 100; i++) {
+            json.beginArray();
+        }
+        for (int i = 0; i < 100; i++) {
+            json.endArray();
+        }
+        json.close();
+
+        assertThat(out.toString()).hasSize(200).startsWith("[[").endsWith("]]");
+    }
+
+    @Test
+    public void rejectsInvalidStructure() throws IOException {
+        assertThatThrownBy(() -> json.name("a")).isInstanceOf(IllegalStateException.class);
+        json.beginObject();
+        assertThatThrownBy(() -> json.value(1L)).isInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(() -> json.endArray()).isInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(() -> json.name(null)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> json.close()).isInstanceOf(IllegalStateException.class);
+    }
+}
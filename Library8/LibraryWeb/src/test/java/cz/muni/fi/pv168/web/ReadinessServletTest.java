@@ -0,0 +1,86 @@
+package cz.muni.fi.pv168.web;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ *
+ * @author L
+ */
+public class ReadinessServletTest {
+
+    private ServletContext servletContext;
+    private ReadinessServlet servlet;
+    private HttpServletResponse response;
+    private StringWriter body;
+
+    @Before
+    public void setUp() throws Exception {
+        servletContext = mock(ServletContext.class);
+        ServletConfig config = mock(ServletConfig.class);
+        when(config.getServletContext()).thenReturn(servletContext);
+        servlet = new ReadinessServlet();
+        servlet.init(config);
+        response = mock(HttpServletResponse.class);
+        body = new StringWriter();
+        when(response.getWriter()).thenReturn(new PrintWriter(body));
+    }
+
+    private void get(Readiness readiness) throws Exception {
+        when(servletContext.getAttribute(Readiness.ATTRIBUTE)).thenReturn(readiness);
+        servlet.doGet(mock(HttpServletRequest.class), response);
+    }
+
+    @Test
+    public void startingIsUnavailable() throws Exception {
+        get(new Readiness());
+
+        verify(response).setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        verify(response).setHeader("Retry-After", Integer.toString(DatabaseDispatcher.RETRY_AFTER_SECONDS));
+        verify(response).setHeader("Cache-Control", "no-store");
+        assertThat(body.toString()).isEqualTo("{\"status\":\"starting\"}");
+    }
+
+    @Test
+    public void readyIsOk() throws Exception {
+        Readiness readiness = new Readiness();
+        assertThat(readiness.getWarmUpMillis()).isEqualTo(-1);
+        readiness.ready();
+
+        get(readiness);
+
+        assertThat(readiness.getState()).isEqualTo(Readiness.State.READY);
+        verify(response, never()).setStatus(anyInt());
+        assertThat(body.toString()).isEqualTo("{\"status\":\"ready\",\"warmUpMillis\":"
+                + readiness.getWarmUpMillis() + "}");
+    }
+
+    @Test
+    public void failureIsReported() throws Exception {
+        Readiness readiness = new Readiness();
+        readiness.failed("Warm-up failed: \"disk\"");
+
+        get(readiness);
+
+        verify(response).setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        assertThat(body.toString()).startsWith("{\"status\":\"failed\",\"message\":\"Warm-up failed: \\\"disk\\\"\","
+                + "\"warmUpMillis\":");
+    }
+
+    @Test
+    public void missingReadinessIsFailure() throws Exception {
+        get(null);
+
+        verify(response).setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        assertThat(body.toString()).isEqualTo("{\"status\":\"failed\"}");
+    }
+}
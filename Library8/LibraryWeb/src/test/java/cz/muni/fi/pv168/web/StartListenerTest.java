@@ -0,0 +1,135 @@
+package cz.muni.fi.pv168.web;
+
+import cz.muni.fi.pv168.libraryloans.BookManager;
+import cz.muni.fi.pv168.libraryloans.BookManagerImpl;
+import cz.muni.fi.pv168.libraryloans.CachingBookManager;
+import cz.muni.fi.pv168.libraryloans.CachingReaderManager;
+import cz.muni.fi.pv168.libraryloans.ChangeTracker;
+import cz.muni.fi.pv168.libraryloans.LoanManagerImpl;
+import cz.muni.fi.pv168.libraryloans.ManagerExecutor;
+import cz.muni.fi.pv168.libraryloans.ReaderManagerImpl;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletContextEvent;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests of the start and the end of the application. There is no JNDI in
+ * tests, so the listener creates its own pool of an in-memory database.
+ *
+ * @author L
+ */
+public class StartListenerTest {
+
+    private final Map<String, String> parameters = new HashMap<>();
+    private final Map<String, Object> attributes = new HashMap<>();
+    private ServletContextEvent event;
+    private StartListener listener;
+
+    @Before
+    public void setUp() {
+        ServletContext servletContext = mock(ServletContext.class);
+        when(servletContext.getInitParameter(anyString()))
+                .then(invocation -> parameters.get(invocation.getArguments()[0]));
+        when(servletContext.getAttribute(anyString()))
+                .then(invocation -> attributes.get(invocation.getArguments()[0]));
+        doAnswer(invocation -> attributes.put((String) invocation.getArguments()[0], invocation.getArguments()[1]))
+                .when(servletContext).setAttribute(anyString(), any());
+        doAnswer(invocation -> attributes.remove(invocation.getArguments()[0]))
+                .when(servletContext).removeAttribute(anyString());
+        event = new ServletContextEvent(servletContext);
+        listener = new StartListener();
+    }
+
+    @After
+    public void tearDown() {
+        //pools and executors are closed even after a failed start
+        listener.contextDestroyed(event);
+    }
+
+    private void start(String database) {
+        parameters.put("library.url", "jdbc:derby:memory:" + database + ";create=true");
+        listener.contextInitialized(event);
+    }
+
+    private Readiness awaitReadiness() throws InterruptedException {
+        Readiness readiness = (Readiness) attributes.get(Readiness.ATTRIBUTE);
+        long deadline = System.currentTimeMillis() + 30_000;
+        while (readiness.getState() == Readiness.State.STARTING && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        return readiness;
+    }
+
+    @Test
+    public void applicationBecomesReady() throws Exception {
+        start("start-listener-ready");
+
+        Readiness readiness = awaitReadiness();
+        assertThat(readiness.getState()).isEqualTo(Readiness.State.READY);
+        assertThat(readiness.getWarmUpMillis()).isGreaterThanOrEqualTo(0);
+        assertThat(attributes.get("bookManager")).isInstanceOf(BookManagerImpl.class);
+        assertThat(attributes.get("readerManager")).isInstanceOf(ReaderManagerImpl.class);
+        assertThat(attributes.get("loanManager")).isInstanceOf(LoanManagerImpl.class);
+        assertThat(attributes.get("changeTracker")).isInstanceOf(ChangeTracker.class);
+        assertThat(attributes.get(DatabaseDispatcher.EXECUTOR_ATTRIBUTE)).isInstanceOf(ManagerExecutor.class);
+        //test data are loaded into new in-memory database
+        assertThat(((BookManager) attributes.get("bookManager")).countBooks()).isPositive();
+    }
+
+    @Test
+    public void endRemovesAttributesAndClosesExecutor() throws Exception {
+        start("start-listener-end");
+        awaitReadiness();
+        ManagerExecutor executor = (ManagerExecutor) attributes.get(DatabaseDispatcher.EXECUTOR_ATTRIBUTE);
+
+        listener.contextDestroyed(event);
+
+        assertThat(attributes).isEmpty();
+        CompletableFuture<Object> future = executor.submit("late", () -> null);
+        assertThatThrownBy(() -> future.get(5, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(RejectedExecutionException.class);
+    }
+
+    @Test
+    public void entityCacheWrapsManagers() throws Exception {
+        parameters.put("library.entityCache", "true");
+        start("start-listener-cache");
+
+        assertThat(awaitReadiness().getState()).isEqualTo(Readiness.State.READY);
+        assertThat(attributes.get("bookManager")).isInstanceOf(CachingBookManager.class);
+        assertThat(attributes.get("readerManager")).isInstanceOf(CachingReaderManager.class);
+    }
+
+    @Test
+    public void testDataCanBeSwitchedOff() throws Exception {
+        parameters.put("library.testData", "false");
+        start("start-listener-empty");
+
+        assertThat(awaitReadiness().getState()).isEqualTo(Readiness.State.READY);
+        assertThat(((BookManager) attributes.get("bookManager")).countBooks()).isZero();
+    }
+
+    @Test
+    public void invalidDatabaseThreadsFailStart() throws Exception {
+        parameters.put("library.databaseThreads", "0");
+        start("start-listener-invalid");
+
+        Readiness readiness = (Readiness) attributes.get(Readiness.ATTRIBUTE);
+        assertThat(readiness.getState()).isEqualTo(Readiness.State.FAILED);
+        assertThat(readiness.getMessage()).contains("library.databaseThreads");
+        assertThat(attributes).doesNotContainKey(DatabaseDispatcher.EXECUTOR_ATTRIBUTE);
+    }
+}